@@ -16,9 +16,12 @@
 package org.nemesis.antlr.fold;
 
 import com.mastfrog.util.collections.IntList;
+import java.awt.EventQueue;
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.LongSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -27,18 +30,28 @@ import javax.swing.SwingUtilities;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
+import org.netbeans.api.editor.fold.Fold;
 import org.netbeans.api.editor.fold.FoldHierarchy;
 import org.netbeans.api.editor.fold.FoldType;
+import org.netbeans.spi.editor.fold.FoldHierarchyTransaction;
 import org.netbeans.spi.editor.fold.FoldInfo;
 import org.netbeans.spi.editor.fold.FoldOperation;
 import org.openide.util.Exceptions;
 
 /**
+ * Applies a newly computed set of folds to the fold hierarchy. The first run
+ * for an editor replaces the fold set wholesale; subsequent runs diff the new
+ * folds against those the operation already has - whose offsets, unlike those
+ * of the previous extraction, are kept current as the document is edited - and
+ * add or remove only the folds that differ, in transactions time-sliced so
+ * that no single pass holds the event thread for more than about a frame.
  *
  * @author Tim Boudreau
  */
 final class FoldCommitter implements Runnable {
 
+    private static final long SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(12);
+
     private boolean rendering;
     private final Document doc;
     private List<FoldInfo> infos;
@@ -50,8 +63,14 @@ final class FoldCommitter implements Runnable {
 
     private final boolean first;
     private final FoldOperation op;
+    private final Runnable onAbandon;
+    private List<Fold> toRemove;
+    private List<FoldInfo> toAdd;
+    private int removeCursor;
+    private int addCursor;
 
-    FoldCommitter(Document doc, List<FoldInfo> infos, IntList anchors, LongSupplier version, long stamp, FoldOperation op, boolean first) {
+    FoldCommitter(Document doc, List<FoldInfo> infos, IntList anchors, LongSupplier version,
+            long stamp, FoldOperation op, boolean first, Runnable onAbandon) {
         this.doc = doc;
         this.infos = infos;
         this.version = version;
@@ -59,6 +78,7 @@ final class FoldCommitter implements Runnable {
         this.anchors = anchors;
         this.op = op;
         this.first = first;
+        this.onAbandon = onAbandon;
     }
 
     @Override
@@ -99,7 +119,9 @@ final class FoldCommitter implements Runnable {
         FoldOperation operation = op;
         int caretPos = -1;
         if (!rendering) {
-            startTime = System.currentTimeMillis();
+            if (toAdd == null) {
+                startTime = System.currentTimeMillis();
+            }
             rendering = true;
             try {
                 doc.render(this);
@@ -124,17 +146,14 @@ final class FoldCommitter implements Runnable {
 //            }
         }
         JTextComponent c = operation.getHierarchy().getComponent();
+        if (!first) {
+            maintainingScrollPosition(c, () -> commitDifferences(operation));
+            return;
+        }
         final int currentCaretPos = caretPos;
         maintainingScrollPosition(c, () -> {
             operation.getHierarchy().lock();
             try {
-                if (!first) {
-                    // the first call must always complete - it initializes the folds
-                    // folds will be absent if this one is cancelled
-                    if (version.getAsLong() != stamp || operation.getHierarchy().getComponent().getDocument() != doc) {
-                        return;
-                    }
-                }
                 int expandIndex = -1;
                 if (currentCaretPos >= 0) {
                     for (int i = 0; i < anchors.size(); i++) {
@@ -142,15 +161,7 @@ final class FoldCommitter implements Runnable {
                         if (a > currentCaretPos) {
                             continue;
                         }
-                        FoldInfo fi = infos.get(i);
-                        if (a == currentCaretPos) {
-                            // do not expand comments if the pos is at the start, not within
-                            FoldType ft = fi.getType();
-                            if (ft.isKindOf(FoldType.INITIAL_COMMENT) || ft.isKindOf(FoldType.COMMENT) || ft.isKindOf(FoldType.DOCUMENTATION)) {
-                                continue;
-                            }
-                        }
-                        if (fi.getEnd() > currentCaretPos) {
+                        if (hidesCaret(infos.get(i), a, currentCaretPos)) {
                             expandIndex = i;
                             break;
                         }
@@ -161,6 +172,7 @@ final class FoldCommitter implements Runnable {
                     FoldInfo newInfo = expanded(infos.get(expandIndex));
                     infos.set(expandIndex, newInfo);
                 }
+                // the first call must always complete - it initializes the folds
                 operation.update(infos, null, null);
             } catch (BadLocationException e) {
                 Exceptions.printStackTrace(e);
@@ -173,6 +185,161 @@ final class FoldCommitter implements Runnable {
         Logger.getLogger("TIMER").log(Level.FINE, "AFolds - 2", new Object[]{doc, endTime - startTime});
     }
 
+    private static boolean hidesCaret(FoldInfo fi, int start, int caretPos) {
+        if (start == caretPos) {
+            // do not expand comments if the pos is at the start, not within
+            FoldType ft = fi.getType();
+            if (ft.isKindOf(FoldType.INITIAL_COMMENT) || ft.isKindOf(FoldType.COMMENT) || ft.isKindOf(FoldType.DOCUMENTATION)) {
+                return false;
+            }
+        }
+        return start <= caretPos && fi.getEnd() > caretPos;
+    }
+
+    private boolean isStale(FoldOperation operation) {
+        return version.getAsLong() != stamp || operation.getHierarchy().getComponent().getDocument() != doc;
+    }
+
+    private void commitDifferences(FoldOperation operation) {
+        long sliceStart = System.nanoTime();
+        boolean done = false;
+        operation.getHierarchy().lock();
+        try {
+            if (isStale(operation)) {
+                LOG.log(Level.FINER, "Abandon stale fold update {0}", this);
+                onAbandon.run();
+                return;
+            }
+            if (toAdd == null) {
+                computeDifferences(operation);
+            }
+            done = applySlice(operation, sliceStart);
+        } catch (BadLocationException e) {
+            Exceptions.printStackTrace(e);
+            done = true;
+        } finally {
+            operation.getHierarchy().unlock();
+        }
+        if (!done) {
+            // Give the event queue a chance to paint and process input, and
+            // finish on a later pass if the document has not changed by then
+            LOG.log(Level.FINEST, "Continue fold update {0} at remove {1} of {2}, add {3} of {4}",
+                    new Object[]{this, removeCursor, toRemove.size(), addCursor, toAdd.size()});
+            EventQueue.invokeLater(this);
+        } else {
+            LOG.log(Level.FINE, "Finish commiting fold differences on {0}: removed {1}, added {2}",
+                    new Object[]{doc, toRemove == null ? 0 : toRemove.size(), toAdd == null ? 0 : toAdd.size()});
+            long endTime = System.currentTimeMillis();
+            Logger.getLogger("TIMER").log(Level.FINE, "AFolds - 2", new Object[]{doc, endTime - startTime});
+        }
+    }
+
+    private void computeDifferences(FoldOperation operation) {
+        List<Fold> existing = new ArrayList<>(infos.size() + 16);
+        Iterator<Fold> it = operation.foldIterator();
+        while (it.hasNext()) {
+            existing.add(it.next());
+        }
+        existing.sort(FoldCommitter::compareFolds);
+        // Both lists are ordered by start, then by descending end, so a single
+        // merge pass finds the folds which were removed and added
+        List<Fold> removed = new ArrayList<>();
+        List<FoldInfo> added = new ArrayList<>();
+        int ix = 0;
+        int jx = 0;
+        while (ix < existing.size() && jx < infos.size()) {
+            Fold f = existing.get(ix);
+            FoldInfo info = infos.get(jx);
+            int cmp = compareBounds(f.getStartOffset(), f.getEndOffset(),
+                    info.getStart(), info.getEnd());
+            if (cmp == 0) {
+                if (!matches(f, info)) {
+                    removed.add(f);
+                    added.add(info);
+                }
+                ix++;
+                jx++;
+            } else if (cmp < 0) {
+                removed.add(f);
+                ix++;
+            } else {
+                added.add(info);
+                jx++;
+            }
+        }
+        for (; ix < existing.size(); ix++) {
+            removed.add(existing.get(ix));
+        }
+        for (; jx < infos.size(); jx++) {
+            added.add(infos.get(jx));
+        }
+        // As on the first pass, a new fold must not start out collapsed
+        // over the caret - the user is probably typing inside it
+        int caretPos = operation.getHierarchy().getComponent().getCaret().getDot();
+        for (int i = 0; i < added.size(); i++) {
+            FoldInfo info = added.get(i);
+            if (info.getCollapsed() && hidesCaret(info, info.getStart(), caretPos)) {
+                added.set(i, expanded(info));
+            }
+        }
+        toRemove = removed;
+        toAdd = added;
+    }
+
+    private boolean applySlice(FoldOperation operation, long sliceStart) throws BadLocationException {
+        // Removals first, so a fold whose type or description changed is
+        // not blocked by the fold with the same bounds that it replaces
+        FoldHierarchyTransaction tx = operation.openTransaction();
+        try {
+            while (removeCursor < toRemove.size()) {
+                Fold f = toRemove.get(removeCursor++);
+                if (operation.owns(f)) {
+                    operation.removeFromHierarchy(f, tx);
+                }
+                if (System.nanoTime() - sliceStart > SLICE_NANOS) {
+                    return removeCursor == toRemove.size() && toAdd.isEmpty();
+                }
+            }
+            while (addCursor < toAdd.size()) {
+                FoldInfo info = toAdd.get(addCursor++);
+                operation.addToHierarchy(info.getType(), info.getStart(), info.getEnd(),
+                        info.getCollapsed(), info.getTemplate(), info.getDescriptionOverride(),
+                        info.getExtraInfo(), tx);
+                if (System.nanoTime() - sliceStart > SLICE_NANOS) {
+                    return addCursor == toAdd.size();
+                }
+            }
+            return true;
+        } finally {
+            tx.commit();
+        }
+    }
+
+    private static boolean matches(Fold fold, FoldInfo info) {
+        if (!fold.getType().equals(info.getType())) {
+            return false;
+        }
+        String desc = info.getDescriptionOverride();
+        return desc == null || desc.equals(fold.getDescription());
+    }
+
+    private static int compareBounds(int aStart, int aEnd, int bStart, int bEnd) {
+        int result = Integer.compare(aStart, bStart);
+        if (result == 0) {
+            // outermost first
+            result = Integer.compare(bEnd, aEnd);
+        }
+        return result;
+    }
+
+    private static int compareFolds(Fold a, Fold b) {
+        return compareBounds(a.getStartOffset(), a.getEndOffset(), b.getStartOffset(), b.getEndOffset());
+    }
+
+    static int compareInfos(FoldInfo a, FoldInfo b) {
+        return compareBounds(a.getStart(), a.getEnd(), b.getStart(), b.getEnd());
+    }
+
     static void maintainingScrollPosition(JTextComponent comp, Runnable run) {
         JScrollPane pane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, comp);
         if (pane == null) {
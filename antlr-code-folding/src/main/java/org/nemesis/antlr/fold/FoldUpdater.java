@@ -19,6 +19,7 @@ import com.mastfrog.range.IntRange;
 import com.mastfrog.range.Range;
 import com.mastfrog.util.collections.IntList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -89,7 +90,11 @@ class FoldUpdater<K extends ExtractionKey<T>, T, I extends IndexAddressable.Inde
         IntList anchors = IntList.create(64);
         createFolds(extraction, collection, folds, anchors);
         final long stamp = version.getAsLong();
-        Runnable result = new FoldCommitter(doc, folds, anchors, version, stamp, operation, first);
+        // If the committer gives up because the document changed under it,
+        // the next parse must not be skipped even if its tokens are identical,
+        // or the fold hierarchy would be left half-updated
+        Runnable result = new FoldCommitter(doc, folds, anchors, version, stamp,
+                operation, first, () -> clearLastTokensHash(hash));
 
         long endTime = System.currentTimeMillis();
         Logger.getLogger("TIMER").log(Level.FINE, "AntlrFolds - 1",
@@ -100,9 +105,17 @@ class FoldUpdater<K extends ExtractionKey<T>, T, I extends IndexAddressable.Inde
         return result;
     }
 
-    private void createFolds(Extraction extraction, C regions, List<? super FoldInfo> folds, IntList anchors) {
+    private void clearLastTokensHash(String hash) {
+        if (Objects.equals(lastTokensHash, hash)) {
+            lastTokensHash = null;
+        }
+    }
+
+    private void createFolds(Extraction extraction, C regions, List<FoldInfo> folds, IntList anchors) {
         LOG.log(Level.FINE, "Create folds for {0} with {1} regions", new Object[]{extraction.source(), regions.size()});
         Set<IntRange<? extends IntRange>> ranges = new HashSet<>();
+        List<FoldInfo> unsorted = new ArrayList<>(regions.size());
+        IntList unsortedAnchors = IntList.create(regions.size() + 1);
         for (I region : regions.asIterable()) {
             IntRange<? extends IntRange<?>> plainRange = Range.of(region.start(), region.size());
             if (ranges.contains(plainRange)) {
@@ -111,9 +124,20 @@ class FoldUpdater<K extends ExtractionKey<T>, T, I extends IndexAddressable.Inde
             ranges.add(plainRange);
             FoldInfo nue = converter.apply(region);
             if (nue != null) {
-                folds.add(nue);
+                unsorted.add(nue);
+                unsortedAnchors.add(region.start());
             }
-            anchors.add(region.start());
+        }
+        // Sort here, off the event thread, into the order FoldCommitter
+        // diffs against the existing folds in, so committing is a linear merge
+        Integer[] order = new Integer[unsorted.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> FoldCommitter.compareInfos(unsorted.get(a), unsorted.get(b)));
+        for (Integer ix : order) {
+            folds.add(unsorted.get(ix));
+            anchors.add(unsortedAnchors.getAsInt(ix));
         }
     }
 }
@@ -81,6 +81,51 @@ public class CacheFileUtils {
         return reader.apply(impl);
     }
 
+    /**
+     * Read a record written by one of the <code>write()</code> methods from a
+     * buffer, such as a slice of a memory mapped file, without copying it into
+     * the heap first.
+     *
+     * @param <T> The type returned
+     * @param buf A buffer, positioned at the start of the record; on success
+     * its position will be immediately after it
+     * @param limit The maximum allowed record size
+     * @param reader The reader
+     * @return The result of the reader
+     * @throws BadMagicNumberException if the magic number does not match
+     * @throws IOException if the record length is invalid or the reader fails
+     */
+    public <T> T read(ByteBuffer buf, int limit, IOFunction<CacheFileReader, T> reader) throws BadMagicNumberException, IOException {
+        int origPos = buf.position();
+        if (magicNumber != 0) {
+            int magic = buf.getInt();
+            if (magic != this.magicNumber) {
+                buf.position(origPos);
+                throw new BadMagicNumberException(magicNumber, magic);
+            }
+        }
+        int size = buf.getInt();
+        if (size < 0 || size > limit || size > buf.remaining()) {
+            buf.position(origPos);
+            throw new IOException("Size out of range: " + size + " with "
+                    + buf.remaining() + " bytes remaining");
+        }
+        ByteBuffer slice = buf.slice();
+        slice.limit(size);
+        buf.position(buf.position() + size);
+        return reader.apply(new CacheFileReaderImpl(slice));
+    }
+
+    /**
+     * Create a reader over a buffer with no magic number or length header.
+     *
+     * @param buf A buffer
+     * @return A reader
+     */
+    public static CacheFileReader reader(ByteBuffer buf) {
+        return new CacheFileUtils().new CacheFileReaderImpl(buf);
+    }
+
     private static String b2s(ByteBuffer buf) {
         int rem = buf.remaining();
         buf = buf.duplicate();
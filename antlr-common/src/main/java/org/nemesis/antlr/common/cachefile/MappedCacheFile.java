@@ -0,0 +1,461 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.common.cachefile;
+
+import com.mastfrog.function.throwing.io.IOConsumer;
+import com.mastfrog.function.throwing.io.IOFunction;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append-only, memory-mapped cache file of records keyed by path, where
+ * each record is individually addressable. Opening the file only scans record
+ * headers to build an index of key to offset; record contents are decoded
+ * on demand, directly from the mapping. Adding, replacing or removing a
+ * record appends to the end of the file, so the file is never rewritten as a
+ * whole except by an explicit call to <code>compact()</code> once most of it
+ * consists of superseded records.
+ * <p>
+ * Record layout: an int kind (live or removed), the key path, and for live
+ * records, a payload in the format written by
+ * {@link CacheFileUtils#write(java.nio.channels.WritableByteChannel, com.mastfrog.function.throwing.io.IOConsumer)}.
+ * A record truncated by a crash mid-write is detected on open, and the file
+ * is truncated to the last complete record.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class MappedCacheFile implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(MappedCacheFile.class.getName());
+    private static final int FILE_MAGIC = 0x4D434631;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 3;
+    private static final int LIVE = 1;
+    private static final int REMOVED = 2;
+    private static final long MIN_COMPACTION_GARBAGE = 64 * 1024;
+    private final Path file;
+    private final int userMagic;
+    private final CacheFileUtils records;
+    private final Map<Path, Entry> index = new HashMap<>();
+    private final ByteBuffer numBuf = ByteBuffer.allocate(Long.BYTES);
+    private FileChannel channel;
+    private MappedByteBuffer mapping;
+    private long mappedSize;
+    private long garbage;
+
+    private MappedCacheFile(Path file, int userMagic) {
+        this.file = file;
+        this.userMagic = userMagic;
+        this.records = CacheFileUtils.create(userMagic);
+    }
+
+    /**
+     * Open or create a mapped cache file.
+     *
+     * @param file The file
+     * @param magic A magic number identifying the type of records stored, to
+     * detect a file written by some other version of the caller
+     * @param discardExisting If true, truncate any existing content
+     * @return A cache file
+     * @throws IOException If the file cannot be opened or has the wrong magic
+     * number
+     */
+    public static MappedCacheFile open(Path file, int magic, boolean discardExisting) throws IOException {
+        MappedCacheFile result = new MappedCacheFile(file, magic);
+        result.openChannel(discardExisting);
+        return result;
+    }
+
+    private void openChannel(boolean discardExisting) throws IOException {
+        channel = discardExisting
+                ? FileChannel.open(file, READ, WRITE, CREATE, TRUNCATE_EXISTING)
+                : FileChannel.open(file, READ, WRITE, CREATE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                channel.truncate(0);
+                channel.position(0);
+                CacheFileUtils.writeNumber(FILE_MAGIC, channel, numBuf);
+                CacheFileUtils.writeNumber(VERSION, channel, numBuf);
+                CacheFileUtils.writeNumber(userMagic, channel, numBuf);
+            } else {
+                scan();
+            }
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            channel = null;
+            throw ex;
+        }
+    }
+
+    private void scan() throws IOException {
+        ByteBuffer buf = mapping(channel.size()).duplicate();
+        int magic = buf.getInt();
+        if (magic != FILE_MAGIC) {
+            throw new BadMagicNumberException(FILE_MAGIC, magic);
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported cache file version " + version);
+        }
+        int um = buf.getInt();
+        if (um != userMagic) {
+            throw new BadMagicNumberException(userMagic, um);
+        }
+        while (buf.hasRemaining()) {
+            int start = buf.position();
+            try {
+                int kind = buf.getInt();
+                Path key = CacheFileUtils.readPath(buf);
+                switch (kind) {
+                    case LIVE:
+                        int payload = buf.position();
+                        if (buf.getInt() != userMagic) {
+                            throw new IOException("Bad record magic at " + payload);
+                        }
+                        int length = buf.getInt();
+                        if (length < 0 || length > buf.remaining()) {
+                            throw new IOException("Truncated record at " + payload);
+                        }
+                        buf.position(buf.position() + length);
+                        replaced(index.put(key, new Entry(start, payload, buf.position())));
+                        break;
+                    case REMOVED:
+                        replaced(index.remove(key));
+                        garbage += buf.position() - start;
+                        break;
+                    default:
+                        throw new IOException("Unknown record kind " + kind + " at " + start);
+                }
+            } catch (IOException | BufferUnderflowException | IllegalArgumentException ex) {
+                LOG.log(Level.INFO, "Truncating partially written cache file "
+                        + file + " at " + start, ex);
+                // Windows will not truncate a file while a mapping of it
+                // is live, and buf is not touched again
+                unmap();
+                channel.truncate(start);
+                break;
+            }
+        }
+    }
+
+    private void replaced(Entry old) {
+        if (old != null) {
+            garbage += old.end - old.start;
+        }
+    }
+
+    private MappedByteBuffer mapping(long requiredSize) throws IOException {
+        if (mapping == null || mappedSize < requiredSize) {
+            unmap();
+            mappedSize = channel.size();
+            if (mappedSize > Integer.MAX_VALUE) {
+                throw new IOException("Cache file too large: " + mappedSize);
+            }
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, mappedSize);
+        }
+        return mapping;
+    }
+
+    /**
+     * Release the current mapping immediately rather than whenever it is
+     * garbage collected, so the file can be truncated or replaced on
+     * platforms which forbid that while it is mapped. Only safe because the
+     * mapping and its duplicates are only used under this object's lock, and
+     * readers decode into copies.
+     */
+    private void unmap() {
+        MappedByteBuffer old = mapping;
+        mapping = null;
+        mappedSize = 0;
+        if (old != null) {
+            Unmapper.unmap(old);
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (channel == null) {
+            throw new IOException("Closed: " + file);
+        }
+    }
+
+    /**
+     * Get the set of keys which have live records.
+     *
+     * @return A sorted copy of the key set
+     */
+    public synchronized Set<Path> keys() {
+        return Collections.unmodifiableSet(new TreeSet<>(index.keySet()));
+    }
+
+    public synchronized boolean contains(Path key) {
+        return index.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Read the record for a key, if present.
+     *
+     * @param <T> The type returned
+     * @param key The key
+     * @param reader A function which decodes the record
+     * @return The result of the reader, or null if no record exists
+     * @throws IOException If something goes wrong
+     */
+    public synchronized <T> T read(Path key, IOFunction<CacheFileReader, T> reader) throws IOException {
+        checkOpen();
+        Entry e = index.get(key);
+        if (e == null) {
+            return null;
+        }
+        ByteBuffer buf = mapping(e.end).duplicate();
+        buf.position(e.payload);
+        buf.limit(e.end);
+        return records.read(buf, e.end - e.payload, reader);
+    }
+
+    /**
+     * Append a record for a key, superseding any previous one.
+     *
+     * @param key The key
+     * @param writer Writes the record contents
+     * @throws IOException If something goes wrong, in which case any partial
+     * record is removed
+     */
+    public synchronized void write(Path key, IOConsumer<CacheFileWriter> writer) throws IOException {
+        checkOpen();
+        long start = channel.size();
+        channel.position(start);
+        try {
+            CacheFileUtils.writeNumber(LIVE, channel, numBuf);
+            CacheFileUtils.writePath(key, channel);
+            long payload = channel.position();
+            records.write(channel, writer);
+            long end = channel.position();
+            replaced(index.put(key, new Entry((int) start, (int) payload, (int) end)));
+        } catch (IOException | RuntimeException ex) {
+            channel.truncate(start);
+            channel.position(start);
+            throw ex;
+        }
+    }
+
+    /**
+     * Append a tombstone for a key, if it has a live record.
+     *
+     * @param key The key
+     * @return true if a record was removed
+     * @throws IOException If something goes wrong
+     */
+    public synchronized boolean remove(Path key) throws IOException {
+        checkOpen();
+        Entry old = index.get(key);
+        if (old == null) {
+            return false;
+        }
+        long start = channel.size();
+        channel.position(start);
+        int written;
+        try {
+            written = CacheFileUtils.writeNumber(REMOVED, channel, numBuf);
+            written += CacheFileUtils.writePath(key, channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.truncate(start);
+            channel.position(start);
+            throw ex;
+        }
+        index.remove(key);
+        replaced(old);
+        garbage += written;
+        return true;
+    }
+
+    /**
+     * Flush any written records to disk.
+     *
+     * @throws IOException If something goes wrong
+     */
+    public synchronized void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Determine whether enough of the file consists of superseded records
+     * that compacting it is worthwhile.
+     *
+     * @return true if compact() would reclaim at least half the file
+     */
+    public synchronized boolean isCompactionWorthwhile() {
+        if (channel == null || garbage < MIN_COMPACTION_GARBAGE) {
+            return false;
+        }
+        try {
+            return garbage > channel.size() / 2;
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Getting size of " + file, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Rewrite the file containing only live records, replacing it atomically.
+     *
+     * @throws IOException If something goes wrong
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        Map<Path, Entry> newIndex = new HashMap<>(index.size());
+        try (FileChannel out = FileChannel.open(temp, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+            ByteBuffer buf = mapping(channel.size()).duplicate();
+            buf.limit(HEADER_SIZE);
+            buf.position(0);
+            out.write(buf);
+            for (Path key : new TreeSet<>(index.keySet())) {
+                Entry e = index.get(key);
+                buf.limit(e.end);
+                buf.position(e.start);
+                int newStart = (int) out.position();
+                out.write(buf);
+                newIndex.put(key, new Entry(newStart,
+                        newStart + (e.payload - e.start), (int) out.position()));
+            }
+            out.force(false);
+        }
+        // Unmaps the file, so it can be replaced on Windows
+        close();
+        boolean moved = false;
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            channel = FileChannel.open(file, READ, WRITE);
+            if (moved) {
+                index.clear();
+                index.putAll(newIndex);
+                garbage = 0;
+            } else {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        unmap();
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                channel = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedCacheFile(" + file + ")";
+    }
+
+    /**
+     * There is no public API to unmap a buffer before Java 14; uses
+     * Unsafe.invokeCleaner() where it exists (JDK 9 and up), and the
+     * buffer's cleaner on JDK 8. If neither works, the mapping is left to the
+     * garbage collector.
+     */
+    private static final class Unmapper {
+
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+        private static boolean failed;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> type = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = type.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                // JDK 8 - use the buffer's cleaner
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        static synchronized void unmap(MappedByteBuffer buffer) {
+            if (failed) {
+                return;
+            }
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } else {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                }
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                failed = true;
+                LOG.log(Level.INFO, "Cannot unmap buffers; cache files will be "
+                        + "unmapped when garbage collected", ex);
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        final int start;
+        final int payload;
+        final int end;
+
+        Entry(int start, int payload, int end) {
+            this.start = start;
+            this.payload = payload;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.projectupdatenotificaton;
+
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.nemesis.antlr.common.cachefile.CacheFileReader;
+import org.nemesis.antlr.common.cachefile.CacheFileWriter;
+
+/**
+ * A persistable record of the last-modified time, size and content hash of
+ * every build file of a project and the projects that depend on it. Unlike
+ * {@link UpToDateness}, which only remembers the greatest timestamp seen, this
+ * records each file individually, so a file which was merely touched (e.g. by
+ * a version control checkout) can be distinguished from one whose content
+ * actually changed, and only projects with real changes need to have their
+ * configuration re-inferred.
+ *
+ * @author Tim Boudreau
+ */
+public final class BuildFileFingerprint {
+
+    private static final Logger LOG
+            = Logger.getLogger(BuildFileFingerprint.class.getName());
+    private static final int MAX_FILES = 512;
+    private final Path projectDir;
+    private final Path[] files;
+    private final long[] lastModified;
+    private final long[] sizes;
+    private final long[] hashes;
+
+    private BuildFileFingerprint(Path projectDir, Path[] files, long[] lastModified, long[] sizes, long[] hashes) {
+        this.projectDir = projectDir;
+        this.files = files;
+        this.lastModified = lastModified;
+        this.sizes = sizes;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Compute the current fingerprint of a project's build files, hashing
+     * each of them.
+     *
+     * @param projectDir A project directory
+     * @return A fingerprint
+     */
+    public static BuildFileFingerprint forProject(Path projectDir) {
+        Path[] files = currentBuildFiles(notNull("projectDir", projectDir));
+        long[] lastModified = new long[files.length];
+        long[] sizes = new long[files.length];
+        long[] hashes = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = lastModified(files[i]);
+            sizes[i] = size(files[i]);
+            hashes[i] = hash(files[i]);
+        }
+        return new BuildFileFingerprint(projectDir, files, lastModified, sizes, hashes);
+    }
+
+    /**
+     * The project directory.
+     *
+     * @return A path
+     */
+    public Path path() {
+        return projectDir;
+    }
+
+    /**
+     * The number of build files recorded.
+     *
+     * @return The number of files
+     */
+    public int fileCount() {
+        return files.length;
+    }
+
+    @Override
+    public String toString() {
+        return projectDir + ":" + Arrays.toString(files);
+    }
+
+    /**
+     * Compare this fingerprint with the current state of the file system.
+     * Files whose timestamp and size are unchanged are not read; files whose
+     * timestamp changed are hashed, and only count as changed if their hash
+     * differs.
+     *
+     * @return The result of the comparison
+     */
+    public Staleness check() {
+        Path[] current = currentBuildFiles(projectDir);
+        if (!Arrays.equals(current, files)) {
+            return Staleness.CHANGED;
+        }
+        boolean touched = false;
+        for (int i = 0; i < files.length; i++) {
+            long mod = lastModified(files[i]);
+            long size = size(files[i]);
+            if (mod == lastModified[i] && size == sizes[i]) {
+                continue;
+            }
+            if (size != sizes[i] || hash(files[i]) != hashes[i]) {
+                return Staleness.CHANGED;
+            }
+            touched = true;
+        }
+        return touched ? Staleness.TOUCHED : Staleness.UNCHANGED;
+    }
+
+    /**
+     * Create a copy of this fingerprint with the timestamps of the files
+     * updated to their current values, for use when {@link #check()} returns
+     * <code>TOUCHED</code>, so the next check need not hash the files again.
+     *
+     * @return A new fingerprint
+     */
+    public BuildFileFingerprint retouched() {
+        long[] newLastModified = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            newLastModified[i] = lastModified(files[i]);
+        }
+        return new BuildFileFingerprint(projectDir, files, newLastModified, sizes, hashes);
+    }
+
+    public void writeTo(CacheFileWriter writer) throws IOException {
+        writer.writePath(projectDir);
+        writer.writeNumber(files.length);
+        for (int i = 0; i < files.length; i++) {
+            writer.writePath(files[i])
+                    .writeNumber(lastModified[i])
+                    .writeNumber(sizes[i])
+                    .writeNumber(hashes[i]);
+        }
+    }
+
+    public static BuildFileFingerprint readFrom(CacheFileReader reader) throws IOException {
+        Path projectDir = reader.readPath();
+        int count = reader.readInt();
+        if (count < 0 || count > MAX_FILES) {
+            throw new IOException("Absurd build file count " + count);
+        }
+        Path[] files = new Path[count];
+        long[] lastModified = new long[count];
+        long[] sizes = new long[count];
+        long[] hashes = new long[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = reader.readPath();
+            lastModified[i] = reader.readLong();
+            sizes[i] = reader.readLong();
+            hashes[i] = reader.readLong();
+        }
+        return new BuildFileFingerprint(projectDir, files, lastModified, sizes, hashes);
+    }
+
+    private static Path[] currentBuildFiles(Path projectDir) {
+        Set<Path> result = new TreeSet<>();
+        PotentialBuildFileFinder.findPossibleBuildFiles(projectDir, result);
+        for (Path p : ProjectUpdates.dependersOn(projectDir)) {
+            if (Files.isDirectory(p)) {
+                PotentialBuildFileFinder.findPossibleBuildFiles(p, result);
+            }
+        }
+        return result.toArray(new Path[result.size()]);
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Could not read timestamp of " + file, ex);
+            return -1;
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Could not read size of " + file, ex);
+            return -1;
+        }
+    }
+
+    private static long hash(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest dig = MessageDigest.getInstance("SHA-1");
+            byte[] buf = new byte[8192];
+            int count;
+            while ((count = in.read(buf)) > 0) {
+                dig.update(buf, 0, count);
+            }
+            byte[] digest = dig.digest();
+            long result = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                result = (result << 8) | (digest[i] & 0xFF);
+            }
+            return result;
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            LOG.log(Level.FINE, "Could not hash " + file, ex);
+            return -1;
+        }
+    }
+
+    /**
+     * Result of comparing a fingerprint with the file system.
+     */
+    public enum Staleness {
+        /**
+         * No build file's timestamp or size has changed.
+         */
+        UNCHANGED,
+        /**
+         * Some build files have new timestamps, but their contents are
+         * identical.
+         */
+        TOUCHED,
+        /**
+         * Build files were added, removed or their contents changed.
+         */
+        CHANGED;
+
+        public boolean isStale() {
+            return this == CHANGED;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.common.cachefile;
+
+import com.mastfrog.util.file.FileUtils;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class MappedCacheFileTest {
+
+    private static final int MAGIC = 1729;
+    private Path file;
+
+    @Test
+    public void testWriteReadReplaceAndRemove() throws IOException {
+        Path a = Paths.get("/tmp/a");
+        Path b = Paths.get("/tmp/b");
+        Path c = Paths.get("/tmp/c");
+        try (MappedCacheFile cf = MappedCacheFile.open(file, MAGIC, false)) {
+            cf.write(a, w -> w.writeString("first-a").writeNumber(1L));
+            cf.write(b, w -> w.writeString("first-b").writeNumber(2L));
+            cf.write(c, w -> w.writeString("first-c").writeNumber(3L));
+            assertEquals("first-b", string(cf, b));
+            cf.write(b, w -> w.writeString("second-b").writeNumber(4L));
+            assertEquals("second-b", string(cf, b));
+            assertTrue(cf.remove(c));
+            assertFalse(cf.remove(c));
+            assertNull(string(cf, c));
+            assertEquals(2, cf.size());
+        }
+        long sizeBefore = Files.size(file);
+        try (MappedCacheFile cf = MappedCacheFile.open(file, MAGIC, false)) {
+            assertEquals(2, cf.size());
+            assertFalse(cf.contains(c));
+            assertEquals("first-a", string(cf, a));
+            Long bNumber = cf.read(b, r -> {
+                r.readString();
+                return r.readLong();
+            });
+            assertEquals(4L, bNumber.longValue());
+            cf.compact();
+            assertTrue(Files.size(file) < sizeBefore);
+            assertEquals("second-b", string(cf, b));
+            cf.write(c, w -> w.writeString("third-c"));
+        }
+        try (MappedCacheFile cf = MappedCacheFile.open(file, MAGIC, false)) {
+            assertEquals(3, cf.size());
+            assertEquals("third-c", string(cf, c));
+        }
+    }
+
+    @Test
+    public void testTruncatedRecordIsDiscarded() throws IOException {
+        Path a = Paths.get("/tmp/a");
+        Path b = Paths.get("/tmp/b");
+        try (MappedCacheFile cf = MappedCacheFile.open(file, MAGIC, false)) {
+            cf.write(a, w -> w.writeString("aaaaaaaaaaaaaaaaaaa"));
+            cf.write(b, w -> w.writeString("bbbbbbbbbbbbbbbbbbb"));
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 5);
+        }
+        try (MappedCacheFile cf = MappedCacheFile.open(file, MAGIC, false)) {
+            assertEquals(1, cf.size());
+            assertEquals("aaaaaaaaaaaaaaaaaaa", string(cf, a));
+            cf.write(b, w -> w.writeString("bb"));
+        }
+        try (MappedCacheFile cf = MappedCacheFile.open(file, MAGIC, false)) {
+            assertEquals("bb", string(cf, b));
+        }
+    }
+
+    @Test
+    public void testWrongMagicIsRejected() throws IOException {
+        try (MappedCacheFile cf = MappedCacheFile.open(file, MAGIC, false)) {
+            cf.write(Paths.get("/tmp/x"), w -> w.writeNumber(23));
+        }
+        assertThrows(BadMagicNumberException.class, () -> MappedCacheFile.open(file, MAGIC + 1, false));
+    }
+
+    private static String string(MappedCacheFile cf, Path key) throws IOException {
+        return cf.read(key, CacheFileReader::readString);
+    }
+
+    @BeforeEach
+    public void before() throws IOException {
+        file = FileUtils.newTempFile("MappedCacheFileTest-");
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        FileUtils.deleteIfExists(file);
+    }
+}
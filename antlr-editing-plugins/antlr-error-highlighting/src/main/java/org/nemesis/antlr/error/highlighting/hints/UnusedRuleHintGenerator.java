@@ -18,13 +18,13 @@ package org.nemesis.antlr.error.highlighting.hints;
 import org.nemesis.antlr.error.highlighting.hints.util.EditorAttributesFinder;
 import com.mastfrog.function.state.Bool;
 import org.nemesis.antlr.error.highlighting.spi.AntlrHintGenerator;
-import com.mastfrog.graph.StringGraph;
 import com.mastfrog.range.IntRange;
 import com.mastfrog.util.collections.CollectionUtils;
 import com.mastfrog.util.strings.Escaper;
 import com.mastfrog.util.strings.Strings;
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -53,6 +53,7 @@ import org.nemesis.antlr.spi.language.highlighting.HighlightConsumer;
 import org.nemesis.data.SemanticRegion;
 import org.nemesis.data.SemanticRegions;
 import org.nemesis.data.graph.hetero.BitSetHeteroObjectGraph;
+import org.nemesis.data.named.IndexedReferenceGraph;
 import org.nemesis.data.named.NamedSemanticRegion;
 import org.nemesis.data.named.NamedSemanticRegions;
 import org.nemesis.editor.ops.DocumentOperator;
@@ -120,18 +121,17 @@ public final class UnusedRuleHintGenerator extends AntlrHintGenerator {
         Bool unusedHighlighted = Bool.create();
         NamedSemanticRegions<RuleTypes> rules = extraction.namedRegions(AntlrKeys.RULE_NAMES);
         if (!rules.isEmpty()) {
-            StringGraph graph = extraction.referenceGraph(AntlrKeys.RULE_NAME_REFERENCES);
-            if (graph == null) {
-                // In an undo operation, the extraction nmay have been disposed
-                // Should fix this never to return null
+            if (extraction.isDisposed()) {
+                // In an undo operation, the extraction may have been disposed
                 return false;
             }
+            IndexedReferenceGraph<RuleTypes> graph = extraction.indexedReferenceGraph(AntlrKeys.RULE_NAME_REFERENCES);
             NamedSemanticRegions<RuleTypes> ruleBounds = extraction.namedRegions(AntlrKeys.RULE_BOUNDS);
             NamedSemanticRegion<RuleTypes> firstRule = rules.index().first();
             String firstRuleName = firstRule.name();
             Set<String> seen = new HashSet<>();
             // Flag orphan nodes for deletion hints
-            Set<String> orphans = new LinkedHashSet<>(graph.topLevelOrOrphanNodes());
+            Set<String> orphans = graph.names(graph.topLevelOrOrphans());
 
             // Find any nodes that have skip or channel directives
             // and omit them from orphans - they are used to route
@@ -208,7 +208,7 @@ public final class UnusedRuleHintGenerator extends AntlrHintGenerator {
                 unusedHighlighted.set();
                 fixes.addWarning(errId, rng, msg, fixen -> {
                     // Offer to delete just that rule:
-                    if (graph.inboundReferenceCount(name) == 0) {
+                    if (graph.inboundCount(graph.indexOf(name)) == 0) {
                         fixen.addFix(Bundle.deleteUnusedRule(name), bag -> {
                             bag.delete(rng);
                         });
@@ -269,17 +269,18 @@ public final class UnusedRuleHintGenerator extends AntlrHintGenerator {
                     }
                 });
 
-                Set<String> closure = graph.closureOf(name);
-                for (String node : closure) {
+                int firstRuleIndex = graph.indexOf(firstRuleName);
+                BitSet closure = graph.closureOf(graph.indexOf(name));
+                for (int nodeIndex = closure.nextSetBit(0); nodeIndex >= 0; nodeIndex = closure.nextSetBit(nodeIndex + 1)) {
+                    String node = graph.nameOf(nodeIndex);
                     if (seen.contains(node)) {
                         continue;
                     }
                     seen.add(node);
                     // XXX at some point, note if there is a channels() or skip
                     // directive and don't offer to delete those
-                    Set<String> revClosure = graph.reverseClosureOf(node);
-                    if (!revClosure.contains(firstRuleName)) {
-                        String rc = Strings.join(":", revClosure);
+                    if (nodeIndex != firstRuleIndex && (firstRuleIndex < 0 || !graph.isReachable(firstRuleIndex, nodeIndex))) {
+                        String rc = Strings.join(":", graph.names(graph.reverseClosureOf(nodeIndex)));
                         NamedSemanticRegion<RuleTypes> subBounds
                                 = ruleBounds.regionFor(node);
                         PositionRange subPb = growIfSurroundedByNewlines(positions.range(subBounds));
@@ -376,22 +377,22 @@ public final class UnusedRuleHintGenerator extends AntlrHintGenerator {
         });
     }
 
-    private Set<String> findDeletableClosureOfOrphan(String orphan, StringGraph usageGraph) {
-        Set<String> closure = usageGraph.closureOf(orphan);
-        Set<String> toDelete = new LinkedHashSet<>(closure);
-        toDelete.add(orphan);
-        for (String child : closure) {
-            toDelete.addAll(usageGraph.closureOf(child));
+    private Set<String> findDeletableClosureOfOrphan(String orphan, IndexedReferenceGraph<RuleTypes> usageGraph) {
+        int orphanIndex = usageGraph.indexOf(orphan);
+        if (orphanIndex < 0) {
+            return new LinkedHashSet<>();
         }
-        Set<String> stillInUse = new HashSet<>();
-        for (String del : toDelete) {
-            Set<String> rev = usageGraph.reverseClosureOf(del);
-            if (!toDelete.containsAll(rev)) {
-                stillInUse.add(del);
+        // The orphan and everything it uses, directly or indirectly
+        BitSet toDelete = usageGraph.closureOf(orphanIndex);
+        toDelete.set(orphanIndex);
+        // less anything still used by something which is not being deleted
+        BitSet deletable = (BitSet) toDelete.clone();
+        for (int del = toDelete.nextSetBit(0); del >= 0; del = toDelete.nextSetBit(del + 1)) {
+            if (!usageGraph.isReachableOnlyFrom(del, toDelete)) {
+                deletable.clear(del);
             }
         }
-        toDelete.removeAll(stillInUse);
-        return toDelete;
+        return usageGraph.names(deletable);
     }
 
     private String elide(String s) {
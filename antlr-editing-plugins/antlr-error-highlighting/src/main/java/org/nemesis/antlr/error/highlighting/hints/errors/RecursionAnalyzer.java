@@ -44,6 +44,7 @@ import org.nemesis.antlr.ANTLRv4Parser.GrammarFileContext;
 import org.nemesis.antlr.ANTLRv4Parser.ParserRuleElementContext;
 import org.nemesis.antlr.common.extractiontypes.RuleTypes;
 import org.nemesis.antlr.file.AntlrKeys;
+import org.nemesis.data.named.IndexedReferenceGraph;
 import org.nemesis.data.named.NamedRegionReferenceSets;
 import org.nemesis.data.named.NamedSemanticRegions;
 import org.nemesis.extraction.Extraction;
@@ -92,6 +93,9 @@ class RecursionAnalyzer {
         // The graph can give us all of the paths by which rule B is reachable
         // from rule A
         StringGraph refGraph = ext.referenceGraph(AntlrKeys.RULE_NAME_REFERENCES);
+        // Enumerating paths is expensive; reachability is a bit test, so use
+        // it to skip pairs with no path between them
+        IndexedReferenceGraph<RuleTypes> reachability = ext.indexedReferenceGraph(AntlrKeys.RULE_NAME_REFERENCES);
 
         Set<String> namesOfInterest = new HashSet<>(names.size());
         Set<ObjectPath<String>> allPaths = new HashSet<>(names.size());
@@ -104,6 +108,12 @@ class RecursionAnalyzer {
                 // Create a key so we can keep straight which paths we're analyzing for -
                 // We may be handed a whole list of rules that indirectly call each other
                 NamePair pair = new NamePair(name, otherName);
+                int nameIndex = reachability.indexOf(name);
+                int otherIndex = reachability.indexOf(otherName);
+                if (nameIndex >= 0 && otherIndex >= 0 && !reachability.isReachable(nameIndex, otherIndex)) {
+                    pathsForNamePair.put(pair, new ArrayList<>());
+                    continue;
+                }
                 List<ObjectPath<String>> pathsForPair = refGraph.pathsBetween(name, otherName);
                 allPaths.addAll(pathsForPair);
                 List<ObjectPath<String>> realPaths = new ArrayList<>();
@@ -15,7 +15,7 @@
  */
 package org.nemesis.antlr.file.impl;
 
-import com.mastfrog.antlr.utils.CharSequenceCharStream;
+import com.mastfrog.antlr.utils.DocumentCharStream;
 import com.mastfrog.antlr.utils.HeuristicRuleNameComparator;
 import com.mastfrog.antlr.utils.TreeUtils;
 import com.mastfrog.graph.StringGraph;
@@ -483,9 +483,7 @@ public final class OrganizeRules implements ActionListener {
 
     static Map<String, RuleDetails> collectRuleDetails(StyledDocument doc, boolean[] errors) throws Exception {
         assert errors.length > 0;
-        Segment seg = new Segment();
-        doc.getText(0, doc.getLength(), seg);
-        CharSequenceCharStream charStream = new CharSequenceCharStream("x", seg);
+        DocumentCharStream charStream = new DocumentCharStream("x", doc);
         ANTLRv4Lexer lex = new ANTLRv4Lexer(charStream);
         lex.removeErrorListeners();
         CommonTokenStream cts = new CommonTokenStream(lex);
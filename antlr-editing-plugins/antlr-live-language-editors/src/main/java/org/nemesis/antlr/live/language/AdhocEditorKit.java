@@ -162,6 +162,8 @@ public class AdhocEditorKit extends ExtKit {
                 menu.add(ImportIntoSampleAction.submenu(target));
                 Action copyTokenSequenceAction = new CopyTokenSequenceAction(target);
                 menu.add(copyTokenSequenceAction);
+                menu.add(new ProfileDecisionsAction(target, getContentType()));
+                menu.add(new ParseCorpusAction(getContentType()));
                 menu.add(new JSeparator());
                 JMenuItem cutItem = new JMenuItem(getActionByName(cutAction));
                 Mnemonics.setLocalizedText(cutItem, Bundle.cut());
@@ -354,29 +356,29 @@ public class AdhocEditorKit extends ExtKit {
                 }
             }
         }
+    }
 
-        private Action createActionFor(String name, Extraction ext) {
-            AttributedForeignNameReference<GrammarSource<?>, NamedSemanticRegions<RuleTypes>, NamedSemanticRegion<RuleTypes>, RuleTypes> resolved
-                    = ext.resolveName(AntlrKeys.RULE_NAME_REFERENCES, name, true);
-            if (resolved != null) {
-                Extraction originExt = resolved.attributedTo();
-                DataObject dob = originExt.source().lookupOrDefault(DataObject.class, null);
-                if (dob != null) {
-                    CloneableEditorSupport ck = dob.getLookup().lookup(CloneableEditorSupport.class);
-                    if (ck != null) {
-                        PositionRef start = ck.createPositionRef(resolved.element().start(), Position.Bias.Backward);
-                        PositionRef end = ck.createPositionRef(resolved.element().end(), Position.Bias.Forward);
-                        PositionBounds pb = new PositionBounds(start, end);
-                        try {
-                            return new GotoRegion(resolved.element().name(), resolved.element().kind(), originExt.source().name(), pb);
-                        } catch (IOException ex) {
-                            Exceptions.printStackTrace(ex);
-                        }
+    static Action createActionFor(String name, Extraction ext) {
+        AttributedForeignNameReference<GrammarSource<?>, NamedSemanticRegions<RuleTypes>, NamedSemanticRegion<RuleTypes>, RuleTypes> resolved
+                = ext.resolveName(AntlrKeys.RULE_NAME_REFERENCES, name, true);
+        if (resolved != null) {
+            Extraction originExt = resolved.attributedTo();
+            DataObject dob = originExt.source().lookupOrDefault(DataObject.class, null);
+            if (dob != null) {
+                CloneableEditorSupport ck = dob.getLookup().lookup(CloneableEditorSupport.class);
+                if (ck != null) {
+                    PositionRef start = ck.createPositionRef(resolved.element().start(), Position.Bias.Backward);
+                    PositionRef end = ck.createPositionRef(resolved.element().end(), Position.Bias.Forward);
+                    PositionBounds pb = new PositionBounds(start, end);
+                    try {
+                        return new GotoRegion(resolved.element().name(), resolved.element().kind(), originExt.source().name(), pb);
+                    } catch (IOException ex) {
+                        Exceptions.printStackTrace(ex);
                     }
                 }
             }
-            return null;
         }
+        return null;
     }
 
     @Messages({
@@ -62,6 +62,8 @@ import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import static org.nemesis.antlr.common.AntlrConstants.ANTLR_MIME_TYPE;
 import org.nemesis.antlr.live.language.AdhocHighlighterManager.HighlightingInfo;
+import org.nemesis.antlr.live.parsing.EmbeddedAntlrParser;
+import org.nemesis.antlr.live.parsing.EmbeddedAntlrParserResult;
 import org.nemesis.antlr.live.parsing.extract.AntlrProxies;
 import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ErrorNodeTreeElement;
 import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeElementKind;
@@ -101,16 +103,29 @@ public class AdhocErrorHighlighter extends AbstractAntlrHighlighter implements R
     static final String PREFS_KEY_HIGHLIGHT_PARSER_ERRORS = "highlight-parser-errors";
 
     private static final int REFRESH_ERRORS_DELAY = 750;
+    private static final int AMBIGUITY_PARSE_DELAY = 1500;
     protected final OffsetsBag bag;
     private static AttributeSet errorColoring;
     private final RequestProcessor.Task refreshErrorsTask;
     private static final Set<AdhocErrorHighlighter> INSTANCES = new WeakSet<>();
+    // Exact ambiguity detection is slow enough that it cannot be done on
+    // every keystroke, so sample texts are parsed without it, and a second,
+    // interruptible low priority parse which detects ambiguities is run once
+    // the user pauses
+    private static final RequestProcessor AMBIGUITY_PARSES
+            = new RequestProcessor("adhoc-ambiguity-parses", 1, true);
+    private final RequestProcessor.Task ambiguityParseTask;
+    private volatile AmbiguityParse lastAmbiguityParse;
+    // The parse result the pending or running ambiguity parse is for
+    private volatile ParseTreeProxy ambiguityParseScheduledFor;
 
     @SuppressWarnings("LeakingThisInConstructor")
     public AdhocErrorHighlighter(AdhocHighlighterManager mgr) {
         super(mgr, ZOrder.TOP_RACK.forPosition(2001));
         bag = new OffsetsBag(mgr.document());
         refreshErrorsTask = mgr.threadPool().create(this);
+        ambiguityParseTask = AMBIGUITY_PARSES.create(this::detectAmbiguities);
+        ambiguityParseTask.setPriority(Thread.MIN_PRIORITY);
         INSTANCES.add(this);
     }
 
@@ -195,6 +210,15 @@ public class AdhocErrorHighlighter extends AbstractAntlrHighlighter implements R
         // We may get called multiple times with a flurry of
         // reparses - avoid doing extra work by delaying and
         // coalescing
+        //
+        // An ambiguity parse in progress for some other parse result is for
+        // text which is now out of date; rendering will schedule a new one
+        // if needed
+        ParseTreeProxy scheduledFor = ambiguityParseScheduledFor;
+        if (scheduledFor != null && (info == null || info.semantics != scheduledFor)) {
+            ambiguityParseScheduledFor = null;
+            this.ambiguityParseTask.cancel();
+        }
         this.refreshErrorsTask.schedule(REFRESH_ERRORS_DELAY);
     }
 
@@ -228,7 +252,7 @@ public class AdhocErrorHighlighter extends AbstractAntlrHighlighter implements R
                             Bundle.buildFailed(), doc, 0));
         } else {
             if (highlightAmbiguities()) { // XXX useful but very noisy on unfinished grammars
-                for (AntlrProxies.Ambiguity amb : semantics.ambiguities()) {
+                for (AntlrProxies.Ambiguity amb : ambiguitiesFor(semantics)) {
                     ProxyToken a = semantics.tokens().get(amb.startOffset);
                     ProxyToken b = semantics.tokens().get(amb.stopOffset);
                     SimpleAttributeSet sas = new SimpleAttributeSet();
@@ -292,8 +316,12 @@ public class AdhocErrorHighlighter extends AbstractAntlrHighlighter implements R
                                 set.add(ErrorDescriptionFactory
                                         .createErrorDescription(Severity.ERROR, e.message(), doc, startPos, endPos));
                             } else {
-                                int start = LineDocumentUtils.getLineStart(ld, e.line())
-                                        + e.charPositionInLine();
+                                // Use the proxy's line table - the line number is
+                                // not a document offset
+                                int start = semantics.offsetOf(e.line(), e.charPositionInLine());
+                                if (start < 0 || start > doc.getLength()) {
+                                    continue;
+                                }
                                 int end = LineDocumentUtils.getLineEnd(ld, start);
                                 range = Range.ofCoordinates(Math.min(start, end), Math.max(start, end));
                                 bag.addHighlight(range.start(), range.end(), finalAttrs);
@@ -382,6 +410,74 @@ public class AdhocErrorHighlighter extends AbstractAntlrHighlighter implements R
         });
     }
 
+    private List<? extends AntlrProxies.Ambiguity> ambiguitiesFor(ParseTreeProxy semantics) {
+        if (semantics.hasAmbiguities()) {
+            return semantics.ambiguities();
+        }
+        AmbiguityParse last = lastAmbiguityParse;
+        if (last != null && last.semantics == semantics) {
+            return last.ambiguities;
+        }
+        // Render what we have now, and publish ambiguities when the
+        // background parse completes; re-rendering the same parse result
+        // must not restart a parse which is already pending or running
+        // for it, but one for some other text is cancelled (interrupting
+        // it if running)
+        if (ambiguityParseScheduledFor != semantics) {
+            ambiguityParseScheduledFor = semantics;
+            ambiguityParseTask.cancel();
+            ambiguityParseTask.schedule(AMBIGUITY_PARSE_DELAY);
+        }
+        return Collections.emptyList();
+    }
+
+    private void detectAmbiguities() {
+        HighlightingInfo info = mgr.lastInfo();
+        if (info == null || info.semantics == null || info.semantics.isUnparsed()
+                || info.semantics.text() == null || !highlightAmbiguities()) {
+            return;
+        }
+        ParseTreeProxy semantics = info.semantics;
+        AmbiguityParse last = lastAmbiguityParse;
+        if (last != null && last.semantics == semantics) {
+            return;
+        }
+        try {
+            EmbeddedAntlrParser parser = AdhocLanguageHierarchy.parserFor(mgr.mimeType());
+            EmbeddedAntlrParserResult res = parser.parseDetectingAmbiguities(semantics.text());
+            if (res == null || res.proxy().isUnparsed()
+                    || res.proxy().tokenCount() != semantics.tokenCount()) {
+                return;
+            }
+            HighlightingInfo current = mgr.lastInfo();
+            if (Thread.interrupted() || current == null || current.semantics != semantics) {
+                // The text was edited while we were parsing
+                LOG.log(Level.FINEST, "Discard ambiguity parse of superseded text for {0}", info);
+                return;
+            }
+            List<? extends AntlrProxies.Ambiguity> ambiguities = res.proxy().ambiguities();
+            lastAmbiguityParse = new AmbiguityParse(semantics, ambiguities);
+            LOG.log(Level.FINER, "Ambiguity parse found {0} ambiguities for {1}",
+                    new Object[]{ambiguities.size(), info});
+            if (!ambiguities.isEmpty()) {
+                refreshErrorsTask.schedule(0);
+            }
+        } catch (Exception ex) {
+            LOG.log(Level.INFO, "Exception detecting ambiguities for " + info, ex);
+        }
+    }
+
+    private static final class AmbiguityParse {
+
+        private final ParseTreeProxy semantics;
+        private final List<? extends AntlrProxies.Ambiguity> ambiguities;
+
+        AmbiguityParse(ParseTreeProxy semantics, List<? extends AntlrProxies.Ambiguity> ambiguities) {
+            this.semantics = semantics;
+            this.ambiguities = ambiguities;
+        }
+    }
+
     private boolean isSane(ProxyDetailedSyntaxError err) {
         return true;
     }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.language;
+
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Set;
+import javax.swing.AbstractAction;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import org.nemesis.adhoc.mime.types.AdhocMimeTypes;
+import org.nemesis.antlr.live.parsing.EmbeddedAntlrParser;
+import org.nemesis.antlr.live.parsing.GrammarCorpusRunner;
+import org.nemesis.antlr.live.parsing.GrammarCorpusRunner.CorpusReport;
+import org.openide.DialogDescriptor;
+import org.openide.DialogDisplayer;
+import org.openide.awt.StatusDisplayer;
+import org.openide.filesystems.FileChooserBuilder;
+import org.openide.util.Exceptions;
+import org.openide.util.NbBundle.Messages;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Parses every file in a folder of samples which has one of the file
+ * extensions associated with the grammar, and shows per-file timings, token
+ * throughput and error counts, so a grammar's performance can be checked
+ * against a realistic corpus rather than a single sample.
+ *
+ * @author Tim Boudreau
+ */
+@Messages({"parseCorpus=Parse Sample Folder...",
+    "parseCorpusDesc=Parse every file in a folder of samples and show how long "
+    + "each took",
+    "chooseCorpus=Choose Folder of Samples",
+    "# {0} - folder",
+    "parsingCorpus=Parsing samples in {0}...",
+    "# {0} - folder",
+    "noCorpusFiles=No files with the extensions of this grammar in {0}",
+    "# {0} - folder",
+    "corpusReport=Sample Folder Parse - {0}"
+})
+final class ParseCorpusAction extends AbstractAction implements Runnable {
+
+    private static final RequestProcessor CORPUS_POOL
+            = new RequestProcessor("adhoc-parse-corpus", 1, true);
+    private final String mimeType;
+    private File dir;
+
+    ParseCorpusAction(String mimeType) {
+        this.mimeType = mimeType;
+        putValue(NAME, Bundle.parseCorpus());
+        putValue(SHORT_DESCRIPTION, Bundle.parseCorpusDesc());
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        File folder = new FileChooserBuilder(ParseCorpusAction.class)
+                .setDirectoriesOnly(true).setTitle(Bundle.chooseCorpus())
+                .showOpenDialog();
+        if (folder != null && folder.isDirectory()) {
+            dir = folder;
+            StatusDisplayer.getDefault().setStatusText(Bundle.parsingCorpus(folder.getName()));
+            CORPUS_POOL.post(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        File folder = dir;
+        EmbeddedAntlrParser parser = AdhocLanguageHierarchy.parserFor(mimeType);
+        if (folder == null || parser == null) {
+            return;
+        }
+        Set<String> extensions = AdhocMimeTypes.allExtensionsForMimeType(mimeType);
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        try {
+            CorpusReport report = GrammarCorpusRunner.create(parser, threads, StandardCharsets.UTF_8)
+                    .run(folder.toPath(), path -> extensions.contains(extension(path)));
+            EventQueue.invokeLater(() -> {
+                if (report.fileCount() == 0) {
+                    StatusDisplayer.getDefault().setStatusText(Bundle.noCorpusFiles(folder.getName()));
+                    return;
+                }
+                StatusDisplayer.getDefault().setStatusText("");
+                showReport(folder, report);
+            });
+        } catch (Exception ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    private static String extension(Path path) {
+        String name = path.getFileName().toString();
+        int ix = name.lastIndexOf('.');
+        return ix < 0 ? "" : name.substring(ix + 1);
+    }
+
+    private static void showReport(File folder, CorpusReport report) {
+        JTextArea area = new JTextArea(report.toString());
+        area.setEditable(false);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, area.getFont().getSize()));
+        area.setCaretPosition(0);
+        JScrollPane pane = new JScrollPane(area);
+        pane.setPreferredSize(new Dimension(800, 400));
+        DialogDescriptor desc = new DialogDescriptor(pane, Bundle.corpusReport(folder.getName()), false,
+                new Object[]{DialogDescriptor.OK_OPTION}, DialogDescriptor.OK_OPTION,
+                DialogDescriptor.DEFAULT_ALIGN, null, null);
+        DialogDisplayer.getDefault().createDialog(desc).setVisible(true);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.language;
+
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.event.ActionEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableRowSorter;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
+import org.nemesis.adhoc.mime.types.AdhocMimeTypes;
+import org.nemesis.antlr.live.parsing.EmbeddedAntlrParser;
+import org.nemesis.antlr.live.parsing.EmbeddedAntlrParserResult;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.DecisionProfile;
+import org.nemesis.antlr.spi.language.NbAntlrUtils;
+import org.nemesis.extraction.Extraction;
+import org.openide.DialogDescriptor;
+import org.openide.DialogDisplayer;
+import org.openide.awt.StatusDisplayer;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.util.Exceptions;
+import org.openide.util.NbBundle.Messages;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Parses the sample text with decision profiling turned on, and shows the
+ * parser decisions sorted by time spent in prediction, so the rules which make
+ * a grammar slow - deep lookahead, frequent fallback to full-context
+ * prediction, ambiguities - can be found and navigated to.
+ *
+ * @author Tim Boudreau
+ */
+@Messages({"profileDecisions=Profile Decisions",
+    "profileDecisionsDesc=Parse the sample with profiling enabled and show which "
+    + "parser decisions are most expensive",
+    "profiling=Profiling decisions...",
+    "noProfile=No decision profile - the grammar may not be built yet, or is a lexer grammar",
+    "# {0} - grammarName",
+    "# {1} - decisionCount",
+    "# {2} - millis",
+    "hotDecisions=Hot Decisions - {0} ({1} decisions, {2}ms in prediction)"
+})
+final class ProfileDecisionsAction extends AbstractAction implements Runnable {
+
+    private static final RequestProcessor PROFILE_POOL
+            = new RequestProcessor("adhoc-profile-decisions", 1, true);
+    private final JTextComponent comp;
+    private final String mimeType;
+
+    ProfileDecisionsAction(JTextComponent comp, String mimeType) {
+        this.comp = comp;
+        this.mimeType = mimeType;
+        putValue(NAME, Bundle.profileDecisions());
+        putValue(SHORT_DESCRIPTION, Bundle.profileDecisionsDesc());
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        StatusDisplayer.getDefault().setStatusText(Bundle.profiling());
+        PROFILE_POOL.post(this);
+    }
+
+    @Override
+    public void run() {
+        Document doc = comp.getDocument();
+        Segment seg = new Segment();
+        doc.render(() -> {
+            try {
+                doc.getText(0, doc.getLength(), seg);
+            } catch (BadLocationException ex) {
+                Exceptions.printStackTrace(ex);
+            }
+        });
+        EmbeddedAntlrParser parser = AdhocLanguageHierarchy.parserFor(mimeType);
+        if (parser == null) {
+            return;
+        }
+        try {
+            EmbeddedAntlrParserResult res = parser.parseProfiling(seg);
+            DecisionProfile profile = res == null || res.proxy() == null
+                    ? null : res.proxy().decisionProfile();
+            if (profile == null || profile.isEmpty()) {
+                StatusDisplayer.getDefault().setStatusText(Bundle.noProfile());
+                return;
+            }
+            Path grammarPath = AdhocMimeTypes.grammarFilePathForMimeType(mimeType);
+            FileObject fo = FileUtil.toFileObject(FileUtil.normalizeFile(grammarPath.toFile()));
+            Extraction ext = fo == null ? null : NbAntlrUtils.extractionFor(fo);
+            String grammarName = res.proxy().grammarName();
+            EventQueue.invokeLater(() -> {
+                StatusDisplayer.getDefault().setStatusText("");
+                showProfile(grammarName, profile, ext);
+            });
+        } catch (Exception ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    private static void showProfile(String grammarName, DecisionProfile profile, Extraction ext) {
+        HotDecisionsModel mdl = new HotDecisionsModel(profile);
+        JTable table = new JTable(mdl);
+        TableRowSorter<HotDecisionsModel> sorter = new TableRowSorter<>(mdl);
+        sorter.setSortKeys(Arrays.asList(new RowSorter.SortKey(HotDecisionsModel.TIME_COLUMN, SortOrder.DESCENDING)));
+        table.setRowSorter(sorter);
+        table.setAutoCreateRowSorter(false);
+        if (ext != null && !ext.isPlaceholder()) {
+            table.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    if (e.getClickCount() == 2 && !e.isPopupTrigger()) {
+                        int viewRow = table.rowAtPoint(e.getPoint());
+                        if (viewRow >= 0) {
+                            String ruleName = profile.ruleName(table.convertRowIndexToModel(viewRow));
+                            Action gotoRule = AdhocEditorKit.createActionFor(ruleName, ext);
+                            if (gotoRule != null) {
+                                gotoRule.actionPerformed(new ActionEvent(table,
+                                        ActionEvent.ACTION_PERFORMED, "goto"));
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        JScrollPane pane = new JScrollPane(table);
+        pane.setPreferredSize(new Dimension(800, 400));
+        String title = Bundle.hotDecisions(grammarName, profile.size(),
+                String.format("%.3f", profile.totalTimeInPrediction() / 1_000_000D));
+        DialogDescriptor desc = new DialogDescriptor(pane, title, false,
+                new Object[]{DialogDescriptor.OK_OPTION}, DialogDescriptor.OK_OPTION,
+                DialogDescriptor.DEFAULT_ALIGN, null, null);
+        DialogDisplayer.getDefault().createDialog(desc).setVisible(true);
+    }
+
+    @Messages({"colRule=Rule",
+        "colDecision=Decision",
+        "colInvocations=Invocations",
+        "colTime=Time (ms)",
+        "colSllAverage=Avg SLL Lookahead",
+        "colSllMax=Max SLL Lookahead",
+        "colLlFallbacks=LL Fallbacks",
+        "colLlMax=Max LL Lookahead",
+        "colAmbiguities=Ambiguities",
+        "colErrors=Errors"
+    })
+    static final class HotDecisionsModel extends AbstractTableModel {
+
+        static final int TIME_COLUMN = 3;
+        private final DecisionProfile profile;
+
+        HotDecisionsModel(DecisionProfile profile) {
+            this.profile = profile;
+        }
+
+        @Override
+        public int getRowCount() {
+            return profile.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 10;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            switch (column) {
+                case 0:
+                    return Bundle.colRule();
+                case 1:
+                    return Bundle.colDecision();
+                case 2:
+                    return Bundle.colInvocations();
+                case 3:
+                    return Bundle.colTime();
+                case 4:
+                    return Bundle.colSllAverage();
+                case 5:
+                    return Bundle.colSllMax();
+                case 6:
+                    return Bundle.colLlFallbacks();
+                case 7:
+                    return Bundle.colLlMax();
+                case 8:
+                    return Bundle.colAmbiguities();
+                case 9:
+                    return Bundle.colErrors();
+                default:
+                    throw new IndexOutOfBoundsException("Column " + column);
+            }
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            switch (column) {
+                case 0:
+                    return String.class;
+                case 1:
+                case 8:
+                case 9:
+                    return Integer.class;
+                case 3:
+                case 4:
+                    return Double.class;
+                default:
+                    return Long.class;
+            }
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            switch (column) {
+                case 0:
+                    return profile.ruleName(row);
+                case 1:
+                    return profile.decision(row);
+                case 2:
+                    return profile.invocations(row);
+                case 3:
+                    return profile.timeInPrediction(row) / 1_000_000D;
+                case 4:
+                    return profile.sllAverageLook(row);
+                case 5:
+                    return profile.sllMaxLook(row);
+                case 6:
+                    return profile.llFallbacks(row);
+                case 7:
+                    return profile.llMaxLook(row);
+                case 8:
+                    return profile.ambiguities(row);
+                case 9:
+                    return profile.errors(row);
+                default:
+                    throw new IndexOutOfBoundsException("Column " + column);
+            }
+        }
+    }
+}
@@ -59,6 +59,36 @@ public abstract class EmbeddedAntlrParser {
 
     public abstract EmbeddedAntlrParserResult parse(CharSequence textToParse) throws Exception;
 
+    /**
+     * Parse the passed text in the prediction mode that reports every
+     * ambiguity the parser encounters. That is far slower than an ordinary
+     * parse, which does not look for them, so this is intended to be run at low
+     * priority in the background, after a normal parse of the same text has
+     * already been used to update the UI. This method never forces the grammar
+     * to be rebuilt; if the grammar is out of date (the next call to
+     * <code>parse()</code> will take care of that), it returns null.
+     *
+     * @param textToParse The text
+     * @return A result whose proxy contains any ambiguities, or null
+     * @throws Exception If something goes wrong
+     */
+    public abstract EmbeddedAntlrParserResult parseDetectingAmbiguities(CharSequence textToParse) throws Exception;
+
+    /**
+     * Parse the passed text with decision profiling enabled, so that the
+     * result's proxy carries a DecisionProfile showing the invocation counts,
+     * lookahead depth, full-context fallbacks and prediction time of each
+     * parser decision. Profiling slows parsing down, and the result is never
+     * cached or shared with ordinary parses. Rebuilds the grammar first if it
+     * is out of date.
+     *
+     * @param textToParse The text
+     * @return A result whose proxy has a decision profile, or null if the
+     * parser has been disposed or the grammar cannot be built
+     * @throws Exception If something goes wrong
+     */
+    public abstract EmbeddedAntlrParserResult parseProfiling(CharSequence textToParse) throws Exception;
+
     abstract int setRunner(Extraction extraction, GrammarRunResult<EmbeddedParser> runner);
 
     /**
@@ -27,13 +27,13 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.text.Segment;
 import org.nemesis.antlr.compilation.GrammarRunResult;
+import org.nemesis.antlr.live.GenerationStamps;
 import org.nemesis.antlr.live.RebuildSubscriptions;
 import org.nemesis.antlr.live.parsing.extract.AntlrProxies;
 import org.nemesis.antlr.live.parsing.impl.DeadEmbeddedParser;
@@ -88,6 +88,9 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
     private static final Consumer<FileObject> INVALIDATOR = SourceInvalidator.create();
 
     private static final Logger LOG = Logger.getLogger(EmbeddedAntlrParser.class.getName());
+    // How long a parse which finds its environment stale will wait for a
+    // rebuild of the grammar that is already in progress to finish
+    private static final long GENERATION_WAIT_MILLIS = Long.getLong("antlr.live.generation.wait", 5000);
 
     private Runnable unsubscriber;
     private final String logName;
@@ -95,6 +98,8 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
     private final String grammarName;
     private volatile boolean disposed;
     private AtomicReference<LastParseInfo> lastParseInfo;
+    private final AtomicReference<LastParseInfo> lastAmbiguityParseInfo = new AtomicReference<>();
+    private final ParseResultCache cache = new ParseResultCache();
     private final ThreadLocal<Boolean> reentry = ThreadLocal.withInitial(() -> Boolean.FALSE);
     private final String mimeType;
 
@@ -117,6 +122,7 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
                 + ", last=" + lastParseInfo
                 + ", listenerCount=" + listeners.size()
                 + ", listeners=" + listeners
+                + ", cache=" + cache
                 + ")";
     }
 
@@ -172,7 +178,49 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
         return false;
     }
 
-    private final ReentrantReadWriteLock parseLock = new ReentrantReadWriteLock(true);
+    String grammarName() {
+        return grammarName;
+    }
+
+    /**
+     * Get the embedded parser for the current environment, first rebuilding
+     * the grammar if it is out of date, for batch use by callers which manage
+     * their own threading.
+     *
+     * @return An embedded parser
+     * @throws Exception If something goes wrong
+     */
+    EmbeddedParser currentEmbeddedParser() throws Exception {
+        return upToDateEnvironment().parser;
+    }
+
+    /**
+     * Get the current environment, first rebuilding the grammar if it is out
+     * of date - which, as in doParse(), is done holding the parser manager
+     * lock for our mime type, so it cannot race a rebuild triggered by an
+     * interactive parse.
+     *
+     * @return An environment
+     * @throws Exception If something goes wrong
+     */
+    private EmbeddedParsingEnvironment upToDateEnvironment() throws Exception {
+        EmbeddedParsingEnvironment info = environment.get();
+        if (info.isCurrent()) {
+            return info;
+        }
+        Obj<EmbeddedParsingEnvironment> envHolder = Obj.create();
+        ParserManager.parse(mimeType, new UserTask() {
+            @Override
+            public void run(ResultIterator ri) throws Exception {
+                EmbeddedParsingEnvironment env = environment.get();
+                if (checkStaleAndReparseGrammarIfNeeded(env)) {
+                    env = environment.get();
+                }
+                envHolder.set(env);
+            }
+        });
+        return envHolder.get();
+    }
 
     private static CharSequence escapeChar(char c) {
         CharSequence result = Escaper.CONTROL_CHARACTERS.escape(c);
@@ -261,18 +309,49 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
             } else if (last != null && textToParse != null && last.seq != null && LOG.isLoggable(Level.FINEST)) {
                 LOG.log(Level.FINEST, "Text may be changed: {0}", charDiff(textToParse, last.seq));
             }
+            // Not the last text, but possibly one we parsed recently - i.e.
+            // several components are asking about different sample files
+            EmbeddedAntlrParserResult cached = cache.get(oldInfo.grammarTokensHash, textToParse);
+            if (cached != null) {
+                LOG.log(Level.FINEST, "Reuse cached parser result for {0}: {1}",
+                        new Object[]{logName, cache});
+                return cached;
+            }
         }
         // XXX - this sucks, but lexer / snapshot char sequences explode on
         // contact after a while
         CharSequence toParse = textToParse == null ? null : convert(textToParse);
+        if (EventQueue.isDispatchThread()) {
+            // Never park the event thread waiting on some other thread's parse
+            return doParse(toParse);
+        }
+        // If another thread is already parsing this text, wait for its result
+        // rather than queueing up for the same locks to do the same work
+        return cache.sharedParse(oldInfo.grammarTokensHash, toParse, () -> doParse(toParse));
+    }
+
+    private EmbeddedAntlrParserResult doParse(CharSequence toParse) throws Exception {
         // Return the cached lastParseInfo where possible, ignoring cases where the
         // text is null (in which case, we are being invoked just for the lexer to get
         // the list of token types)
         return Debug.runObjectThrowing(this, logName + "-" + environment.get().grammarTokensHash, () -> {
             Obj<EmbeddedAntlrParserResult> resHolder = Obj.create();
-            // We need to grab the parser manager lock for our mime type
-            // here, basically to keep everybody else out.
-            if (!EventQueue.isDispatchThread() && ActivityPriority.get() != ActivityPriority.REALTIME) {
+            EmbeddedParsingEnvironment info = environment.get();
+            boolean edt = EventQueue.isDispatchThread();
+            if (!edt && !info.isCurrent() && info.awaitGeneration(GENERATION_WAIT_MILLIS)) {
+                // A rebuild was already underway when we got here; rather than
+                // forcing another one under the parser manager lock, use its
+                // result if it has been installed
+                info = environment.get();
+            }
+            if (info.isCurrent()) {
+                // Nothing in the grammar's project has been edited since the
+                // environment was built, so the parse cannot trigger a grammar
+                // reparse and there is nobody to keep out
+                doReparseText(resHolder, toParse);
+            } else if (!edt && ActivityPriority.get() != ActivityPriority.REALTIME) {
+                // We need to grab the parser manager lock for our mime type
+                // here, basically to keep everybody else out.
                 // Sigh - this locking is more correct, but it is also the
                 // source of many UI freezes.  So, try letting the EDT parse
                 // freely and see if that wreaks more havoc or less
@@ -292,53 +371,85 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
         });
     }
 
+    @Override
+    public EmbeddedAntlrParserResult parseDetectingAmbiguities(CharSequence textToParse) throws Exception {
+        if (disposed || textToParse == null) {
+            return null;
+        }
+        EmbeddedParsingEnvironment info = environment.get();
+        if (info.parser instanceof DeadEmbeddedParser || !info.isUpToDate()) {
+            LOG.log(Level.FINEST, "Skip ambiguity parse for {0} against stale "
+                    + "environment {1}", new Object[]{logName, info});
+            return null;
+        }
+        LastParseInfo last = lastAmbiguityParseInfo.get();
+        if (last != null && last.canReuse(textToParse)
+                && last.parserResult.grammarTokensHash().equals(info.grammarTokensHash)) {
+            return last.parserResult;
+        }
+        // Deliberately does not acquire the parser manager lock - this runs
+        // in the background and must not hold up interactive parses
+        CharSequence toParse = convert(textToParse);
+        AntlrProxies.ParseTreeProxy res = info.parser.parseDetectingAmbiguities(logName, toParse);
+        if (Thread.currentThread().isInterrupted()) {
+            // Cancelled part way through - the result is incomplete
+            LOG.log(Level.FINEST, "Ambiguity parse for {0} cancelled", logName);
+            return null;
+        }
+        EmbeddedAntlrParserResult result = new EmbeddedAntlrParserResult(path, res,
+                info.runResult, info.grammarTokensHash, grammarName);
+        if (environment.get() == info) {
+            lastAmbiguityParseInfo.set(new LastParseInfo(result, toParse));
+        }
+        LOG.log(Level.FINE, "Ambiguity parse result {0} with {1} ambiguities",
+                new Object[]{result, res.ambiguities().size()});
+        return result;
+    }
+
+    @Override
+    public EmbeddedAntlrParserResult parseProfiling(CharSequence textToParse) throws Exception {
+        if (disposed || textToParse == null) {
+            return null;
+        }
+        EmbeddedParsingEnvironment info = upToDateEnvironment();
+        if (info.parser instanceof DeadEmbeddedParser) {
+            return null;
+        }
+        CharSequence toParse = convert(textToParse);
+        AntlrProxies.ParseTreeProxy res = info.parser.parseProfiling(logName, toParse);
+        LOG.log(Level.FINE, "Profiling parse of {0}: {1}",
+                new Object[]{logName, res.decisionProfile()});
+        return new EmbeddedAntlrParserResult(path, res, info.runResult,
+                info.grammarTokensHash, grammarName);
+    }
+
     boolean doReparseText(Obj<EmbeddedAntlrParserResult> resHolder, CharSequence toParse) throws Exception {
+        // The environment is replaced atomically, and the
+        // generation stamp tells us cheaply whether it is stale, so the only
+        // locking needed is whatever doParse() decided to hold while a grammar
+        // reparse might be triggered from here
         EmbeddedParsingEnvironment info = environment.get();
-//                    info.runResult.jfs().whileLockedWithWithLockDowngrade(() -> {
-//
-//                    }, () -> null);
-// XXX way too many levels of locking in here.
-// Should not need an internal lock.
-// Should not need the parser lock.
-// Should use the JFS read lock (?)
-
-        ReentrantReadWriteLock.WriteLock writeLock = parseLock.writeLock();
-        ReentrantReadWriteLock.ReadLock readLock = parseLock.readLock();
-//        writeLock.lock();
-        AntlrProxies.ParseTreeProxy res;
-        boolean wasStale = false;
-        try {
-            try {
-                wasStale = checkStaleAndReparseGrammarIfNeeded(info);
-                if (wasStale) {
-                    EmbeddedParsingEnvironment newInfo = environment.get();
-                    LOG.log(Level.FINER, "Stale check {0} replaced parser env? {1}",
-                            new Object[]{grammarName,
-                                newInfo != info});
-                    Debug.message("Replace env " + (info != newInfo), newInfo::toString);
-                    info = newInfo;
-                }
-            } finally {
-//                readLock.lock();
-//                writeLock.unlock();
-            }
-            if (!wasStale) {
-                LastParseInfo lpi = lastParseInfo.get();
-                if (lpi.canReuse(toParse)) {
-                    // XXX
-                    LOG.log(Level.FINEST, "Reuse previous parser result {0} "
-                            + "for same or null text", lpi);
-                    Debug.message(logName + "-reuse-" + info.grammarTokensHash,
-                            lpi::toString);
-                    resHolder.set(lpi.parserResult);
-                    return true;
-                }
+        boolean wasStale = checkStaleAndReparseGrammarIfNeeded(info);
+        if (wasStale) {
+            EmbeddedParsingEnvironment newInfo = environment.get();
+            LOG.log(Level.FINER, "Stale check {0} replaced parser env? {1}",
+                    new Object[]{grammarName,
+                        newInfo != info});
+            Debug.message("Replace env " + (info != newInfo), newInfo::toString);
+            info = newInfo;
+        } else {
+            LastParseInfo lpi = lastParseInfo.get();
+            if (lpi.canReuse(toParse)) {
+                LOG.log(Level.FINEST, "Reuse previous parser result {0} "
+                        + "for same or null text", lpi);
+                Debug.message(logName + "-reuse-" + info.grammarTokensHash,
+                        lpi::toString);
+                resHolder.set(lpi.parserResult);
+                return true;
             }
-            Debug.message("Will parse with", info.parser::toString);
-            res = info.parser.parse(logName, toParse);
-        } finally {
-//            readLock.unlock();
         }
+        Debug.message("Will parse with", info.parser::toString);
+        AntlrProxies.ParseTreeProxy res = info.parser.parse(logName, toParse);
         LOG.log(Level.FINEST, "Parsed to {0} by {1}",
                 new Object[]{res.loggingInfo(), info.parser});
         String gth = info.grammarTokensHash;
@@ -346,6 +457,7 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
                 info.runResult, info.grammarTokensHash, grammarName);
         if (toParse != null) {
             lastParseInfo.set(new LastParseInfo(result, toParse));
+            cache.put(result);
             Trackables.track(AntlrProxies.ParseTreeProxy.class, res, () -> {
                 return res.loggingInfo() + "\t" + gth + "\n" + logName;
             });
@@ -412,6 +524,9 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
                 if (current.shouldReplace(extraction, runner)) {
 //                    lastParseInfo.set(placeholderInfo);
                     environment.set(new EmbeddedParsingEnvironment(extraction.tokensHash(), runner));
+                    // Entries are keyed on the tokens hash, so nothing stale can
+                    // be returned, but there is no reason to hold onto them
+                    cache.clear();
                     Set<BiConsumer<? super Extraction, ? super GrammarRunResult<?>>> ll = new HashSet<>(listeners);
                     Debug.message("Pass to " + listeners.size() + " listeners", listeners::toString);
                     for (BiConsumer<? super Extraction, ? super GrammarRunResult<?>> l : ll) {
@@ -482,6 +597,9 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
         }
         LOG.log(Level.WARNING, "Dispose embedded parser for " + path + " / " + grammarName, new Exception());
         environment.set(new EmbeddedParsingEnvironment(path, grammarName));
+        lastAmbiguityParseInfo.set(null);
+        cache.clear();
+        LOG.log(Level.FINE, "Parse cache statistics for {0}: {1}", new Object[]{logName, cache});
     }
 
     int rev() {
@@ -511,6 +629,11 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
         final String grammarTokensHash;
         final EmbeddedParser parser;
         final GrammarRunResult<EmbeddedParser> runResult;
+        // The generation stamp of the grammar this environment was built from,
+        // if known, and the value it had when the environment was last
+        // known to be up to date
+        private final GenerationStamps.Stamp stamp;
+        private volatile long validatedStamp = -1;
 
         public EmbeddedParsingEnvironment(Path path, String grammarName) {
             LOG.log(Level.FINEST, "Create an initial dummy environment for {0} grammar {1}",
@@ -518,6 +641,7 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
             grammarTokensHash = "-";
             parser = new DeadEmbeddedParser(path, grammarName);
             runResult = null;
+            stamp = null;
         }
 
         public EmbeddedParsingEnvironment(String grammarTokensHash, GrammarRunResult<EmbeddedParser> runner) {
@@ -530,6 +654,27 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
             // in memory unnecessarily
             this.runResult = runner;
             this.parser = runner.get();
+            AntlrGenerationResult gen = runner.getWrapped(AntlrGenerationResult.class);
+            if (gen != null && gen.originalFilePath != null) {
+                GenerationStamps stamps = RebuildSubscriptions.generationStamps();
+                stamp = stamps.stamp(gen.originalFilePath);
+                validatedStamp = stamps.stampOf(gen);
+            } else {
+                stamp = null;
+            }
+        }
+
+        /**
+         * Fast check that nothing in the grammar's project has been edited
+         * since this environment was last known to be up to date, without
+         * touching the JFS.
+         */
+        boolean isCurrent() {
+            return stamp != null && validatedStamp == stamp.current();
+        }
+
+        boolean awaitGeneration(long millis) {
+            return stamp != null && stamp.awaitGeneration(millis);
         }
 
         public UpToDateness status() {
@@ -548,7 +693,22 @@ final class EmbeddedAntlrParserImpl extends EmbeddedAntlrParser implements BiCon
         }
 
         public boolean isUpToDate() {
-            return status() == UpToDateness.CURRENT;
+            if (stamp == null) {
+                return status() == UpToDateness.CURRENT;
+            }
+            long current = stamp.current();
+            if (validatedStamp == current) {
+                return true;
+            }
+            // Something was edited, but not necessarily anything this grammar
+            // depends on (or the generation result was recycled and never
+            // stamped) - do the full check, and if we are still current,
+            // remember that until the next edit
+            if (status() != UpToDateness.CURRENT) {
+                return false;
+            }
+            validatedStamp = current;
+            return true;
         }
 
         public boolean shouldReplace(Extraction extraction, GrammarRunResult<EmbeddedParser> runner) {
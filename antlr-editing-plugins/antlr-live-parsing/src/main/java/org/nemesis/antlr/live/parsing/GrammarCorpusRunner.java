@@ -0,0 +1,370 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.parsing;
+
+import static com.mastfrog.util.preconditions.Checks.nonNegative;
+import static com.mastfrog.util.preconditions.Checks.nonZero;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.DecisionProfile;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeProxy;
+import org.nemesis.antlr.live.parsing.impl.EmbeddedParser;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Runs the in-memory generated parser for a grammar over a directory of sample
+ * files in parallel, collecting per-file timing, throughput and error counts,
+ * so grammar performance can be measured against a realistic corpus without a
+ * full build. Each parse creates its own lexer and parser inside the grammar's
+ * isolating classloader, so parses on different threads share nothing but the
+ * generated classes (and their DFA caches).
+ * <p>
+ * Parses run directly against the parser's current environment, bypassing the
+ * parser manager lock and the result cache that interactive parses go through;
+ * the grammar is brought up to date once, under that lock, before the run
+ * starts.
+ * </p>
+ * <p>
+ * A runner created with <code>withDecisionProfiling()</code> parses with
+ * ANTLR's profiling prediction simulator, and the report aggregates the
+ * per-decision statistics of every file, to find the decisions a grammar spends
+ * its time in over the whole corpus rather than for a single sample.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class GrammarCorpusRunner {
+
+    private static final Logger LOG = Logger.getLogger(GrammarCorpusRunner.class.getName());
+    private final EmbeddedAntlrParserImpl parser;
+    private final int threads;
+    private final Charset charset;
+    private final boolean profile;
+
+    private GrammarCorpusRunner(EmbeddedAntlrParserImpl parser, int threads, Charset charset, boolean profile) {
+        this.parser = parser;
+        this.threads = threads;
+        this.charset = charset;
+        this.profile = profile;
+    }
+
+    /**
+     * Create a corpus runner.
+     *
+     * @param parser A parser, as returned by EmbeddedAntlrParsers.forGrammar()
+     * @param threads The number of files to parse concurrently
+     * @param charset The encoding of sample files
+     * @return A runner
+     */
+    public static GrammarCorpusRunner create(EmbeddedAntlrParser parser, int threads, Charset charset) {
+        notNull("parser", parser);
+        if (!(parser instanceof EmbeddedAntlrParserImpl)) {
+            throw new IllegalArgumentException("Not a parser from EmbeddedAntlrParsers: " + parser);
+        }
+        return new GrammarCorpusRunner((EmbeddedAntlrParserImpl) parser,
+                nonZero("threads", nonNegative("threads", threads)), notNull("charset", charset), false);
+    }
+
+    /**
+     * Get a runner like this one which collects decision profiles; profiling
+     * makes each parse slower, so timings from such a run are only useful
+     * relative to each other.
+     *
+     * @return A runner
+     */
+    public GrammarCorpusRunner withDecisionProfiling() {
+        return profile ? this : new GrammarCorpusRunner(parser, threads, charset, true);
+    }
+
+    /**
+     * Parse every regular file under a directory which matches the filter.
+     *
+     * @param dir A directory
+     * @param filter A filter for files to include
+     * @return A report
+     * @throws IOException If the directory cannot be listed
+     * @throws Exception If the grammar cannot be brought up to date
+     */
+    public CorpusReport run(Path dir, Predicate<? super Path> filter) throws Exception {
+        List<Path> files;
+        try (Stream<Path> str = Files.walk(dir)) {
+            files = str.filter(Files::isRegularFile).filter(filter).sorted()
+                    .collect(Collectors.toCollection(ArrayList::new));
+        }
+        return run(files);
+    }
+
+    /**
+     * Parse the passed files.
+     *
+     * @param files Some files
+     * @return A report
+     * @throws Exception If the grammar cannot be brought up to date
+     */
+    public CorpusReport run(List<? extends Path> files) throws Exception {
+        EmbeddedParser embedded = parser.currentEmbeddedParser();
+        String logName = "corpus-" + parser.grammarName();
+        RequestProcessor rp = new RequestProcessor("antlr-corpus-" + parser.grammarName(), threads);
+        List<Future<FileReport>> futures = new ArrayList<>(files.size());
+        long start = System.nanoTime();
+        try {
+            for (Path file : files) {
+                futures.add(rp.submit(() -> parseOne(embedded, logName, file)));
+            }
+            List<FileReport> reports = new ArrayList<>(files.size());
+            for (Future<FileReport> f : futures) {
+                try {
+                    reports.add(f.get());
+                } catch (ExecutionException ex) {
+                    LOG.log(Level.INFO, "Corpus parse failed", ex.getCause());
+                }
+            }
+            return new CorpusReport(reports, System.nanoTime() - start, threads);
+        } finally {
+            rp.shutdown();
+        }
+    }
+
+    private FileReport parseOne(EmbeddedParser embedded, String logName, Path file) throws Exception {
+        String text = new String(Files.readAllBytes(file), charset);
+        long then = System.nanoTime();
+        ParseTreeProxy proxy;
+        Throwable thrown = null;
+        try {
+            proxy = profile ? embedded.parseProfiling(logName, text) : embedded.parse(logName, text);
+            thrown = proxy.thrown();
+        } catch (Exception ex) {
+            LOG.log(Level.FINE, "Exception parsing " + file, ex);
+            return new FileReport(file, text.length(), 0, System.nanoTime() - then, 0, ex);
+        }
+        long elapsed = System.nanoTime() - then;
+        return new FileReport(file, text.length(), proxy.tokenCount(), elapsed,
+                proxy.syntaxErrors().size(), thrown, proxy.decisionProfile());
+    }
+
+    /**
+     * The result of parsing one file.
+     */
+    public static final class FileReport {
+
+        private final Path file;
+        private final int chars;
+        private final int tokens;
+        private final long nanos;
+        private final int syntaxErrors;
+        private final Throwable thrown;
+        private final DecisionProfile decisionProfile;
+
+        FileReport(Path file, int chars, int tokens, long nanos, int syntaxErrors, Throwable thrown) {
+            this(file, chars, tokens, nanos, syntaxErrors, thrown, null);
+        }
+
+        FileReport(Path file, int chars, int tokens, long nanos, int syntaxErrors, Throwable thrown,
+                DecisionProfile decisionProfile) {
+            this.file = file;
+            this.decisionProfile = decisionProfile;
+            this.chars = chars;
+            this.tokens = tokens;
+            this.nanos = nanos;
+            this.syntaxErrors = syntaxErrors;
+            this.thrown = thrown;
+        }
+
+        public Path file() {
+            return file;
+        }
+
+        public int characters() {
+            return chars;
+        }
+
+        public int tokens() {
+            return tokens;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        public double millis() {
+            return nanos / 1_000_000D;
+        }
+
+        public int syntaxErrors() {
+            return syntaxErrors;
+        }
+
+        public Throwable thrown() {
+            return thrown;
+        }
+
+        public boolean failed() {
+            return thrown != null;
+        }
+
+        /**
+         * Get the decision profile of this file's parse.
+         *
+         * @return A profile, or null if the run was not profiling
+         */
+        public DecisionProfile decisionProfile() {
+            return decisionProfile;
+        }
+
+        public double tokensPerSecond() {
+            return nanos == 0 ? 0 : tokens / (nanos / 1_000_000_000D);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%10.3fms %8d tokens %12.0f tok/s %5d errors  %s%s",
+                    millis(), tokens, tokensPerSecond(), syntaxErrors, file,
+                    thrown == null ? "" : " (" + thrown + ")");
+        }
+    }
+
+    /**
+     * Aggregate results of a corpus run.
+     */
+    public static final class CorpusReport implements Iterable<FileReport> {
+
+        private final List<FileReport> files;
+        private final long wallNanos;
+        private final int threads;
+
+        CorpusReport(List<FileReport> files, long wallNanos, int threads) {
+            this.files = Collections.unmodifiableList(files);
+            this.wallNanos = wallNanos;
+            this.threads = threads;
+        }
+
+        @Override
+        public Iterator<FileReport> iterator() {
+            return files.iterator();
+        }
+
+        public int fileCount() {
+            return files.size();
+        }
+
+        public long wallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * Total time spent parsing across all threads.
+         *
+         * @return The sum of the time spent in each parse
+         */
+        public long parseNanos() {
+            long result = 0;
+            for (FileReport f : files) {
+                result += f.nanos;
+            }
+            return result;
+        }
+
+        public long tokens() {
+            long result = 0;
+            for (FileReport f : files) {
+                result += f.tokens;
+            }
+            return result;
+        }
+
+        public int syntaxErrors() {
+            int result = 0;
+            for (FileReport f : files) {
+                result += f.syntaxErrors;
+            }
+            return result;
+        }
+
+        public int failures() {
+            int result = 0;
+            for (FileReport f : files) {
+                if (f.failed()) {
+                    result++;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Throughput of the whole run, by wall clock time.
+         *
+         * @return Tokens per second
+         */
+        public double tokensPerSecond() {
+            return wallNanos == 0 ? 0 : tokens() / (wallNanos / 1_000_000_000D);
+        }
+
+        /**
+         * Get the decision profiles of all files combined.
+         *
+         * @return A profile, or null if the run was not profiling
+         */
+        public DecisionProfile decisionProfile() {
+            DecisionProfile result = null;
+            for (FileReport f : files) {
+                result = DecisionProfile.merge(result, f.decisionProfile);
+            }
+            return result;
+        }
+
+        /**
+         * Get the files which took the longest to parse.
+         *
+         * @param count The maximum number to return
+         * @return A list of file reports, slowest first
+         */
+        public List<FileReport> slowest(int count) {
+            List<FileReport> result = new ArrayList<>(files);
+            Collections.sort(result, (a, b) -> Long.compare(b.nanos, a.nanos));
+            return result.subList(0, Math.min(count, result.size()));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(80 * (files.size() + 4));
+            sb.append(String.format("%d files, %d tokens, %d syntax errors, %d failures in %.3fms "
+                    + "on %d threads (%.0f tok/s)\n", files.size(), tokens(), syntaxErrors(),
+                    failures(), wallNanos / 1_000_000D, threads, tokensPerSecond()));
+            for (FileReport f : slowest(files.size())) {
+                sb.append(f).append('\n');
+            }
+            DecisionProfile prof = decisionProfile();
+            if (prof != null) {
+                sb.append(prof).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+}
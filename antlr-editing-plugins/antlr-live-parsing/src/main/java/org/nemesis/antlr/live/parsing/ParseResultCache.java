@@ -0,0 +1,275 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.parsing;
+
+import com.mastfrog.function.throwing.ThrowingSupplier;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.nemesis.antlr.live.parsing.EmbeddedAntlrParserImpl.charSequencesMatchModuloTrailingNewline;
+
+/**
+ * A small LRU cache of parser results keyed on the grammar tokens hash and the
+ * parsed text, so that alternating between several sample texts - or the
+ * preview, lexer and highlighters all asking for the same text at once - does
+ * not cause a reparse each time. Results are softly referenced, so memory
+ * pressure can evict them before the size bound does. Concurrent requests to
+ * parse the same text share a single parse, as long as the thread that would
+ * wait for it holds no lock the parse may need.
+ * <p>
+ * Keys hash the text ignoring a single trailing newline, since text from a
+ * document has one and text from a lexer input does not, and matching is done
+ * the same way the single-entry last-parse check does it.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class ParseResultCache {
+
+    private static final Logger LOG = Logger.getLogger(ParseResultCache.class.getName());
+    static final int DEFAULT_MAX_ENTRIES = Integer.getInteger("antlr.live.parse.cache.size", 8);
+    /**
+     * How long a thread will wait for another thread's parse of the same text
+     * before giving up and parsing it itself; threads which hold the parser
+     * lock never wait, so this is only a backstop.
+     */
+    private static final long IN_FLIGHT_WAIT_MILLIS = 5000;
+    private final BooleanSupplier mayWait;
+    private final Map<Key, SoftReference<EmbeddedAntlrParserResult>> entries;
+    private final Map<Key, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    ParseResultCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    ParseResultCache(int maxEntries) {
+        this(maxEntries, ParserLockProbe::currentThreadMayWaitForParse);
+    }
+
+    @SuppressWarnings("serial")
+    ParseResultCache(int maxEntries, BooleanSupplier mayWait) {
+        this.mayWait = mayWait;
+        entries = new LinkedHashMap<Key, SoftReference<EmbeddedAntlrParserResult>>(maxEntries + 1, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, SoftReference<EmbeddedAntlrParserResult>> eldest) {
+                boolean result = size() > maxEntries;
+                if (result) {
+                    evictions.incrementAndGet();
+                }
+                return result;
+            }
+        };
+    }
+
+    EmbeddedAntlrParserResult get(String grammarTokensHash, CharSequence text) {
+        if (text == null) {
+            return null;
+        }
+        Key key = new Key(grammarTokensHash, text);
+        EmbeddedAntlrParserResult result = null;
+        synchronized (this) {
+            SoftReference<EmbeddedAntlrParserResult> ref = entries.get(key);
+            if (ref != null) {
+                result = ref.get();
+                if (result == null) {
+                    entries.remove(key);
+                    evictions.incrementAndGet();
+                } else if (!charSequencesMatchModuloTrailingNewline(result.proxy().text(), text)) {
+                    // hash collision
+                    result = null;
+                }
+            }
+        }
+        if (result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    void put(EmbeddedAntlrParserResult result) {
+        if (result.proxy() == null || result.proxy().isUnparsed() || result.proxy().text() == null) {
+            // Placeholders are cheap to create and should never be reused
+            // once a real parser is available
+            return;
+        }
+        Key key = new Key(result.grammarTokensHash(), result.proxy().text());
+        synchronized (this) {
+            entries.put(key, new SoftReference<>(result));
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        int result = 0;
+        for (Iterator<SoftReference<EmbeddedAntlrParserResult>> it = entries.values().iterator(); it.hasNext();) {
+            if (it.next().get() == null) {
+                it.remove();
+                evictions.incrementAndGet();
+            } else {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    long sharedParses() {
+        return shared.get();
+    }
+
+    long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Run the passed parse, unless another thread is already parsing the same
+     * text against the same grammar, in which case wait for and return its
+     * result.  A thread which holds the parser lock (or is the event thread)
+     * never waits - the in-flight parse may be blocked on that very lock - and
+     * simply parses.
+     *
+     * @param grammarTokensHash The grammar tokens hash
+     * @param text The text
+     * @param parse The parse
+     * @return A result
+     * @throws Exception If the parse fails
+     */
+    EmbeddedAntlrParserResult sharedParse(String grammarTokensHash, CharSequence text,
+            ThrowingSupplier<EmbeddedAntlrParserResult> parse) throws Exception {
+        if (text == null) {
+            return parse.get();
+        }
+        Key key = new Key(grammarTokensHash, text);
+        InFlight mine = new InFlight(text);
+        InFlight existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null && existing.thread != Thread.currentThread()
+                && charSequencesMatchModuloTrailingNewline(existing.text, text)
+                && mayWait.getAsBoolean()) {
+            try {
+                EmbeddedAntlrParserResult result = existing.future.get(IN_FLIGHT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                shared.incrementAndGet();
+                return result;
+            } catch (TimeoutException ex) {
+                LOG.log(Level.FINE, "Timed out waiting for in-flight parse of "
+                        + "{0} chars; parsing on {1}", new Object[]{text.length(),
+                            Thread.currentThread()});
+            } catch (ExecutionException ex) {
+                // The other parse failed; it has logged it - try our own
+                LOG.log(Level.FINEST, "Shared parse failed", ex);
+            }
+            return parse.get();
+        } else if (existing != null) {
+            return parse.get();
+        }
+        try {
+            EmbeddedAntlrParserResult result = parse.get();
+            mine.future.complete(result);
+            return result;
+        } catch (Exception | Error ex) {
+            mine.future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ParseResultCache(hits=" + hits.get() + ", misses=" + misses.get()
+                + ", shared=" + shared.get() + ", evictions=" + evictions.get()
+                + ", size=" + size() + ")";
+    }
+
+    private static final class InFlight {
+
+        private final CharSequence text;
+        private final Thread thread = Thread.currentThread();
+        private final CompletableFuture<EmbeddedAntlrParserResult> future = new CompletableFuture<>();
+
+        InFlight(CharSequence text) {
+            this.text = text;
+        }
+    }
+
+    static final class Key {
+
+        private final String grammarTokensHash;
+        private final int textHash;
+        private final int textLength;
+
+        Key(String grammarTokensHash, CharSequence text) {
+            this.grammarTokensHash = grammarTokensHash == null ? "-" : grammarTokensHash;
+            int len = text.length();
+            if (len > 0 && text.charAt(len - 1) == '\n') {
+                len--;
+            }
+            int hash = 0;
+            for (int i = 0; i < len; i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+            this.textHash = hash;
+            this.textLength = len;
+        }
+
+        @Override
+        public int hashCode() {
+            return (grammarTokensHash.hashCode() * 71) + (textHash * 7) + textLength;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            } else if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return textHash == k.textHash && textLength == k.textLength
+                    && grammarTokensHash.equals(k.grammarTokensHash);
+        }
+
+        @Override
+        public String toString() {
+            return grammarTokensHash + ":" + Integer.toHexString(textHash) + ":" + textLength;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.parsing;
+
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.netbeans.modules.parsing.api.Source;
+
+/**
+ * Determines whether the current thread holds the parsing API's parser lock -
+ * true inside any parser task or ParserManager.parse() call. The API does not
+ * expose that, so, like SourceInvalidator, this reaches into its implementation
+ * reflectively; if that fails, every thread is assumed to hold the lock.
+ *
+ * @author Tim Boudreau
+ */
+final class ParserLockProbe {
+
+    private static final Logger LOG = Logger.getLogger(ParserLockProbe.class.getName());
+    private static volatile Method holdsParserLock = findMethod();
+
+    private ParserLockProbe() {
+        throw new AssertionError();
+    }
+
+    private static Method findMethod() {
+        // Load through the parsing API's own classloader, which can see its
+        // implementation packages
+        ClassLoader ldr = Source.class.getClassLoader();
+        for (String type : new String[]{"org.netbeans.modules.parsing.impl.Utilities",
+            "org.netbeans.modules.parsing.impl.TaskProcessor"}) {
+            try {
+                Method result = ldr.loadClass(type).getMethod("holdsParserLock");
+                result.setAccessible(true);
+                return result;
+            } catch (ClassNotFoundException | NoSuchMethodException | SecurityException ex) {
+                LOG.log(Level.FINEST, "No holdsParserLock() on " + type, ex);
+            }
+        }
+        LOG.log(Level.INFO, "Cannot find a way to test whether the parser lock is held; "
+                + "parses will never wait on each other");
+        return null;
+    }
+
+    /**
+     * Determine if the current thread holds the parser lock.
+     *
+     * @return true if it does, or if that cannot be determined
+     */
+    static boolean currentThreadHoldsParserLock() {
+        Method m = holdsParserLock;
+        if (m == null) {
+            return true;
+        }
+        try {
+            return Boolean.TRUE.equals(m.invoke(null));
+        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+            LOG.log(Level.WARNING, "Testing for parser lock failed", ex);
+            holdsParserLock = null;
+            return true;
+        }
+    }
+
+    /**
+     * Determine if the current thread can safely block waiting for a parse
+     * running on another thread, which may need the parser lock: it must not
+     * hold it, and must not be the event thread.
+     *
+     * @return true if the current thread may wait
+     */
+    static boolean currentThreadMayWaitForParse() {
+        return !EventQueue.isDispatchThread() && !currentThreadHoldsParserLock();
+    }
+}
@@ -29,15 +29,18 @@ import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
@@ -70,9 +73,8 @@ public class AntlrProxies {
     private final List<ProxyToken> tokens = new ArrayList<>();
     private final List<ProxyTokenType> tokenTypes = new ArrayList<>(50);
     private final List<Ambiguity> ambiguities = new ArrayList<>(10);
-    private ParseTreeElement root = new ParseTreeElement(ParseTreeElementKind.ROOT);
     private final ProxyTokenType EOF_TYPE = new ProxyTokenType(-1, "EOF", "", "EOF");
-    private final List<ParseTreeElement> treeElements = new ArrayList<>(50);
+    private CompactParseTree tree;
     private final Set<ProxySyntaxError> errors = new TreeSet<>();
     private String[] parserRuleNames = new String[0];
     private String[] lexerRuleNames = new String[0];
@@ -85,10 +87,11 @@ public class AntlrProxies {
     private final String grammarName;
     private final Path grammarPath;
     private final CharSequence text;
-    private BitSet[] ruleReferences;
     private final Set<String> presentRuleNames = new HashSet<>(40);
     private String grammarTokensHash = "--tokensHash--";
     private long tokenNamesChecksum;
+    private int[] lineStarts;
+    private DecisionProfile decisionProfile;
 
     public AntlrProxies(String grammarName, Path grammarPath, CharSequence text) {
         this.grammarName = grammarName;
@@ -98,6 +101,81 @@ public class AntlrProxies {
         this.text = text;
     }
 
+    /**
+     * Get the 1-based line number of a character offset in the text being
+     * parsed, as Antlr would report it, computing the line table (which is
+     * passed on to the resulting ParseTreeProxy) on first use.
+     *
+     * @param offset A character offset
+     * @return A line number, or -1 if there is no text
+     */
+    public int lineOf(int offset) {
+        int[] starts = lineStarts();
+        return starts == null ? -1 : lineIndex(starts, offset) + 1;
+    }
+
+    /**
+     * Get the 0-based position of a character offset within its line.
+     *
+     * @param offset A character offset
+     * @return A position, or -1 if there is no text
+     */
+    public int charPositionInLine(int offset) {
+        int[] starts = lineStarts();
+        return starts == null ? -1 : offset - starts[lineIndex(starts, offset)];
+    }
+
+    private int[] lineStarts() {
+        if (lineStarts == null && text != null) {
+            lineStarts = computeLineStarts(text);
+        }
+        return lineStarts;
+    }
+
+    /**
+     * Compute the start offset of every line in the passed text in a single
+     * pass.
+     *
+     * @param text Some text
+     * @return An array of offsets, always containing at least 0
+     */
+    static int[] computeLineStarts(CharSequence text) {
+        int len = text.length();
+        int[] result = new int[Math.max(16, len / 32)];
+        int count = 1;
+        for (int i = 0; i < len; i++) {
+            if (text.charAt(i) == '\n') {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                result[count++] = i + 1;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Binary search for the 0-based index of the line containing an offset.
+     *
+     * @param lineStarts Line start offsets
+     * @param offset An offset
+     * @return The index of the last line starting at or before the offset, or
+     * zero if the offset is negative
+     */
+    static int lineIndex(int[] lineStarts, int offset) {
+        int lo = 0;
+        int hi = lineStarts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (lineStarts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
     public void setTokenNamesChecksum(long val) {
         this.tokenNamesChecksum = val;
     }
@@ -112,6 +190,22 @@ public class AntlrProxies {
         ambiguities.add(ambiguity);
     }
 
+    /**
+     * Record the prediction statistics for one parser decision, as collected
+     * by a profiling parse; only primitives are passed, so nothing from the
+     * isolating classloader is retained.
+     */
+    public void onDecisionProfile(int decision, int ruleIndex, long invocations,
+            long timeInPrediction, long sllTotalLook, long sllMaxLook, long llFallback,
+            long llTotalLook, long llMaxLook, int ambiguities, int errors) {
+        if (decisionProfile == null) {
+            decisionProfile = new DecisionProfile(16);
+        }
+        decisionProfile.add(decision, ruleIndex, invocations, timeInPrediction,
+                sllTotalLook, sllMaxLook, llFallback, llTotalLook, llMaxLook,
+                ambiguities, errors);
+    }
+
     public void setModeInfo(int defaultMode, String[] modeNames) {
         defaultModeIndex = 0;
         if (modeNames != null) {
@@ -147,11 +241,12 @@ public class AntlrProxies {
     public ParseTreeProxy result() {
         String hashString = Base64.getUrlEncoder().encodeToString(hash.digest());
         newHash();
-        return new ParseTreeProxy(tokens, tokenTypes, root, EOF_TYPE,
-                treeElements, errors, parserRuleNames, channelNames, hasParseErrors, hashString,
-                grammarName, grammarPath, text, thrown, ruleReferences, ambiguities,
+        return new ParseTreeProxy(tokens, tokenTypes, tree == null ? new CompactParseTree(0) : tree, EOF_TYPE,
+                errors, parserRuleNames, channelNames, hasParseErrors, hashString,
+                grammarName, grammarPath, text, thrown, ambiguities,
                 lexerRuleNames, presentRuleNames, defaultModeIndex, modeNames,
-                grammarTokensHash, tokenNamesChecksum);
+                grammarTokensHash, tokenNamesChecksum, lineStarts,
+                decisionProfile == null ? null : decisionProfile.withRuleNames(parserRuleNames));
     }
 
     /**
@@ -173,17 +268,16 @@ public class AntlrProxies {
         ProxyTokenType textType = new ProxyTokenType(0, "text", "text", "text");
         ProxyToken all = new ProxyToken(0, 0, 0, 0, 0, 0, text.length() - 1, 0);
         ProxyToken eof = new ProxyToken(-1, 0, 0, 0, 1, text.length(), text.length(), 0);
-        ParseTreeElement root = new ParseTreeElement(ParseTreeElementKind.ROOT);
-        ParseTreeElement child = new RuleNodeTreeElement("unparsed", 0, 0, 1, 1);
+        CompactParseTree tree = new CompactParseTree(1);
+        tree.addRule("unparsed", 0, 0, 1, -1, 1);
         ProxyTokenType EOF_TYPE = new ProxyTokenType(-1, "EOF", "", "EOF");
-        root.add(child);
         List<ProxyTokenType> tokenTypes = Arrays.asList(EOF_TYPE, textType);
         List<ProxyToken> tokens = Arrays.asList(all, eof);
-        ParseTreeProxy prox = new ParseTreeProxy(tokens, tokenTypes, root, EOF_TYPE, Arrays.asList(root, child),
+        ParseTreeProxy prox = new ParseTreeProxy(tokens, tokenTypes, tree, EOF_TYPE,
                 Collections.emptySet(), new String[]{"everything"}, new String[]{"default"},
                 false, Long.toString(text.hashCode(), 36),
-                grammarName, pth, text, null, new BitSet[1], Collections.emptyList(), new String[0],
-                Collections.emptySet(), 0, null, "-", 0);
+                grammarName, pth, text, null, Collections.emptyList(), new String[0],
+                Collections.emptySet(), 0, null, "-", 0, null, null);
         prox.isUnparsed = true;
         return prox;
     }
@@ -204,9 +298,8 @@ public class AntlrProxies {
         private final List<ProxyToken> tokens;
         private final List<ProxyTokenType> tokenTypes;
         private final List<Ambiguity> ambiguities;
-        private final ParseTreeElement root;
+        private final CompactParseTree tree;
         private final ProxyTokenType eofType;
-        private final List<ParseTreeElement> treeElements;
         private final Set<ProxySyntaxError> syntaxErrors;
         private final String[] parserRuleNames;
         private final String[] channelNames;
@@ -221,28 +314,31 @@ public class AntlrProxies {
         private static final AtomicLong IDS = new AtomicLong();
         private final long id = IDS.getAndIncrement();
         private final long when = System.currentTimeMillis();
-        private BitSet[] ruleReferencesForToken;
         private SortedSet<String> allRuleNames;
         private final Set<String> presentRuleNames;
         private final String[] modeNames;
         private final short defaultMode;
         private final String grammarTokensHash;
         private final long tokenNamesChecksum;
+        private int[] lineStarts;
+        private final DecisionProfile decisionProfile;
 
         ParseTreeProxy(List<ProxyToken> tokens, List<ProxyTokenType> tokenTypes,
-                ParseTreeElement root, ProxyTokenType eofType, List<ParseTreeElement> treeElements,
+                CompactParseTree tree, ProxyTokenType eofType,
                 Set<ProxySyntaxError> errors, String[] parserRuleNames,
                 String[] channelNames, boolean hasParseErrors, String hashString, String grammarName,
                 Path grammarPath, CharSequence text, RuntimeException thrown,
-                BitSet[] ruleReferencesForToken, List<Ambiguity> ambiguities, String[] lexerRuleNames,
+                List<Ambiguity> ambiguities, String[] lexerRuleNames,
                 Set<String> presentRuleNames, int defaultMode, String[] modeNames,
-                String grammarTokensHash, long tokenNamesChecksum) {
+                String grammarTokensHash, long tokenNamesChecksum, int[] lineStarts,
+                DecisionProfile decisionProfile) {
             this.tokens = tokens;
+            this.lineStarts = lineStarts;
+            this.decisionProfile = decisionProfile;
             this.grammarTokensHash = grammarTokensHash;
             this.tokenTypes = tokenTypes;
-            this.root = root;
+            this.tree = tree;
             this.eofType = eofType;
-            this.treeElements = treeElements;
             this.syntaxErrors = errors;
             this.parserRuleNames = parserRuleNames;
             this.channelNames = channelNames;
@@ -252,7 +348,7 @@ public class AntlrProxies {
             this.grammarPath = grammarPath.toString();
             this.text = text;
             this.thrown = thrown;
-            this.ruleReferencesForToken = ruleReferencesForToken;
+            tree.bind(tokens, text);
             this.ambiguities = ambiguities;
             this.lexerRuleNames = lexerRuleNames;
             this.modeNames = modeNames == null ? new String[]{"DEFAULT_MODE"} : modeNames;
@@ -266,21 +362,11 @@ public class AntlrProxies {
 
         public List<ErrorNodeTreeElement> allErrorElements() {
             if (allErrorElements == null) {
-                allErrorElements = collectErrorElements();
+                allErrorElements = tree.errorElements();
             }
             return allErrorElements;
         }
 
-        private List<ErrorNodeTreeElement> collectErrorElements() {
-            List<ErrorNodeTreeElement> result = new ArrayList<>(treeElements.size());
-            for (ParseTreeElement el : treeElements) {
-                if (el instanceof ErrorNodeTreeElement) {
-                    result.add((ErrorNodeTreeElement) el);
-                }
-            }
-            return result;
-        }
-
         public long tokenNamesChecksum() {
             return tokenNamesChecksum;
         }
@@ -334,6 +420,16 @@ public class AntlrProxies {
             return !ambiguities.isEmpty();
         }
 
+        /**
+         * Get the per-decision prediction statistics for this parse, if it
+         * was run with profiling enabled.
+         *
+         * @return A profile, or null if the parse was not profiled
+         */
+        public DecisionProfile decisionProfile() {
+            return decisionProfile;
+        }
+
         public List<? extends Ambiguity> ambiguities() {
             return ambiguities;
         }
@@ -376,28 +472,24 @@ public class AntlrProxies {
 
         public int referencesCount(ProxyToken tok) {
             int ix = tok.getTokenIndex();
-            if (ix < 0 || ruleReferencesForToken == null || ruleReferencesForToken.length <= ix || tok.getType() == -1) {
-                return 0;
-            }
-            BitSet set = ruleReferencesForToken[ix];
-            if (set == null) {
+            if (ix < 0 || tok.getType() == -1) {
                 return 0;
             }
-            return set.cardinality();
+            return tree.referencing(ix).length;
         }
 
         public List<ParseTreeElement> referencedBy(ProxyToken tok) {
             int ix = tok.getTokenIndex();
-            if (ix < 0 || ruleReferencesForToken == null || ruleReferencesForToken.length <= ix || tok.getType() == -1) {
+            if (ix < 0 || tok.getType() == -1) {
                 return Collections.emptyList();
             }
-            BitSet set = ruleReferencesForToken[ix];
-            if (set == null || set.isEmpty()) {
+            int[] indices = tree.referencing(ix);
+            if (indices.length == 0) {
                 return Collections.emptyList();
             }
-            List<ParseTreeElement> result = new ArrayList<>(set.cardinality());
-            for (int bit = set.nextSetBit(0); bit >= 0; bit = set.nextSetBit(bit + 1)) {
-                result.add(treeElements.get(bit));
+            List<ParseTreeElement> result = new ArrayList<>(indices.length);
+            for (int i = 0; i < indices.length; i++) {
+                result.add(tree.element(indices[i]));
             }
             Collections.sort(result, (a, b) -> {
                 return Integer.compare(a.depth(), b.depth());
@@ -422,9 +514,8 @@ public class AntlrProxies {
             int hash = 3;
             hash = 23 * hash + Objects.hashCode(this.tokens);
             hash = 23 * hash + Objects.hashCode(this.tokenTypes);
-            hash = 23 * hash + Objects.hashCode(this.root);
+            hash = 23 * hash + Objects.hashCode(this.tree);
             hash = 23 * hash + Objects.hashCode(this.eofType);
-            hash = 23 * hash + Objects.hashCode(this.treeElements);
             hash = 23 * hash + Objects.hashCode(this.syntaxErrors);
             hash = 23 * hash + Arrays.deepHashCode(this.parserRuleNames);
             hash = 23 * hash + Arrays.deepHashCode(this.channelNames);
@@ -489,15 +580,12 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
             if (!Objects.equals(this.tokenTypes, other.tokenTypes)) {
                 return false;
             }
-            if (!Objects.equals(this.root, other.root)) {
+            if (!Objects.equals(this.tree, other.tree)) {
                 return false;
             }
             if (!Objects.equals(this.eofType, other.eofType)) {
                 return false;
             }
-            if (!Objects.equals(this.treeElements, other.treeElements)) {
-                return false;
-            }
             if (!Objects.equals(this.syntaxErrors, other.syntaxErrors)) {
                 return false;
             }
@@ -525,11 +613,10 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
         public ParseTreeProxy toEmptyParseTreeProxy(String whitespace) {
             whitespace = whitespace == null ? "" : whitespace;
             List<ProxyToken> newTokens = Arrays.asList(new ProxyToken(-1, 1, 0, 0, 0, 0, whitespace.length() - 1, 0, 0));
-            ParseTreeElement root = new ParseTreeElement(ParseTreeElementKind.ROOT);
-            return new ParseTreeProxy(newTokens, tokenTypes, root, eofType, Collections.<ParseTreeElement>emptyList(),
+            return new ParseTreeProxy(newTokens, tokenTypes, new CompactParseTree(0), eofType,
                     Collections.<ProxySyntaxError>emptySet(), parserRuleNames, channelNames, false, "x", grammarName,
-                    Paths.get(grammarPath), whitespace, null, null, Collections.emptyList(), lexerRuleNames,
-                    Collections.emptySet(), defaultMode, modeNames, grammarTokensHash, tokenNamesChecksum);
+                    Paths.get(grammarPath), whitespace, null, Collections.emptyList(), lexerRuleNames,
+                    Collections.emptySet(), defaultMode, modeNames, grammarTokensHash, tokenNamesChecksum, null, null);
         }
 
         public RuntimeException thrown() {
@@ -571,9 +658,83 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
          * @return A token or null
          */
         public ProxyToken tokenAtLinePosition(int line, int charPositionInLine) {
+            if (tokens.isEmpty()) {
+                return null;
+            }
+            int offset = offsetOf(line, charPositionInLine);
+            if (offset >= 0) {
+                ProxyToken result = tokenAtPosition(offset);
+                if (result != null) {
+                    return result;
+                }
+            }
             return tokenAtLinePosition(line, charPositionInLine, 0, tokens.size() - 1);
         }
 
+        private int[] lineStarts() {
+            if (lineStarts == null && text != null) {
+                lineStarts = computeLineStarts(text);
+            }
+            return lineStarts;
+        }
+
+        /**
+         * Get the number of lines in the parsed text.
+         *
+         * @return The line count, or 0 if there is no text
+         */
+        public int lineCount() {
+            int[] starts = lineStarts();
+            return starts == null ? 0 : starts.length;
+        }
+
+        /**
+         * Get the character offset at which a line starts.
+         *
+         * @param line A 1-based line number, as reported by Antlr
+         * @return An offset, or -1 if out of range
+         */
+        public int lineStart(int line) {
+            int[] starts = lineStarts();
+            if (starts == null || line < 1 || line > starts.length) {
+                return -1;
+            }
+            return starts[line - 1];
+        }
+
+        /**
+         * Get the 1-based line number (as Antlr reports it) containing a
+         * character offset. Uses binary search.
+         *
+         * @param offset A character offset
+         * @return A line number, or -1 if out of range
+         */
+        public int lineAt(int offset) {
+            int[] starts = lineStarts();
+            if (starts == null || offset < 0 || offset > text.length()) {
+                return -1;
+            }
+            return lineIndex(starts, offset) + 1;
+        }
+
+        /**
+         * Convert a line and position within it, as found in syntax errors and
+         * tokens, to a character offset.
+         *
+         * @param line A 1-based line number
+         * @param charPositionInLine The 0-based position within the line
+         * @return An offset, or -1 if the position does not exist in the text
+         */
+        public int offsetOf(int line, int charPositionInLine) {
+            int start = lineStart(line);
+            if (start < 0 || charPositionInLine < 0) {
+                return -1;
+            }
+            int result = start + charPositionInLine;
+            int limit = line < lineStarts.length ? lineStarts[line] : text.length() + 1;
+            return result < limit ? result : -1;
+        }
+
         private ProxyToken tokenAtPosition(int position, int start, int end) {
             // Binary search
             int middle = start + ((end - start) / 2);
@@ -721,8 +882,14 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
             return hasSyntaxErrors() || hasParseErrors();
         }
 
+        /**
+         * Get all elements of the parse tree in preorder; elements are
+         * created as they are fetched from the returned list.
+         *
+         * @return A list of elements
+         */
         public List<ParseTreeElement> allTreeElements() {
-            return Collections.unmodifiableList(treeElements);
+            return Collections.unmodifiableList(tree.elements());
         }
 
         public List<ProxySyntaxError> syntaxErrors() {
@@ -752,7 +919,7 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
         }
 
         public Iterable<ParseTreeElement> parseTreeRoots() {
-            return root;
+            return tree.root();
         }
 
         public int tokenTypeCount() {
@@ -779,7 +946,7 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
                     + tokenTypes + "\n syntaxErrors="
                     + syntaxErrors + "\n parserRuleNames=" + Arrays.toString(parserRuleNames)
                     + "\n channelNames=" + Arrays.toString(channelNames) + "\n hasParseErrors="
-                    + hasParseErrors + "\n hashString=" + hashString + "\n root=" + root + '}';
+                    + hasParseErrors + "\n hashString=" + hashString + "\n tree=" + tree + '}';
         }
 
         public List<ProxyToken> tokensForElement(ParseTreeElement el) {
@@ -796,34 +963,6 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
         }
     }
 
-    void addElement(ParseTreeElement el) {
-        switch (el.kind()) {
-            case RULE:
-                presentRuleNames.add(el.name());
-        }
-        int index = treeElements.size();
-        treeElements.add(el);
-        if (el instanceof TokenAssociated) {
-            TokenAssociated ta = (TokenAssociated) el;
-            if (!el.isSynthetic()) {
-                for (int tokenIndex = Math.max(0, ta.startTokenIndex()); tokenIndex < ta.endTokenIndex(); tokenIndex++) {
-                    if (ruleReferences == null) {
-                        ruleReferences = new BitSet[tokens.size() + 1];
-                    }
-                    if (tokenIndex >= ruleReferences.length) {
-                        // Happens when we are adding elements for a lexer-only grammar
-                        ruleReferences = Arrays.copyOf(ruleReferences, tokenIndex + 16);
-                    }
-                    BitSet set = ruleReferences[tokenIndex];
-                    if (set == null) {
-                        set = ruleReferences[tokenIndex] = new BitSet(treeElements.size());
-                    }
-                    set.set(index);
-                }
-            }
-        }
-    }
-
     private final byte[] hashScratch = new byte[4];
 
     public AntlrProxies onToken(int type, int line, int charPositionInLine, int channel, int tokenIndex, int startIndex, int stopIndex, int trim, int mode) {
@@ -863,7 +1002,10 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
     }
 
     public ParseTreeBuilder treeBuilder() {
-        return new ParseTreeBuilder(root = new ParseTreeElement(ParseTreeElementKind.ROOT), this);
+        // Rule and terminal nodes together usually number two to three
+        // times the token count
+        tree = new CompactParseTree(Math.max(16, tokens.size() * 3));
+        return new ParseTreeBuilder(tree, this);
     }
 
     public void onSyntaxError(String message, int line, int charPositionInLine, int tokenIndex, int type, int startIndex, int stopIndex) {
@@ -1444,46 +1586,437 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
 
     public static final class ParseTreeBuilder {
 
-        private ParseTreeElement element;
+        private final CompactParseTree tree;
         private final AntlrProxies proxies;
+        private int current = -1;
 
-        ParseTreeBuilder(ParseTreeElement root, AntlrProxies proxies) {
-            element = root;
+        ParseTreeBuilder(CompactParseTree tree, AntlrProxies proxies) {
+            this.tree = tree;
             this.proxies = proxies;
         }
 
         public ParseTreeBuilder addRuleNode(String ruleName, int alternative,
                 int firstToken, int lastToken, int depth, Runnable run) {
-            ParseTreeElement old = element;
+            int old = current;
+            int index = tree.addRule(ruleName, alternative, firstToken, lastToken, old, depth);
+            proxies.presentRuleNames.add(ruleName);
             try {
-                element = new RuleNodeTreeElement(ruleName, alternative, firstToken, lastToken, depth);
-                proxies.addElement(element);
-                old.add(element);
+                current = index;
                 run.run();
             } finally {
-                element = old;
+                tree.closeRule(index);
+                current = old;
             }
             return this;
         }
 
         public ParseTreeBuilder addTerminalNode(int tokenIndex, String tokenText, int currentDepth) {
-            TerminalNodeTreeElement nue = new TerminalNodeTreeElement(tokenIndex, tokenText, currentDepth);
-            proxies.addElement(nue);
-            element.add(nue);
+            tree.addTerminal(tokenIndex, -1, -1, tokenText == null ? "" : tokenText, current, currentDepth);
+            return this;
+        }
+
+        /**
+         * Add a terminal node whose text is taken from the parsed text when
+         * it is needed, rather than copied for every token.
+         *
+         * @param tokenIndex The token index
+         * @param startOffset The token's start character offset
+         * @param stopOffset The token's stop character offset (inclusive)
+         * @param currentDepth The depth in the tree
+         * @return this
+         */
+        public ParseTreeBuilder addTerminalNode(int tokenIndex, int startOffset, int stopOffset, int currentDepth) {
+            tree.addTerminal(tokenIndex, startOffset, stopOffset, null, current, currentDepth);
             return this;
         }
 
         public ParseTreeBuilder addErrorNode(int startToken, int endToken, int depth, int tokenStart, int tokenStop, String tokenText, int tokenType) {
-            ErrorNodeTreeElement err = new ErrorNodeTreeElement(startToken, endToken, depth, 
-                    tokenStart, tokenStop, tokenText, tokenType);
-            proxies.addElement(err);
-            element.add(err);
+            tree.addError(startToken, endToken, current, depth, tokenStart, tokenStop, tokenText, tokenType);
             proxies.hasParseErrors = true;
             return this;
         }
 
         public ParseTreeElement build() {
-            return element;
+            return tree.root();
+        }
+    }
+
+    /**
+     * The parse tree of a ParseTreeProxy, encoded as parallel arrays in
+     * preorder, so a parse creates a handful of arrays rather than an object
+     * per node plus a per-token index of the elements spanning it. Most
+     * consumers of a parse (the lexer, token coloring) never look at the tree;
+     * those that do get ParseTreeElement objects created on first access and
+     * cached, so repeated navigation returns the same instances. The subtree
+     * of node <code>i</code> occupies indices <code>i</code> through
+     * <code>ends[i] - 1</code>, so children are found by hopping from one
+     * sibling's end to the next.
+     */
+    static final class CompactParseTree implements Serializable {
+
+        private static final byte RULE = 0;
+        private static final byte TERMINAL = 1;
+        private static final byte ERROR = 2;
+        private int size;
+        private byte[] kinds;
+        // Rule name index, terminal token index or error record index
+        private int[] values;
+        // Start and stop token indices, or character offsets for terminals
+        private int[] starts;
+        private int[] stops;
+        private int[] ends;
+        private int[] parents;
+        private short[] depths;
+        private int[] alternatives;
+        private final List<String> names = new ArrayList<>(16);
+        private final Map<String, Integer> nameIndices = new HashMap<>(16);
+        private String[] terminalTexts;
+        private int errorCount;
+        private int[] errorTokenStarts;
+        private int[] errorTokenStops;
+        private int[] errorTokenTypes;
+        private String[] errorTexts;
+        private List<ProxyToken> tokens = Collections.emptyList();
+        private CharSequence text;
+        private transient ParseTreeElement[] materialized;
+        private transient ParseTreeElement root;
+        // Lowest and highest token index referenced anywhere in a subtree,
+        // computed on the first call to referencing()
+        private transient int[] subtreeLows;
+        private transient int[] subtreeHighs;
+
+        CompactParseTree(int capacity) {
+            capacity = Math.max(4, capacity);
+            kinds = new byte[capacity];
+            values = new int[capacity];
+            starts = new int[capacity];
+            stops = new int[capacity];
+            ends = new int[capacity];
+            parents = new int[capacity];
+            depths = new short[capacity];
+            alternatives = new int[capacity];
+        }
+
+        void bind(List<ProxyToken> tokens, CharSequence text) {
+            this.tokens = tokens;
+            this.text = text;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int add(byte kind, int value, int start, int stop, int parent, int depth, int alternative) {
+            if (size == kinds.length) {
+                int newSize = size + (size / 2);
+                kinds = Arrays.copyOf(kinds, newSize);
+                values = Arrays.copyOf(values, newSize);
+                starts = Arrays.copyOf(starts, newSize);
+                stops = Arrays.copyOf(stops, newSize);
+                ends = Arrays.copyOf(ends, newSize);
+                parents = Arrays.copyOf(parents, newSize);
+                depths = Arrays.copyOf(depths, newSize);
+                alternatives = Arrays.copyOf(alternatives, newSize);
+            }
+            int result = size++;
+            kinds[result] = kind;
+            values[result] = value;
+            starts[result] = start;
+            stops[result] = stop;
+            ends[result] = size;
+            parents[result] = parent;
+            depths[result] = (short) depth;
+            alternatives[result] = alternative;
+            return result;
+        }
+
+        int addRule(String ruleName, int alternative, int firstToken, int lastToken, int parent, int depth) {
+            Integer nameIndex = nameIndices.get(ruleName);
+            if (nameIndex == null) {
+                nameIndex = names.size();
+                names.add(ruleName);
+                nameIndices.put(ruleName, nameIndex);
+            }
+            return add(RULE, nameIndex, firstToken, lastToken, parent, depth, alternative);
+        }
+
+        void closeRule(int index) {
+            ends[index] = size;
+        }
+
+        int addTerminal(int tokenIndex, int startOffset, int stopOffset, String tokenText, int parent, int depth) {
+            int result = add(TERMINAL, tokenIndex, startOffset, stopOffset, parent, depth, 0);
+            if (tokenText != null) {
+                if (terminalTexts == null) {
+                    terminalTexts = new String[kinds.length];
+                } else if (terminalTexts.length <= result) {
+                    terminalTexts = Arrays.copyOf(terminalTexts, kinds.length);
+                }
+                terminalTexts[result] = tokenText;
+            }
+            return result;
+        }
+
+        int addError(int startToken, int stopToken, int parent, int depth, int tokenStart,
+                int tokenStop, String tokenText, int tokenType) {
+            if (errorTexts == null) {
+                errorTokenStarts = new int[4];
+                errorTokenStops = new int[4];
+                errorTokenTypes = new int[4];
+                errorTexts = new String[4];
+            } else if (errorCount == errorTexts.length) {
+                int newSize = errorCount * 2;
+                errorTokenStarts = Arrays.copyOf(errorTokenStarts, newSize);
+                errorTokenStops = Arrays.copyOf(errorTokenStops, newSize);
+                errorTokenTypes = Arrays.copyOf(errorTokenTypes, newSize);
+                errorTexts = Arrays.copyOf(errorTexts, newSize);
+            }
+            errorTokenStarts[errorCount] = tokenStart;
+            errorTokenStops[errorCount] = tokenStop;
+            errorTokenTypes[errorCount] = tokenType;
+            errorTexts[errorCount] = tokenText;
+            return add(ERROR, errorCount++, startToken, stopToken, parent, depth, 0);
+        }
+
+        private int startToken(int index) {
+            return kinds[index] == TERMINAL ? values[index] : starts[index];
+        }
+
+        private int stopToken(int index) {
+            return kinds[index] == TERMINAL ? values[index] : stops[index];
+        }
+
+        private boolean isSynthetic(int index) {
+            return kinds[index] == ERROR && (starts[index] == -1 || stops[index] == -1);
+        }
+
+        synchronized ParseTreeElement root() {
+            if (root == null) {
+                root = new ParseTreeElement(ParseTreeElementKind.ROOT);
+                root.lazyChildren(this, -1);
+            }
+            return root;
+        }
+
+        synchronized ParseTreeElement element(int index) {
+            if (materialized == null) {
+                materialized = new ParseTreeElement[size];
+            }
+            ParseTreeElement result = materialized[index];
+            if (result == null) {
+                switch (kinds[index]) {
+                    case RULE:
+                        result = new RuleNodeTreeElement(names.get(values[index]), alternatives[index],
+                                starts[index], stops[index], depths[index]);
+                        break;
+                    case TERMINAL:
+                        result = new TerminalNodeTreeElement(values[index], terminalText(index), depths[index]);
+                        break;
+                    default:
+                        int err = values[index];
+                        result = new ErrorNodeTreeElement(starts[index], stops[index], depths[index],
+                                errorTokenStarts[err], errorTokenStops[err], errorTexts[err], errorTokenTypes[err]);
+                        break;
+                }
+                int parent = parents[index];
+                result.parent = parent < 0 ? root() : element(parent);
+                if (ends[index] > index + 1) {
+                    result.lazyChildren(this, index);
+                }
+                materialized[index] = result;
+            }
+            return result;
+        }
+
+        private String terminalText(int index) {
+            if (terminalTexts != null && index < terminalTexts.length && terminalTexts[index] != null) {
+                return terminalTexts[index];
+            }
+            int start = starts[index];
+            int stop = stops[index];
+            if (start < 0 || text == null) {
+                return "";
+            } else if (stop < start) {
+                // Only EOF has an empty span
+                return "<EOF>";
+            }
+            try {
+                return text.subSequence(start, stop + 1).toString();
+            } catch (Exception ex) {
+                // If the char sequence is a snapshot, it may have bit the dust
+                Logger.getLogger(CompactParseTree.class.getName())
+                        .log(Level.INFO, "Cannot get text - defunct snapshot?", ex);
+                char[] c = new char[stop + 1 - start];
+                Arrays.fill(c, '-');
+                return new String(c);
+            }
+        }
+
+        synchronized void materializeChildren(ParseTreeElement el, int index) {
+            if (el.lazyTree == null) {
+                return;
+            }
+            int first = index + 1;
+            int end = index < 0 ? size : ends[index];
+            if (first < end) {
+                List<ParseTreeElement> kids = new ArrayList<>(5);
+                for (int i = first; i < end; i = ends[i]) {
+                    kids.add(element(i));
+                }
+                el.children = kids;
+            }
+            el.lazyTree = null;
+        }
+
+        List<ParseTreeElement> elements() {
+            return new AbstractList<ParseTreeElement>() {
+                @Override
+                public ParseTreeElement get(int index) {
+                    if (index < 0 || index >= size) {
+                        throw new IndexOutOfBoundsException(index + " of " + size);
+                    }
+                    return element(index);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+
+        List<ErrorNodeTreeElement> errorElements() {
+            if (errorCount == 0) {
+                return Collections.emptyList();
+            }
+            List<ErrorNodeTreeElement> result = new ArrayList<>(errorCount);
+            for (int i = 0; i < size; i++) {
+                if (kinds[i] == ERROR) {
+                    result.add((ErrorNodeTreeElement) element(i));
+                }
+            }
+            return result;
+        }
+
+        private synchronized void computeSubtreeSpans() {
+            if (subtreeLows != null) {
+                return;
+            }
+            int[] lows = new int[size];
+            int[] highs = new int[size];
+            for (int i = 0; i < size; i++) {
+                if (isSynthetic(i)) {
+                    lows[i] = Integer.MAX_VALUE;
+                    highs[i] = Integer.MIN_VALUE;
+                } else {
+                    lows[i] = Math.max(0, startToken(i));
+                    highs[i] = stopToken(i);
+                }
+            }
+            // Children always follow their parents, so a reverse pass
+            // folds every subtree into its root
+            for (int i = size - 1; i >= 0; i--) {
+                int parent = parents[i];
+                if (parent >= 0) {
+                    lows[parent] = Math.min(lows[parent], lows[i]);
+                    highs[parent] = Math.max(highs[parent], highs[i]);
+                }
+            }
+            subtreeHighs = highs;
+            subtreeLows = lows;
+        }
+
+        /**
+         * Find the indices of all elements whose token span includes the
+         * passed token index, in preorder, descending only into subtrees
+         * which reference that token somewhere.
+         *
+         * @param tokenIndex A token index
+         * @return An array of element indices
+         */
+        int[] referencing(int tokenIndex) {
+            if (size == 0) {
+                return new int[0];
+            }
+            computeSubtreeSpans();
+            int[] result = new int[16];
+            int count = 0;
+            int[] stack = new int[16];
+            int top = 0;
+            for (int i = 0; i < size; i = ends[i]) {
+                stack[top++] = i;
+                while (top > 0) {
+                    int curr = stack[--top];
+                    if (tokenIndex < subtreeLows[curr] || tokenIndex > subtreeHighs[curr]) {
+                        continue;
+                    }
+                    if (!isSynthetic(curr) && tokenIndex >= Math.max(0, startToken(curr))
+                            && tokenIndex <= stopToken(curr)) {
+                        if (count == result.length) {
+                            result = Arrays.copyOf(result, count * 2);
+                        }
+                        result[count++] = curr;
+                    }
+                    // Push children in reverse, so they are visited in order
+                    int childCount = 0;
+                    for (int child = curr + 1; child < ends[curr]; child = ends[child]) {
+                        childCount++;
+                    }
+                    if (top + childCount > stack.length) {
+                        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + childCount));
+                    }
+                    int pos = top + childCount;
+                    for (int child = curr + 1; child < ends[curr]; child = ends[child]) {
+                        stack[--pos] = child;
+                    }
+                    top += childCount;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            for (int i = 0; i < size; i++) {
+                hash = 37 * hash + (kinds[i] * 7) + (values[i] * 31) + (starts[i] * 11)
+                        + (stops[i] * 13) + ends[i];
+            }
+            return hash + 3 * names.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            } else if (!(o instanceof CompactParseTree)) {
+                return false;
+            }
+            CompactParseTree other = (CompactParseTree) o;
+            if (other.size != size || other.errorCount != errorCount || !names.equals(other.names)) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (kinds[i] != other.kinds[i] || values[i] != other.values[i]
+                        || starts[i] != other.starts[i] || stops[i] != other.stops[i]
+                        || ends[i] != other.ends[i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < errorCount; i++) {
+                if (errorTokenStarts[i] != other.errorTokenStarts[i]
+                        || errorTokenStops[i] != other.errorTokenStops[i]
+                        || errorTokenTypes[i] != other.errorTokenTypes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "CompactParseTree(" + size + " elements, " + names.size()
+                    + " rules, " + errorCount + " errors)";
         }
     }
 
@@ -1492,6 +2025,9 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
         private List<ParseTreeElement> children;
         private final ParseTreeElementKind kind;
         private ParseTreeElement parent;
+        // Set while this element's children have yet to be created
+        private transient volatile CompactParseTree lazyTree;
+        private transient int lazyIndex;
 
         public ParseTreeElement(ParseTreeElementKind kind) {
             this.kind = kind;
@@ -1547,7 +2083,21 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
                     : parent.kind == ParseTreeElementKind.ROOT;
         }
 
+        void lazyChildren(CompactParseTree tree, int index) {
+            lazyIndex = index;
+            lazyTree = tree;
+        }
+
+        private List<ParseTreeElement> children() {
+            CompactParseTree lazy = lazyTree;
+            if (lazy != null) {
+                lazy.materializeChildren(this, lazyIndex);
+            }
+            return children;
+        }
+
         protected void add(ParseTreeElement child) {
+            children();
             child.parent = this;
             if (children == null) {
                 children = new ArrayList<>(5);
@@ -1557,8 +2107,9 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
 
         @Override
         public Iterator<ParseTreeElement> iterator() {
-            return children == null ? Collections.emptyIterator()
-                    : children.iterator();
+            List<ParseTreeElement> kids = children();
+            return kids == null ? Collections.emptyIterator()
+                    : kids.iterator();
         }
 
         @Override
@@ -1572,8 +2123,9 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
 
         public StringBuilder toString(String indent, StringBuilder into) {
             into.append('\n').append(indent).append(stringify());
-            if (children != null) {
-                for (ParseTreeElement kid : children) {
+            List<ParseTreeElement> kids = children();
+            if (kids != null) {
+                for (ParseTreeElement kid : kids) {
                     kid.toString(indent + "  ", into);
                 }
             }
@@ -1583,7 +2135,7 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
         @Override
         public int hashCode() {
             int hash = kind.ordinal() * 67;
-            hash = 67 * hash + Objects.hashCode(this.children);
+            hash = 67 * hash + Objects.hashCode(children());
             return hash;
         }
 
@@ -1602,7 +2154,7 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
             if (this.kind != other.kind) {
                 return false;
             }
-            return Objects.equals(this.children, other.children);
+            return Objects.equals(children(), other.children());
         }
     }
 
@@ -2003,4 +2555,250 @@ java.lang.ArrayIndexOutOfBoundsException: 2441
             return true;
         }
     }
+
+    /**
+     * Per-decision prediction statistics from a profiling parse, stored as
+     * parallel arrays with one row per decision the parser actually visited,
+     * so that even a profile of a large grammar is compact. Times are in
+     * nanoseconds. Note that the generated parser's DFA cache is shared
+     * across parses, so a decision which has already been predicted for some
+     * input will show less lookahead on subsequent parses.
+     */
+    public static final class DecisionProfile implements Serializable {
+
+        private int size;
+        private int[] decisions;
+        private int[] ruleIndices;
+        private long[] invocations;
+        private long[] timeInPrediction;
+        private long[] sllTotalLook;
+        private long[] sllMaxLook;
+        private long[] llFallbacks;
+        private long[] llTotalLook;
+        private long[] llMaxLook;
+        private int[] ambiguities;
+        private int[] errors;
+        private String[] ruleNames = new String[0];
+
+        DecisionProfile(int capacity) {
+            capacity = Math.max(1, capacity);
+            decisions = new int[capacity];
+            ruleIndices = new int[capacity];
+            invocations = new long[capacity];
+            timeInPrediction = new long[capacity];
+            sllTotalLook = new long[capacity];
+            sllMaxLook = new long[capacity];
+            llFallbacks = new long[capacity];
+            llTotalLook = new long[capacity];
+            llMaxLook = new long[capacity];
+            ambiguities = new int[capacity];
+            errors = new int[capacity];
+        }
+
+        void add(int decision, int ruleIndex, long invocations, long timeInPrediction,
+                long sllTotalLook, long sllMaxLook, long llFallback, long llTotalLook,
+                long llMaxLook, int ambiguities, int errors) {
+            if (size == decisions.length) {
+                int newSize = size * 2;
+                decisions = Arrays.copyOf(decisions, newSize);
+                ruleIndices = Arrays.copyOf(ruleIndices, newSize);
+                this.invocations = Arrays.copyOf(this.invocations, newSize);
+                this.timeInPrediction = Arrays.copyOf(this.timeInPrediction, newSize);
+                this.sllTotalLook = Arrays.copyOf(this.sllTotalLook, newSize);
+                this.sllMaxLook = Arrays.copyOf(this.sllMaxLook, newSize);
+                llFallbacks = Arrays.copyOf(llFallbacks, newSize);
+                this.llTotalLook = Arrays.copyOf(this.llTotalLook, newSize);
+                this.llMaxLook = Arrays.copyOf(this.llMaxLook, newSize);
+                this.ambiguities = Arrays.copyOf(this.ambiguities, newSize);
+                this.errors = Arrays.copyOf(this.errors, newSize);
+            }
+            decisions[size] = decision;
+            ruleIndices[size] = ruleIndex;
+            this.invocations[size] = invocations;
+            this.timeInPrediction[size] = timeInPrediction;
+            this.sllTotalLook[size] = sllTotalLook;
+            this.sllMaxLook[size] = sllMaxLook;
+            llFallbacks[size] = llFallback;
+            this.llTotalLook[size] = llTotalLook;
+            this.llMaxLook[size] = llMaxLook;
+            this.ambiguities[size] = ambiguities;
+            this.errors[size] = errors;
+            size++;
+        }
+
+        DecisionProfile withRuleNames(String[] ruleNames) {
+            if (ruleNames != null) {
+                this.ruleNames = ruleNames;
+            }
+            return this;
+        }
+
+        /**
+         * Combine the statistics of two profiles of the same grammar, for
+         * example over all the files in a corpus, summing counts and times
+         * and taking the greater of maximum lookahead depths.
+         *
+         * @param a A profile, or null
+         * @param b Another profile, or null
+         * @return A new profile, or whichever argument is non-null if the
+         * other is null
+         */
+        public static DecisionProfile merge(DecisionProfile a, DecisionProfile b) {
+            if (a == null) {
+                return b;
+            } else if (b == null) {
+                return a;
+            }
+            DecisionProfile result = new DecisionProfile(a.size + b.size);
+            result.ruleNames = a.ruleNames.length >= b.ruleNames.length ? a.ruleNames : b.ruleNames;
+            for (int i = 0; i < a.size; i++) {
+                result.add(a.decisions[i], a.ruleIndices[i], a.invocations[i], a.timeInPrediction[i],
+                        a.sllTotalLook[i], a.sllMaxLook[i], a.llFallbacks[i], a.llTotalLook[i],
+                        a.llMaxLook[i], a.ambiguities[i], a.errors[i]);
+            }
+            for (int i = 0; i < b.size; i++) {
+                int row = result.rowOf(b.decisions[i]);
+                if (row < 0) {
+                    result.add(b.decisions[i], b.ruleIndices[i], b.invocations[i], b.timeInPrediction[i],
+                            b.sllTotalLook[i], b.sllMaxLook[i], b.llFallbacks[i], b.llTotalLook[i],
+                            b.llMaxLook[i], b.ambiguities[i], b.errors[i]);
+                } else {
+                    result.invocations[row] += b.invocations[i];
+                    result.timeInPrediction[row] += b.timeInPrediction[i];
+                    result.sllTotalLook[row] += b.sllTotalLook[i];
+                    result.sllMaxLook[row] = Math.max(result.sllMaxLook[row], b.sllMaxLook[i]);
+                    result.llFallbacks[row] += b.llFallbacks[i];
+                    result.llTotalLook[row] += b.llTotalLook[i];
+                    result.llMaxLook[row] = Math.max(result.llMaxLook[row], b.llMaxLook[i]);
+                    result.ambiguities[row] += b.ambiguities[i];
+                    result.errors[row] += b.errors[i];
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Find the row for a decision number.
+         *
+         * @param decision A decision number
+         * @return The row, or -1 if the decision was never visited
+         */
+        public int rowOf(int decision) {
+            for (int i = 0; i < size; i++) {
+                if (decisions[i] == decision) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public int decision(int row) {
+            return decisions[checkRow(row)];
+        }
+
+        public int ruleIndex(int row) {
+            return ruleIndices[checkRow(row)];
+        }
+
+        public String ruleName(int row) {
+            int ix = ruleIndex(row);
+            return ix >= 0 && ix < ruleNames.length ? ruleNames[ix] : "<rule-" + ix + ">";
+        }
+
+        public long invocations(int row) {
+            return invocations[checkRow(row)];
+        }
+
+        public long timeInPrediction(int row) {
+            return timeInPrediction[checkRow(row)];
+        }
+
+        public long sllTotalLook(int row) {
+            return sllTotalLook[checkRow(row)];
+        }
+
+        public long sllMaxLook(int row) {
+            return sllMaxLook[checkRow(row)];
+        }
+
+        public double sllAverageLook(int row) {
+            long inv = invocations(row);
+            return inv == 0 ? 0 : sllTotalLook[row] / (double) inv;
+        }
+
+        public long llFallbacks(int row) {
+            return llFallbacks[checkRow(row)];
+        }
+
+        public long llTotalLook(int row) {
+            return llTotalLook[checkRow(row)];
+        }
+
+        public long llMaxLook(int row) {
+            return llMaxLook[checkRow(row)];
+        }
+
+        public int ambiguities(int row) {
+            return ambiguities[checkRow(row)];
+        }
+
+        public int errors(int row) {
+            return errors[checkRow(row)];
+        }
+
+        public long totalTimeInPrediction() {
+            long result = 0;
+            for (int i = 0; i < size; i++) {
+                result += timeInPrediction[i];
+            }
+            return result;
+        }
+
+        /**
+         * Get the rows which spent the most time in prediction.
+         *
+         * @param count The maximum number of rows
+         * @return An array of row indices, most expensive first
+         */
+        public int[] hottest(int count) {
+            Integer[] rows = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = i;
+            }
+            Arrays.sort(rows, (a, b) -> Long.compare(timeInPrediction[b], timeInPrediction[a]));
+            int[] result = new int[Math.min(Math.max(0, count), size)];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = rows[i];
+            }
+            return result;
+        }
+
+        private int checkRow(int row) {
+            if (row < 0 || row >= size) {
+                throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+            }
+            return row;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(64 * (size + 1));
+            sb.append("DecisionProfile(").append(size).append(" decisions, ")
+                    .append(totalTimeInPrediction() / 1_000_000D).append("ms)");
+            for (int row : hottest(size)) {
+                sb.append(String.format("\n%6d %-24s %10d inv %12dns sll-max %4d ll-fallback %6d ll-max %4d amb %4d",
+                        decisions[row], ruleName(row), invocations[row], timeInPrediction[row],
+                        sllMaxLook[row], llFallbacks[row], llMaxLook[row], ambiguities[row]));
+            }
+            return sb.toString();
+        }
+    }
 }
@@ -21,22 +21,39 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.antlr.v4.runtime.ANTLRErrorListener;
 import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenFactory;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.ListTokenSource;
 import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Recognizer;
 import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.atn.ATN;
 import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.DecisionInfo; //parser
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.atn.ParserATNSimulator; //parser
+import org.antlr.v4.runtime.atn.PredictionContextCache;
 import org.antlr.v4.runtime.atn.PredictionMode;
 import org.antlr.v4.runtime.dfa.DFA;
 import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ErrorNode;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
 import org.antlr.v4.runtime.tree.ParseTreeVisitor;
 import org.antlr.v4.runtime.tree.RuleNode;
 import org.antlr.v4.runtime.tree.TerminalNode;
@@ -74,6 +91,13 @@ public class ParserExtractor {
     private static final String GRAMMAR_NAME = "DummyLanguage";
     private static final Path GRAMMAR_PATH = Paths.get("/replace/with/path");
     private static final String GRAMMAR_TOKENS_HASH = "--tokensHash--";
+    private static final Method[] START_RULES = new Method[DummyLanguageParser.ruleNames.length]; //parser
+    // Antlr keeps the DFA in static fields of the generated lexer and parser,
+    // where it grows for as long as this environment lives; lexers and
+    // parsers share these instead, which are started over when too large
+    static long maxDfaStates = Long.getLong("antlr.dfa.max.states", 250_000);
+    static BoundedDfa lexerDfa;
+    static BoundedDfa parserDfa; //parser
 
     public static org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeProxy //parser
             extract(String text, String ruleName) { //parser
@@ -88,8 +112,28 @@ public class ParserExtractor {
         return extract(text, 0);
     }
 
-    @SuppressWarnings("deprecation")
     public static org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeProxy extract(CharSequence text, int ruleIndex) {
+        return extract(text, ruleIndex, false);
+    }
+
+    /**
+     * Parse the passed text; if detectAmbiguities is true, the parser runs in
+     * LL_EXACT_AMBIG_DETECTION mode, which is the only mode that reliably
+     * reports ambiguities, and also the slowest; otherwise it runs in plain LL
+     * mode, which produces the same parse tree and errors without the cost of
+     * computing every conflicting alternative.
+     */
+    public static org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeProxy extract(CharSequence text, int ruleIndex, boolean detectAmbiguities) {
+        return extract(text, ruleIndex, detectAmbiguities, false);
+    }
+
+    /**
+     * Parse the passed text, optionally with the parser's profiling ATN
+     * simulator installed, in which case per-decision prediction statistics
+     * are copied into the result.
+     */
+    @SuppressWarnings("deprecation")
+    public static org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeProxy extract(CharSequence text, int ruleIndex, boolean detectAmbiguities, boolean profile) {
         org.nemesis.antlr.live.parsing.extract.AntlrProxies proxies
                 = new org.nemesis.antlr.live.parsing.extract.AntlrProxies(GRAMMAR_NAME, GRAMMAR_PATH, text);
         proxies.setGrammarTokensHash(GRAMMAR_TOKENS_HASH);
@@ -102,8 +146,6 @@ public class ParserExtractor {
             int defaultMode = DummyLanguageLexer.DEFAULT_MODE;
             String[] modeNames = DummyLanguageLexer.modeNames;
             proxies.setModeInfo(defaultMode, modeNames);
-            int[] lineEnds = null;
-            int lineCount = -1;
             // We may have been called just to build a lexer vocabulary w/o text
             // to parse
             if (text != null) {
@@ -112,12 +154,22 @@ public class ParserExtractor {
                 // that call would fail
                 CharSequenceCharStream charStream = new CharSequenceCharStream(text);
                 DummyLanguageLexer lex = new DummyLanguageLexer(charStream);
+                BoundedDfa lexDfa = lexerDfa(lex.getATN());
+                lex.setInterpreter(new LexerATNSimulator(lex, lex.getATN(), lexDfa.decisionToDFA, lexDfa.contextCache));
                 lex.removeErrorListeners();
+                if (lex.getTokenFactory() == CommonTokenFactory.DEFAULT) {
+                    // Lets us tell which tokens a lexer action gave text other
+                    // than their span, without copying the text of every token
+                    lex.setTokenFactory(SpanTokenFactory.INSTANCE);
+                }
                 // Collect all of the tokens
                 ErrL errorListener = new ErrL(proxies, charStream);
                 lex.addErrorListener(errorListener);
                 Token tok;
                 int tokenIndex = 0;
+                // Keep the lexer's tokens so the parser can be fed from them,
+                // rather than lexing the entire text a second time
+                List<Token> lexedTokens = new ArrayList<>(Math.max(16, text.length() / 4)); //parser
                 org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeBuilder //lexerOnly
                         lexerTreeBuilder = proxies.treeBuilder(); //lexerOnly
 //                System.out.println("\nUsing lexer code for " + GRAMMAR_PATH + "\n"); //lexerOnly
@@ -133,43 +185,14 @@ public class ParserExtractor {
                     // While we have some magic in AdhocLexer to deal with this,
                     // it is best handled here
                     if (type != DummyLanguageLexer.EOF && start > prevStop + 1) {
-                        // Synthesize a dummy token here
+                        // Synthesize a dummy token here; the line table
+                        // is computed once, on the first gap, and shared with
+                        // the resulting ParseTreeProxy
                         int erroneousType = max;
-                        if (lineEnds == null) {
-                            lineEnds = new int[Math.max(100, text.length() / 45)];
-                            int cursor = 0;
-                            lineCount = 0;
-                            for (int i = 0; i < text.length(); i++) {
-                                if (text.charAt(i) == '\n') {
-                                    // It would be nice to use IntList but that
-                                    // would drag in a bunch of dependencies we have
-                                    // to load in our lockless isolating classloader,
-                                    // so do it the hard way
-                                    if (cursor > lineEnds.length) {
-                                        lineEnds = Arrays.copyOf(lineEnds, lineEnds.length * 2);
-                                    }
-                                    lineEnds[cursor++] = i;
-                                    lineCount++;
-                                }
-                            }
-                        }
-                        int errorBeginLine = 0;
-                        int errorCharPosition = 0;
-                        for (int i = 0; i < lineCount; i++) {
-                            int prevLineEnd = i == 0 ? 0 : lineEnds[i - 1];
-                            int currLineEnd = lineEnds[i];
-                            if (prevStop == prevLineEnd) {
-                                errorBeginLine = i + 1;
-                                break;
-                            } else if (prevStop > prevLineEnd && prevStop < currLineEnd) {
-                                errorBeginLine = i;
-                                errorCharPosition = prevStop - prevLineEnd;
-                                break;
-                            }
-                        }
-                        proxies.onToken(erroneousType, errorBeginLine,
-                                errorCharPosition, 0, tokenIndex++,
-                                prevStop + 1, start - 1, 0, 0);
+                        int gapStart = prevStop + 1;
+                        proxies.onToken(erroneousType, proxies.lineOf(gapStart),
+                                proxies.charPositionInLine(gapStart), 0, tokenIndex++,
+                                gapStart, start - 1, 0, 0);
                     }
                     prevStop = stop;
                     errorListener.updateTokenIndex(tokenIndex, type);
@@ -195,36 +218,180 @@ public class ParserExtractor {
                             tok.getLine(), tok.getCharPositionInLine(),
                             tok.getChannel(), tokenIndex++,
                             start, stop, trim, lex._mode);
+                    lexedTokens.add(tok); //parser
                     if (type != DummyLanguageLexer.EOF) { //lexerOnly
-                        lexerTreeBuilder.addTerminalNode(tokenIndex - 1, tok.getText(), 1); //lexerOnly
+                        if (hasOwnText(tok)) { //lexerOnly
+                            lexerTreeBuilder.addTerminalNode(tokenIndex - 1, tok.getText(), 1); //lexerOnly
+                        } else { //lexerOnly
+                            lexerTreeBuilder.addTerminalNode(tokenIndex - 1, start, stop, 1); //lexerOnly
+                        } //lexerOnly
                     } //lexerOnly
                 } while (tok.getType() != DummyLanguageLexer.EOF);
                 lexerTreeBuilder.build(); //lexerOnly
-                lex.reset(); //parser
                 errorListener.updateTokenIndex(0, -1);
-                // Now lex again to run the parser
-                CommonTokenStream cts = new CommonTokenStream(lex, 0); // parser
-                errorListener.cts = cts;
+                // Replay the tokens we already have to the parser; the stream
+                // assigns token indices as it buffers them, exactly as it would
+                // have pulling them from the lexer
+                CommonTokenStream cts = new CommonTokenStream(new ListTokenSource(lexedTokens, GRAMMAR_NAME), 0); //parser
+                errorListener.cts = cts; //parser
                 DummyLanguageParser parser = new DummyLanguageParser(cts); //parser
-                parser.getInterpreter().setPredictionMode(PredictionMode.LL_EXACT_AMBIG_DETECTION); //parser
+                // Before setProfile(), which copies the DFA of the interpreter it replaces
+                BoundedDfa parseDfa = parserDfa(parser.getATN()); //parser
+                parser.setInterpreter(new ParserATNSimulator(parser, parser.getATN(), parseDfa.decisionToDFA, parseDfa.contextCache)); //parser
+                parser.setProfile(profile); //parser
+                parser.getInterpreter().setPredictionMode(detectAmbiguities ? PredictionMode.LL_EXACT_AMBIG_DETECTION : PredictionMode.LL); //parser
+                if (detectAmbiguities) { //parser
+                    // Exact ambiguity detection can run for seconds on a long
+                    // text; callers cancel it by interrupting the thread
+                    parser.addParseListener(InterruptCheck.INSTANCE); //parser
+                } //parser
                 parser.removeErrorListeners(); //parser
                 parser.addErrorListener(errorListener); //parser
                 org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeBuilder //parser
                         bldr = proxies.treeBuilder(); //parser
                 RuleTreeVisitor v = new RuleTreeVisitor(bldr); //parser
-                String startRuleMethodName = DummyLanguageParser.ruleNames[ruleIndex].replace("-", "_"); //parser
-                Method method = DummyLanguageParser.class.getMethod(startRuleMethodName); //parser
-                ParseTree pt = (ParseTree) method.invoke(parser); //parser
+                ParseTree pt = (ParseTree) startRule(ruleIndex).invoke(parser); //parser
                 pt.accept(v); //parser
                 bldr.build(); //parser
+                if (profile) { //parser
+                    collectDecisionProfile(parser, proxies); //parser
+                } //parser
             }
         } catch (Exception | Error ex) {
-            ex.printStackTrace();
+            // The start rule is invoked reflectively, so a cancellation
+            // arrives wrapped
+            if (!(ex.getCause() instanceof ParseCancellationException)) {
+                ex.printStackTrace();
+            }
             proxies.onThrown(ex);
         }
         return proxies.result();
     }
 
+    // Lexers and parsers are deliberately not reused across parses: grammars
+    // can declare state in @members (pending token queues, nesting counters,
+    // mode flags) which nothing generic could reset
+    static Method startRule(int ruleIndex) throws NoSuchMethodException { //parser
+        Method result = START_RULES[ruleIndex]; //parser
+        if (result == null) { //parser
+            String startRuleMethodName = DummyLanguageParser.ruleNames[ruleIndex].replace("-", "_"); //parser
+            result = START_RULES[ruleIndex] = DummyLanguageParser.class.getMethod(startRuleMethodName); //parser
+        } //parser
+        return result; //parser
+    } //parser
+
+    static void collectDecisionProfile(DummyLanguageParser parser, org.nemesis.antlr.live.parsing.extract.AntlrProxies proxies) { //parser
+        for (DecisionInfo info : parser.getParseInfo().getDecisionInfo()) { //parser
+            if (info.invocations > 0) { //parser
+                int ruleIndex = parser.getATN().getDecisionState(info.decision).ruleIndex; //parser
+                proxies.onDecisionProfile(info.decision, ruleIndex, info.invocations, //parser
+                        info.timeInPrediction, info.SLL_TotalLook, info.SLL_MaxLook, //parser
+                        info.LL_Fallback, info.LL_TotalLook, info.LL_MaxLook, //parser
+                        info.ambiguities.size(), info.errors.size()); //parser
+            } //parser
+        } //parser
+    } //parser
+
+    static synchronized BoundedDfa lexerDfa(ATN atn) {
+        if (lexerDfa == null || lexerDfa.isFull()) {
+            lexerDfa = new BoundedDfa(atn);
+        }
+        return lexerDfa;
+    }
+
+    static synchronized BoundedDfa parserDfa(ATN atn) { //parser
+        if (parserDfa == null || parserDfa.isFull()) { //parser
+            parserDfa = new BoundedDfa(atn); //parser
+        } //parser
+        return parserDfa; //parser
+    } //parser
+
+    /**
+     * A DFA cache shared by the recognizers of one kind; recognizers already
+     * using one when it is replaced keep it until they finish.
+     */
+    static final class BoundedDfa {
+
+        private static final int CHECK_INTERVAL = 16;
+        final DFA[] decisionToDFA;
+        final PredictionContextCache contextCache = new PredictionContextCache();
+        private final AtomicInteger uses = new AtomicInteger();
+
+        BoundedDfa(ATN atn) {
+            decisionToDFA = new DFA[atn.getNumberOfDecisions()];
+            for (int i = 0; i < decisionToDFA.length; i++) {
+                decisionToDFA[i] = new DFA(atn.getDecisionState(i), i);
+            }
+        }
+
+        boolean isFull() {
+            if (uses.incrementAndGet() % CHECK_INTERVAL != 0) {
+                return false;
+            }
+            long states = 0;
+            for (DFA dfa : decisionToDFA) {
+                synchronized (dfa.states) {
+                    states += dfa.states.size();
+                }
+            }
+            return states > maxDfaStates;
+        }
+    }
+
+    /**
+     * Determine if a token's text may differ from the text of its span of the
+     * input - if a lexer action called setText(), or if the token was not
+     * created by SpanTokenFactory (a grammar's emit() can create its own) and
+     * so we cannot know.
+     */
+    static boolean hasOwnText(Token tok) {
+        return !(tok instanceof SpanToken) || ((SpanToken) tok).ownText;
+    }
+
+    /**
+     * A token which records whether its text was ever set explicitly.
+     */
+    static final class SpanToken extends CommonToken {
+
+        boolean ownText;
+
+        SpanToken(Pair<TokenSource, CharStream> source, int type, int channel, int start, int stop) {
+            super(source, type, channel, start, stop);
+        }
+
+        @Override
+        public void setText(String text) {
+            super.setText(text);
+            ownText = true;
+        }
+    }
+
+    /**
+     * Creates SpanTokens exactly as CommonTokenFactory.DEFAULT creates
+     * CommonTokens.
+     */
+    static final class SpanTokenFactory implements TokenFactory<CommonToken> {
+
+        static final SpanTokenFactory INSTANCE = new SpanTokenFactory();
+
+        @Override
+        public CommonToken create(Pair<TokenSource, CharStream> source, int type, String text,
+                int channel, int start, int stop, int line, int charPositionInLine) {
+            SpanToken result = new SpanToken(source, type, channel, start, stop);
+            result.setLine(line);
+            result.setCharPositionInLine(charPositionInLine);
+            if (text != null) {
+                result.setText(text);
+            }
+            return result;
+        }
+
+        @Override
+        public CommonToken create(int type, String text) {
+            return new CommonToken(type, text);
+        }
+    }
+
     static void collectChannelNames(AntlrProxies proxies) {
         // The channel names are simply a string array - safe enough
         try {
@@ -367,6 +534,37 @@ public class ParserExtractor {
         }
     }
 
+    private static final class InterruptCheck implements ParseTreeListener { //parser
+
+        static final InterruptCheck INSTANCE = new InterruptCheck(); //parser
+
+        private void check() { //parser
+            if (Thread.currentThread().isInterrupted()) { //parser
+                throw new ParseCancellationException("Interrupted"); //parser
+            } //parser
+        } //parser
+
+        @Override //parser
+        public void visitTerminal(TerminalNode node) { //parser
+            check(); //parser
+        } //parser
+
+        @Override //parser
+        public void visitErrorNode(ErrorNode node) { //parser
+            check(); //parser
+        } //parser
+
+        @Override //parser
+        public void enterEveryRule(ParserRuleContext ctx) { //parser
+            check(); //parser
+        } //parser
+
+        @Override //parser
+        public void exitEveryRule(ParserRuleContext ctx) { //parser
+            // do nothing //parser
+        } //parser
+    } //parser
+
     private static class RuleTreeVisitor implements ParseTreeVisitor<Void> { //parser
 
         private final org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeBuilder builder; //parser
@@ -401,7 +599,14 @@ public class ParserExtractor {
 
         @Override //parser
         public Void visitTerminal(TerminalNode node) { //parser
-            builder.addTerminalNode(node.getSymbol().getTokenIndex(), node.getText(), currentDepth + 1); //parser
+            Token sym = node.getSymbol(); //parser
+            // Pass offsets rather than text where the text is just the token's
+            // span, so the tree does not hold a copy of the text of every token
+            if (hasOwnText(sym)) { //parser
+                builder.addTerminalNode(sym.getTokenIndex(), sym.getText(), currentDepth + 1); //parser
+            } else { //parser
+                builder.addTerminalNode(sym.getTokenIndex(), sym.getStartIndex(), sym.getStopIndex(), currentDepth + 1); //parser
+            } //parser
             return null; //parser
         } //parser
 
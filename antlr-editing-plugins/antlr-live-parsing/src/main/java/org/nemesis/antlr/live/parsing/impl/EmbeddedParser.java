@@ -29,6 +29,34 @@ public interface EmbeddedParser {
 
     AntlrProxies.ParseTreeProxy parse(String logName, CharSequence body, int ruleNo) throws Exception;
 
+    /**
+     * Parse the passed text in the (much slower) prediction mode that reports
+     * every ambiguity the parser encounters; the default implementation simply
+     * performs a normal parse.
+     *
+     * @param logName The name for logging purposes
+     * @param body The text
+     * @return A parse tree proxy
+     * @throws Exception If something goes wrong
+     */
+    default AntlrProxies.ParseTreeProxy parseDetectingAmbiguities(String logName, CharSequence body) throws Exception {
+        return parse(logName, body);
+    }
+
+    /**
+     * Parse the passed text with the parser's profiling prediction simulator
+     * installed, so the result carries per-decision statistics; the default
+     * implementation simply performs a normal parse, whose result has none.
+     *
+     * @param logName The name for logging purposes
+     * @param body The text
+     * @return A parse tree proxy
+     * @throws Exception If something goes wrong
+     */
+    default AntlrProxies.ParseTreeProxy parseProfiling(String logName, CharSequence body) throws Exception {
+        return parse(logName, body);
+    }
+
     AntlrProxies.ParseTreeProxy parse(String logName, CharSequence body, String ruleName) throws Exception;
 
     void onDiscard();
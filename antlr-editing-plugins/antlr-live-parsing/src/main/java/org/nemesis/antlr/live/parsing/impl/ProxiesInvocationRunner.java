@@ -32,6 +32,8 @@ import java.lang.reflect.Method;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -105,6 +107,7 @@ public class ProxiesInvocationRunner extends InvocationRunner<EmbeddedParser, Ge
             .loadingFromParent(AntlrProxies.class)
             .loadingFromParent(AntlrProxies.ParseTreeBuilder.class)
             .loadingFromParent(AntlrProxies.Ambiguity.class)
+            .loadingFromParent(AntlrProxies.DecisionProfile.class)
             .loadingFromParent(AntlrProxies.ParseTreeElement.class)
             .loadingFromParent(AntlrProxies.ParseTreeElementKind.class)
             .loadingFromParent(AntlrProxies.ParseTreeProxy.class)
@@ -504,7 +507,11 @@ public class ProxiesInvocationRunner extends InvocationRunner<EmbeddedParser, Ge
 
     /**
      * This is really just a holder for the classloader created over the JFS,
-     * which is set before calling into generated classes.
+     * which is set before calling into generated classes. The generated
+     * lexer and parser keep their DFAs in static fields, so those live exactly
+     * as long as the classloader; the time taken by the first parse (class
+     * loading, JIT and DFA construction) and by subsequent ones is tracked
+     * separately and logged at FINE, to show what keeping the environment buys.
      */
     private static final class PreservedInvocationEnvironment implements EmbeddedParser {
 
@@ -518,6 +525,9 @@ public class ProxiesInvocationRunner extends InvocationRunner<EmbeddedParser, Ge
         private final Path grammarPath;
         private final JFS jfs;
         private volatile Runnable onFirst;
+        private final AtomicLong firstParseNanos = new AtomicLong(-1);
+        private final LongAdder steadyParseNanos = new LongAdder();
+        private final LongAdder steadyParses = new LongAdder();
 
         private PreservedInvocationEnvironment(ClassLoader ldr, String pkgName, GenerationResult res,
                 ThrowingTriFunction<String, Throwable, CharSequence, ParseTreeProxy> onEnvironmentCorrupted) {
@@ -540,10 +550,37 @@ public class ProxiesInvocationRunner extends InvocationRunner<EmbeddedParser, Ge
 
         @Override
         public String toString() {
-            return "PIE" + "(" + ref + " - " + typeName + " gi: "
+            return "PIE" + "(" + ref + " - " + typeName + " " + latencyInfo() + " gi: "
                     + genInfo.toString().replaceAll("\n", "; ").replaceAll("\\s+", " ") + ")";
         }
 
+        private String latencyInfo() {
+            long first = firstParseNanos.get();
+            if (first < 0) {
+                return "unused";
+            }
+            long count = steadyParses.sum();
+            return String.format("first %.3fms, then %.3fms avg over %d parses",
+                    first / 1_000_000D, count == 0 ? 0D
+                    : (steadyParseNanos.sum() / (double) count) / 1_000_000D, count);
+        }
+
+        private void recordLatency(long nanos) {
+            if (firstParseNanos.compareAndSet(-1, nanos)) {
+                LOG.log(Level.FINE, "First parse in {0} took {1}ms", new Object[]{
+                    typeName, nanos / 1_000_000D});
+                return;
+            }
+            steadyParseNanos.add(nanos);
+            steadyParses.increment();
+            long count = steadyParses.sum();
+            // Log at 1, 2, 4, 8... parses
+            if ((count & (count - 1)) == 0 && LOG.isLoggable(Level.FINE)) {
+                LOG.log(Level.FINE, "Parse latency in {0}: {1}", new Object[]{
+                    typeName, latencyInfo()});
+            }
+        }
+
         <T> T clRun(ThrowingSupplier<T> th) throws Exception {
             return Debug.runObjectThrowing(this, "enter-embedded-parser-classloader "
                     + typeName + " " + ref, ref::toString,
@@ -575,7 +612,9 @@ public class ProxiesInvocationRunner extends InvocationRunner<EmbeddedParser, Ge
                 return sb.toString();
             }, () -> {
                 try {
+                    long then = System.nanoTime();
                     ParseTreeProxy result = doClRun(body);
+                    recordLatency(System.nanoTime() - then);
                     Runnable of = onFirst;
                     if (of != null) {
                         // After the first success, the classloader will contain all
@@ -632,6 +671,23 @@ public class ProxiesInvocationRunner extends InvocationRunner<EmbeddedParser, Ge
             });
         }
 
+        @Override
+        public AntlrProxies.ParseTreeProxy parseDetectingAmbiguities(String logName, CharSequence body) throws Exception {
+            // No retry logic here - this is only ever called after an ordinary
+            // parse of the same text has succeeded in this environment
+            return clRun(() -> {
+                return reflectively(typeName, new Class<?>[]{CharSequence.class, int.class, boolean.class}, body, 0, true);
+            });
+        }
+
+        @Override
+        public AntlrProxies.ParseTreeProxy parseProfiling(String logName, CharSequence body) throws Exception {
+            return clRun(() -> {
+                return reflectively(typeName, new Class<?>[]{CharSequence.class, int.class, boolean.class, boolean.class},
+                        body, 0, false, true);
+            });
+        }
+
         @Override
         public AntlrProxies.ParseTreeProxy parse(String logName, CharSequence body, int ruleNo) throws Exception {
             // XXX should have same retry logic; currently unused since there is no way to have
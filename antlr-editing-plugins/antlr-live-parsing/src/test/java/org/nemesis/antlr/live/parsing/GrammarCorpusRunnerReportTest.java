@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.parsing;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.nemesis.antlr.live.parsing.GrammarCorpusRunner.CorpusReport;
+import org.nemesis.antlr.live.parsing.GrammarCorpusRunner.FileReport;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class GrammarCorpusRunnerReportTest {
+
+    @Test
+    public void testAggregates() {
+        FileReport a = new FileReport(Paths.get("a.txt"), 100, 20, 2_000_000, 0, null);
+        FileReport b = new FileReport(Paths.get("b.txt"), 500, 100, 8_000_000, 3, null);
+        FileReport c = new FileReport(Paths.get("c.txt"), 10, 0, 1_000_000, 0, new IllegalStateException());
+        CorpusReport report = new CorpusReport(Arrays.asList(a, b, c), 10_000_000, 2);
+        assertEquals(3, report.fileCount());
+        assertEquals(120, report.tokens());
+        assertEquals(3, report.syntaxErrors());
+        assertEquals(1, report.failures());
+        assertEquals(11_000_000, report.parseNanos());
+        assertEquals(12_000D, report.tokensPerSecond(), 0.001);
+        assertEquals(10_000D, a.tokensPerSecond(), 0.001);
+        List<FileReport> slowest = report.slowest(2);
+        assertEquals(Arrays.asList(b, a), slowest);
+        assertEquals(3, report.slowest(10).size());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.parsing;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class ParseResultCacheTest {
+
+    private static final Path PATH = Paths.get("/tmp/Test.g4");
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        ParseResultCache cache = new ParseResultCache(2);
+        EmbeddedAntlrParserResult a = result("a", "first text");
+        EmbeddedAntlrParserResult b = result("a", "second text");
+        EmbeddedAntlrParserResult c = result("a", "third text");
+        cache.put(a);
+        cache.put(b);
+        assertSame(a, cache.get("a", "first text"));
+        // b is now the eldest
+        cache.put(c);
+        assertNull(cache.get("a", "second text"));
+        assertSame(a, cache.get("a", "first text"));
+        assertSame(c, cache.get("a", "third text\n"), "Trailing newline should not matter");
+        assertNull(cache.get("b", "third text"), "Different grammar tokens hash");
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    public void testPlaceholdersAreNotCached() {
+        ParseResultCache cache = new ParseResultCache(4);
+        cache.put(new EmbeddedAntlrParserResult(PATH, AntlrProxies.forUnparsed(PATH, "Test", "stuff"),
+                null, "a", "Test"));
+        assertNull(cache.get("a", "stuff"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentParsesOfSameTextAreShared() throws Exception {
+        ParseResultCache cache = new ParseResultCache(4, () -> true);
+        EmbeddedAntlrParserResult expected = result("a", "shared text");
+        CountDownLatch parsing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger parseCount = new AtomicInteger();
+        AtomicReference<EmbeddedAntlrParserResult> first = new AtomicReference<>();
+        Thread t = new Thread(() -> {
+            try {
+                first.set(cache.sharedParse("a", "shared text", () -> {
+                    parseCount.incrementAndGet();
+                    parsing.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                    return expected;
+                }));
+            } catch (Exception ex) {
+                throw new AssertionError(ex);
+            }
+        });
+        t.start();
+        assertTrue(parsing.await(10, TimeUnit.SECONDS));
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                throw new AssertionError(ex);
+            }
+            release.countDown();
+        });
+        releaser.start();
+        EmbeddedAntlrParserResult second = cache.sharedParse("a", "shared text\n", () -> {
+            parseCount.incrementAndGet();
+            return result("a", "shared text");
+        });
+        t.join(10000);
+        assertSame(expected, second);
+        assertSame(expected, first.get());
+        assertEquals(1, parseCount.get());
+        assertEquals(1, cache.sharedParses());
+    }
+
+    @Test
+    public void testThreadsWhichMayNotWaitParseThemselves() throws Exception {
+        // As if every caller held the parser lock
+        ParseResultCache cache = new ParseResultCache(4, () -> false);
+        EmbeddedAntlrParserResult expected = result("a", "shared text");
+        CountDownLatch parsing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger parseCount = new AtomicInteger();
+        Thread t = new Thread(() -> {
+            try {
+                cache.sharedParse("a", "shared text", () -> {
+                    parseCount.incrementAndGet();
+                    parsing.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                    return expected;
+                });
+            } catch (Exception ex) {
+                throw new AssertionError(ex);
+            }
+        });
+        t.start();
+        try {
+            assertTrue(parsing.await(10, TimeUnit.SECONDS));
+            long then = System.currentTimeMillis();
+            EmbeddedAntlrParserResult mine = result("a", "shared text");
+            EmbeddedAntlrParserResult second = cache.sharedParse("a", "shared text", () -> {
+                parseCount.incrementAndGet();
+                return mine;
+            });
+            assertSame(mine, second, "Should not have waited for the in-flight parse");
+            assertTrue(System.currentTimeMillis() - then < 5000);
+            assertEquals(2, parseCount.get());
+            assertEquals(0, cache.sharedParses());
+        } finally {
+            release.countDown();
+            t.join(10000);
+        }
+    }
+
+    private static EmbeddedAntlrParserResult result(String tokensHash, String text) {
+        AntlrProxies proxies = new AntlrProxies("Test", PATH, text);
+        return new EmbeddedAntlrParserResult(PATH, proxies.result(), null, tokensHash, "Test");
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.parsing.extract;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ErrorNodeTreeElement;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeBuilder;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeElement;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeElementKind;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeProxy;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class CompactParseTreeTest {
+
+    private static final String TEXT = "ab c.";
+
+    @Test
+    public void testElementsAreMaterializedOnDemand() {
+        ParseTreeProxy prox = parse();
+        List<ParseTreeElement> all = prox.allTreeElements();
+        assertEquals(6, all.size());
+        assertEquals(Arrays.asList("sentence", "words", "ab", "c", ".", "ERROR"), names(all));
+        assertSame(all.get(1), all.get(2).parent());
+        assertSame(all.get(0), all.get(1).parent());
+        assertTrue(all.get(0).parent().isRoot());
+        assertTrue(all.get(0).isTopLevel());
+        assertEquals(2, all.get(3).depth());
+
+        Iterator<ParseTreeElement> roots = prox.parseTreeRoots().iterator();
+        assertSame(all.get(0), roots.next(), "Same instance should be returned for the same node");
+        assertFalse(roots.hasNext());
+        List<ParseTreeElement> kids = new ArrayList<>();
+        all.get(0).forEach(kids::add);
+        assertEquals(Arrays.asList(all.get(1), all.get(4), all.get(5)), kids);
+        assertSame(all.get(1), kids.get(0));
+
+        assertTrue(prox.hasParseErrors());
+        List<ErrorNodeTreeElement> errs = prox.allErrorElements();
+        assertEquals(1, errs.size());
+        assertSame(all.get(5), errs.get(0));
+        assertTrue(errs.get(0).isSynthetic());
+        assertEquals("<missing>", errs.get(0).tokenText());
+    }
+
+    @Test
+    public void testReferences() {
+        ParseTreeProxy prox = parse();
+        assertEquals(Arrays.asList("sentence", "words", "c"), names(prox.referencedBy(prox.tokens().get(2))));
+        assertEquals(3, prox.referencesCount(prox.tokens().get(2)));
+        // The hidden whitespace token is inside the rules but has no terminal
+        assertEquals(Arrays.asList("sentence", "words"), names(prox.referencedBy(prox.tokens().get(1))));
+        assertEquals(Arrays.asList("sentence", "."), names(prox.referencedBy(prox.tokens().get(3))));
+        assertEquals(0, prox.referencesCount(prox.tokens().get(4)), "EOF is never referenced");
+        assertSame(prox.allTreeElements().get(1), prox.referencedBy(prox.tokens().get(0)).get(1));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        ParseTreeProxy prox = parse();
+        // Materialize some elements first, which should not be serialized
+        prox.referencedBy(prox.tokens().get(2));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream oout = new ObjectOutputStream(out)) {
+            oout.writeObject(prox);
+        }
+        ParseTreeProxy loaded = ParseTreeProxy.load(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(names(prox.allTreeElements()), names(loaded.allTreeElements()));
+        assertEquals(prox, loaded);
+        assertEquals(prox.hashCode(), loaded.hashCode());
+    }
+
+    @Test
+    public void testUnparsed() {
+        ParseTreeProxy prox = AntlrProxies.forUnparsed(Paths.get("/tmp/Test.g4"), "Test", TEXT);
+        assertEquals(1, prox.allTreeElements().size());
+        ParseTreeElement el = prox.parseTreeRoots().iterator().next();
+        assertEquals(ParseTreeElementKind.RULE, el.kind());
+        assertEquals("unparsed", el.name());
+    }
+
+    private static List<String> names(List<? extends ParseTreeElement> els) {
+        List<String> result = new ArrayList<>();
+        for (ParseTreeElement el : els) {
+            result.add(el.kind() == ParseTreeElementKind.ERROR ? "ERROR" : el.name());
+        }
+        return result;
+    }
+
+    private static ParseTreeProxy parse() {
+        AntlrProxies proxies = new AntlrProxies("Test", Paths.get("/tmp/Test.g4"), TEXT);
+        proxies.addTokenType(0, "<INVALID>", null, null);
+        proxies.addTokenType(1, "Word", "Word", null);
+        proxies.addTokenType(2, "Whitespace", "Whitespace", null);
+        proxies.addTokenType(3, "'.'", "Period", "'.'");
+        proxies.setParserRuleNames(new String[]{"sentence", "words"});
+        proxies.onToken(1, 1, 0, 0, 0, 0, 1, 0, 0);
+        proxies.onToken(2, 1, 2, 2, 1, 2, 2, 1, 0);
+        proxies.onToken(1, 1, 3, 0, 2, 3, 3, 0, 0);
+        proxies.onToken(3, 1, 4, 0, 3, 4, 4, 0, 0);
+        proxies.onToken(-1, 1, 5, 0, 4, 5, 5, 0, 0);
+        ParseTreeBuilder bldr = proxies.treeBuilder();
+        bldr.addRuleNode("sentence", 0, 0, 3, 0, () -> {
+            bldr.addRuleNode("words", 0, 0, 2, 1, () -> {
+                bldr.addTerminalNode(0, 0, 1, 2);
+                bldr.addTerminalNode(2, 3, 3, 2);
+            });
+            bldr.addTerminalNode(3, ".", 1);
+            bldr.addErrorNode(-1, -1, 1, -1, -1, "<missing>", 3);
+        });
+        bldr.build();
+        return proxies.result();
+    }
+}
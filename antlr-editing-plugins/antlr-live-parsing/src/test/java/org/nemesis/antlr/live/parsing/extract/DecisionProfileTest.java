@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.parsing.extract;
+
+import java.nio.file.Paths;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.DecisionProfile;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeProxy;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class DecisionProfileTest {
+
+    @Test
+    public void testProfileIsPassedToProxy() {
+        AntlrProxies proxies = new AntlrProxies("Test", Paths.get("/tmp/Test.g4"), "x");
+        assertNull(proxies.result().decisionProfile(), "No profile unless one was collected");
+        proxies = new AntlrProxies("Test", Paths.get("/tmp/Test.g4"), "x");
+        proxies.setParserRuleNames(new String[]{"compilationUnit", "expression"});
+        // More rows than the initial capacity, to exercise growth
+        for (int i = 0; i < 40; i++) {
+            proxies.onDecisionProfile(i, i % 2, i + 1, i * 1000, i * 2, i, i % 3, i, i % 5, i % 7, 0);
+        }
+        ParseTreeProxy prox = proxies.result();
+        DecisionProfile profile = prox.decisionProfile();
+        assertNotNull(profile);
+        assertEquals(40, profile.size());
+        assertEquals("compilationUnit", profile.ruleName(0));
+        assertEquals("expression", profile.ruleName(1));
+        assertEquals(11, profile.invocations(10));
+        assertEquals(20D / 11D, profile.sllAverageLook(10), 0.0001);
+        assertEquals(39_000, profile.timeInPrediction(39));
+        assertArrayEquals(new int[]{39, 38, 37}, profile.hottest(3));
+        assertEquals(1000 * (39 * 40 / 2), profile.totalTimeInPrediction());
+    }
+
+    @Test
+    public void testMerge() {
+        DecisionProfile a = new DecisionProfile(2);
+        a.add(1, 0, 10, 100, 20, 3, 1, 5, 4, 0, 0);
+        a.add(2, 1, 5, 50, 5, 1, 0, 0, 0, 0, 0);
+        DecisionProfile b = new DecisionProfile(2);
+        b.add(2, 1, 7, 70, 14, 6, 2, 9, 8, 1, 1);
+        b.add(3, 1, 1, 10, 1, 1, 0, 0, 0, 0, 0);
+        assertSame(a, DecisionProfile.merge(a, null));
+        assertSame(b, DecisionProfile.merge(null, b));
+        DecisionProfile merged = DecisionProfile.merge(a, b);
+        assertEquals(3, merged.size());
+        assertEquals(2, a.size(), "Inputs should not be modified");
+        int row = merged.rowOf(2);
+        assertTrue(row >= 0);
+        assertEquals(12, merged.invocations(row));
+        assertEquals(120, merged.timeInPrediction(row));
+        assertEquals(19, merged.sllTotalLook(row));
+        assertEquals(6, merged.sllMaxLook(row));
+        assertEquals(2, merged.llFallbacks(row));
+        assertEquals(8, merged.llMaxLook(row));
+        assertEquals(1, merged.ambiguities(row));
+        assertEquals(-1, merged.rowOf(4));
+        assertArrayEquals(new int[]{row}, merged.hottest(1));
+    }
+}
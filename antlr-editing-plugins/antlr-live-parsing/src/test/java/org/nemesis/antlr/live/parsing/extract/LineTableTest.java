@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.parsing.extract;
+
+import java.nio.file.Paths;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeProxy;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class LineTableTest {
+
+    private static final String TEXT = "one\ntwo two\n\nfour\n";
+
+    @Test
+    public void testLineStarts() {
+        assertArrayEquals(new int[]{0, 4, 12, 13, 18}, AntlrProxies.computeLineStarts(TEXT));
+        assertArrayEquals(new int[]{0}, AntlrProxies.computeLineStarts(""));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("x\n");
+        }
+        int[] starts = AntlrProxies.computeLineStarts(sb);
+        assertEquals(1001, starts.length);
+        for (int i = 0; i < starts.length; i++) {
+            assertEquals(i * 2, starts[i]);
+            assertEquals(i, AntlrProxies.lineIndex(starts, i * 2));
+            if (i < starts.length - 1) {
+                assertEquals(i, AntlrProxies.lineIndex(starts, i * 2 + 1));
+            }
+        }
+    }
+
+    @Test
+    public void testBuilderLinePositions() {
+        AntlrProxies proxies = new AntlrProxies("Test", Paths.get("/tmp/Test.g4"), TEXT);
+        assertEquals(1, proxies.lineOf(0));
+        assertEquals(0, proxies.charPositionInLine(0));
+        assertEquals(1, proxies.lineOf(3));
+        assertEquals(3, proxies.charPositionInLine(3));
+        assertEquals(2, proxies.lineOf(8));
+        assertEquals(4, proxies.charPositionInLine(8));
+        assertEquals(3, proxies.lineOf(12));
+        assertEquals(4, proxies.lineOf(15));
+        assertEquals(2, proxies.charPositionInLine(15));
+        assertEquals(-1, new AntlrProxies("Test", Paths.get("/tmp/Test.g4"), null).lineOf(0));
+    }
+
+    @Test
+    public void testProxyOffsets() {
+        ParseTreeProxy prox = AntlrProxies.forUnparsed(Paths.get("/tmp/Test.g4"), "Test", TEXT);
+        assertEquals(5, prox.lineCount());
+        assertEquals(4, prox.lineStart(2));
+        assertEquals(-1, prox.lineStart(0));
+        assertEquals(-1, prox.lineStart(6));
+        assertEquals(2, prox.lineAt(11));
+        assertEquals(3, prox.lineAt(12));
+        assertEquals(-1, prox.lineAt(TEXT.length() + 1));
+        assertEquals(8, prox.offsetOf(2, 4));
+        assertEquals(11, prox.offsetOf(2, 7));
+        assertEquals(-1, prox.offsetOf(2, 8));
+        assertEquals(12, prox.offsetOf(3, 0));
+        assertEquals(-1, prox.offsetOf(3, 1));
+        assertEquals(18, prox.offsetOf(5, 0));
+        assertEquals(-1, prox.offsetOf(7, 0));
+        assertEquals(prox.tokens().get(0), prox.tokenAtLinePosition(2, 4));
+    }
+}
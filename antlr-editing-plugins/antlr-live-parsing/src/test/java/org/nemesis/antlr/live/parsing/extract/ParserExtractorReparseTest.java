@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.parsing.extract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeProxy;
+
+/**
+ * Results of ParserExtractor must not depend on what was parsed before, or
+ * concurrently, in the same environment (the DFAs and the start rule method
+ * cache are shared), or on the DFAs being started over.
+ *
+ * @author Tim Boudreau
+ */
+public class ParserExtractorReparseTest {
+
+    private static final String[] TEXTS = {
+        " hello world, this is a sentence. another one.",
+        " broken ,, text ... with\n errors 23 and stuff",
+        " one.",
+        ""
+    };
+
+    @Test
+    public void testReparsesProduceIdenticalResults() {
+        List<String> first = new ArrayList<>();
+        for (String text : TEXTS) {
+            first.add(describe(ParserExtractor.extract(text)));
+        }
+        for (int i = TEXTS.length - 1; i >= 0; i--) {
+            assertEquals(first.get(i), describe(ParserExtractor.extract(TEXTS[i])),
+                    "Different result on reparse of '" + TEXTS[i] + "'");
+        }
+    }
+
+    @Test
+    public void testProfilingDoesNotLeakIntoLaterParses() {
+        ParseTreeProxy profiled = ParserExtractor.extract(TEXTS[0], 0, false, true);
+        ParseTreeProxy plain = ParserExtractor.extract(TEXTS[0]);
+        assertNull(plain.decisionProfile());
+        assertEquals(describe(profiled), describe(plain));
+    }
+
+    @Test
+    public void testInterruptCancelsOnlyAmbiguityParses() {
+        String expected = describe(ParserExtractor.extract(TEXTS[0]));
+        ParseTreeProxy cancelled;
+        ParseTreeProxy plain;
+        Thread.currentThread().interrupt();
+        try {
+            cancelled = ParserExtractor.extract(TEXTS[0], 0, true);
+            plain = ParserExtractor.extract(TEXTS[0]);
+        } finally {
+            Thread.interrupted();
+        }
+        assertNotNull(cancelled.thrown());
+        assertEquals(expected, describe(plain));
+        ParseTreeProxy exact = ParserExtractor.extract(TEXTS[0], 0, true);
+        assertNull(exact.thrown());
+        assertEquals(expected, describe(exact));
+    }
+
+    @Test
+    public void testConcurrentParses() throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (String text : TEXTS) {
+            expected.add(describe(ParserExtractor.extract(text)));
+        }
+        ExecutorService svc = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String text = TEXTS[i % TEXTS.length];
+                futures.add(svc.submit(() -> describe(ParserExtractor.extract(text))));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(expected.get(i % TEXTS.length), futures.get(i).get());
+            }
+        } finally {
+            svc.shutdown();
+        }
+    }
+
+    @Test
+    public void testDfaIsStartedOverWhenTooLarge() {
+        List<String> expected = new ArrayList<>();
+        for (String text : TEXTS) {
+            expected.add(describe(ParserExtractor.extract(text)));
+        }
+        // The test grammar's parser decisions are all LL(1), so only the
+        // lexer ever adds DFA states
+        ParserExtractor.BoundedDfa lexerDfa = ParserExtractor.lexerDfa;
+        long oldMax = ParserExtractor.maxDfaStates;
+        ParserExtractor.maxDfaStates = 0;
+        try {
+            for (int i = 0; i < 64; i++) {
+                assertEquals(expected.get(i % TEXTS.length),
+                        describe(ParserExtractor.extract(TEXTS[i % TEXTS.length])));
+            }
+        } finally {
+            ParserExtractor.maxDfaStates = oldMax;
+        }
+        assertNotSame(lexerDfa, ParserExtractor.lexerDfa);
+        ParserExtractor.BoundedDfa current = ParserExtractor.lexerDfa;
+        for (int i = 0; i < 64; i++) {
+            ParserExtractor.extract(TEXTS[0]);
+        }
+        assertSame(current, ParserExtractor.lexerDfa, "Replaced while under the cap");
+    }
+
+    private static String describe(ParseTreeProxy proxy) {
+        return proxy.tokens() + "\n" + proxy.syntaxErrors() + "\n"
+                + proxy.allTreeElements() + "\n" + proxy.thrown();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live.parsing.extract;
+
+import ignoreme.placeholder.DummyLanguageLexer;
+import java.nio.file.Paths;
+import java.util.List;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.Token;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeBuilder;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeElement;
+import org.nemesis.antlr.live.parsing.extract.AntlrProxies.ParseTreeProxy;
+
+/**
+ * Terminal nodes store offsets instead of text, except for tokens whose text a
+ * lexer action replaced, which must keep that text.
+ *
+ * @author Tim Boudreau
+ */
+public class ParserExtractorTokenTextTest {
+
+    private static final String TEXT = "hello world.";
+
+    @Test
+    public void testTokensKnowIfTheirTextWasSet() {
+        DummyLanguageLexer lex = new DummyLanguageLexer(new ParserExtractor.CharSequenceCharStream(TEXT));
+        lex.setTokenFactory(ParserExtractor.SpanTokenFactory.INSTANCE);
+        Token first = lex.nextToken();
+        assertFalse(ParserExtractor.hasOwnText(first));
+        assertEquals("hello", first.getText());
+        ((CommonToken) first).setText("HELLO");
+        assertTrue(ParserExtractor.hasOwnText(first));
+        assertEquals("HELLO", first.getText());
+        assertTrue(ParserExtractor.hasOwnText(new CommonToken(DummyLanguageLexer.Word, "x")),
+                "A token from some other factory may have any text");
+    }
+
+    @Test
+    public void testExplicitTextIsKeptInTree() {
+        AntlrProxies proxies = new AntlrProxies("Test", Paths.get("/tmp/Test.g4"), TEXT);
+        proxies.addTokenType(0, "<INVALID>", null, null);
+        proxies.addTokenType(1, "Word", "Word", null);
+        proxies.addTokenType(2, "'.'", "Period", "'.'");
+        proxies.addTokenType(3, "Whitespace", "Whitespace", null);
+        proxies.setParserRuleNames(new String[]{"sentence"});
+        proxies.onToken(1, 1, 0, 0, 0, 0, 4, 0, 0);
+        proxies.onToken(3, 1, 5, 1, 1, 5, 5, 1, 0);
+        proxies.onToken(1, 1, 6, 0, 2, 6, 10, 0, 0);
+        proxies.onToken(2, 1, 11, 0, 3, 11, 11, 0, 0);
+        proxies.onToken(-1, 1, 12, 0, 4, 12, 12, 0, 0);
+        ParseTreeBuilder bldr = proxies.treeBuilder();
+        bldr.addRuleNode("sentence", 0, 0, 3, 0, () -> {
+            bldr.addTerminalNode(0, "HELLO", 1);
+            bldr.addTerminalNode(2, 6, 10, 1);
+            bldr.addTerminalNode(3, 11, 11, 1);
+        });
+        bldr.build();
+        ParseTreeProxy prox = proxies.result();
+        List<ParseTreeElement> all = prox.allTreeElements();
+        assertEquals(4, all.size());
+        assertEquals("HELLO", all.get(1).name());
+        assertEquals("world", all.get(2).name());
+        assertEquals(".", all.get(3).name());
+    }
+}
@@ -79,8 +79,6 @@ import org.nemesis.jfs.JFSFileObject;
 import org.nemesis.jfs.javac.JavacDiagnostic;
 import org.nemesis.source.api.GrammarSource;
 import org.netbeans.api.editor.EditorRegistry;
-import org.netbeans.api.editor.document.LineDocument;
-import org.netbeans.api.editor.document.LineDocumentUtils;
 import static org.netbeans.lib.lexer.TokenList.LOG;
 import org.netbeans.modules.editor.NbEditorUtilities;
 import org.openide.cookies.EditorCookie;
@@ -506,10 +504,9 @@ final class ErrorUpdater implements BiConsumer<Document, EmbeddedAntlrParserResu
                     }
                 }
             } else {
-                LineDocument ld = LineDocumentUtils.as(editorPane.getDocument(), LineDocument.class);
-                int len = ld.getLength();
-                int lineStart = Math.min(len-1,LineDocumentUtils.getLineStart(ld, e.line())
-                        + e.charPositionInLine());
+                int len = editorPane.getDocument().getLength();
+                int offset = prx.offsetOf(e.line(), e.charPositionInLine());
+                int lineStart = Math.max(0, Math.min(len - 1, offset));
                 editorPane.setSelectionStart(lineStart);
                 editorPane.setSelectionEnd(lineStart);
 
@@ -1231,6 +1231,10 @@ public final class PreviewPanel extends JPanel implements ChangeListener,
         haveGrammarChange = fromGrammarDoc;
         if (fromGrammarDoc) {
             stateAtDocumentModification = reparseState.state();
+            // Start rebuilding from the text as it is now, rather than
+            // waiting for typing to pause; the rebuild is abandoned if more
+            // edits arrive before it finishes
+            RebuildSubscriptions.speculate(grammarEditorClone.getDocument());
             // XXX should not be necessary
             reparseGrammarTask.schedule(350);
             reparseTextTask.schedule(750);
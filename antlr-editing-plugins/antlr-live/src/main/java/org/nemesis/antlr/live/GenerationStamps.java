@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live;
+
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.nemesis.antlr.memory.AntlrGenerationResult;
+
+/**
+ * Monotonically increasing per-grammar stamps, which let things built from a
+ * grammar - such as an embedded parser compiled from its generated sources -
+ * determine whether they are still current with a volatile read, rather than
+ * hashing the state of the files in the JFS on every use.
+ * <p>
+ * Any edit to a grammar file or document mapped into a project's JFS advances
+ * the stamp of every grammar in that project, since grammars can import each
+ * other. Generation captures the stamp of a grammar before it runs and records
+ * it against its result, so something built from that result is current for
+ * exactly as long as the stamp does not move. Generations in progress are
+ * tracked, so that a caller which finds itself stale can wait for a rebuild
+ * that is already underway, rather than forcing another one.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class GenerationStamps {
+
+    private final Map<Path, Stamp> stamps = new ConcurrentHashMap<>();
+    private final Map<AntlrGenerationResult, Long> resultStamps
+            = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Get the stamp for a grammar file, creating it if necessary.
+     *
+     * @param grammarFile The grammar file's path on disk
+     * @return A stamp
+     */
+    public Stamp stamp(Path grammarFile) {
+        return stamps.computeIfAbsent(notNull("grammarFile", grammarFile), p -> new Stamp());
+    }
+
+    /**
+     * Note that the content of a grammar may have changed, advancing its
+     * stamp. Grammars nothing has been generated from yet are ignored.
+     *
+     * @param grammarFile The grammar file's path on disk
+     */
+    public void touched(Path grammarFile) {
+        Stamp stamp = stamps.get(grammarFile);
+        if (stamp != null) {
+            stamp.value.incrementAndGet();
+        }
+    }
+
+    /**
+     * Called by the generation pipeline before it reads a grammar's sources.
+     *
+     * @param grammarFile The grammar file's path on disk
+     * @return The value of the stamp the generation's result is current as of
+     */
+    public long generationStarted(Path grammarFile) {
+        Stamp stamp = stamp(grammarFile);
+        stamp.started();
+        return stamp.current();
+    }
+
+    /**
+     * Record the stamp a generation result was produced at; called before the
+     * result is published to subscribers.
+     *
+     * @param result A generation result
+     * @param stamp The value returned by <code>generationStarted()</code>
+     */
+    public void generated(AntlrGenerationResult result, long stamp) {
+        resultStamps.put(notNull("result", result), stamp);
+    }
+
+    /**
+     * Called by the generation pipeline when a generation has completed and
+     * been published, successfully or not, waking up any threads waiting for
+     * it.
+     *
+     * @param grammarFile The grammar file's path on disk
+     */
+    public void generationFinished(Path grammarFile) {
+        Stamp stamp = stamps.get(grammarFile);
+        if (stamp != null) {
+            stamp.finished();
+        }
+    }
+
+    /**
+     * Get the stamp a generation result was produced at.
+     *
+     * @param result A generation result
+     * @return The stamp, or -1 if the result was not produced by the
+     * generation pipeline (for example, a recycled or sibling result)
+     */
+    public long stampOf(AntlrGenerationResult result) {
+        Long val = resultStamps.get(result);
+        return val == null ? -1 : val;
+    }
+
+    @Override
+    public String toString() {
+        return "GenerationStamps(" + stamps + ")";
+    }
+
+    /**
+     * The stamp of a single grammar.
+     */
+    public static final class Stamp {
+
+        private final AtomicLong value = new AtomicLong();
+        private final AtomicInteger generating = new AtomicInteger();
+        private final Map<Thread, Integer> generatingThreads = new ConcurrentHashMap<>(4);
+
+        Stamp() {
+        }
+
+        /**
+         * Get the current value of this stamp.
+         *
+         * @return The value
+         */
+        public long current() {
+            return value.get();
+        }
+
+        /**
+         * Determine if a generation of this grammar is underway.
+         *
+         * @return true if one is
+         */
+        public boolean isGenerating() {
+            return generating.get() > 0;
+        }
+
+        /**
+         * Block until any generation of this grammar which is underway has
+         * completed, or the timeout elapses. Returns immediately if nothing is
+         * being generated, or if the calling thread is the one doing the
+         * generating (subscribers are notified on it).
+         *
+         * @param millis The maximum time to wait
+         * @return true if a generation was underway and the caller waited for
+         * it
+         */
+        public boolean awaitGeneration(long millis) {
+            if (generating.get() == 0 || generatingThreads.containsKey(Thread.currentThread())) {
+                return false;
+            }
+            long deadline = System.currentTimeMillis() + millis;
+            synchronized (this) {
+                while (generating.get() > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            return true;
+        }
+
+        void started() {
+            generatingThreads.merge(Thread.currentThread(), 1, Integer::sum);
+            generating.incrementAndGet();
+        }
+
+        void finished() {
+            generatingThreads.computeIfPresent(Thread.currentThread(),
+                    (th, count) -> count == 1 ? null : count - 1);
+            if (generating.decrementAndGet() <= 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return value.get() + (generating.get() > 0 ? "(generating)" : "");
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live;
+
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate timings for each stage of rebuilding a grammar after an edit, and
+ * counts of builds abandoned at each stage because a newer build of the same
+ * grammar was requested behind them. Only the newest requested build of a
+ * grammar runs each stage, so the latency of the live preview after typing
+ * pauses should be close to the time of the stages that build runs.
+ *
+ * @author Tim Boudreau
+ */
+public final class RebuildStageTimings {
+
+    private final LongAdder[] nanos = adders();
+    private final LongAdder[] counts = adders();
+    private final LongAdder[] superseded = adders();
+    private final AtomicLong[] last = new AtomicLong[Stage.values().length];
+
+    public RebuildStageTimings() {
+        for (int i = 0; i < last.length; i++) {
+            last[i] = new AtomicLong();
+        }
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] result = new LongAdder[Stage.values().length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+
+    /**
+     * Stages of a rebuild, in order.
+     */
+    public enum Stage {
+        /**
+         * Waiting for the project's JFS write lock, which is held by any build
+         * already underway.
+         */
+        QUEUED,
+        /**
+         * Running Antlr generation.
+         */
+        GENERATE,
+        /**
+         * Regenerating dependent grammars and notifying subscribers, which is
+         * where javac runs and parsers get reloaded (when delivery is
+         * synchronous).
+         */
+        DISPATCH
+    }
+
+    /**
+     * Record the time a build spent in a stage.
+     *
+     * @param stage The stage
+     * @param elapsedNanos The elapsed time
+     */
+    public void record(Stage stage, long elapsedNanos) {
+        int ix = notNull("stage", stage).ordinal();
+        nanos[ix].add(elapsedNanos);
+        counts[ix].increment();
+        last[ix].set(elapsedNanos);
+    }
+
+    /**
+     * Record that a build was abandoned at the end of a stage because a newer
+     * one had been requested.
+     *
+     * @param stage The stage
+     */
+    public void superseded(Stage stage) {
+        superseded[notNull("stage", stage).ordinal()].increment();
+    }
+
+    public long count(Stage stage) {
+        return counts[stage.ordinal()].sum();
+    }
+
+    public long totalNanos(Stage stage) {
+        return nanos[stage.ordinal()].sum();
+    }
+
+    public long lastNanos(Stage stage) {
+        return last[stage.ordinal()].get();
+    }
+
+    public long supersededCount(Stage stage) {
+        return superseded[stage.ordinal()].sum();
+    }
+
+    public double averageMillis(Stage stage) {
+        long count = count(stage);
+        return count == 0 ? 0 : (totalNanos(stage) / (double) count) / 1_000_000D;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(160);
+        for (Stage stage : Stage.values()) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(String.format("%s %d, avg %.3fms, last %.3fms, %d superseded",
+                    stage.name().toLowerCase(), count(stage), averageMillis(stage),
+                    lastNanos(stage) / 1_000_000D, supersededCount(stage)));
+        }
+        return sb.toString();
+    }
+}
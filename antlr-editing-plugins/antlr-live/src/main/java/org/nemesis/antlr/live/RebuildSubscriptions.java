@@ -181,6 +181,42 @@ public final class RebuildSubscriptions {
         return AntlrGenerationSubscriptionsImpl.throttle();
     }
 
+    /**
+     * Get the global GenerationStamps, which allow things built from the
+     * result of generating a grammar to cheaply determine whether any grammar
+     * in its project has been edited since, and to wait for a generation which
+     * is already underway.
+     *
+     * @return The stamps
+     */
+    public static GenerationStamps generationStamps() {
+        return AntlrGenerationSubscriptionsImpl.generationStamps();
+    }
+
+    /**
+     * Get the global timings of each stage of grammar rebuilds, and how many
+     * builds were abandoned at each because a newer one was requested.
+     *
+     * @return The timings
+     */
+    public static RebuildStageTimings stageTimings() {
+        return AntlrGenerationSubscriptionsImpl.stageTimings();
+    }
+
+    /**
+     * Notify the infrastructure that a grammar document was edited, to start
+     * rebuilding from its current text immediately rather than when the
+     * editor next gets around to reparsing it. Rebuilds of the file already
+     * in progress are abandoned at their next stage boundary, since their
+     * text is out of date. Calls while a speculative reparse is pending are
+     * coalesced. May be called from the event thread.
+     *
+     * @param doc A grammar document
+     */
+    public static void speculate(Document doc) {
+        AntlrGenerationSubscriptionsImpl.speculate(doc);
+    }
+
     /**
      * Notify the infrastructure that a document is in use, so its JFS mapping
      * should not be discarded.
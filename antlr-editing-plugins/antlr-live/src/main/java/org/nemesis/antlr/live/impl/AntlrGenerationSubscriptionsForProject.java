@@ -30,6 +30,8 @@ import com.mastfrog.util.path.UnixPath;
 import java.awt.EventQueue;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.Collection;
@@ -44,6 +46,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -57,7 +60,12 @@ import org.nemesis.antlr.ANTLRv4Parser.GrammarFileContext;
 import org.nemesis.antlr.common.AntlrConstants;
 import org.nemesis.antlr.common.ShutdownHooks;
 import org.nemesis.antlr.live.BrokenSourceThrottle;
+import org.nemesis.antlr.live.GenerationStamps;
 import org.nemesis.antlr.live.ParsingUtils;
+import org.nemesis.antlr.live.RebuildStageTimings;
+import static org.nemesis.antlr.live.RebuildStageTimings.Stage.DISPATCH;
+import static org.nemesis.antlr.live.RebuildStageTimings.Stage.GENERATE;
+import static org.nemesis.antlr.live.RebuildStageTimings.Stage.QUEUED;
 import org.nemesis.antlr.live.Subscriber;
 import org.nemesis.antlr.memory.AntlrGenerationResult;
 import org.nemesis.antlr.memory.AntlrGenerator;
@@ -110,6 +118,14 @@ final class AntlrGenerationSubscriptionsForProject extends ParseResultHook<ANTLR
     private final SubscribersStoreController<FileObject, Subscriber> subscribersManager;
     private final Map<FileObject, AntlrGenerationResult> resultCache
             = MapFactories.WEAK_KEYS_AND_VALUES.createMap(32, true);
+    // The sequence number of the most recently requested build of each file;
+    // a build which sees a higher number at a stage boundary is superseded
+    private final Map<FileObject, AtomicLong> latestBuild
+            = MapFactories.WEAK.createMap(32, true);
+    // Reparses started on edit rather than after the editor's quiet period,
+    // and the count of edits which tells builds of older text to give up
+    private final Map<FileObject, SpeculativeRebuild> speculativeRebuilds
+            = MapFactories.WEAK.createMap(32, true);
 
     AntlrGenerationSubscriptionsForProject(Project project, JFSManager jfses, Runnable onProjectDeleted) {
         super(ANTLRv4Parser.GrammarFileContext.class);
@@ -181,6 +197,45 @@ final class AntlrGenerationSubscriptionsForProject extends ParseResultHook<ANTLR
         return mappingManager.touch();
     }
 
+    void speculate(FileObject fo, Document doc) {
+        speculativeRebuilds.computeIfAbsent(fo, f -> new SpeculativeRebuild()).edited(doc);
+    }
+
+    private long editCount(FileObject fo) {
+        SpeculativeRebuild spec = speculativeRebuilds.get(fo);
+        return spec == null ? 0 : spec.edits.get();
+    }
+
+    private static final class SpeculativeRebuild implements Runnable {
+
+        private final AtomicLong edits = new AtomicLong();
+        private final RequestProcessor.Task task
+                = AntlrGenerationSubscriptionsImpl.SPECULATIVE_REBUILDS.create(this);
+        private volatile Reference<Document> doc;
+
+        void edited(Document doc) {
+            // Count the edit before scheduling, so a build which sees it has
+            // been superseded knows the reparse which supersedes it is coming
+            edits.incrementAndGet();
+            this.doc = new WeakReference<>(doc);
+            // Runs again after the current reparse if one is running
+            task.schedule(0);
+        }
+
+        @Override
+        public void run() {
+            Document d = doc.get();
+            if (d != null && !ShutdownHooks.isShuttingDown()) {
+                try {
+                    // Rebuilds, via onReparse(), if the text changed
+                    ParsingUtils.parse(d);
+                } catch (Exception ex) {
+                    LOG.log(Level.INFO, "Speculative reparse of " + idForDoc(d), ex);
+                }
+            }
+        }
+    }
+
     static class Applier implements EventApplier<FileObject, AntlrRegenerationEvent, Subscriber> {
 
         private final AtomicReference<EventApplier<FileObject, AntlrRegenerationEvent, Subscriber>> delegate
@@ -511,6 +566,9 @@ final class AntlrGenerationSubscriptionsForProject extends ParseResultHook<ANTLR
         // If the generation status is up to date, we shouldn't actually
         // run regenration again for that file
         extraction.source().lookup(FileObject.class, fo -> {
+            // As close to when the text was read as we can get; a later edit
+            // means this build is for stale text
+            long editsAtParse = editCount(fo);
 
             if (thrashChecker.isThrashing(fo.getPath())) {
                 new Exception("Thrashing builds of " + fo.getPath()).printStackTrace();
@@ -591,17 +649,41 @@ final class AntlrGenerationSubscriptionsForProject extends ParseResultHook<ANTLR
 
                 String grammarName = jfsMappedGrammarFilePath.path().getFileName().toString();
                 FileObject foFinal = fo;
+                // Capture the stamp before anything is read, so an edit made while
+                // generation is running makes the result stale, not current
+                GenerationStamps stamps = AntlrGenerationSubscriptionsImpl.generationStamps();
+                long stamp = stamps.generationStarted(originalFile);
+                AtomicLong buildCounter = latestBuild.computeIfAbsent(fo, f -> new AtomicLong());
+                RebuildStageTimings timings = AntlrGenerationSubscriptionsImpl.stageTimings();
+                long queuedAt = System.nanoTime();
                 try {
                     // This call will reinitialize mappings if the old JFS was zapped
                     // due to inactivity
                     JFS jfs = mappingManager.jfs();
                     // Track what files are new or modified after generation
                     JFSFileModifications beforeStatus = jfs.status(EnumSet.of(StandardLocation.SOURCE_PATH, StandardLocation.SOURCE_OUTPUT));
+                    // Builds of the same file queue up on the JFS write lock while
+                    // the user is typing; only the newest one needs to run each stage,
+                    // so each later stage is skipped by any build that has been
+                    // superseded by the time it gets there.  The claim is made only
+                    // once nothing can fail before the lock is taken (acquiring it is
+                    // uninterruptible), so an older build never defers to a newer one
+                    // which will not run
+                    long build = buildCounter.incrementAndGet();
                     jfs.whileWriteLocked(() -> {
+                        long generateStart = System.nanoTime();
+                        timings.record(QUEUED, generateStart - queuedAt);
+                        if (buildCounter.get() != build || editCount(foFinal) != editsAtParse) {
+                            LOG.log(Level.FINE, "Build {0} of {1} superseded while queued",
+                                    new Object[]{build, originalFile});
+                            timings.superseded(QUEUED);
+                            return null;
+                        }
                         jfs.status(EnumSet.of(StandardLocation.SOURCE_OUTPUT));
                         AntlrGenerationResult result;
                         try (final PrintStream output = AntlrLoggers.getDefault().printStream(originalFile, AntlrLoggers.STD_TASK_GENERATE_ANTLR)) {
                             result = generator.run(grammarName, output, true);
+                            stamps.generated(result, stamp);
                             if (result.isUsable()) {
                                 resultCache.put(foFinal, result);
                             }
@@ -620,6 +702,26 @@ final class AntlrGenerationSubscriptionsForProject extends ParseResultHook<ANTLR
                         // get a real reparse the next time one is requested, since their state
                         // may have changed because of changes in this file
                         invalidateReverseDependencies(foFinal, jfsMappedGrammarFilePath, dependencies, null);
+                        long dispatchStart = System.nanoTime();
+                        timings.record(GENERATE, dispatchStart - generateStart);
+                        if (buildCounter.get() != build || editCount(foFinal) != editsAtParse) {
+                            // A newer build is waiting on the lock or on a speculative
+                            // reparse, and will regenerate dependencies and notify
+                            // subscribers itself
+                            LOG.log(Level.FINE, "Build {0} of {1} superseded after generation",
+                                    new Object[]{build, originalFile});
+                            timings.superseded(GENERATE);
+                            if (result.isSuccess()) {
+                                // The newer build may find nothing changed and not
+                                // know that siblings' sources were rewritten by this one
+                                for (FileObject sib : siblings) {
+                                    if (!subscribersStore.subscribersTo(sib).isEmpty()) {
+                                        NbAntlrUtils.invalidateSource(sib);
+                                    }
+                                }
+                            }
+                            return result;
+                        }
                         if (!siblings.isEmpty() && result.isSuccess()) {
                             // Now go through and find all of the other sources that ought to get a
                             // reparse because this file changed, and get those happening
@@ -700,10 +802,20 @@ final class AntlrGenerationSubscriptionsForProject extends ParseResultHook<ANTLR
                             AntlrRegenerationEvent info = new AntlrRegenerationEvent(tree, extraction, result, populate, fixes);
                             dispatcher.onEvent(fo, info);
                         }
+                        timings.record(DISPATCH, System.nanoTime() - dispatchStart);
+                        if (LOG.isLoggable(Level.FINE)) {
+                            LOG.log(Level.FINE, "Rebuilt {0} - queued {1}ms, generated {2}ms, "
+                                    + "dispatched {3}ms; {4}", new Object[]{originalFile.getFileName(),
+                                        (generateStart - queuedAt) / 1_000_000D,
+                                        (dispatchStart - generateStart) / 1_000_000D,
+                                        (System.nanoTime() - dispatchStart) / 1_000_000D, timings});
+                        }
                         return result;
                     });
                 } catch (IOException ex) {
                     Exceptions.printStackTrace(ex);
+                } finally {
+                    stamps.generationFinished(originalFile);
                 }
             } else {
                 LOG.log(Level.FINE, "No original file for {0}", fo);
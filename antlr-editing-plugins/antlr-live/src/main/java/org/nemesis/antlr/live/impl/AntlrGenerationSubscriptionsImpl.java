@@ -26,6 +26,8 @@ import java.util.logging.Logger;
 import javax.swing.text.Document;
 import static org.nemesis.antlr.common.AntlrConstants.ANTLR_MIME_TYPE;
 import org.nemesis.antlr.live.BrokenSourceThrottle;
+import org.nemesis.antlr.live.GenerationStamps;
+import org.nemesis.antlr.live.RebuildStageTimings;
 import org.nemesis.antlr.live.Subscriber;
 import org.nemesis.antlr.project.Folders;
 import org.nemesis.jfs.JFS;
@@ -34,6 +36,7 @@ import org.netbeans.api.project.FileOwnerQuery;
 import org.netbeans.api.project.Project;
 import org.netbeans.modules.editor.NbEditorUtilities;
 import org.openide.filesystems.FileObject;
+import org.openide.util.RequestProcessor;
 
 /**
  *
@@ -43,12 +46,21 @@ public final class AntlrGenerationSubscriptionsImpl {
 
     private static final Logger LOG = Logger.getLogger(AntlrGenerationSubscriptionsImpl.class.getName());
     static final UnixPath IMPORTS = UnixPath.get("imports");
+    static final RequestProcessor SPECULATIVE_REBUILDS
+            = new RequestProcessor("antlr-speculative-rebuilds", 3);
 
     public static boolean touched(Document doc) {
         return instance()._touched(doc);
     }
 
+    public static void speculate(Document doc) {
+        // Looking up the owning project may touch the disk
+        SPECULATIVE_REBUILDS.post(() -> instance()._speculate(doc));
+    }
+
     final BrokenSourceThrottle throttle = new BrokenSourceThrottle();
+    final GenerationStamps stamps = new GenerationStamps();
+    final RebuildStageTimings stageTimings = new RebuildStageTimings();
     private final JFSManager jfses = new JFSManager();
     private final MapCache<Project, AntlrGenerationSubscriptionsForProject> subscribersByProject
             = new MapCache<>(MapFactories.WEAK.createMap(32, true), project -> {
@@ -68,6 +80,14 @@ public final class AntlrGenerationSubscriptionsImpl {
         return instance().throttle;
     }
 
+    public static GenerationStamps generationStamps() {
+        return instance().stamps;
+    }
+
+    public static RebuildStageTimings stageTimings() {
+        return instance().stageTimings;
+    }
+
     public JFS jfsFor(Project project) { // for tests
         return INSTANCE_SUPPLIER.get().jfses.getIfPresent(project);
     }
@@ -152,6 +172,16 @@ public final class AntlrGenerationSubscriptionsImpl {
         }
     }
 
+    private void _speculate(Document doc) {
+        FileObject fo = NbEditorUtilities.getFileObject(doc);
+        if (fo != null && fo.getMIMEType().equals(ANTLR_MIME_TYPE)) {
+            Project proj = FileOwnerQuery.getOwner(fo);
+            if (proj != null && proj != FileOwnerQuery.UNOWNED) {
+                subscribersByProject.get(proj).speculate(fo, doc);
+            }
+        }
+    }
+
     private boolean _touched(Document doc) {
         FileObject fo = NbEditorUtilities.getFileObject(doc);
         if (fo != null && fo.getMIMEType().equals(ANTLR_MIME_TYPE) ) {
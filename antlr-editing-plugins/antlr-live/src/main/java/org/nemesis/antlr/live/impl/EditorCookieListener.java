@@ -24,6 +24,8 @@ import java.util.Objects;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 import org.openide.cookies.EditorCookie;
@@ -45,9 +47,10 @@ import org.openide.util.WeakListeners;
  * mapping the live document into the JFS and mapping the file into the JFS,
  * and notifies on deletions and renames so the mappings can be updated
  * immediately, and the JFS mapped files state remains up-to-date with the
- * physical filesystem state.
+ * physical filesystem state. Also notifies on edits to the file or its
+ * document, so generation stamps can be advanced.
  */
-class EditorCookieListener extends FileChangeAdapter implements PropertyChangeListener, LookupListener {
+class EditorCookieListener extends FileChangeAdapter implements PropertyChangeListener, LookupListener, DocumentListener {
 
     private static final Logger LOG = Logger.getLogger(EditorCookieListener.class.getName());
     private final Object docLock = new Object();
@@ -56,14 +59,17 @@ class EditorCookieListener extends FileChangeAdapter implements PropertyChangeLi
     private final BiConsumer<FileObject, FileObject> onFileReplaced;
     private final BiConsumer<Document, Document> onDocumentReplaced;
     private final TriConsumer<FileObject, String, String> onFileRenamed;
+    private final Runnable onContentChanged;
+    private DocumentListener documentListener;
     boolean defunct = false;
     boolean listeningToEditorCookie;
     FileObject file;
 
-    EditorCookieListener(BiConsumer<FileObject, FileObject> onFileReplaced, BiConsumer<Document, Document> onDocumentReplaced, TriConsumer<FileObject, String, String> onFileRenamed) {
+    EditorCookieListener(BiConsumer<FileObject, FileObject> onFileReplaced, BiConsumer<Document, Document> onDocumentReplaced, TriConsumer<FileObject, String, String> onFileRenamed, Runnable onContentChanged) {
         this.onFileReplaced = onFileReplaced;
         this.onDocumentReplaced = onDocumentReplaced;
         this.onFileRenamed = onFileRenamed;
+        this.onContentChanged = onContentChanged;
     }
 
     Lookup.Result<EditorCookie.Observable> attachTo(FileObject file) throws DataObjectNotFoundException {
@@ -97,6 +103,13 @@ class EditorCookieListener extends FileChangeAdapter implements PropertyChangeLi
 
     void kill() {
         defunct = true;
+        synchronized (docLock) {
+            Document doc = documentRef == null ? null : documentRef.get();
+            if (doc != null && documentListener != null) {
+                doc.removeDocumentListener(documentListener);
+            }
+            documentListener = null;
+        }
         documentRef = null;
         listeningToEditorCookie = false;
         obs = null;
@@ -120,6 +133,12 @@ class EditorCookieListener extends FileChangeAdapter implements PropertyChangeLi
             onFileRenamed.accept(file, oldNameExt, newNameExt);
         }
     }
+
+    private void onContentChanged() {
+        if (!defunct) {
+            onContentChanged.run();
+        }
+    }
     private volatile boolean ignoreNextDeletionEvent;
 
     @Override
@@ -202,10 +221,16 @@ class EditorCookieListener extends FileChangeAdapter implements PropertyChangeLi
             old = oldDocOrNull == null ? documentRef == null ? null : documentRef.get() : oldDocOrNull;
             change = !Objects.equals(old, doc);
             if (change) {
+                if (old != null && documentListener != null) {
+                    old.removeDocumentListener(documentListener);
+                }
                 if (doc != null) {
                     documentRef = new WeakReference<>(doc);
+                    documentListener = WeakListeners.document(this, doc);
+                    doc.addDocumentListener(documentListener);
                 } else {
                     documentRef = null;
+                    documentListener = null;
                 }
             }
         }
@@ -221,6 +246,26 @@ class EditorCookieListener extends FileChangeAdapter implements PropertyChangeLi
         onFileRenamed(fe.getFile(), oldName, newName);
     }
 
+    @Override
+    public void fileChanged(FileEvent fe) {
+        onContentChanged();
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        onContentChanged();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        onContentChanged();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // attribute changes do not alter the text
+    }
+
     @Override
     public void fileDeleted(FileEvent fe) {
         if (ignoreNextDeletionEvent) {
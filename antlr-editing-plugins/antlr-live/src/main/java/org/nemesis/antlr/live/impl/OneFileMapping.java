@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.Objects;
 import java.util.function.Supplier;
@@ -52,12 +53,14 @@ final class OneFileMapping {
     private final TriConsumer<FileObject, FileObject, OneFileMapping> onPrimaryFileChange;
     private final QuadConsumer<FileObject, String, String, OneFileMapping> onRename;
     private final Supplier<JFS> jfsSupplier;
+    private final Runnable onContentChange;
+    final Path originalPath;
     private JFSMappingMode mapping = JFSMappingMode.UNMAPPED;
     private String jfsId = PLACEHOLDER_JFS_ID;
     private WeakReference<Document> mappedDocument;
     final Folders owner;
 
-    OneFileMapping(FileObject file, JFSCoordinates path, TriConsumer<FileObject, FileObject, OneFileMapping> onPrimaryFileChange, QuadConsumer<FileObject, String, String, OneFileMapping> onRename, Supplier<JFS> jfsSupplier, Folders owner) throws IOException {
+    OneFileMapping(FileObject file, JFSCoordinates path, TriConsumer<FileObject, FileObject, OneFileMapping> onPrimaryFileChange, QuadConsumer<FileObject, String, String, OneFileMapping> onRename, Runnable onContentChange, Supplier<JFS> jfsSupplier, Folders owner) throws IOException {
         LOG.log(Level.FINEST, "New JFS mapping {0} -> {1}", new Object[]{file.getPath(), path});
         this.owner = owner;
         this.file = file;
@@ -65,7 +68,10 @@ final class OneFileMapping {
         this.onPrimaryFileChange = onPrimaryFileChange;
         this.onRename = onRename;
         this.jfsSupplier = jfsSupplier;
-        cookieListener = new EditorCookieListener(this::fileReplaced, this::documentReplaced, this::fileRenamed);
+        this.onContentChange = onContentChange;
+        File f = FileUtil.toFile(file);
+        this.originalPath = f == null ? null : f.toPath();
+        cookieListener = new EditorCookieListener(this::fileReplaced, this::documentReplaced, this::fileRenamed, onContentChange);
         lookupResult = cookieListener.attachTo(file);
         recheckMapping();
     }
@@ -209,6 +215,8 @@ final class OneFileMapping {
                     mappedDocument = new WeakReference<>(newDocument);
                     break;
             }
+            // What the JFS sees for this file may now be different
+            onContentChange.run();
         }
     }
 
@@ -34,6 +34,7 @@ import javax.swing.text.Document;
 import javax.tools.JavaFileManager;
 import javax.tools.StandardLocation;
 import org.nemesis.antlr.common.AntlrConstants;
+import org.nemesis.antlr.live.GenerationStamps;
 import org.nemesis.antlr.project.AntlrConfiguration;
 import org.nemesis.antlr.project.Folders;
 import org.nemesis.jfs.JFS;
@@ -200,6 +201,18 @@ final class PerProjectJFSMappingManager {
         onFileReplaced.accept(old, nue);
     }
 
+    void onContentChanged() {
+        // Grammars can import each other, and a rebuild picks up everything
+        // mapped into the JFS, so an edit to any mapped file may make what was
+        // generated from any grammar in the project stale
+        GenerationStamps stamps = AntlrGenerationSubscriptionsImpl.generationStamps();
+        for (OneFileMapping mapping : mappingForFile.values()) {
+            if (mapping.originalPath != null) {
+                stamps.touched(mapping.originalPath);
+            }
+        }
+    }
+
     void onFileRenamed(FileObject file, String oldName, String newName, OneFileMapping mapping) {
         LOG.log(Level.FINEST, "File renamed {0} -> {1} for {2} oldpath {3}", new Object[]{oldName, newName, mapping.path});
         removeMapping(file, mapping);
@@ -260,7 +273,7 @@ final class PerProjectJFSMappingManager {
         }
         if (fld == Folders.ANTLR_IMPORTS) {
             JFSCoordinates coords = JFSCoordinates.create(GRAMMARS_LOCATION, AntlrGenerationSubscriptionsImpl.IMPORTS.resolve(fo.getNameExt()));
-            OneFileMapping result = new OneFileMapping(fo, coords, this::onPrimaryFileChange, this::onFileRenamed, this::jfs, fld);
+            OneFileMapping result = new OneFileMapping(fo, coords, this::onPrimaryFileChange, this::onFileRenamed, this::onContentChanged, this::jfs, fld);
             return result;
         }
         Iterable<Path> allFoldersOfType = fld.find(project);
@@ -270,7 +283,7 @@ final class PerProjectJFSMappingManager {
                 Path relativePath = p.relativize(path);
                 if (relativePath != null) {
                     JFSCoordinates coords = JFSCoordinates.create(GRAMMARS_LOCATION, UnixPath.get(relativePath));
-                    OneFileMapping result = new OneFileMapping(fo, coords, this::onPrimaryFileChange, this::onFileRenamed, this::jfs, fld);
+                    OneFileMapping result = new OneFileMapping(fo, coords, this::onPrimaryFileChange, this::onFileRenamed, this::onContentChanged, this::jfs, fld);
                     noRoot = false;
                     return result;
                 }
@@ -282,7 +295,7 @@ final class PerProjectJFSMappingManager {
                 Path rel = projectDir.relativize(path);
                 if (rel != null) {
                     JFSCoordinates coords = JFSCoordinates.create(GRAMMARS_LOCATION, UnixPath.get(rel));
-                    OneFileMapping result = new OneFileMapping(fo, coords, this::onPrimaryFileChange, this::onFileRenamed, this::jfs, fld);
+                    OneFileMapping result = new OneFileMapping(fo, coords, this::onPrimaryFileChange, this::onFileRenamed, this::onContentChanged, this::jfs, fld);
                     return result;
                 }
             }
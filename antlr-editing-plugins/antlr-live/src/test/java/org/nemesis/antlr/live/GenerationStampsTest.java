@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class GenerationStampsTest {
+
+    private static final Path GRAMMAR = Paths.get("/tmp/stamps/Foo.g4");
+    private static final Path OTHER = Paths.get("/tmp/stamps/Bar.g4");
+
+    @Test
+    public void testTouchAdvancesOnlyKnownStamps() {
+        GenerationStamps stamps = new GenerationStamps();
+        stamps.touched(OTHER);
+        GenerationStamps.Stamp stamp = stamps.stamp(GRAMMAR);
+        assertSame(stamp, stamps.stamp(GRAMMAR));
+        assertEquals(0, stamp.current());
+        assertEquals(0, stamps.stamp(OTHER).current(), "Touch before anything "
+                + "was generated should not have created a stamp");
+        long before = stamp.current();
+        stamps.touched(GRAMMAR);
+        assertNotEquals(before, stamp.current());
+        assertEquals(0, stamps.stamp(OTHER).current());
+    }
+
+    @Test
+    public void testGenerationCapturesStampBeforeEdits() {
+        GenerationStamps stamps = new GenerationStamps();
+        long atStart = stamps.generationStarted(GRAMMAR);
+        GenerationStamps.Stamp stamp = stamps.stamp(GRAMMAR);
+        assertTrue(stamp.isGenerating());
+        // An edit while generating means the result is stale on arrival
+        stamps.touched(GRAMMAR);
+        stamps.generationFinished(GRAMMAR);
+        assertFalse(stamp.isGenerating());
+        assertNotEquals(atStart, stamp.current());
+    }
+
+    @Test
+    public void testAwaitGeneration() throws Exception {
+        GenerationStamps stamps = new GenerationStamps();
+        GenerationStamps.Stamp stamp = stamps.stamp(GRAMMAR);
+        assertFalse(stamp.awaitGeneration(10_000), "Nothing generating, should not wait");
+
+        stamps.generationStarted(GRAMMAR);
+        assertFalse(stamp.awaitGeneration(10_000), "Generating thread should never wait on itself");
+
+        CountDownLatch waiting = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicBoolean waited = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            waiting.countDown();
+            waited.set(stamp.awaitGeneration(10_000));
+            done.countDown();
+        }, "stamp-waiter");
+        waiter.setDaemon(true);
+        waiter.start();
+        waiting.await(10, TimeUnit.SECONDS);
+        Thread.sleep(50);
+        assertEquals(1, done.getCount(), "Waiter should be blocked while generating");
+        stamps.generationFinished(GRAMMAR);
+        assertTrue(done.await(10, TimeUnit.SECONDS), "Waiter not released");
+        assertTrue(waited.get());
+    }
+
+    @Test
+    public void testAwaitGenerationTimesOut() {
+        GenerationStamps stamps = new GenerationStamps();
+        GenerationStamps.Stamp stamp = stamps.stamp(GRAMMAR);
+        Thread generator = new Thread(() -> stamps.generationStarted(GRAMMAR), "stamp-generator");
+        generator.start();
+        try {
+            generator.join();
+        } catch (InterruptedException ex) {
+            throw new AssertionError(ex);
+        }
+        long then = System.currentTimeMillis();
+        assertTrue(stamp.awaitGeneration(100));
+        assertTrue(System.currentTimeMillis() - then >= 90);
+        assertTrue(stamp.isGenerating());
+    }
+}
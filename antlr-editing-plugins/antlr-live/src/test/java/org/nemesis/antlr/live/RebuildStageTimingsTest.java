@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.live;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import static org.nemesis.antlr.live.RebuildStageTimings.Stage.DISPATCH;
+import static org.nemesis.antlr.live.RebuildStageTimings.Stage.GENERATE;
+import static org.nemesis.antlr.live.RebuildStageTimings.Stage.QUEUED;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class RebuildStageTimingsTest {
+
+    @Test
+    public void testTimingsAreKeptPerStage() {
+        RebuildStageTimings timings = new RebuildStageTimings();
+        assertEquals(0D, timings.averageMillis(GENERATE), 0.0001);
+        timings.record(GENERATE, 2_000_000);
+        timings.record(GENERATE, 4_000_000);
+        timings.record(DISPATCH, 10_000_000);
+        timings.superseded(QUEUED);
+        timings.superseded(QUEUED);
+
+        assertEquals(2, timings.count(GENERATE));
+        assertEquals(6_000_000, timings.totalNanos(GENERATE));
+        assertEquals(4_000_000, timings.lastNanos(GENERATE));
+        assertEquals(3D, timings.averageMillis(GENERATE), 0.0001);
+        assertEquals(1, timings.count(DISPATCH));
+        assertEquals(0, timings.count(QUEUED));
+        assertEquals(2, timings.supersededCount(QUEUED));
+        assertEquals(0, timings.supersededCount(GENERATE));
+        String s = timings.toString();
+        assertTrue(s.contains("generate 2, avg 3.000ms, last 4.000ms"), s);
+        assertTrue(s.contains("queued 0, avg 0.000ms, last 0.000ms, 2 superseded"), s);
+    }
+}
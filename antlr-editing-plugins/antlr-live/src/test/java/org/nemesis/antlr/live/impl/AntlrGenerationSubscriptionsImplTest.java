@@ -265,7 +265,7 @@ public class AntlrGenerationSubscriptionsImplTest {
             MappingL l = new MappingL();
             UnixPath mappingPath = UnixPath.get("com/foo/NestedMaps.g4");
             JFSCoordinates coords = JFSCoordinates.create(StandardLocation.SOURCE_PATH, mappingPath);
-            OneFileMapping m = new OneFileMapping(file, coords, l::onPrimaryFileChange, l::onFileRename, jfss, Folders.ANTLR_GRAMMAR_SOURCES);
+            OneFileMapping m = new OneFileMapping(file, coords, l::onPrimaryFileChange, l::onFileRename, l::onContentChange, jfss, Folders.ANTLR_GRAMMAR_SOURCES);
             assertEquals(JFSMappingMode.FILE, m.mappingMode());
 
             JFSFileObject fo = coords.resolve(jfs);
@@ -296,6 +296,10 @@ public class AntlrGenerationSubscriptionsImplTest {
             assertEquals(mappingPath.toString(), fo.getName());
             assertSame(JFSStorageKind.MASQUERADED_DOCUMENT, fo.storageKind());
 
+            int changesBefore = l.contentChanges;
+            doc.insertString(0, "// edit\n", null);
+            assertTrue(l.contentChanges > changesBefore, "Document edit not reported");
+
             DataObject dob = DataObject.find(file);
             dob.rename("Wookie");
             assertEquals("Wookie.g4", dob.getPrimaryFile().getNameExt());
@@ -316,6 +320,7 @@ public class AntlrGenerationSubscriptionsImplTest {
         boolean primaryFileChanged = false;
         boolean primaryFileNulled = false;
         String newName;
+        int contentChanges;
 
         void assertPrimaryFileChanged() {
             boolean res = primaryFileChanged;
@@ -339,6 +344,10 @@ public class AntlrGenerationSubscriptionsImplTest {
             this.newName = newName;
         }
 
+        void onContentChange() {
+            contentChanges++;
+        }
+
         void assertFileRenamed(String expected) {
             String nm = newName;
             newName = null;
@@ -402,7 +411,7 @@ public class AntlrGenerationSubscriptionsImplTest {
 
         EditorCookieListener listener(FileObject file) throws DataObjectNotFoundException {
             EditorCookieListener result
-                    = new EditorCookieListener(this::fileReplaced, this::documentReplaced, this::fileRenamed);
+                    = new EditorCookieListener(this::fileReplaced, this::documentReplaced, this::fileRenamed, () -> {});
             lookupResult = result.attachTo(file);
             return result;
         }
@@ -56,6 +56,7 @@ public final class MavenFolderStrategyFactory implements FoldersLookupStrategyIm
         if (project == null) {
             return null;
         }
+        MavenReactorResolver.ensureListening();
         if (!answerCache.get(project)) {
             return null;
         }
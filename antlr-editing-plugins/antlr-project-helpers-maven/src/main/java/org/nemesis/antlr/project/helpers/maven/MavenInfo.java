@@ -258,7 +258,7 @@ final class MavenInfo implements Serializable {
         private String testOutput = "target/test-classes";
         private String sources = "src/main/java";
         static ThreadLocal<Set<Path>> currentlyLoading = ThreadLocal.withInitial(HashSet::new);
-        static Set<Path> blacklistedPoms = new HashSet<>();
+        static Set<Path> blacklistedPoms = ConcurrentHashMap.newKeySet();
         private String testSources = "src/test/java";
 
         PomInfo(Map<Path, Long> lastModified) {
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.project.helpers.maven;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.netbeans.api.project.Project;
+import org.netbeans.api.project.ProjectManager;
+import org.netbeans.api.project.ui.OpenProjects;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Resolves the Antlr configuration of all modules of one or more Maven
+ * reactors at once, in parallel. Since the modules of a reactor share parent
+ * POMs, which ParsedPomCache parses only once, resolving them together is
+ * much cheaper than resolving each on demand as the IDE happens to ask. When
+ * listening, this is done in the background whenever projects are opened.
+ *
+ * @author Tim Boudreau
+ */
+final class MavenReactorResolver implements PropertyChangeListener {
+
+    private static final Logger LOG = Logger.getLogger(MavenReactorResolver.class.getName());
+    private static final int MAX_REACTOR_DEPTH = 12;
+    private static final RequestProcessor POOL = new RequestProcessor("maven-antlr-reactor",
+            Math.max(2, Runtime.getRuntime().availableProcessors()), false);
+    private static final AtomicBoolean listening = new AtomicBoolean();
+    static boolean enableListening = !Boolean.getBoolean("unit.test");
+    private final Set<Path> seenPaths = ConcurrentHashMap.newKeySet();
+
+    static void ensureListening() {
+        if (enableListening && listening.compareAndSet(false, true)) {
+            OpenProjects.getDefault().addPropertyChangeListener(new MavenReactorResolver());
+        }
+    }
+
+    @Override
+    public void propertyChange(PropertyChangeEvent evt) {
+        if (OpenProjects.PROPERTY_OPEN_PROJECTS.equals(evt.getPropertyName())) {
+            Project[] projects = (Project[]) evt.getNewValue();
+            if (projects == null || projects.length == 0) {
+                return;
+            }
+            List<Project> unseen = new ArrayList<>(projects.length);
+            for (Project p : projects) {
+                File dir = FileUtil.toFile(p.getProjectDirectory());
+                if (dir != null && seenPaths.add(dir.toPath())) {
+                    unseen.add(p);
+                }
+            }
+            if (!unseen.isEmpty()) {
+                POOL.submit(() -> {
+                    resolveAll(unseen).whenComplete((configs, thrown) -> {
+                        if (thrown != null) {
+                            LOG.log(Level.INFO, "Resolving maven reactors for " + unseen, thrown);
+                        } else {
+                            LOG.log(Level.FINE, "Resolved {0} maven antlr configurations for "
+                                    + "{1} opened projects; pom cache {2} hits, {3} misses",
+                                    new Object[]{configs.size(), unseen.size(),
+                                        ParsedPomCache.hits(), ParsedPomCache.misses()});
+                        }
+                    });
+                });
+            }
+        }
+    }
+
+    /**
+     * Resolve the Antlr configuration of each passed Maven project, and of
+     * each module of any of them that is a reactor project, recursively, in
+     * parallel.
+     *
+     * @param projects Some projects; non-Maven projects are ignored
+     * @return A future which will be completed with a map of project
+     * directory to configuration, omitting any project for which no
+     * configuration could be computed
+     */
+    static CompletableFuture<Map<Path, MavenAntlrConfiguration>> resolveAll(Collection<? extends Project> projects) {
+        Set<Path> dirs = new LinkedHashSet<>();
+        for (Project p : projects) {
+            File dir = FileUtil.toFile(p.getProjectDirectory());
+            if (dir != null) {
+                collectReactor(dir.toPath(), dirs, 0);
+            }
+        }
+        return resolveAll(dirs);
+    }
+
+    static CompletableFuture<Map<Path, MavenAntlrConfiguration>> resolveAll(Set<Path> projectDirs) {
+        Map<Path, MavenAntlrConfiguration> result = new ConcurrentHashMap<>(projectDirs.size());
+        List<CompletableFuture<Void>> futures = new ArrayList<>(projectDirs.size());
+        for (Path dir : projectDirs) {
+            CompletableFuture<Void> fut = new CompletableFuture<>();
+            futures.add(fut);
+            POOL.submit(() -> {
+                try {
+                    MavenAntlrConfiguration config = resolve(dir);
+                    if (config != null) {
+                        result.put(dir, config);
+                    }
+                    fut.complete(null);
+                } catch (Exception | Error e) {
+                    fut.completeExceptionally(e);
+                }
+            });
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                .thenApply(ignored -> Collections.unmodifiableMap(result));
+    }
+
+    private static MavenAntlrConfiguration resolve(Path dir) throws IOException {
+        FileObject fo = FileUtil.toFileObject(FileUtil.normalizeFile(dir.toFile()));
+        if (fo == null) {
+            return null;
+        }
+        Project project = ProjectManager.getDefault().findProject(fo);
+        if (project == null) {
+            return null;
+        }
+        MavenInfo info = MavenFolderStrategy.infoForProject(project);
+        return info == null ? null : info.pluginInfo();
+    }
+
+    private static void collectReactor(Path dir, Set<Path> into, int depth) {
+        Path pom = dir.resolve("pom.xml");
+        if (depth > MAX_REACTOR_DEPTH || !Files.exists(pom) || !into.add(dir)) {
+            return;
+        }
+        PomFileAnalyzer ana = new PomFileAnalyzer(pom.toFile());
+        try {
+            ana.inContext(doc -> {
+                if (ana.isPomProject()) {
+                    for (String module : ana.getModules()) {
+                        collectReactor(dir.resolve(module.trim()).normalize(), into, depth + 1);
+                    }
+                }
+            });
+        } catch (Exception ex) {
+            LOG.log(Level.INFO, "Reading modules of " + pom, ex);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.project.helpers.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Shared cache of parsed POM files, keyed by path and validated by
+ * last-modified time and size, so that the parent POMs shared by every module
+ * of a multi-module build are parsed once rather than once per query per
+ * module. The cached documents are never handed out; callers get a deep copy,
+ * since many PomFileAnalyzer operations modify the document they are passed.
+ * Copying a DOM tree is far cheaper than reading and parsing the file.
+ *
+ * @author Tim Boudreau
+ */
+final class ParsedPomCache {
+
+    private static final Logger LOG = Logger.getLogger(ParsedPomCache.class.getName());
+    private static final Map<Path, CachedPom> CACHE = new ConcurrentHashMap<>();
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final int MAX_ENTRIES = 1024;
+
+    private ParsedPomCache() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Get a private, mutable copy of the parsed document for a POM file,
+     * parsing it only if it has not been seen or has changed on disk.
+     *
+     * @param pomFile A pom file
+     * @return A document
+     * @throws IOException If the file cannot be read or parsed
+     */
+    static Document document(File pomFile) throws IOException {
+        Path path = pomFile.toPath().toAbsolutePath();
+        long lastModified = pomFile.lastModified();
+        long length = pomFile.length();
+        CachedPom cached = CACHE.computeIfAbsent(path, p -> new CachedPom());
+        Document template = cached.template(pomFile, lastModified, length);
+        if (CACHE.size() > MAX_ENTRIES) {
+            prune();
+        }
+        synchronized (template) {
+            // The DOM makes no thread-safety guarantees even for reads, so
+            // copy under the template's lock
+            return (Document) template.cloneNode(true);
+        }
+    }
+
+    /**
+     * Drop any cached document for a file.
+     *
+     * @param pomFile A pom file
+     */
+    static void evict(Path pomFile) {
+        CACHE.remove(pomFile.toAbsolutePath());
+    }
+
+    static long hits() {
+        return HITS.get();
+    }
+
+    static long misses() {
+        return MISSES.get();
+    }
+
+    private static void prune() {
+        CACHE.entrySet().removeIf(e -> !e.getValue().isLive());
+        if (CACHE.size() > MAX_ENTRIES) {
+            CACHE.clear();
+        }
+    }
+
+    static Document parse(File pomFile) throws IOException {
+        try {
+            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+            dbFactory.setValidating(false);
+            try {
+                // Deferred node expansion mutates the tree on first read,
+                // which makes concurrent copying unsafe
+                dbFactory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+            } catch (ParserConfigurationException ex) {
+                LOG.log(Level.FINEST, "Non-xerces parser", ex);
+            }
+            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+            Document doc = dBuilder.parse(pomFile);
+            doc.getDocumentElement().normalize();
+            return doc;
+        } catch (SAXException | ParserConfigurationException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static final class CachedPom {
+
+        private long lastModified = -1;
+        private long length = -1;
+        private SoftReference<Document> template;
+
+        synchronized boolean isLive() {
+            return template != null && template.get() != null;
+        }
+
+        synchronized Document template(File pomFile, long lastModified, long length) throws IOException {
+            Document result = template == null ? null : template.get();
+            if (result != null && lastModified == this.lastModified && length == this.length) {
+                HITS.incrementAndGet();
+                return result;
+            }
+            MISSES.incrementAndGet();
+            result = parse(pomFile);
+            this.lastModified = lastModified;
+            this.length = length;
+            this.template = new SoftReference<>(result);
+            if (LOG.isLoggable(Level.FINEST)) {
+                LOG.log(Level.FINEST, "Parsed {0}; {1} hits {2} misses",
+                        new Object[]{pomFile, HITS.get(), MISSES.get()});
+            }
+            return result;
+        }
+    }
+}
@@ -40,9 +40,6 @@ import java.util.TreeSet;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
@@ -56,7 +53,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 /**
  * Misc tools for analyzing and refactoring Maven projects without using Maven's
@@ -209,7 +205,7 @@ final class PomFileAnalyzer {
 
     public PluginConfigurationInfo pluginConfiguration(String groupId, String artifactId) throws Exception {
         PluginConfigurationInfo info = new PluginConfigurationInfo();
-        Document d = getDocument();
+        Document d = sharedDocument();
         XPathFactory fac = XPathFactory.newInstance();
         XPath xpath = fac.newXPath();
         String query = isPomProject()
@@ -328,7 +324,7 @@ final class PomFileAnalyzer {
     }
 
     public Properties getProperties() throws Exception {
-        return getProperties(getDocument());
+        return getProperties(sharedDocument());
     }
 
     Properties getProperties(Document d) throws Exception {
@@ -439,7 +435,7 @@ final class PomFileAnalyzer {
 
     public String getParentArtifactID() throws IOException {
         try {
-            Document d = getDocument();
+            Document d = sharedDocument();
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
             XPathExpression findArtifactId = xpath.compile(
@@ -453,7 +449,7 @@ final class PomFileAnalyzer {
 
     public String getParentGroupID() throws IOException {
         try {
-            Document d = getDocument();
+            Document d = sharedDocument();
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
             XPathExpression findArtifactId = xpath.compile(
@@ -546,7 +542,7 @@ final class PomFileAnalyzer {
 
     public String getGroupID() throws IOException {
         try {
-            Document d = getDocument();
+            Document d = sharedDocument();
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
             XPathExpression findArtifactId = xpath.compile(
@@ -859,7 +855,7 @@ final class PomFileAnalyzer {
     }
 
     public String getPackaging() throws XPathExpressionException, IOException {
-        Document d = getDocument();
+        Document d = sharedDocument();
         XPathFactory fac = XPathFactory.newInstance();
         XPath xpath = fac.newXPath();
         XPathExpression findArtifactId = xpath.compile("/project/packaging");
@@ -890,7 +886,7 @@ final class PomFileAnalyzer {
     }
 
     public void visitDependencies(Consumer<DepVer> cons) throws Exception {
-        Document d = getDocument();
+        Document d = sharedDocument();
         XPathFactory fac = XPathFactory.newInstance();
         XPath xpath = fac.newXPath();
         String[] paths = new String[]{"/project/dependencyManagement/dependencies/dependency", "/project/dependencies/dependency"};
@@ -1787,7 +1783,7 @@ final class PomFileAnalyzer {
 
     public String getVersion() throws IOException {
         try {
-            Document d = getDocument();
+            Document d = sharedDocument();
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
             XPathExpression findArtifactId = xpath.compile(
@@ -1825,7 +1821,7 @@ final class PomFileAnalyzer {
 
     public Set<String> getDevelopers() throws IOException {
         try {
-            Document d = getDocument();
+            Document d = sharedDocument();
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
             XPathExpression findArtifactId = xpath.compile(
@@ -1851,7 +1847,7 @@ final class PomFileAnalyzer {
 
     public String getParentVersion() throws IOException {
         try {
-            Document d = getDocument();
+            Document d = sharedDocument();
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
             XPathExpression findArtifactId = xpath.compile(
@@ -1868,7 +1864,7 @@ final class PomFileAnalyzer {
 
     public String getParentRelativePath() throws IOException {
         try {
-            Document d = getDocument();
+            Document d = sharedDocument();
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
             XPathExpression findArtifactId = xpath.compile(
@@ -1885,7 +1881,7 @@ final class PomFileAnalyzer {
 
     public String getArtifactId() throws IOException {
         try {
-            Document d = getDocument();
+            Document d = sharedDocument();
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
             XPathExpression findArtifactId = xpath.compile(
@@ -1902,7 +1898,7 @@ final class PomFileAnalyzer {
 
     public String getGroupId() throws IOException {
         try {
-            Document d = getDocument();
+            Document d = sharedDocument();
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
             XPathExpression findArtifactId = xpath.compile(
@@ -1923,7 +1919,7 @@ final class PomFileAnalyzer {
     }
 
     public DepVer toDepVer() throws IOException, XPathExpressionException {
-        Document d = getDocument();
+        Document d = sharedDocument();
         XPathFactory fac = XPathFactory.newInstance();
         XPath xpath = fac.newXPath();
         XPathExpression findArtifactId = xpath.compile(
@@ -1962,7 +1958,7 @@ final class PomFileAnalyzer {
 
     public List<String> getModules() throws IOException {
         try {
-            Document d = getDocument();
+            Document d = sharedDocument();
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
             XPathExpression findArtifactId = xpath.compile(
@@ -1980,22 +1976,27 @@ final class PomFileAnalyzer {
     }
 
     public Document getDocument() throws IOException {
-        try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            dbFactory.setValidating(false);
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(pomFile);
-            doc.getDocumentElement().normalize();
+        // Always a private copy, which the caller may modify
+        return ParsedPomCache.document(pomFile);
+    }
+
+    private Document sharedDocument() throws IOException {
+        // Within inContext(), read-only queries share one document rather
+        // than each getting a fresh copy; anything that modifies the
+        // document must use getDocument()
+        Document doc = DOC_CTX.get();
+        if (doc != null) {
             return doc;
-        } catch (SAXException | ParserConfigurationException ex) {
-            throw new IOException(ex);
         }
+        return ParsedPomCache.document(pomFile);
     }
 
     public <T> T inContext(ThrowingFunction<Document, T> r) throws Exception {
+        // The document passed in is shared by all queries made within r, and
+        // must not be modified
         Document doc = DOC_CTX.get();
         if (doc == null) {
-            doc = getDocument();
+            doc = ParsedPomCache.document(pomFile);
             Document old = DOC_CTX.get();
             DOC_CTX.set(doc);
             try {
@@ -2013,7 +2014,7 @@ final class PomFileAnalyzer {
     public void inContext(ThrowingConsumer<Document> r) throws Exception {
         Document doc = DOC_CTX.get();
         if (doc == null) {
-            doc = getDocument();
+            doc = ParsedPomCache.document(pomFile);
             Document old = DOC_CTX.get();
             DOC_CTX.set(doc);
             try {
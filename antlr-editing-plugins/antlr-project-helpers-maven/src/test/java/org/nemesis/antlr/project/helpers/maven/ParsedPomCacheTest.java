@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.project.helpers.maven;
+
+import com.mastfrog.util.file.FileUtils;
+import java.io.IOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class ParsedPomCacheTest {
+
+    private Path pom;
+
+    @Test
+    public void testCopiesAreIndependentAndParsedOnce() throws IOException {
+        long misses = ParsedPomCache.misses();
+        PomFileAnalyzer ana = new PomFileAnalyzer(pom.toFile());
+        assertEquals("foo", ana.getArtifactId());
+        assertEquals("com.foo", ana.getGroupId());
+        assertEquals("1.0", ana.getVersion());
+        assertEquals(misses + 1, ParsedPomCache.misses());
+
+        Document a = ParsedPomCache.document(pom.toFile());
+        Document b = ParsedPomCache.document(pom.toFile());
+        assertNotSame(a, b);
+        a.getDocumentElement().getElementsByTagName("artifactId").item(0).setTextContent("bar");
+        assertEquals("foo", b.getDocumentElement().getElementsByTagName("artifactId").item(0).getTextContent());
+        assertEquals("foo", ana.getArtifactId());
+        assertEquals(misses + 1, ParsedPomCache.misses());
+    }
+
+    @Test
+    public void testModificationsInContextDoNotAlterSharedDocument() throws Exception {
+        PomFileAnalyzer ana = new PomFileAnalyzer(pom.toFile());
+        ana.inContext(doc -> {
+            assertEquals("1.0", ana.getVersion());
+            Document modified = ana.setVersion("2.0", true);
+            assertNotSame(doc, modified);
+            assertEquals("2.0", modified.getDocumentElement()
+                    .getElementsByTagName("version").item(0).getTextContent());
+            assertEquals("1.0", ana.getVersion());
+            assertEquals("1.0", doc.getDocumentElement()
+                    .getElementsByTagName("version").item(0).getTextContent());
+        });
+    }
+
+    @Test
+    public void testChangedFileIsReparsed() throws IOException {
+        PomFileAnalyzer ana = new PomFileAnalyzer(pom.toFile());
+        assertEquals("foo", ana.getArtifactId());
+        long misses = ParsedPomCache.misses();
+        Files.write(pom, pomText("baz").getBytes(UTF_8));
+        Files.setLastModifiedTime(pom, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        assertEquals("baz", ana.getArtifactId());
+        assertEquals(misses + 1, ParsedPomCache.misses());
+    }
+
+    private static String pomText(String artifactId) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n"
+                + "    <modelVersion>4.0.0</modelVersion>\n"
+                + "    <groupId>com.foo</groupId>\n"
+                + "    <artifactId>" + artifactId + "</artifactId>\n"
+                + "    <version>1.0</version>\n"
+                + "</project>\n";
+    }
+
+    @BeforeEach
+    public void before() throws IOException {
+        Path dir = FileUtils.newTempDir("ParsedPomCacheTest-");
+        pom = dir.resolve("pom.xml");
+        Files.write(pom, pomText("foo").getBytes(UTF_8));
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        if (pom != null) {
+            ParsedPomCache.evict(pom);
+            FileUtils.deltree(pom.getParent());
+        }
+    }
+}
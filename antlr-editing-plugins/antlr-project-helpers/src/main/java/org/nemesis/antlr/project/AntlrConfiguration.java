@@ -33,7 +33,9 @@ import java.util.function.Function;
 import org.nemesis.antlr.project.impl.AntlrConfigurationFactory;
 import org.nemesis.antlr.project.impl.FoldersHelperTrampoline;
 import org.nemesis.antlr.project.spi.addantlr.NewAntlrConfigurationInfo;
+import org.nemesis.antlr.common.cachefile.CacheFileReader;
 import org.nemesis.antlr.common.cachefile.CacheFileUtils;
+import org.nemesis.antlr.common.cachefile.CacheFileWriter;
 import org.nemesis.antlr.project.spi.addantlr.AddAntlrCapabilities;
 import org.netbeans.api.project.FileOwnerQuery;
 import org.netbeans.api.project.Project;
@@ -454,55 +456,59 @@ public final class AntlrConfiguration {
     }
 
     <C extends WritableByteChannel & SeekableByteChannel> int writeTo(C channel) throws IOException {
+        return CacheFileUtils.create(MAGIC).write(channel, this::writeRecord);
+    }
+
+    void writeRecord(CacheFileWriter w) throws IOException {
         boolean[] params = new boolean[]{listener, visitor, atn, forceATN, isGuessedConfig};
-        return CacheFileUtils.create(MAGIC).write(channel, w -> {
-            w.writeString(createdByStrategy)
-                    .writeBooleanArray(params)
-                    .writePath(antlrImportDir)
-                    .writePath(antlrSourceDir)
-                    .writePath(outputDir)
-                    .writePath(buildDir)
-                    .writePath(buildOutput)
-                    .writePath(testOutput)
-                    .writePath(sources)
-                    .writePath(testSources)
-                    .writeString(includePattern)
-                    .writeString(excludePattern)
-                    .writeString(encoding.name());
-        });
+        w.writeString(createdByStrategy)
+                .writeBooleanArray(params)
+                .writePath(antlrImportDir)
+                .writePath(antlrSourceDir)
+                .writePath(outputDir)
+                .writePath(buildDir)
+                .writePath(buildOutput)
+                .writePath(testOutput)
+                .writePath(sources)
+                .writePath(testSources)
+                .writeString(includePattern)
+                .writeString(excludePattern)
+                .writeString(encoding.name());
     }
 
     static <C extends ReadableByteChannel & SeekableByteChannel> AntlrConfiguration readFrom(C channel) throws IOException {
-        return CacheFileUtils.create(MAGIC).read(channel, r -> {
-            String createdByStrategy = r.readString();
-            if (!FoldersHelperTrampoline.isKnownImplementation(createdByStrategy)) {
-                return null;
-            }
-            boolean[] params = r.readBooleans(5);
-            boolean listener = params[0];
-            boolean visitor = params[1];
-            boolean atn = params[2];
-            boolean forceATN = params[3];
-            boolean isGuessedConfig = params[4];
-            Path importDir = r.readPath();
-            Path sourceDir = r.readPath();
-            Path outputDir = r.readPath();
-            Path buildDir = r.readPath();
-            Path buildOutput = r.readPath();
-            Path testOutput = r.readPath();
-            Path sources = r.readPath();
-            Path testSources = r.readPath();
-
-            String includePattern = r.readString();
-            String excludePattern = r.readString();
-            String encodingName = r.readString();
-            Charset encoding = Charset.forName(encodingName);
-            AntlrConfiguration result = new AntlrConfiguration(importDir, sourceDir, outputDir,
-                    listener, visitor, atn, forceATN, includePattern,
-                    excludePattern, encoding, buildDir, createdByStrategy,
-                    isGuessedConfig, buildOutput, testOutput, sources,
-                    testSources);
-            return result;
-        });
+        return CacheFileUtils.create(MAGIC).read(channel, AntlrConfiguration::readRecord);
+    }
+
+    static AntlrConfiguration readRecord(CacheFileReader r) throws IOException {
+        String createdByStrategy = r.readString();
+        if (!FoldersHelperTrampoline.isKnownImplementation(createdByStrategy)) {
+            return null;
+        }
+        boolean[] params = r.readBooleans(5);
+        boolean listener = params[0];
+        boolean visitor = params[1];
+        boolean atn = params[2];
+        boolean forceATN = params[3];
+        boolean isGuessedConfig = params[4];
+        Path importDir = r.readPath();
+        Path sourceDir = r.readPath();
+        Path outputDir = r.readPath();
+        Path buildDir = r.readPath();
+        Path buildOutput = r.readPath();
+        Path testOutput = r.readPath();
+        Path sources = r.readPath();
+        Path testSources = r.readPath();
+
+        String includePattern = r.readString();
+        String excludePattern = r.readString();
+        String encodingName = r.readString();
+        Charset encoding = Charset.forName(encodingName);
+        AntlrConfiguration result = new AntlrConfiguration(importDir, sourceDir, outputDir,
+                listener, visitor, atn, forceATN, includePattern,
+                excludePattern, encoding, buildDir, createdByStrategy,
+                isGuessedConfig, buildOutput, testOutput, sources,
+                testSources);
+        return result;
     }
 }
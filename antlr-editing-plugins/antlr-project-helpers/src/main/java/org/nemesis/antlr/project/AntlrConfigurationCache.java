@@ -17,35 +17,29 @@ package org.nemesis.antlr.project;
 
 import com.mastfrog.util.file.FileUtils;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.SeekableByteChannel;
-import java.nio.channels.WritableByteChannel;
-import java.nio.file.CopyOption;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import static java.nio.file.StandardOpenOption.CREATE;
-import static java.nio.file.StandardOpenOption.READ;
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
-import static java.nio.file.StandardOpenOption.WRITE;
-import java.util.EnumSet;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.nemesis.antlr.common.ShutdownHooks;
-import org.nemesis.antlr.common.cachefile.CacheFileUtils;
-import org.nemesis.antlr.projectupdatenotificaton.UpToDateness;
+import org.nemesis.antlr.common.cachefile.CacheFileReader;
+import org.nemesis.antlr.common.cachefile.CacheFileWriter;
+import org.nemesis.antlr.common.cachefile.MappedCacheFile;
+import org.nemesis.antlr.projectupdatenotificaton.BuildFileFingerprint;
 import org.openide.modules.Places;
 import org.openide.util.Exceptions;
-import org.openide.util.RequestProcessor;
 
 /**
+ * Persistent cache of inferred configurations, backed by a memory mapped,
+ * append-only file in which each project's entry is individually addressable.
+ * Startup only indexes the keys in the file; entries are decoded the first
+ * time they are requested. Each entry carries a fingerprint of the
+ * project's build files, so only projects whose build files have actually
+ * changed are re-inferred, and replacing one entry appends a record rather
+ * than rewriting the file.
  *
  * @author Tim Boudreau
  */
@@ -53,52 +47,16 @@ final class AntlrConfigurationCache {
 
     static volatile AntlrConfigurationCache INSTANCE; // pkg private for tests
     private final Map<Path, CacheEntry> cache = new ConcurrentHashMap<>();
-    private static final int MAGIC = 8302718;
-    private static final int DELAY = 16000;
-    private final Path file;
-    private final Saver saver = new Saver();
-    private final RequestProcessor.Task task = RequestProcessor.getDefault().create(saver);
+    private static final int MAGIC = 8302719;
+    private static final String CACHE_FILE_NAME = "antlr-configs.mcache";
+    private static final String LEGACY_CACHE_FILE_NAME = "antlr-configs.cache";
+    private final MappedCacheFile file;
     private static final Logger LOG = Logger.getLogger(AntlrConfigurationCache.class.getName());
 
     AntlrConfigurationCache(Path file, boolean load) throws IOException {
-        this.file = file;
-        boolean dirty = false;
-        if (load && file != null && Files.exists(file)) {
-            try (FileChannel ch = FileChannel.open(file, READ)) {
-                if (ch.size() > 0) {
-                    ByteBuffer numBuf = ByteBuffer.allocate(Integer.BYTES);
-                    int magic = CacheFileUtils.readInt(ch, numBuf);
-                    if (magic != MAGIC) {
-                        throw new IOException("Bad magic number");
-                    }
-                    int length = CacheFileUtils.readInt(ch, numBuf);
-                    if (length < 0) {
-                        throw new IOException("Insane length: " + length);
-                    }
-
-                    int count = CacheFileUtils.readInt(ch, numBuf);
-                    if (count > 3276) {
-                        throw new IOException("Absurd number of entries: " + count);
-                    }
-
-                    for (int i = 0; i < count; i++) {
-                        Path path = CacheFileUtils.readPath(ch, numBuf);
-                        CacheEntry entry = CacheEntry.load(ch);
-                        if (Files.exists(path)) {
-                            cache.put(path, entry);
-                        } else {
-                            dirty = true;
-                        }
-                    }
-                }
-            }
-        }
+        this.file = file == null ? null : MappedCacheFile.open(file, MAGIC, !load);
         if (file != null && !Boolean.getBoolean("unit.test")) {
-            ShutdownHooks.addRunnable(task::cancel);
-            ShutdownHooks.addRunnable(saver);
-        }
-        if (dirty) {
-            dirty();
+            ShutdownHooks.addRunnable(this::close);
         }
     }
 
@@ -111,9 +69,9 @@ final class AntlrConfigurationCache {
         }
         if (cache != null) {
             boolean result = cache.cache.remove(path) != null;
+            result |= cache.removeStored(path);
             if (result) {
                 LOG.log(Level.FINE, "Evicted cached config for {0}", path);
-                cache.dirty();
             }
             return result;
         }
@@ -121,15 +79,19 @@ final class AntlrConfigurationCache {
     }
 
     int size() {
-        return cache.size();
+        if (file == null) {
+            return cache.size();
+        }
+        return file.size();
     }
 
     static AntlrConfigurationCache instance() {
         if (INSTANCE == null) {
             synchronized (AntlrConfigurationCache.class) {
                 if (INSTANCE == null) {
-                    Path cacheFile = Places.getCacheSubfile("antlr-configs.cache").toPath();
+                    Path cacheFile = Places.getCacheSubfile(CACHE_FILE_NAME).toPath();
                     try {
+                        FileUtils.deleteIfExists(cacheFile.resolveSibling(LEGACY_CACHE_FILE_NAME));
                         INSTANCE = new AntlrConfigurationCache(cacheFile, true);
                     } catch (IOException ex) {
                         LOG.log(Level.INFO, "Exception reading antlr config cache, will delete.", ex);
@@ -148,147 +110,150 @@ final class AntlrConfigurationCache {
     }
 
     public AntlrConfiguration getCached(Path projectDir) {
-        CacheEntry en = cache.get(projectDir);
+        CacheEntry en = entry(projectDir);
         if (en != null) {
-            return en.config;
+            return en.config();
         }
         return null;
     }
 
     public AntlrConfiguration get(Path projectDir, Supplier<AntlrConfiguration> supplier) {
-        CacheEntry en = cache.get(projectDir);
+        CacheEntry en = entry(projectDir);
         if (en != null) {
-            return en.get(this::dirty, supplier);
+            return en.get(this::persist, supplier);
         } else {
             AntlrConfiguration config = supplier.get();
             if (config != null) {
-                UpToDateness utd = UpToDateness.forProject(projectDir);
-                // will always return true the first time, so initialize it
-                utd.isChanged();
-                cache.put(projectDir, new CacheEntry(utd, config));
+                CacheEntry nue = new CacheEntry(BuildFileFingerprint.forProject(projectDir), config);
+                cache.put(projectDir, nue);
+                persist(projectDir, nue);
             }
             return config;
         }
     }
 
-    void store() throws IOException {
-        // Write a temporary file, so if the write is killed during process
-        // exit, we don't leave behind a half-written cache
-        Path temp = file.getParent().resolve(file.getFileName().toString() + ".1");
-        boolean success = false;
-        try {
-            try (FileChannel ch = FileChannel.open(temp, WRITE, CREATE, TRUNCATE_EXISTING)) {
-                ByteBuffer numBuf = ByteBuffer.allocate(Integer.BYTES);
-                CacheFileUtils.writeNumber(MAGIC, ch, numBuf);
-                long pos = ch.position();
-                CacheFileUtils.writeNumber(0, ch, numBuf);
-
-                TreeMap<Path, CacheEntry> snapshot = new TreeMap<>(cache);
-
-                int written = CacheFileUtils.writeNumber(snapshot.size(), ch, numBuf);
-                for (Map.Entry<Path, CacheEntry> e : snapshot.entrySet()) {
-                    written += CacheFileUtils.writePath(e.getKey(), ch);
-                    written += e.getValue().store(ch);
-                }
-                long currPos = ch.position();
-                try {
-                    ch.position(pos);
-                    CacheFileUtils.writeNumber(written, ch, numBuf);
-                } finally {
-                    ch.position(currPos);
-                }
-                success = true;
+    private CacheEntry entry(Path projectDir) {
+        CacheEntry result = cache.get(projectDir);
+        if (result == null && file != null && file.contains(projectDir)) {
+            try {
+                result = file.read(projectDir, CacheEntry::load);
+            } catch (IOException ex) {
+                LOG.log(Level.INFO, "Corrupted cache entry for " + projectDir, ex);
+                removeStored(projectDir);
+                return null;
             }
-            // use outer finally block so the channel is closed first
-        } finally {
-            if (success && Files.exists(file)) {
-                try {
-                    Files.move(temp, file, COPY_OPTS.toArray(new CopyOption[COPY_OPTS.size()]));
-                } catch (UnsupportedOperationException uoe) {
-                    COPY_OPTS.remove(StandardCopyOption.COPY_ATTRIBUTES);
-                    try {
-                        Files.move(temp, file, COPY_OPTS.toArray(new CopyOption[COPY_OPTS.size()]));
-                    } catch (UnsupportedOperationException uoe2) {
-                        COPY_OPTS.remove(StandardCopyOption.ATOMIC_MOVE);
-                        try {
-                            Files.move(temp, file, COPY_OPTS.toArray(new CopyOption[COPY_OPTS.size()]));
-                        } catch (UnsupportedOperationException uoe3) {
-                            uoe3.addSuppressed(uoe2);
-                            uoe3.addSuppressed(uoe);
-                            throw uoe3;
-                        }
-                    }
-
-                }
+            if (result == null) {
+                // written by a strategy which is no longer installed
+                removeStored(projectDir);
+                return null;
+            }
+            CacheEntry existing = cache.putIfAbsent(projectDir, result);
+            if (existing != null) {
+                result = existing;
             }
         }
+        return result;
     }
-    private static Set<StandardCopyOption> COPY_OPTS
-            = EnumSet.of(StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
 
-    private void dirty() {
+    private void persist(Path projectDir, CacheEntry entry) {
         if (file != null) {
-            task.schedule(DELAY);
+            try {
+                file.write(projectDir, entry::store);
+            } catch (IOException ex) {
+                LOG.log(Level.INFO, "Could not persist config for " + projectDir, ex);
+            }
         }
     }
 
-    class Saver implements Runnable {
-
-        @Override
-        public void run() {
+    private boolean removeStored(Path projectDir) {
+        if (file != null) {
             try {
-                store();
+                return file.remove(projectDir);
             } catch (IOException ex) {
-                Exceptions.printStackTrace(ex);
+                LOG.log(Level.INFO, "Could not remove cached config for " + projectDir, ex);
+            }
+        }
+        return false;
+    }
+
+    void store() throws IOException {
+        if (file != null) {
+            if (file.isCompactionWorthwhile()) {
+                file.compact();
             }
+            file.force();
+        }
+    }
+
+    private void close() {
+        try {
+            store();
+            file.close();
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
         }
     }
 
     private static final class CacheEntry {
 
-        private final UpToDateness upToDate;
+        private BuildFileFingerprint fingerprint;
         private AntlrConfiguration config;
 
-        public CacheEntry(UpToDateness upToDate, AntlrConfiguration config) {
-            this.upToDate = upToDate;
+        public CacheEntry(BuildFileFingerprint fingerprint, AntlrConfiguration config) {
+            this.fingerprint = fingerprint;
             this.config = config;
         }
 
         @Override
-        public String toString() {
-            return upToDate + " / " + config;
+        public synchronized String toString() {
+            return fingerprint + " / " + config;
         }
 
-        AntlrConfiguration get(Runnable callIfReplaced, Supplier<AntlrConfiguration> ifOutOfDate) {
-            if (isChanged()) {
-                AntlrConfiguration nue = ifOutOfDate.get();
-                if (nue != null) {
+        synchronized AntlrConfiguration config() {
+            return config;
+        }
+
+        AntlrConfiguration get(BiConsumer<Path, CacheEntry> persist, Supplier<AntlrConfiguration> ifOutOfDate) {
+            BuildFileFingerprint fp;
+            synchronized (this) {
+                fp = fingerprint;
+            }
+            switch (fp.check()) {
+                case TOUCHED:
+                    // Timestamps changed but content did not; record the new
+                    // timestamps so we don't hash the files again next time
                     synchronized (this) {
-                        config = nue;
+                        fingerprint = fp.retouched();
                     }
-                }
-                return nue;
+                    persist.accept(fp.path(), this);
+                    break;
+                case CHANGED:
+                    AntlrConfiguration nue = ifOutOfDate.get();
+                    if (nue != null) {
+                        synchronized (this) {
+                            config = nue;
+                            fingerprint = BuildFileFingerprint.forProject(fp.path());
+                        }
+                        persist.accept(fp.path(), this);
+                    }
+                    return nue;
+                default:
+                    break;
             }
             synchronized (this) {
                 return config;
             }
         }
 
-        boolean isChanged() {
-            return upToDate.isChanged();
+        static CacheEntry load(CacheFileReader reader) throws IOException {
+            BuildFileFingerprint fingerprint = BuildFileFingerprint.readFrom(reader);
+            AntlrConfiguration config = AntlrConfiguration.readRecord(reader);
+            return config == null ? null : new CacheEntry(fingerprint, config);
         }
 
-        public static <C extends ReadableByteChannel & SeekableByteChannel> CacheEntry load(C channel) throws IOException {
-            UpToDateness up = UpToDateness.load(channel);
-            AntlrConfiguration config = AntlrConfiguration.readFrom(channel);
-            return new CacheEntry(up, config);
-        }
-
-        public <C extends WritableByteChannel & SeekableByteChannel> int store(C channel) throws IOException {
-            if (upToDate != null && config != null) {
-                return upToDate.store(channel) + config.writeTo(channel);
-            }
-            return 0;
+        synchronized void store(CacheFileWriter writer) throws IOException {
+            fingerprint.writeTo(writer);
+            config.writeRecord(writer);
         }
     }
 }
@@ -15,6 +15,7 @@
  */
 package org.nemesis.antlr.nbinput;
 
+import com.mastfrog.antlr.utils.DocumentCharStream;
 import java.io.Externalizable;
 import java.io.File;
 import java.io.IOException;
@@ -146,8 +147,7 @@ final class DocumentGrammarSource extends AbstractFileObjectGrammarSourceImpleme
 
     @Override
     public CharStream stream() throws IOException {
-        CharSequence seq = DocumentUtilities.getText(doc);
-        return new CharSequenceCharStream(name(), seq);
+        return new DocumentCharStream(name(), doc);
     }
 
     @Override
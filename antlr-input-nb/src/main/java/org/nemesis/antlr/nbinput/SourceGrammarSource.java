@@ -16,6 +16,7 @@
 
 package org.nemesis.antlr.nbinput;
 
+import com.mastfrog.antlr.utils.CharSequenceCharStream;
 import java.io.IOException;
 import java.util.Optional;
 import javax.swing.text.Document;
@@ -394,6 +394,23 @@ public @interface AntlrLanguageRegistration {
          */
         int parserStreamChannel() default 0;
 
+        /**
+         * If true, the generated parser first parses using Antlr's SLL
+         * prediction mode with an error strategy that gives up at the first
+         * syntax error, and reparses using full LL prediction only if that
+         * fails. SLL prediction is sufficient for most syntactically correct
+         * input, and considerably faster for many grammars, so this commonly
+         * cuts the parse time of correct files substantially, at the cost of
+         * a partial extra parse for files with errors. Errors are reported
+         * exactly as with a plain LL parse. Not used if your parser helper
+         * attaches parse listeners or sets a prediction mode itself. How often
+         * the fallback was needed, per MIME type, is available from
+         * <code>TwoStageParsing.stats()</code>.
+         *
+         * @return true if two-stage parsing should be used
+         */
+        boolean twoStageParsing() default false;
+
         /**
          * If true, generate a navigator panel which will show the syntax tree of
          * this language. You will need the antlr-navigators project on the
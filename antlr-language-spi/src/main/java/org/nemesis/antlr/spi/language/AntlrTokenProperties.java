@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.spi.language;
+
+import org.netbeans.api.lexer.Token;
+import org.netbeans.api.lexer.TokenId;
+import org.netbeans.spi.lexer.TokenPropertyProvider;
+
+/**
+ * Records the facts about the Antlr token behind a NetBeans token which the
+ * NetBeans token itself cannot express, so that the token hierarchy can later
+ * be replayed to a parser as Antlr tokens without lexing the document again:
+ * the channel, the number of leading characters the Antlr lexer skipped
+ * (<code>-&gt; skip</code> rules or error recovery) and which the NetBeans
+ * token absorbed, and whether the Antlr lexer reported an error while
+ * producing the token, and the token's text if a lexer action replaced it
+ * with <code>setText()</code>. Tokens on the default channel with nothing
+ * skipped, no errors and their own text, which is most of them, carry no
+ * properties at all.
+ *
+ * @author Tim Boudreau
+ */
+final class AntlrTokenProperties<T extends TokenId> implements TokenPropertyProvider<T> {
+
+    static final String CHANNEL = "antlr-channel";
+    static final String SKIPPED = "antlr-skipped";
+    static final String LEXER_ERROR = "antlr-lexer-error";
+    static final String TRAILING = "antlr-trailing";
+    static final String TEXT = "antlr-text";
+    private final int channel;
+    private final int skipped;
+    private final boolean lexerError;
+    private final boolean trailing;
+    private final String text;
+
+    AntlrTokenProperties(int channel, int skipped, boolean lexerError, boolean trailing) {
+        this(channel, skipped, lexerError, trailing, null);
+    }
+
+    AntlrTokenProperties(int channel, int skipped, boolean lexerError, boolean trailing, String text) {
+        this.channel = channel;
+        this.skipped = skipped;
+        this.lexerError = lexerError;
+        this.trailing = trailing;
+        this.text = text;
+    }
+
+    static int channel(Token<?> tok) {
+        Object result = tok.getProperty(CHANNEL);
+        return result instanceof Integer ? (Integer) result : org.antlr.v4.runtime.Token.DEFAULT_CHANNEL;
+    }
+
+    static int skipped(Token<?> tok) {
+        Object result = tok.getProperty(SKIPPED);
+        return result instanceof Integer ? (Integer) result : 0;
+    }
+
+    static boolean isLexerError(Token<?> tok) {
+        return Boolean.TRUE.equals(tok.getProperty(LEXER_ERROR));
+    }
+
+    static boolean isTrailing(Token<?> tok) {
+        return Boolean.TRUE.equals(tok.getProperty(TRAILING));
+    }
+
+    static String text(Token<?> tok) {
+        Object result = tok.getProperty(TEXT);
+        return result instanceof String ? (String) result : null;
+    }
+
+    @Override
+    public Object getValue(Token<T> token, Object key) {
+        if (CHANNEL.equals(key)) {
+            return channel;
+        } else if (SKIPPED.equals(key)) {
+            return skipped;
+        } else if (LEXER_ERROR.equals(key)) {
+            return lexerError;
+        } else if (TRAILING.equals(key)) {
+            return trailing;
+        } else if (TEXT.equals(key)) {
+            return text;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "channel=" + channel + " skipped=" + skipped
+                + (lexerError ? " lexerError" : "") + (trailing ? " trailing" : "")
+                + (text == null ? "" : " text='" + text + "'");
+    }
+}
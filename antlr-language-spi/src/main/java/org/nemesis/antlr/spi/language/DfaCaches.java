@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.spi.language;
+
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.dfa.DFA;
+
+import static com.mastfrog.util.preconditions.Checks.notNull;
+
+/**
+ * Manages the prediction DFA caches of the parsers and lexers of registered
+ * languages. Left alone, Antlr keeps these in static fields of each generated
+ * class, where they grow for the life of the process. Recognizers passed to
+ * the <code>install()</code> methods instead get an interpreter using DFAs
+ * owned here, per MIME type, which are:
+ * <ul>
+ * <li>Only shared by recognizers with the same serialized ATN, since DFA
+ * states refer to the ATN they were computed from</li>
+ * <li>Discarded and started over when the number of DFA states for a MIME type
+ * exceeds a cap (the system property <code>antlr.dfa.max.states</code>)</li>
+ * <li>Softly referenced, so they are cleared under memory pressure</li>
+ * </ul>
+ * Antlr's DFA is designed to be shared by concurrently running recognizers,
+ * so sharing one across threads is safe. Recognizers already running when a
+ * cache is discarded keep using the one they were created with.
+ * <p>
+ * Antlr's DFA states refer to ATN states and prediction contexts, and the
+ * runtime has no way to serialize them, so caches live only in memory.
+ * </p>
+ * <p>
+ * The adhoc languages of grammars being edited are not covered: their
+ * recognizers run against a copy of the Antlr runtime loaded by an isolating
+ * class loader, so their ATN and DFA types are not the ones used here. The
+ * generated extraction code caps their DFAs the same way, within each such
+ * class loader.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class DfaCaches {
+
+    private static final Logger LOG = Logger.getLogger( DfaCaches.class.getName() );
+    private static final Map<String, MimeTypeCaches> CACHES = new ConcurrentHashMap<>();
+    private static final int CHECK_INTERVAL = 64;
+    static long maxStates = Long.getLong( "antlr.dfa.max.states", 250_000 );
+    static boolean enabled = !Boolean.getBoolean( "antlr.dfa.cache.disabled" );
+
+    private DfaCaches() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Make a parser use the managed DFA cache for its MIME type, preserving
+     * its prediction mode. Call before parsing.
+     *
+     * @param <P>      The parser type
+     * @param mimeType The MIME type
+     * @param parser   The parser
+     *
+     * @return The parser
+     */
+    public static <P extends Parser> P install( String mimeType, P parser ) {
+        if ( !enabled ) {
+            return parser;
+        }
+        Cache cache = caches( notNull( "mimeType", mimeType ) ).parser
+                .cacheFor( notNull( "parser", parser ) );
+        ParserATNSimulator old = parser.getInterpreter();
+        ParserATNSimulator sim = new ParserATNSimulator( parser, cache.atn, cache.decisionToDFA,
+                                                         cache.contextCache );
+        if ( old != null ) {
+            sim.setPredictionMode( old.getPredictionMode() );
+        }
+        parser.setInterpreter( sim );
+        return parser;
+    }
+
+    /**
+     * Make a lexer use the managed DFA cache for its MIME type.
+     *
+     * @param <L>      The lexer type
+     * @param mimeType The MIME type
+     * @param lexer    The lexer
+     *
+     * @return The lexer
+     */
+    public static <L extends Lexer> L install( String mimeType, L lexer ) {
+        if ( !enabled ) {
+            return lexer;
+        }
+        Cache cache = caches( notNull( "mimeType", mimeType ) ).lexer
+                .cacheFor( notNull( "lexer", lexer ) );
+        LexerATNSimulator old = lexer.getInterpreter();
+        LexerATNSimulator sim = new LexerATNSimulator( lexer, cache.atn, cache.decisionToDFA,
+                                                       cache.contextCache );
+        if ( old != null ) {
+            // The lexer may already have produced a token (a parser fetches
+            // one on creation), so carry over the position
+            sim.copyState( old );
+        }
+        lexer.setInterpreter( sim );
+        return lexer;
+    }
+
+    /**
+     * Discard the caches for one MIME type.
+     *
+     * @param mimeType A MIME type
+     */
+    public static void clear( String mimeType ) {
+        MimeTypeCaches caches = CACHES.get( mimeType );
+        if ( caches != null ) {
+            caches.parser.discard();
+            caches.lexer.discard();
+        }
+    }
+
+    /**
+     * Discard all caches.
+     */
+    public static void clear() {
+        CACHES.values().forEach( caches -> {
+            caches.parser.discard();
+            caches.lexer.discard();
+        } );
+    }
+
+    /**
+     * Get a snapshot of the cache statistics for all MIME types, as MIME type
+     * to [parser DFA states, lexer DFA states, recognizers installed, caches
+     * discarded for exceeding the state cap, caches reclaimed by the garbage
+     * collector].
+     *
+     * @return A map
+     */
+    public static Map<String, long[]> stats() {
+        Map<String, long[]> result = new TreeMap<>();
+        CACHES.forEach( ( mimeType, caches ) -> {
+            result.put( mimeType, caches.toArray() );
+        } );
+        return Collections.unmodifiableMap( result );
+    }
+
+    /**
+     * Get the number of DFA states currently cached for a MIME type's parser
+     * and lexer.
+     *
+     * @param mimeType A MIME type
+     *
+     * @return A count
+     */
+    public static long stateCount( String mimeType ) {
+        MimeTypeCaches caches = CACHES.get( mimeType );
+        return caches == null ? 0 : caches.parser.stateCount() + caches.lexer.stateCount();
+    }
+
+    static void reset() {
+        CACHES.clear();
+    }
+
+    private static MimeTypeCaches caches( String mimeType ) {
+        return CACHES.computeIfAbsent( mimeType, MimeTypeCaches::new );
+    }
+
+    private static final class MimeTypeCaches {
+
+        private final String mimeType;
+        final LongAdder installs = new LongAdder();
+        final LongAdder capped = new LongAdder();
+        final LongAdder reclaimed = new LongAdder();
+        final Slot parser = new Slot( "parser" );
+        final Slot lexer = new Slot( "lexer" );
+
+        MimeTypeCaches( String mimeType ) {
+            this.mimeType = mimeType;
+        }
+
+        long[] toArray() {
+            return new long[]{ parser.stateCount(), lexer.stateCount(), installs.sum(), capped.sum(),
+                reclaimed.sum() };
+        }
+
+        @Override
+        public String toString() {
+            return mimeType + ": " + parser.stateCount() + " parser states, " + lexer.stateCount()
+                   + " lexer states, " + installs.sum() + " installs, " + capped.sum() + " capped, "
+                   + reclaimed.sum() + " reclaimed";
+        }
+
+        final class Slot {
+
+            private final String kind;
+            private SoftReference<Cache> ref;
+            private int checkCountdown = CHECK_INTERVAL;
+
+            Slot( String kind ) {
+                this.kind = kind;
+            }
+
+            synchronized Cache cacheFor( Recognizer<?, ?> recognizer ) {
+                installs.increment();
+                String serializedAtn = recognizer.getSerializedATN();
+                Cache result = ref == null ? null : ref.get();
+                if ( result == null && ref != null ) {
+                    reclaimed.increment();
+                    LOG.log( Level.FINE, "DFA cache for {0} {1} reclaimed", new Object[]{ mimeType, kind } );
+                }
+                if ( result != null && --checkCountdown <= 0 ) {
+                    checkCountdown = CHECK_INTERVAL;
+                    long states = result.stateCount();
+                    if ( states > maxStates ) {
+                        capped.increment();
+                        LOG.log( Level.FINE, "Discarding {0} {1} DFA cache with {2} states",
+                                 new Object[]{ mimeType, kind, states } );
+                        result = null;
+                    }
+                }
+                if ( result == null || !result.isFor( serializedAtn ) ) {
+                    result = new Cache( recognizer.getATN(), serializedAtn );
+                    ref = new SoftReference<>( result );
+                }
+                return result;
+            }
+
+            synchronized void discard() {
+                ref = null;
+            }
+
+            synchronized long stateCount() {
+                Cache cache = ref == null ? null : ref.get();
+                return cache == null ? 0 : cache.stateCount();
+            }
+        }
+    }
+
+    private static final class Cache {
+
+        final ATN atn;
+        final DFA[] decisionToDFA;
+        final PredictionContextCache contextCache = new PredictionContextCache();
+        private final String serializedAtn;
+
+        Cache( ATN atn, String serializedAtn ) {
+            this.atn = atn;
+            this.serializedAtn = serializedAtn;
+            decisionToDFA = new DFA[ atn.getNumberOfDecisions() ];
+            for ( int i = 0; i < decisionToDFA.length; i++ ) {
+                decisionToDFA[ i ] = new DFA( atn.getDecisionState( i ), i );
+            }
+        }
+
+        boolean isFor( String serializedAtn ) {
+            // Generated classes hold the serialized ATN in a constant, so
+            // this is usually an identity check
+            return this.serializedAtn.equals( serializedAtn );
+        }
+
+        long stateCount() {
+            long result = 0;
+            for ( DFA dfa : decisionToDFA ) {
+                synchronized ( dfa.states ) {
+                    result += dfa.states.size();
+                }
+            }
+            return result;
+        }
+    }
+}
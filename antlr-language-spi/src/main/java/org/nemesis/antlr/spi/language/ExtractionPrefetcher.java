@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.spi.language;
+
+import com.mastfrog.util.collections.CollectionUtils;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.nemesis.extraction.Extraction;
+import org.nemesis.extraction.attribution.ImportFinder;
+import org.nemesis.source.api.GrammarSource;
+import org.openide.cookies.EditorCookie;
+import org.openide.filesystems.FileObject;
+import org.openide.loaders.DataObject;
+import org.openide.loaders.DataObjectNotFoundException;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Once a file open in the editor has been parsed, parses the files it imports,
+ * and the files in the same folder of the same type, which are the likeliest
+ * to import it, at low priority in the background, and keeps the resulting
+ * extractions in a small LRU cache consulted by
+ * <code>NbAntlrUtils.extractionFor(FileObject)</code>. That is the path by
+ * which <code>Extraction.resolveExtraction()</code>, go-to-declaration into
+ * imported files and usage searches obtain extractions of files which are not
+ * open, so those usually find a warm extraction rather than parsing on the
+ * user's critical path.
+ *
+ * @author Tim Boudreau
+ */
+final class ExtractionPrefetcher {
+
+    private static final Logger LOG = Logger.getLogger( ExtractionPrefetcher.class.getName() );
+    private static final RequestProcessor PREFETCH_RP = new RequestProcessor( "antlr-extraction-prefetch", 1, true );
+    private static final int DELAY = 1500;
+    private static final int MAX_SIBLINGS = 24;
+    private static final int MAX_ENTRIES = Integer.getInteger( "antlr.prefetch.max", 48 );
+    static boolean enabled = !Boolean.getBoolean( "antlr.prefetch.disabled" );
+    private static final Map<FileObject, RequestProcessor.Task> PENDING = new WeakHashMap<>();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder PREFETCHED = new LongAdder();
+    private static final Map<FileObject, Extraction> CACHE
+            = new LinkedHashMap<FileObject, Extraction>( MAX_ENTRIES, 0.75F, true ) {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<FileObject, Extraction> eldest ) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private ExtractionPrefetcher() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Get a prefetched extraction for a file, if one exists and the file has
+     * not been modified since it was created.
+     *
+     * @param fo A file
+     *
+     * @return An extraction or null
+     */
+    static Extraction cached( FileObject fo ) {
+        if ( !enabled ) {
+            return null;
+        }
+        synchronized ( CACHE ) {
+            Extraction result = CACHE.get( fo );
+            if ( result != null && ( result.isDisposed() || result.isSourceProbablyModifiedSinceCreation() ) ) {
+                CACHE.remove( fo );
+                result = null;
+            }
+            if ( result == null ) {
+                MISSES.increment();
+            } else {
+                HITS.increment();
+            }
+            return result;
+        }
+    }
+
+    static void evict( FileObject fo ) {
+        synchronized ( CACHE ) {
+            CACHE.remove( fo );
+        }
+    }
+
+    /**
+     * Called when a file open in the editor has been parsed; (re)schedules
+     * prefetching of related files, so that a burst of reparses while typing
+     * results in one prefetch once the user pauses.
+     *
+     * @param extraction A new extraction
+     */
+    static void parsed( Extraction extraction ) {
+        if ( !enabled || extraction == null || extraction.isPlaceholder() ) {
+            return;
+        }
+        Optional<FileObject> origin = extraction.source().lookup( FileObject.class );
+        if ( !origin.isPresent() ) {
+            return;
+        }
+        FileObject fo = origin.get();
+        // The file is open, so there is no point keeping a copy of it here
+        evict( fo );
+        RequestProcessor.Task task;
+        synchronized ( PENDING ) {
+            task = PENDING.get( fo );
+            if ( task == null ) {
+                task = PREFETCH_RP.create( new Prefetch( fo ) );
+                task.setPriority( Thread.MIN_PRIORITY );
+                PENDING.put( fo, task );
+            }
+        }
+        task.schedule( DELAY );
+    }
+
+    private static boolean isOpen( FileObject fo ) {
+        try {
+            EditorCookie ck = DataObject.find( fo ).getLookup().lookup( EditorCookie.class );
+            return ck != null && ck.getDocument() != null;
+        } catch ( DataObjectNotFoundException ex ) {
+            return false;
+        }
+    }
+
+    private static boolean isFresh( FileObject fo ) {
+        synchronized ( CACHE ) {
+            Extraction result = CACHE.get( fo );
+            return result != null && !result.isDisposed() && !result.isSourceProbablyModifiedSinceCreation();
+        }
+    }
+
+    private static final class Prefetch implements Runnable {
+
+        private final FileObject origin;
+
+        Prefetch( FileObject origin ) {
+            this.origin = origin;
+        }
+
+        @Override
+        public void run() {
+            synchronized ( PENDING ) {
+                PENDING.remove( origin );
+            }
+            if ( !origin.isValid() ) {
+                return;
+            }
+            // Use whatever extraction the editor has now, not the one we were
+            // scheduled with, which is likely several edits stale
+            Extraction ext = NbAntlrUtils.extractionFor( origin );
+            if ( ext == null || ext.isPlaceholder() ) {
+                return;
+            }
+            Set<FileObject> targets = new LinkedHashSet<>();
+            for ( GrammarSource<?> src : ImportFinder.forMimeType( ext.mimeType() )
+                    .allImports( ext, CollectionUtils.blackHoleSet() ) ) {
+                src.lookup( FileObject.class ).ifPresent( targets::add );
+            }
+            FileObject parent = origin.getParent();
+            if ( parent != null ) {
+                String mime = origin.getMIMEType();
+                int count = 0;
+                for ( FileObject sib : parent.getChildren() ) {
+                    if ( count >= MAX_SIBLINGS ) {
+                        break;
+                    }
+                    if ( sib.isData() && mime.equals( sib.getMIMEType() ) ) {
+                        targets.add( sib );
+                        count++;
+                    }
+                }
+            }
+            targets.remove( origin );
+            int parsed = 0;
+            for ( FileObject target : targets ) {
+                if ( Thread.interrupted() ) {
+                    return;
+                }
+                if ( !target.isValid() || isFresh( target ) || isOpen( target ) ) {
+                    continue;
+                }
+                try {
+                    Extraction result = NbAntlrUtils.parseImmediately( target );
+                    if ( result != null && !result.isPlaceholder() ) {
+                        synchronized ( CACHE ) {
+                            CACHE.put( target, result );
+                        }
+                        parsed++;
+                    }
+                } catch ( Exception ex ) {
+                    LOG.log( Level.FINE, "Prefetching " + target, ex );
+                }
+            }
+            PREFETCHED.add( parsed );
+            LOG.log( Level.FINER, "Prefetched {0} of {1} files related to {2}; {3} total, {4} hits, {5} misses",
+                     new Object[]{ parsed, targets.size(), origin.getNameExt(), PREFETCHED.sum(), HITS.sum(),
+                         MISSES.sum() } );
+        }
+    }
+}
@@ -17,7 +17,10 @@ package org.nemesis.antlr.spi.language;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.antlr.v4.runtime.BaseErrorListener;
 import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
 import org.antlr.v4.runtime.misc.IntegerStack;
 import org.netbeans.api.lexer.Token;
 import org.netbeans.api.lexer.TokenId;
@@ -35,6 +38,9 @@ final class GenericAntlrLexer<T extends TokenId, L extends org.antlr.v4.runtime.
     private final L antlrLexer;
     private LexerState lexerState;
     private final NbLexerAdapter<T, L> adapter;
+    private final CharStream charStream;
+    private int lexerErrors;
+    private AntlrTokenProperties<T>[] channelProperties;
     private static final Logger LOG = Logger.getLogger(GenericAntlrLexer.class.getName());
 
     public GenericAntlrLexer(LexerRestartInfo<T> info, NbLexerAdapter<T, L> adapter) {
@@ -53,9 +59,19 @@ final class GenericAntlrLexer<T extends TokenId, L extends org.antlr.v4.runtime.
         }
 
         // We initialize our lexer
-        CharStream charStream = NbAntlrUtils.newCharStream(info.input(),
+        charStream = NbAntlrUtils.newCharStream(info.input(),
                 info.languagePath().toString());
-        this.antlrLexer = adapter.createLexer(charStream);
+        this.antlrLexer = DfaCaches.install(info.languagePath().innerLanguage().mimeType(),
+                adapter.createLexer(charStream));
+        // Count errors, so tokens produced by error recovery can be marked,
+        // and HierarchyTokenSource will not pass them off as clean
+        antlrLexer.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
+                    int line, int charPositionInLine, String msg, RecognitionException e) {
+                lexerErrors++;
+            }
+        });
         // If there is a state we set the internal state of lexer to the right state
         if (lexerState != null) {
             int mode = lexerState.getMode();
@@ -84,6 +100,8 @@ final class GenericAntlrLexer<T extends TokenId, L extends org.antlr.v4.runtime.
     @Override
     public Token<T> nextToken() {
         Token<T> nbToken;
+        int startIndex = charStream.index();
+        int errorsBefore = lexerErrors;
         org.antlr.v4.runtime.Token antlrToken = antlrLexer.nextToken();
         int tokenType = antlrToken.getType();
         boolean returningNullNoEof = false;
@@ -95,7 +113,8 @@ final class GenericAntlrLexer<T extends TokenId, L extends org.antlr.v4.runtime.
         }
         if (!returningNullNoEof && tokenType != CharStream.EOF) {
             T tokenId = adapter.tokenId(tokenType);
-            nbToken = info.tokenFactory().createToken(tokenId);
+            nbToken = createToken(tokenId, antlrToken, startIndex,
+                    lexerErrors != errorsBefore);
             // Now we recover lexer state
             // We make a copy of internal lexer state after having recovered
             // next token in order to be able to restore it in case of future
@@ -119,8 +138,12 @@ final class GenericAntlrLexer<T extends TokenId, L extends org.antlr.v4.runtime.
                 // The lexer has given up and did not tokenize everything that
                 // was read - but we must.  So use the $ERRONEOUS token generated
                 // by the annotation processor to capture whatever is left
-                Token<T> result = info.tokenFactory().createToken(
-                        adapter.tokenId(getErroneousTokenId()), remaining);
+                // If the lexer reported no error, the remainder is simply
+                // skipped content such as trailing whitespace
+                Token<T> result = info.tokenFactory().createPropertyToken(
+                        adapter.tokenId(getErroneousTokenId()), remaining,
+                        new AntlrTokenProperties<>(org.antlr.v4.runtime.Token.DEFAULT_CHANNEL,
+                                0, lexerErrors != errorsBefore, true));
                 LOG.log(Level.FINEST, "Returning bogus token {0}", result);
                 return result;
             }
@@ -128,6 +151,51 @@ final class GenericAntlrLexer<T extends TokenId, L extends org.antlr.v4.runtime.
         return null;
     }
 
+    private Token<T> createToken(T tokenId, org.antlr.v4.runtime.Token antlrToken,
+            int startIndex, boolean lexerError) {
+        int length = info.input().readLength();
+        int skipped = antlrToken.getStartIndex() - startIndex;
+        int channel = antlrToken.getChannel();
+        // Lexer actions which call setText() leave the replacement in _text
+        // until the next call to nextToken(); the NetBeans token can only
+        // hold the document text, so keep the replacement as a property
+        String text = antlrLexer._text;
+        // If the token and what was read disagree, something odd happened
+        // in the lexer; flag it so the token is never replayed as-is
+        lexerError |= skipped < 0
+                || antlrToken.getStopIndex() + 1 - startIndex != length;
+        if (skipped == 0 && !lexerError && text == null) {
+            if (channel == org.antlr.v4.runtime.Token.DEFAULT_CHANNEL) {
+                return info.tokenFactory().createToken(tokenId);
+            }
+            return info.tokenFactory().createPropertyToken(tokenId, length,
+                    channelProperties(channel));
+        }
+        return info.tokenFactory().createPropertyToken(tokenId, length,
+                new AntlrTokenProperties<>(channel, Math.max(0, skipped), lexerError, false, text));
+    }
+
+    @SuppressWarnings("unchecked")
+    private AntlrTokenProperties<T> channelProperties(int channel) {
+        // Hidden-channel tokens are common, so share one property
+        // provider per channel
+        if (channel < 0 || channel > 64) {
+            return new AntlrTokenProperties<>(channel, 0, false, false);
+        }
+        if (channelProperties == null || channelProperties.length <= channel) {
+            AntlrTokenProperties<T>[] old = channelProperties;
+            channelProperties = new AntlrTokenProperties[channel + 1];
+            if (old != null) {
+                System.arraycopy(old, 0, channelProperties, 0, old.length);
+            }
+        }
+        AntlrTokenProperties<T> result = channelProperties[channel];
+        if (result == null) {
+            result = channelProperties[channel] = new AntlrTokenProperties<>(channel, 0, false, false);
+        }
+        return result;
+    }
+
     @Override
     public LexerState state() {
         return lexerState;
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.spi.language;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.text.Document;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Pair;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenSequence;
+import org.netbeans.modules.parsing.api.Snapshot;
+
+/**
+ * A token source which replays the tokens the NetBeans lexer infrastructure
+ * has already produced for an open document, rather than lexing the snapshot
+ * again. Every token's text is compared with the snapshot as the tokens are
+ * converted, so a hierarchy which has been modified since the snapshot was
+ * taken is detected, and the caller falls back to lexing. Tokens carry the
+ * information the NetBeans tokens cannot (channel, skipped input, lexer
+ * errors, text replaced by lexer actions) as properties set by
+ * GenericAntlrLexer; a document containing a token the lexer reported an
+ * error for, or an erroneous token, is also lexed normally, so that the error
+ * is reported.
+ *
+ * @author Tim Boudreau
+ */
+final class HierarchyTokenSource implements IterableTokenSource {
+
+    private static final Logger LOG = Logger.getLogger(HierarchyTokenSource.class.getName());
+    static boolean enabled = !Boolean.getBoolean("antlr.hierarchy.tokens.disabled");
+    private final List<CommonToken> tokens;
+    private final TokenSource lexer;
+    private TokenFactory<?> tokenFactory;
+    private int cursor;
+
+    private HierarchyTokenSource(List<CommonToken> tokens, TokenSource lexer) {
+        this.tokens = tokens;
+        this.lexer = lexer;
+    }
+
+    /**
+     * Create a token source over the token hierarchy of the document the
+     * snapshot was taken from, if it exists, is up-to-date with the snapshot
+     * and contains no tokens that need the lexer to run again.
+     *
+     * @param snapshot A snapshot
+     * @param lexer The lexer which would otherwise be used, whose input
+     * stream must be over the snapshot's text
+     * @param erroneousType The token type of tokens for input the Antlr lexer
+     * gave up on
+     * @return A token source, or null
+     */
+    static IterableTokenSource create(Snapshot snapshot, TokenSource lexer, int erroneousType) {
+        if (!enabled || snapshot == null || snapshot.getMimePath().size() != 1) {
+            return null;
+        }
+        Document doc = snapshot.getSource().getDocument(false);
+        if (doc == null) {
+            return null;
+        }
+        return create(doc, snapshot.getText(), snapshot.getMimeType(), lexer, erroneousType);
+    }
+
+    static IterableTokenSource create(Document doc, CharSequence text, String mimeType,
+            TokenSource lexer, int erroneousType) {
+        List<CommonToken> result = new ArrayList<>(512);
+        String[] failure = new String[1];
+        doc.render(() -> {
+            failure[0] = collect(doc, text, mimeType, lexer, erroneousType, result);
+        });
+        if (failure[0] != null) {
+            if (LOG.isLoggable(Level.FINER)) {
+                LOG.log(Level.FINER, "Relexing {0}: {1}", new Object[]{doc, failure[0]});
+            }
+            return null;
+        }
+        return new HierarchyTokenSource(result, lexer);
+    }
+
+    private static String collect(Document doc, CharSequence text, String mimeType, TokenSource lexer,
+            int erroneousType, List<CommonToken> into) {
+        if (doc.getLength() != text.length()) {
+            return "document length changed";
+        }
+        TokenHierarchy<Document> hierarchy = TokenHierarchy.get(doc);
+        if (!hierarchy.isActive()) {
+            return "hierarchy inactive";
+        }
+        TokenSequence<?> seq = hierarchy.tokenSequence();
+        if (seq == null || !mimeType.equals(seq.language().mimeType())) {
+            return "no token sequence for " + mimeType;
+        }
+        Pair<TokenSource, CharStream> source = new Pair<>(lexer, lexer.getInputStream());
+        int line = 1;
+        int charPositionInLine = 0;
+        int offset = 0;
+        seq.moveStart();
+        while (seq.moveNext()) {
+            org.netbeans.api.lexer.Token<?> tok = seq.token();
+            if (seq.offset() != offset) {
+                return "token sequence not contiguous at " + offset;
+            }
+            CharSequence tokenText = tok.text();
+            int length = tokenText.length();
+            if (offset + length > text.length()) {
+                return "token past end of snapshot at " + offset;
+            }
+            int type = tok.id().ordinal();
+            boolean trailing = AntlrTokenProperties.isTrailing(tok);
+            if (AntlrTokenProperties.isLexerError(tok)) {
+                return "lexer error at " + offset;
+            } else if (type == erroneousType && !trailing) {
+                return "erroneous token at " + offset;
+            }
+            int skipped = AntlrTokenProperties.skipped(tok);
+            int tokenLine = line;
+            int tokenCharPosition = charPositionInLine;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(offset + i);
+                if (c != tokenText.charAt(i)) {
+                    return "hierarchy out of sync with snapshot at " + (offset + i);
+                }
+                if (i == skipped) {
+                    tokenLine = line;
+                    tokenCharPosition = charPositionInLine;
+                }
+                if (c == '\n') {
+                    line++;
+                    charPositionInLine = 0;
+                } else {
+                    charPositionInLine++;
+                }
+            }
+            if (!trailing) {
+                CommonToken antlrToken = new CommonToken(source, type,
+                        AntlrTokenProperties.channel(tok), offset + skipped, offset + length - 1);
+                antlrToken.setLine(tokenLine);
+                antlrToken.setCharPositionInLine(tokenCharPosition);
+                String replacedText = AntlrTokenProperties.text(tok);
+                if (replacedText != null) {
+                    antlrToken.setText(replacedText);
+                }
+                into.add(antlrToken);
+            }
+            offset += length;
+        }
+        if (offset != text.length()) {
+            return "hierarchy covers " + offset + " of " + text.length() + " characters";
+        }
+        CommonToken eof = new CommonToken(source, Token.EOF, Token.DEFAULT_CHANNEL, offset, offset - 1);
+        eof.setLine(line);
+        eof.setCharPositionInLine(charPositionInLine);
+        into.add(eof);
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return HierarchyTokenSource.class.getSimpleName() + "{" + tokens.size() + " tokens}";
+    }
+
+    @Override
+    public Iterator<CommonToken> iterator() {
+        return tokens.iterator();
+    }
+
+    @Override
+    public Token nextToken() {
+        // The last token is always EOF, and ANTLR expects to be able to
+        // keep asking for it
+        Token result = tokens.get(Math.min(cursor, tokens.size() - 1));
+        if (cursor < tokens.size()) {
+            cursor++;
+        }
+        return result;
+    }
+
+    @Override
+    public int getLine() {
+        return tokens.get(Math.min(cursor, tokens.size() - 1)).getLine();
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return tokens.get(Math.min(cursor, tokens.size() - 1)).getCharPositionInLine();
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return lexer.getInputStream();
+    }
+
+    @Override
+    public String getSourceName() {
+        return lexer.getSourceName();
+    }
+
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        // Tokens are already created; retained only to honor the contract
+        this.tokenFactory = factory;
+    }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return tokenFactory == null ? lexer.getTokenFactory() : tokenFactory;
+    }
+
+    @Override
+    public void dispose() {
+        // Unlike WrapLexer, the list is never appended to, so leave it
+        // intact for any iterator still in use
+    }
+}
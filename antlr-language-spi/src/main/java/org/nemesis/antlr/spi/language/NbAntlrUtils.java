@@ -340,6 +340,9 @@ public final class NbAntlrUtils {
             if ( old != null ) {
                 old.discard();
             }
+            if ( isPostprocessingEnabled() ) {
+                ExtractionPrefetcher.parsed( ext );
+            }
         }
     }
 
@@ -378,7 +381,11 @@ public final class NbAntlrUtils {
                     return extractionFor( d );
                 }
             }
-            Extraction result = foCache.get( fo );
+            Extraction result = ExtractionPrefetcher.cached( fo );
+            if ( result != null ) {
+                return result;
+            }
+            result = foCache.get( fo );
             if ( result == null || result.isSourceProbablyModifiedSinceCreation() ) {
                 result = NbAntlrUtils.parseImmediately( fo );
                 if ( result != null && !result.isPlaceholder() ) {
@@ -87,4 +87,20 @@ public abstract class NbLexerAdapter<T extends TokenId, L extends org.antlr.v4.r
         return new WrapLexer<>(lexer);
     }
 
+    /**
+     * Create a token source for parsing a snapshot which, if the snapshot is
+     * of an open document whose token hierarchy is up-to-date with it, replays
+     * the tokens the NetBeans lexer has already produced, and otherwise wraps
+     * the passed lexer, as <code>wrapLexer()</code> does.
+     *
+     * @param lexer A lexer over the snapshot's text
+     * @param snapshot The snapshot being parsed, or null
+     * @return A token source
+     */
+    protected final IterableTokenSource wrapLexer(L lexer, Snapshot snapshot) {
+        IterableTokenSource result = HierarchyTokenSource.create(snapshot, lexer,
+                vocabulary().getMaxTokenType() + 1);
+        return result == null ? wrapLexer(lexer) : result;
+    }
+
 }
@@ -141,6 +141,8 @@ public abstract class NbParserHelper<P extends Parser, L extends Lexer, R extend
         parser.removeErrorListeners();
         boolean checkErrors = isDefaultErrorHandlingEnabled();
         GenericAntlrErrorListener listener = checkErrors ? new GenericAntlrErrorListener( snapshot ) : null;
+        DfaCaches.install( mimeType, lexer );
+        DfaCaches.install( mimeType, parser );
         onCreateAntlrParser( lexer, parser, snapshot );
         if ( checkErrors ) {
             lexer.addErrorListener( listener );
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.spi.language;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.ANTLRErrorStrategy;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import static com.mastfrog.util.preconditions.Checks.notNull;
+
+/**
+ * Implements the standard two-stage Antlr parsing strategy used by generated
+ * parsers whose registration sets <code>twoStageParsing</code>: first parse
+ * with the cheaper SLL prediction mode and a bailing error strategy, and only
+ * if that fails, rewind and reparse with full LL prediction and the parser's
+ * own error strategy and listeners. For syntactically correct files, which
+ * are the common case, SLL is sufficient and typically much faster; a file
+ * with errors pays for a partial SLL parse before the LL one, and gets
+ * exactly the errors a plain LL parse would report.
+ * <p>
+ * Per-MIME-type counts of parses and fallbacks are kept, so the benefit for a
+ * given grammar can be checked.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class TwoStageParsing {
+
+    private static final Logger LOG = Logger.getLogger( TwoStageParsing.class.getName() );
+    private static final Map<String, Stats> STATS = new ConcurrentHashMap<>();
+    private static final int LOG_INTERVAL = 500;
+
+    private TwoStageParsing() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Invoke the entry point of a parser, first in SLL mode, falling back to
+     * LL mode only if the SLL parse fails. The parser's input must be a
+     * buffered token stream that can be rewound, such as CommonTokenStream.
+     * <p>
+     * If the parser has parse listeners attached, they would see the
+     * abandoned SLL attempt, so in that case, or if the parser was already
+     * configured with a prediction mode other than the default, the entry
+     * point is simply invoked as-is.
+     * </p>
+     *
+     * @param <P>        The parser type
+     * @param <T>        The entry point rule's return type
+     * @param mimeType   The MIME type, for statistics
+     * @param parser     A parser
+     * @param entryPoint A function which invokes the entry point rule
+     *
+     * @return The parse tree
+     */
+    public static <P extends Parser, T extends ParserRuleContext> T parse( String mimeType, P parser,
+            Function<? super P, ? extends T> entryPoint ) {
+        notNull( "mimeType", mimeType );
+        notNull( "entryPoint", entryPoint );
+        Stats stats = STATS.computeIfAbsent( mimeType, mt -> new Stats() );
+        if ( !notNull( "parser", parser ).getParseListeners().isEmpty()
+                     || parser.getInterpreter().getPredictionMode() != PredictionMode.LL ) {
+            stats.skipped.increment();
+            return entryPoint.apply( parser );
+        }
+        ANTLRErrorStrategy originalStrategy = parser.getErrorHandler();
+        // Errors from the SLL pass are spurious or will be reported again
+        // by the LL pass, so listeners must not see them
+        List<ANTLRErrorListener> listeners = new ArrayList<>( parser.getErrorListeners() );
+        parser.removeErrorListeners();
+        parser.setErrorHandler( new BailErrorStrategy() );
+        parser.getInterpreter().setPredictionMode( PredictionMode.SLL );
+        T result = null;
+        try {
+            result = entryPoint.apply( parser );
+        } catch ( ParseCancellationException ex ) {
+            LOG.log( Level.FINEST, "SLL parse failed for {0}; falling back to LL", mimeType );
+        } finally {
+            parser.setErrorHandler( originalStrategy );
+            parser.getInterpreter().setPredictionMode( PredictionMode.LL );
+            for ( ANTLRErrorListener l : listeners ) {
+                parser.addErrorListener( l );
+            }
+        }
+        stats.parses.increment();
+        if ( result == null ) {
+            stats.fallbacks.increment();
+            // Rewinds the token stream and clears parser state
+            parser.reset();
+            result = entryPoint.apply( parser );
+        }
+        if ( LOG.isLoggable( Level.FINE ) && stats.parses.sum() % LOG_INTERVAL == 0 ) {
+            LOG.log( Level.FINE, "Two-stage parsing for {0}: {1}", new Object[]{ mimeType, stats } );
+        }
+        return result;
+    }
+
+    /**
+     * Get a snapshot of the parsing statistics for all MIME types parsed
+     * so far, as MIME type to [parses, LL fallbacks, parses which skipped
+     * the SLL stage because of parse listeners or a custom prediction mode].
+     *
+     * @return A map
+     */
+    public static Map<String, long[]> stats() {
+        Map<String, long[]> result = new TreeMap<>();
+        STATS.forEach( ( mimeType, stats ) -> {
+            result.put( mimeType, stats.toArray() );
+        } );
+        return Collections.unmodifiableMap( result );
+    }
+
+    /**
+     * Get the fraction of two-stage parses of a MIME type which needed to fall
+     * back to LL mode.
+     *
+     * @param mimeType A MIME type
+     *
+     * @return A number between 0 and 1, or 0 if there have been no parses
+     */
+    public static double fallbackRatio( String mimeType ) {
+        Stats stats = STATS.get( mimeType );
+        return stats == null ? 0 : stats.fallbackRatio();
+    }
+
+    static void reset() {
+        STATS.clear();
+    }
+
+    private static final class Stats {
+
+        final LongAdder parses = new LongAdder();
+        final LongAdder fallbacks = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+
+        long[] toArray() {
+            return new long[]{ parses.sum(), fallbacks.sum(), skipped.sum() };
+        }
+
+        double fallbackRatio() {
+            long p = parses.sum();
+            return p == 0 ? 0 : fallbacks.sum() / (double) p;
+        }
+
+        @Override
+        public String toString() {
+            return parses.sum() + " parses, " + fallbacks.sum() + " LL fallbacks ("
+                   + Math.round( fallbackRatio() * 100 ) + "%), "
+                   + skipped.sum() + " single-stage";
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.spi.language;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.LexerInterpreter;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.tool.LexerGrammar;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.netbeans.api.lexer.Language;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenId;
+import org.netbeans.spi.lexer.LanguageHierarchy;
+import org.netbeans.spi.lexer.Lexer;
+import org.netbeans.spi.lexer.LexerInput;
+import org.netbeans.spi.lexer.LexerRestartInfo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tokens replayed from a token hierarchy must be indistinguishable from the
+ * ones the Antlr lexer would produce, and a hierarchy which cannot be trusted
+ * must not be replayed.
+ *
+ * @author Tim Boudreau
+ */
+public class HierarchyTokenSourceTest {
+
+    private static final String MIME = "text/x-hierarchy-token-source-test";
+    private static final Language<WordTokenId> LANGUAGE = new WordHierarchy().language();
+    // Token types match the ordinals of WordTokenId; the lexers used here
+    // replace the text of the word "shout", as a setText() action would
+    private static final String SHOUT = "shout";
+    private static final String GRAMMAR_TEXT = "lexer grammar Words;\n"
+            + "ID : [a-z]+;\n"
+            + "WS : [ \\t\\r\\n]+ -> channel(HIDDEN);\n"
+            + "HASH : '#' -> skip;\n";
+    private LexerGrammar grammar;
+
+    @Test
+    public void testReplayedTokensMatchLexedTokens() throws Exception {
+        String text = "foo bar\n#baz  qux\n\n  #quux";
+        Document doc = document(text);
+        TokenSource replay = HierarchyTokenSource.create(doc, text, MIME, lexer(text),
+                WordTokenId.ERRONEOUS.ordinal());
+        assertNotNull(replay);
+        assertEquals(describe(lexer(text)), describe(replay));
+    }
+
+    @Test
+    public void testReplacedTextIsReplayed() throws Exception {
+        String text = "foo shout\n#shout bar";
+        Document doc = document(text);
+        TokenSource replay = HierarchyTokenSource.create(doc, text, MIME, lexer(text),
+                WordTokenId.ERRONEOUS.ordinal());
+        assertNotNull(replay);
+        List<String> expected = describe(lexer(text));
+        assertEquals(expected, describe(replay));
+        assertEquals("1:0:4-8@1:4 'SHOUT'", expected.get(2));
+        assertEquals("1:0:11-15@2:1 'SHOUT'", expected.get(4));
+    }
+
+    @Test
+    public void testStaleHierarchyIsNotReplayed() throws Exception {
+        String text = "foo bar baz";
+        Document doc = document(text);
+        String edited = "foo bat baz";
+        assertNull(HierarchyTokenSource.create(doc, edited, MIME, lexer(edited),
+                WordTokenId.ERRONEOUS.ordinal()), "Same length, different text");
+        String longer = "foo bar baz quux";
+        assertNull(HierarchyTokenSource.create(doc, longer, MIME, lexer(longer),
+                WordTokenId.ERRONEOUS.ordinal()), "Different length");
+        assertNull(HierarchyTokenSource.create(doc, text, "text/x-other", lexer(text),
+                WordTokenId.ERRONEOUS.ordinal()), "Different language");
+    }
+
+    @Test
+    public void testErroneousTokensAreNotReplayed() throws Exception {
+        String text = "foo ! bar";
+        Document doc = document(text);
+        assertNull(HierarchyTokenSource.create(doc, text, MIME, lexer(text),
+                WordTokenId.ERRONEOUS.ordinal()));
+    }
+
+    @BeforeEach
+    public void before() throws Exception {
+        grammar = new LexerGrammar(GRAMMAR_TEXT);
+    }
+
+    private LexerInterpreter lexer(String text) {
+        // As Grammar.createLexerInterpreter(), but with a setText() call
+        List<String> channels = new ArrayList<>(Arrays.asList("DEFAULT_TOKEN_CHANNEL", "HIDDEN"));
+        channels.addAll(grammar.channelValueToNameList);
+        LexerInterpreter result = new LexerInterpreter(grammar.fileName, grammar.getVocabulary(),
+                Arrays.asList(grammar.getRuleNames()), channels, grammar.modes.keySet(), grammar.atn,
+                CharStreams.fromString(text)) {
+            @Override
+            public Token emit() {
+                if (_type == WordTokenId.ID.ordinal() && SHOUT.equals(getText())) {
+                    setText(SHOUT.toUpperCase());
+                }
+                return super.emit();
+            }
+        };
+        result.removeErrorListeners();
+        return result;
+    }
+
+    private static Document document(String text) throws BadLocationException {
+        Document doc = new PlainDocument();
+        doc.putProperty(Language.class, LANGUAGE);
+        doc.insertString(0, text, null);
+        TokenHierarchy.get(doc).tokenSequence();
+        return doc;
+    }
+
+    private static List<String> describe(TokenSource src) {
+        List<String> result = new ArrayList<>();
+        Token tok;
+        do {
+            tok = src.nextToken();
+            result.add(tok.getType() + ":" + tok.getChannel() + ":" + tok.getStartIndex()
+                    + "-" + tok.getStopIndex() + "@" + tok.getLine() + ":"
+                    + tok.getCharPositionInLine() + " '" + tok.getText() + "'");
+        } while (tok.getType() != Token.EOF);
+        return result;
+    }
+
+    enum WordTokenId implements TokenId {
+        NONE, ID, WS, HASH, ERRONEOUS;
+
+        @Override
+        public String primaryCategory() {
+            return name().toLowerCase();
+        }
+    }
+
+    static final class WordHierarchy extends LanguageHierarchy<WordTokenId> {
+
+        @Override
+        protected Collection<WordTokenId> createTokenIds() {
+            return EnumSet.allOf(WordTokenId.class);
+        }
+
+        @Override
+        protected Lexer<WordTokenId> createLexer(LexerRestartInfo<WordTokenId> info) {
+            return new WordLexer(info);
+        }
+
+        @Override
+        protected String mimeType() {
+            return MIME;
+        }
+    }
+
+    /**
+     * Produces the tokens GenericAntlrLexer would for the Words grammar: the
+     * input skipped by the HASH rule is absorbed into the following token,
+     * whitespace carries its channel as a property, and so does the
+     * replacement text of the word "shout".
+     */
+    static final class WordLexer implements Lexer<WordTokenId> {
+
+        private final LexerRestartInfo<WordTokenId> info;
+
+        WordLexer(LexerRestartInfo<WordTokenId> info) {
+            this.info = info;
+        }
+
+        @Override
+        public org.netbeans.api.lexer.Token<WordTokenId> nextToken() {
+            LexerInput in = info.input();
+            int ch = in.read();
+            if (ch == LexerInput.EOF) {
+                return null;
+            }
+            int skipped = 0;
+            while (ch == '#') {
+                skipped++;
+                ch = in.read();
+            }
+            WordTokenId id;
+            String text = null;
+            if (Character.isLowerCase(ch)) {
+                id = WordTokenId.ID;
+                while (Character.isLowerCase(ch = in.read())) {
+                    // consume
+                }
+                backup(in, ch);
+                if (SHOUT.contentEquals(in.readText(skipped, in.readLength()))) {
+                    text = SHOUT.toUpperCase();
+                }
+            } else if (Character.isWhitespace(ch)) {
+                id = WordTokenId.WS;
+                while (Character.isWhitespace(ch = in.read())) {
+                    // consume
+                }
+                backup(in, ch);
+            } else {
+                id = WordTokenId.ERRONEOUS;
+            }
+            int channel = id == WordTokenId.WS ? Token.HIDDEN_CHANNEL : Token.DEFAULT_CHANNEL;
+            if (channel == Token.DEFAULT_CHANNEL && skipped == 0 && text == null) {
+                return info.tokenFactory().createToken(id);
+            }
+            return info.tokenFactory().createPropertyToken(id, in.readLength(),
+                    new AntlrTokenProperties<>(channel, skipped, false, false, text));
+        }
+
+        private static void backup(LexerInput in, int ch) {
+            if (ch != LexerInput.EOF) {
+                in.backup(1);
+            }
+        }
+
+        @Override
+        public Object state() {
+            return null;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
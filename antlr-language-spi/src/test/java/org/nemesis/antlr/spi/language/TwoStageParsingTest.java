@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.spi.language;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserInterpreter;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.antlr.v4.tool.Grammar;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class TwoStageParsingTest {
+
+    private static final String MIME = "text/x-two-stage-test";
+    private static final String GRAMMAR_TEXT = "grammar Calc;\n"
+            + "prog : stat+ EOF;\n"
+            + "stat : ID '=' expr ';' | expr ';';\n"
+            + "expr : expr ('*'|'+') expr | ID | INT | '(' expr ')';\n"
+            + "ID : [a-z]+;\n"
+            + "INT : [0-9]+;\n"
+            + "WS : [ \\t\\r\\n]+ -> skip;\n";
+    private static final String GOOD = "a = 1 + 2 * (b + c);\nd = a * a;\nd + 3;\n";
+    private static final String BAD = "a = 1 + ;\nd = (a * a;\nd + 3;\n";
+    private Grammar grammar;
+
+    @Test
+    public void testCorrectInputParsesInOneStage() {
+        ParserInterpreter parser = parser( GOOD );
+        Errors errors = new Errors();
+        parser.addErrorListener( errors );
+        ParserRuleContext ctx = TwoStageParsing.parse( MIME, parser, p -> p.parse( 0 ) );
+        assertEquals( tree( GOOD ), ctx.toStringTree( parser ) );
+        assertTrue( errors.messages.isEmpty(), errors.messages::toString );
+        assertArrayEquals( new long[]{ 1, 0, 0 }, TwoStageParsing.stats().get( MIME ) );
+        assertEquals( 0D, TwoStageParsing.fallbackRatio( MIME ) );
+        assertEquals( PredictionMode.LL, parser.getInterpreter().getPredictionMode() );
+    }
+
+    @Test
+    public void testErrorsFallBackToLlAndAreReportedOnce() {
+        Errors expected = new Errors();
+        ParserInterpreter plain = parser( BAD );
+        plain.addErrorListener( expected );
+        String expectedTree = plain.parse( 0 ).toStringTree( plain );
+        assertFalse( expected.messages.isEmpty() );
+
+        ParserInterpreter parser = parser( BAD );
+        Errors errors = new Errors();
+        parser.addErrorListener( errors );
+        ParserRuleContext ctx = TwoStageParsing.parse( MIME, parser, p -> p.parse( 0 ) );
+        assertEquals( expectedTree, ctx.toStringTree( parser ) );
+        assertEquals( expected.messages, errors.messages );
+        assertArrayEquals( new long[]{ 1, 1, 0 }, TwoStageParsing.stats().get( MIME ) );
+        assertEquals( 1D, TwoStageParsing.fallbackRatio( MIME ) );
+        assertTrue( parser.getErrorListeners().contains( errors ), "Listener not restored" );
+    }
+
+    @Test
+    public void testParseListenersGetASingleStage() {
+        ParserInterpreter parser = parser( BAD );
+        int[] entered = new int[ 1 ];
+        parser.addParseListener( new ParseTreeListener() {
+            @Override
+            public void visitTerminal( TerminalNode node ) {
+            }
+
+            @Override
+            public void visitErrorNode( ErrorNode node ) {
+            }
+
+            @Override
+            public void enterEveryRule( ParserRuleContext ctx ) {
+                if ( ctx.getRuleIndex() == 0 ) {
+                    entered[ 0 ]++;
+                }
+            }
+
+            @Override
+            public void exitEveryRule( ParserRuleContext ctx ) {
+            }
+        } );
+        TwoStageParsing.parse( MIME, parser, p -> p.parse( 0 ) );
+        assertEquals( 1, entered[ 0 ] );
+        assertArrayEquals( new long[]{ 0, 0, 1 }, TwoStageParsing.stats().get( MIME ) );
+    }
+
+    @BeforeEach
+    public void before() throws Exception {
+        grammar = new Grammar( GRAMMAR_TEXT );
+    }
+
+    @AfterEach
+    public void after() {
+        TwoStageParsing.reset();
+    }
+
+    private String tree( String text ) {
+        ParserInterpreter parser = parser( text );
+        return parser.parse( 0 ).toStringTree( parser );
+    }
+
+    private ParserInterpreter parser( String text ) {
+        CommonTokenStream tokens = new CommonTokenStream(
+                grammar.createLexerInterpreter( CharStreams.fromString( text ) ) );
+        ParserInterpreter result = grammar.createParserInterpreter( tokens );
+        result.removeErrorListeners();
+        return result;
+    }
+
+    static final class Errors extends BaseErrorListener {
+
+        final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void syntaxError( Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                int charPositionInLine, String msg, RecognitionException e ) {
+            messages.add( line + ":" + charPositionInLine + " " + msg );
+        }
+    }
+}
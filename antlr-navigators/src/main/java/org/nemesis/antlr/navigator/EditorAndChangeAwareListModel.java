@@ -16,17 +16,26 @@
 package org.nemesis.antlr.navigator;
 
 import java.util.List;
+import java.util.function.BiPredicate;
 import org.nemesis.data.named.NamedSemanticRegion;
 import org.nemesis.data.named.NamedSemanticRegions;
 import org.nemesis.extraction.Extraction;
 import org.nemesis.extraction.key.NamedRegionKey;
 import org.openide.cookies.EditorCookie;
 
+/**
+ * List model for navigator panels, which remembers the editor, parse and
+ * change count it was created for. Rather than replacing the model on the list
+ * on each reparse, panels update the existing one from the new one with
+ * <code>updateFrom()</code>, so only rows which actually changed are reported
+ * to the list.
+ */
 final class EditorAndChangeAwareListModel<T> extends ListListModel<T> {
 
-    final EditorCookie cookie;
-    final int change;
-    final Extraction semantics;
+    // Mutated only on the event thread, by updateFrom()
+    EditorCookie cookie;
+    int change;
+    Extraction semantics;
 
     public EditorAndChangeAwareListModel(List<T> list, EditorCookie cookie, int change, Extraction semantics) {
         super(list);
@@ -35,6 +44,26 @@ final class EditorAndChangeAwareListModel<T> extends ListListModel<T> {
         this.semantics = semantics;
     }
 
+    /**
+     * Take on the contents and state of a model created for a newer parse of
+     * the same editor. Call only on the event thread.
+     *
+     * @param newer The new model
+     * @param sameRow Tests whether an old and new element would display the
+     * same
+     * @return false if the newer model is for a different editor and should
+     * replace this one instead
+     */
+    boolean updateFrom(EditorAndChangeAwareListModel<T> newer, BiPredicate<? super T, ? super T> sameRow) {
+        if (newer.cookie != cookie) {
+            return false;
+        }
+        change = newer.change;
+        semantics = newer.semantics;
+        replaceContents(newer.contents(), sameRow);
+        return true;
+    }
+
     <T extends Enum<T>> NamedSemanticRegion<T> nameRegionFor(NamedRegionKey<T> key, NamedSemanticRegion<T> orig) {
         Extraction sem = semantics;
         if (sem == null || orig == null) {
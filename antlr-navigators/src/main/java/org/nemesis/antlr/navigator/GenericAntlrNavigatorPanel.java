@@ -160,14 +160,18 @@ final class GenericAntlrNavigatorPanel<K extends Enum<K>>
         if (list.getModel() instanceof EditorAndChangeAwareListModel<?>) {
             oldSelection = list.getSelectedValue();
         }
-        List<NamedSemanticRegion<K>> newItems = new ArrayList<>(120);
-        List<NamedSemanticRegion<K>> debugItems = DUPLICATE_DEBUG ? new DuplicateCheckingList<>(newItems)
-                : newItems;
-
+        NavigatorPanelConfig.ModelContents<K> contents = config.listContents(extraction, oldSelection, sort);
+        List<NamedSemanticRegion<K>> newItems = contents.items;
+        if (DUPLICATE_DEBUG) {
+            newItems = new ArrayList<>(newItems.size());
+            List<NamedSemanticRegion<K>> checking = new DuplicateCheckingList<>(newItems);
+            for (NamedSemanticRegion<K> item : contents.items) {
+                checking.add(item);
+            }
+        }
         EditorAndChangeAwareListModel<NamedSemanticRegion<K>> newModel
                 = new EditorAndChangeAwareListModel<>(newItems, ck, forChange, extraction);
-
-        int newSelectedIndex = config.populateListModel(extraction, debugItems, oldSelection, sort);
+        int newSelectedIndex = contents.selectedIndex;
         setNewModel(newModel, forChange, newSelectedIndex);
         updateCaretTracking(extraction, ck);
     }
@@ -388,6 +392,13 @@ final class GenericAntlrNavigatorPanel<K extends Enum<K>>
         }
     }
 
+    private static boolean sameRow(NamedSemanticRegion<?> a, NamedSemanticRegion<?> b) {
+        // Rows are rendered from the name and kind; a change in offsets alone
+        // need not be reported to the list
+        return a.kind() == b.kind() && a.name().equals(b.name());
+    }
+
+    @SuppressWarnings("unchecked")
     void setNewModel(EditorAndChangeAwareListModel<NamedSemanticRegion<K>> mdl, int expectedChange, int selectedIndex) {
         Mutex.EVENT.readAccess(() -> {
             if (list == null) {
@@ -402,7 +413,11 @@ final class GenericAntlrNavigatorPanel<K extends Enum<K>>
                     list.setModel(EmptyListModel.emptyModel());
                 }
             } else {
-                list.setModel(mdl);
+                ListModel<NamedSemanticRegion<K>> old = list.getModel();
+                if (!(old instanceof EditorAndChangeAwareListModel<?>)
+                        || !((EditorAndChangeAwareListModel<NamedSemanticRegion<K>>) old).updateFrom(mdl, GenericAntlrNavigatorPanel::sameRow)) {
+                    list.setModel(mdl);
+                }
                 if (selectedIndex >= 0 && selectedIndex < mdl.getSize()) {
                     list.getSelectionModel().setSelectionInterval(selectedIndex, selectedIndex);
                     Rectangle2D rect = list.getCellBounds(selectedIndex, selectedIndex);
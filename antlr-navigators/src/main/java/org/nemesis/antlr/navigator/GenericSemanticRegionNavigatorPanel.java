@@ -252,6 +252,11 @@ final class GenericSemanticRegionNavigatorPanel<K> extends AbstractAntlrListNavi
         }
     }
 
+    private static boolean sameRow(SemanticRegion<?> a, SemanticRegion<?> b) {
+        return a.nestingDepth() == b.nestingDepth() && Objects.equals(a.key(), b.key());
+    }
+
+    @SuppressWarnings("unchecked")
     void setNewModel(EditorAndChangeAwareListModel<SemanticRegion<K>> mdl, int expectedChange, int selectedIndex) {
         Mutex.EVENT.readAccess(() -> {
             if (list == null) {
@@ -266,7 +271,11 @@ final class GenericSemanticRegionNavigatorPanel<K> extends AbstractAntlrListNavi
                     list.setModel(EmptyListModel.emptyModel());
                 }
             } else {
-                list.setModel(mdl);
+                ListModel<SemanticRegion<K>> old = list.getModel();
+                if (!(old instanceof EditorAndChangeAwareListModel<?>)
+                        || !((EditorAndChangeAwareListModel<SemanticRegion<K>>) old).updateFrom(mdl, GenericSemanticRegionNavigatorPanel::sameRow)) {
+                    list.setModel(mdl);
+                }
                 if (selectedIndex >= 0 && selectedIndex < mdl.getSize()) {
                     list.getSelectionModel().setSelectionInterval(selectedIndex, selectedIndex);
                     Rectangle2D rect = list.getCellBounds(selectedIndex, selectedIndex);
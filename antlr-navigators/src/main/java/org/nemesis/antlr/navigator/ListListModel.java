@@ -16,12 +16,12 @@
 package org.nemesis.antlr.navigator;
 
 import java.util.List;
-import javax.swing.ListModel;
-import javax.swing.event.ListDataListener;
+import java.util.function.BiPredicate;
+import javax.swing.AbstractListModel;
 
-class ListListModel<T> implements ListModel<T> {
+class ListListModel<T> extends AbstractListModel<T> {
 
-    private final List<T> list;
+    private List<T> list;
 
     ListListModel(List<T> list) {
         this.list = list;
@@ -37,14 +37,50 @@ class ListListModel<T> implements ListModel<T> {
         return list.get(index);
     }
 
-    @Override
-    public void addListDataListener(ListDataListener l) {
-        // do nothing
+    List<T> contents() {
+        return list;
     }
 
-    @Override
-    public void removeListDataListener(ListDataListener l) {
-        // do nothing
+    /**
+     * Replace the contents of this model, firing events only for the span of
+     * rows between the first and last rows which differ, so a list with
+     * thousands of rows need not be re-laid-out wholesale when one of them
+     * changed. Rows outside that span are replaced silently, since the
+     * predicate says they render identically. Call only on the event thread.
+     *
+     * @param newList The new contents
+     * @param sameRow Tests whether an old and new element would display the
+     * same
+     */
+    void replaceContents(List<T> newList, BiPredicate<? super T, ? super T> sameRow) {
+        List<T> old = list;
+        list = newList;
+        int oldSize = old.size();
+        int newSize = newList.size();
+        int min = Math.min(oldSize, newSize);
+        int prefix = 0;
+        while (prefix < min && sameRow.test(old.get(prefix), newList.get(prefix))) {
+            prefix++;
+        }
+        if (prefix == oldSize && prefix == newSize) {
+            return;
+        }
+        int suffix = 0;
+        while (suffix < min - prefix
+                && sameRow.test(old.get(oldSize - 1 - suffix), newList.get(newSize - 1 - suffix))) {
+            suffix++;
+        }
+        int oldEnd = oldSize - suffix;
+        int newEnd = newSize - suffix;
+        int changed = Math.min(oldEnd, newEnd) - prefix;
+        if (changed > 0) {
+            fireContentsChanged(this, prefix, prefix + changed - 1);
+        }
+        if (newEnd > oldEnd) {
+            fireIntervalAdded(this, oldEnd, newEnd - 1);
+        } else if (oldEnd > newEnd) {
+            fireIntervalRemoved(this, newEnd, oldEnd - 1);
+        }
     }
 
     @Override
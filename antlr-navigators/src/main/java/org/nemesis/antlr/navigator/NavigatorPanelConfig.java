@@ -257,6 +257,17 @@ public final class NavigatorPanelConfig<K extends Enum<K>> {
                 return key;
             }
 
+            /**
+             * Get a list view directly over the extracted regions, if no
+             * other fetchers were chained to this one.
+             *
+             * @param t An extraction
+             * @return A list or null
+             */
+            List<NamedSemanticRegion<K>> view(Extraction t) {
+                return afters == null ? new RegionsListView<>(t.namedRegions(key)) : null;
+            }
+
             @Override
             public void accept(Extraction t, List<? super NamedSemanticRegion<K>> u) {
                 for (NamedSemanticRegion<K> region : t.namedRegions(key)) {
@@ -403,13 +414,77 @@ public final class NavigatorPanelConfig<K extends Enum<K>> {
      */
 //        int populateListModel(Extraction extraction, List<NamedSemanticRegion<K>> fetched, DefaultListModel<NamedSemanticRegion<K>> model, NamedSemanticRegion<K> oldSelection, SortTypes sort);
 //    }
-    int populateListModel(Extraction extraction, List<? super NamedSemanticRegion<K>> newListModel, NamedSemanticRegion<K> oldSelection, SortTypes requestedSort) {
+    ModelContents<K> listContents(Extraction extraction, NamedSemanticRegion<K> oldSelection, SortTypes requestedSort) {
+        List<NamedSemanticRegion<K>> fetched = fetch(extraction);
+        List<NamedSemanticRegion<K>> items = fetched;
+        int[] order = null;
+        if (sortable && isSortTypeEnabled(requestedSort)) {
+            order = requestedSort.permutation(fetched, extraction, centralityKey);
+            items = PermutedList.of(fetched, order);
+        }
+        if (populator instanceof Builder.DefaultPopulator<?>) {
+            // The default populator only copies; use the possibly virtual
+            // list directly
+            int sel = oldSelection == null ? -1
+                    : indexOfName(oldSelection.name(), fetched, items, order);
+            return new ModelContents<>(items, sel);
+        }
+        List<NamedSemanticRegion<K>> model = new ArrayList<>(items.size());
+        int sel = populator.populateListModel(extraction, items, model, oldSelection, requestedSort);
+        return new ModelContents<>(model, sel);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K extends Enum<K>> int indexOfName(String name, List<NamedSemanticRegion<K>> fetched,
+            List<NamedSemanticRegion<K>> items, int[] order) {
+        if (fetched instanceof RegionsListView<?>) {
+            // Binary search the names rather than creating a region for
+            // every row ahead of the selection
+            int ix = ((RegionsListView<K>) fetched).regions().indexOf(name);
+            if (ix < 0 || order == null) {
+                return ix;
+            }
+            for (int i = 0; i < order.length; i++) {
+                if (order[i] == ix) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = 0; i < items.size(); i++) {
+            if (name.equals(items.get(i).name())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<NamedSemanticRegion<K>> fetch(Extraction extraction) {
+        if (elementFetcher instanceof FetchByKey<?>) {
+            List<NamedSemanticRegion<K>> view = ((FetchByKey<K>) elementFetcher).view(extraction);
+            if (view != null) {
+                return view;
+            }
+        }
         List<NamedSemanticRegion<K>> items = new ArrayList<>(100);
         elementFetcher.accept(extraction, items);
-        if (sortable && isSortTypeEnabled(requestedSort)) {
-            requestedSort.sort(items, extraction, centralityKey);
+        return items;
+    }
+
+    /**
+     * The elements for a list model and the index the old selection has
+     * among them.
+     */
+    static final class ModelContents<K extends Enum<K>> {
+
+        final List<NamedSemanticRegion<K>> items;
+        final int selectedIndex;
+
+        ModelContents(List<NamedSemanticRegion<K>> items, int selectedIndex) {
+            this.items = items;
+            this.selectedIndex = selectedIndex;
         }
-        return populator.populateListModel(extraction, items, newListModel, oldSelection, requestedSort);
     }
 
     public static <T> Appearance<T> simpleAppearance(String icon) {
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.navigator;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only view of a list in the order given by an array of indices into it,
+ * as computed by <code>SortTypes.permutation()</code>, so sorting a large set
+ * of regions never copies or moves the regions themselves.
+ *
+ * @author Tim Boudreau
+ */
+final class PermutedList<T> extends AbstractList<T> implements RandomAccess {
+
+    private final List<T> base;
+    private final int[] order;
+
+    private PermutedList(List<T> base, int[] order) {
+        this.base = base;
+        this.order = order;
+    }
+
+    static <T> List<T> of(List<T> base, int[] order) {
+        if (order.length != base.size()) {
+            throw new IllegalArgumentException("Permutation of " + order.length
+                    + " elements for list of " + base.size());
+        }
+        return new PermutedList<>(base, order);
+    }
+
+    @Override
+    public T get(int index) {
+        return base.get(order[index]);
+    }
+
+    @Override
+    public int size() {
+        return order.length;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.navigator;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import org.nemesis.data.named.NamedSemanticRegion;
+import org.nemesis.data.named.NamedSemanticRegions;
+
+/**
+ * Read-only list view directly over the indices of a NamedSemanticRegions,
+ * in its natural (by name) iteration order. Elements are the flyweights
+ * NamedSemanticRegions creates on demand, so a navigator over a grammar with
+ * thousands of rules only creates objects for the rows actually rendered.
+ *
+ * @author Tim Boudreau
+ */
+final class RegionsListView<K extends Enum<K>> extends AbstractList<NamedSemanticRegion<K>> implements RandomAccess {
+
+    private final NamedSemanticRegions<K> regions;
+
+    RegionsListView(NamedSemanticRegions<K> regions) {
+        this.regions = regions;
+    }
+
+    @Override
+    public NamedSemanticRegion<K> get(int index) {
+        if (index < 0 || index >= regions.size()) {
+            throw new IndexOutOfBoundsException(index + " of " + regions.size());
+        }
+        return regions.forIndex(index);
+    }
+
+    @Override
+    public int size() {
+        return regions.size();
+    }
+
+    NamedSemanticRegions<K> regions() {
+        return regions;
+    }
+}
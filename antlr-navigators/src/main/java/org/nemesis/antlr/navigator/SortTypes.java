@@ -16,12 +16,13 @@
 package org.nemesis.antlr.navigator;
 
 import java.awt.event.ActionEvent;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
+import java.util.function.IntBinaryOperator;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,6 +34,7 @@ import com.mastfrog.graph.StringGraph;
 import org.nemesis.extraction.Extraction;
 import org.nemesis.extraction.key.NameReferenceSetKey;
 import org.nemesis.data.named.NamedSemanticRegion;
+import org.nemesis.data.named.NamedSemanticRegions;
 import com.mastfrog.graph.algorithm.Score;
 import org.openide.awt.Mnemonics;
 import org.openide.util.NbBundle;
@@ -118,39 +120,159 @@ public enum SortTypes implements Comparator<NamedSemanticRegion<?>> {
         return result;
     }
 
-    private <T extends Enum<T>> void sortBy(List<NamedSemanticRegion<T>> rules, List<Score<String>> scores) {
+    public <T extends Enum<T>> void sort(List<NamedSemanticRegion<T>> rules, Extraction ext, NameReferenceSetKey<T> key) {
+        int[] order = permutation(rules, ext, key);
+        List<NamedSemanticRegion<T>> copy = new ArrayList<>(rules);
+        for (int i = 0; i < order.length; i++) {
+            rules.set(i, copy.get(order[i]));
+        }
+    }
+
+    /**
+     * Compute the order the passed regions would have if sorted, as an array
+     * of indices into the list, without moving or copying the list. Each
+     * element is fetched exactly once, so this is efficient for lists which
+     * create elements on demand; a list view over a NamedSemanticRegions is
+     * sorted using its names and kinds, without creating any elements.
+     *
+     * @param <T> The region kind type
+     * @param rules The regions
+     * @param ext The extraction they came from
+     * @param key The key for the reference graph, needed by the centrality
+     * sorts
+     * @return An array of indices into the list, in sorted order
+     */
+    public <T extends Enum<T>> int[] permutation(List<? extends NamedSemanticRegion<T>> rules, Extraction ext, NameReferenceSetKey<T> key) {
+        if (rules instanceof RegionsListView<?>) {
+            return permutation(((RegionsListView<?>) rules).regions(), ext, key);
+        }
+        int size = rules.size();
+        NamedSemanticRegion<?>[] items = rules.toArray(new NamedSemanticRegion<?>[size]);
+        String[] names = new String[size];
+        Enum<?>[] kinds = new Enum<?>[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = items[i].name();
+            kinds[i] = items[i].kind();
+        }
+        return permutation(names, kinds, (a, b) -> NATURAL.compare(items[a], items[b]), ext, key);
+    }
+
+    private int[] permutation(NamedSemanticRegions<?> regions, Extraction ext, NameReferenceSetKey<?> key) {
+        int size = regions.size();
+        String[] names = new String[size];
+        Enum<?>[] kinds = new Enum<?>[size];
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = regions.get(i);
+            kinds[i] = regions.kind(i);
+            positions[i] = regions.orderingOf(names[i]);
+        }
+        return permutation(names, kinds, (a, b) -> Integer.compare(positions[a], positions[b]), ext, key);
+    }
+
+    private int[] permutation(String[] names, Enum<?>[] kinds, IntBinaryOperator natural, Extraction ext, NameReferenceSetKey<?> key) {
+        int[] order = new int[names.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        if (isCentralitySort()) {
+            StringGraph graph = ext.referenceGraph(key);
+            if (graph == null) {
+                IllegalStateException ex = new IllegalStateException("Extraction contains no graph for " + key);
+                Logger.getLogger(SortTypes.class.getName()).log(Level.WARNING, null, ex);
+                sortIndices(order, natural);
+            } else {
+                List<Score<String>> scores = this == PAGE_RANK
+                        ? graph.pageRank() : graph.eigenvectorCentrality();
+                sortByScores(order, names, scores);
+            }
+        } else {
+            sortIndices(order, indexComparator(names, kinds, natural));
+        }
+        return order;
+    }
+
+    private IntBinaryOperator indexComparator(String[] names, Enum<?>[] kinds, IntBinaryOperator natural) {
+        // Same orderings as compare(), over arrays of row properties
+        switch (this) {
+            case ALPHA:
+                return (a, b) -> names[a].compareToIgnoreCase(names[b]);
+            case NATURAL:
+                return natural;
+            case ALPHA_TYPE:
+                return (a, b) -> {
+                    int result = compareOrdinals(kinds[a], kinds[b]);
+                    if (result == 0) {
+                        result = names[a].compareToIgnoreCase(names[b]);
+                    }
+                    return result;
+                };
+            default:
+                throw new AssertionError(this);
+        }
+    }
+
+    private static void sortByScores(int[] order, String[] names, List<Score<String>> scores) {
         Map<String, Double> scoreMap = new HashMap<>();
         for (Score<String> s : scores) {
             scoreMap.put(s.node(), s.score());
         }
-        Collections.sort(rules, (a, b) -> {
-            if (!scoreMap.containsKey(a.name()) && !scoreMap.containsKey(b.name())) {
-                return a.name().compareTo(b.name());
+        // Look each score up once, not once per comparison
+        double[] scoreByIndex = new double[names.length];
+        boolean[] scored = new boolean[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Double score = scoreMap.get(names[i]);
+            scored[i] = score != null;
+            scoreByIndex[i] = score == null ? Double.MIN_VALUE : score;
+        }
+        sortIndices(order, (a, b) -> {
+            if (!scored[a] && !scored[b]) {
+                return names[a].compareTo(names[b]);
             }
-            Double ad = scoreMap.getOrDefault(a.name(), Double.MIN_VALUE);
-            Double bd = scoreMap.getOrDefault(b.name(), Double.MIN_VALUE);
-            return bd.compareTo(ad);
+            return Double.compare(scoreByIndex[b], scoreByIndex[a]);
         });
     }
 
-    public <T extends Enum<T>> void sort(List<NamedSemanticRegion<T>> rules, Extraction ext, NameReferenceSetKey<T> key) {
-        boolean centrality = isCentralitySort();
-        StringGraph graph = centrality ? ext.referenceGraph(key) : null;
-        if (graph == null && centrality) {
-            IllegalStateException ex = new IllegalStateException("Extraction contains no graph for " + key);
-            Logger.getLogger(SortTypes.class.getName()).log(Level.WARNING, null, ex);
-            Collections.sort(rules, NATURAL);
+    /**
+     * Stable merge sort of an array of indices, so sorting does not require
+     * boxing every index.
+     */
+    static void sortIndices(int[] order, IntBinaryOperator comparator) {
+        mergeSort(order, new int[order.length], 0, order.length, comparator);
+    }
+
+    private static void mergeSort(int[] order, int[] scratch, int from, int to, IntBinaryOperator comparator) {
+        if (to - from < 12) {
+            for (int i = from + 1; i < to; i++) {
+                int val = order[i];
+                int j = i - 1;
+                while (j >= from && comparator.applyAsInt(order[j], val) > 0) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = val;
+            }
             return;
         }
-        switch (this) {
-            case PAGE_RANK:
-                sortBy(rules, graph.pageRank());
-                break;
-            case EIGENVECTOR_CENTRALITY:
-                sortBy(rules, graph.eigenvectorCentrality());
-                break;
-            default:
-                Collections.sort(rules, this);
+        int mid = (from + to) >>> 1;
+        mergeSort(order, scratch, from, mid, comparator);
+        mergeSort(order, scratch, mid, to, comparator);
+        if (comparator.applyAsInt(order[mid - 1], order[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = mid;
+        int target = from;
+        while (left < mid && right < to) {
+            order[target++] = comparator.applyAsInt(scratch[right], scratch[left]) < 0
+                    ? scratch[right++] : scratch[left++];
+        }
+        while (left < mid) {
+            order[target++] = scratch[left++];
+        }
+        while (right < to) {
+            order[target++] = scratch[right++];
         }
     }
 
@@ -179,6 +179,7 @@ class RenameFileAndReferencesFromSingletonPlugin<T> extends AbstractAntlrRefacto
                     return null;
                 });
         if (problem == null || !problem.isFatal()) {
+            ReplaceRangesBatch batch = new ReplaceRangesBatch();
             for (Map.Entry<FileObject, List<RangeEntry>> e : rangesForFile.entrySet()) {
                 if (e.getValue().isEmpty()) {
                     continue;
@@ -190,6 +191,7 @@ class RenameFileAndReferencesFromSingletonPlugin<T> extends AbstractAntlrRefacto
                             ranges,
                             originalName,
                             refactoring.getNewName(),
+                            batch,
                             result::add);
                 } catch (IOException | BadLocationException ex) {
                     log(ex);
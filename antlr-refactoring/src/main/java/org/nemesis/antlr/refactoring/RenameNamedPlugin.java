@@ -128,9 +128,10 @@ public class RenameNamedPlugin<T extends Enum<T>> extends AbstractAntlrRefactori
                     }
             );
             if (!ranges.isEmpty() && (p == null || !p.isFatal())) {
+                ReplaceRangesBatch batch = new ReplaceRangesBatch();
                 for (Map.Entry<FileObject, List<IntRange<? extends IntRange<?>>>> e : ranges.entrySet()) {
                     try {
-                        ReplaceRanges.create(key, e.getKey(), e.getValue(), regText[0], refactoring.getNewName(), rr -> {
+                        ReplaceRanges.create(key, e.getKey(), e.getValue(), regText[0], refactoring.getNewName(), batch, rr -> {
                             bag.add(refactoring, rr);
                         });
                     } catch (IOException | BadLocationException ex) {
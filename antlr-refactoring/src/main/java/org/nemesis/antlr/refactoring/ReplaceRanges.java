@@ -25,15 +25,15 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 import javax.swing.text.Position;
 import javax.swing.text.StyledDocument;
 import static org.nemesis.antlr.refactoring.AbstractRefactoringContext.escapeHtml;
 import org.nemesis.data.named.NamedSemanticRegion;
 import org.nemesis.data.named.NamedSemanticRegionReference;
-import org.nemesis.editor.ops.DocumentOperation;
-import org.nemesis.editor.ops.DocumentOperationContext;
-import org.nemesis.editor.ops.DocumentOperator;
-import org.nemesis.editor.ops.DocumentProcessor;
+import org.nemesis.editor.edit.DocumentModifier;
+import org.nemesis.editor.edit.EditBag;
+import org.nemesis.editor.edit.EditBatch;
 import org.nemesis.extraction.AttributedForeignNameReference;
 import org.nemesis.extraction.SingletonEncounters;
 import org.nemesis.extraction.key.ExtractionKey;
@@ -72,11 +72,12 @@ public class ReplaceRanges extends SimpleRefactoringElementImplementation {
     private boolean enabled = true;
     private int status = NORMAL;
     private final AtomicBoolean performed;
+    private final ReplaceRangesBatch batch;
 
     ReplaceRanges(ExtractionKey<?> key, String oldText, String newText, FileObject file, String fileText,
             PositionBounds span, List<PositionBounds> items, StyledDocument document, Lookup lkp,
             Map<PositionBounds, Boolean> disabled,
-            AtomicBoolean performed,
+            AtomicBoolean performed, ReplaceRangesBatch batch,
             Object... moreContents) {
         this.newText = newText;
         this.file = file;
@@ -90,6 +91,7 @@ public class ReplaceRanges extends SimpleRefactoringElementImplementation {
         this.moreContents = moreContents;
         this.span = span;
         this.bounds = items;
+        this.batch = batch;
     }
 
     @Override
@@ -118,6 +120,25 @@ public class ReplaceRanges extends SimpleRefactoringElementImplementation {
     }
 
     public static void create(ExtractionKey<?> key, FileObject fo, List<? extends IntRange<? extends IntRange<?>>> ranges, String oldText, String newText, Consumer<RefactoringElementImplementation> c) throws IOException, BadLocationException {
+        create(key, fo, ranges, oldText, newText, null, c);
+    }
+
+    /**
+     * Create elements for replacing a set of ranges in one file; if a batch is
+     * passed, the element's changes are applied together with those of the
+     * other elements sharing it.
+     *
+     * @param key The key the ranges were found with
+     * @param fo The file
+     * @param ranges The ranges
+     * @param oldText The original text
+     * @param newText The replacement text
+     * @param batch A batch, or null
+     * @param c Consumer for the created elements
+     * @throws IOException If the file cannot be read
+     * @throws BadLocationException If a range is out of bounds
+     */
+    static void create(ExtractionKey<?> key, FileObject fo, List<? extends IntRange<? extends IntRange<?>>> ranges, String oldText, String newText, ReplaceRangesBatch batch, Consumer<RefactoringElementImplementation> c) throws IOException, BadLocationException {
         if (ranges.isEmpty()) {
             return;
         }
@@ -135,15 +156,21 @@ public class ReplaceRanges extends SimpleRefactoringElementImplementation {
         Map<PositionBounds, Boolean> disabled = new IdentityHashMap<>();
         Object[] lookupContents = new Object[]{key, newText};
         AtomicBoolean performed = new AtomicBoolean();
+        IntRange<? extends IntRange<?>> prev = null;
         for (int i = 0; i < ranges.size(); i++) {
             IntRange<? extends IntRange<?>> range = items.get(i);
+            // In the case of being passed nested SemanticRegions, we actually can be
+            // passed ranges ending before the end of a previous one, which are inside
+            // the previous one; replacing the outer one replaces those, and replacing
+            // them afterwards would clobber the new text
+            if (prev != null && range.start() < prev.end() && range.end() <= prev.end()) {
+                continue;
+            }
+            prev = range;
             PositionRef begin = supp.createPositionRef(range.start(), Position.Bias.Forward);
             if (first == null) {
                 first = begin;
             }
-            // In the case of being passed nested SemanticRegions, we actually can be
-            // passed ranges ending before the end of a previous one, which are inside
-            // the previous one
             lastPos = Math.max(lastPos, range.end());
             PositionRef end = supp.createPositionRef(range.end(), Position.Bias.Backward);
             PositionBounds bds = new PositionBounds(begin, end);
@@ -154,62 +181,100 @@ public class ReplaceRanges extends SimpleRefactoringElementImplementation {
         PositionBounds span = new PositionBounds(first, last);
         ReplaceRanges result = new ReplaceRanges(key, oldText, newText, fo,
                 origFileText, span, bounds, doc, lkp, disabled, performed,
-                lookupContents);
+                batch, lookupContents);
+        if (batch != null) {
+            batch.add(result);
+        }
         c.accept(result);
         children.forEach(c);
     }
 
-    private DocumentProcessor<Void, IOException> op(String text, Map<PositionBounds, Boolean> enablement) {
-        // JDK 8 javac does not like a lambda here
-        return new DocumentProcessor<Void, IOException>() {
-            @Override
-            public Void get(DocumentOperationContext ctx) throws IOException, BadLocationException {
-                for (PositionBounds pb : bounds) {
-                    if (!enablement.containsKey(pb)) {
-                        pb.setText(text);
-                    }
-                }
-                return null;
-            }
-        };
+    private Map<PositionBounds, Boolean> snapshotAtPerform;
+
+    boolean isPerformed() {
+        return performed.get();
     }
 
-    private Map<PositionBounds, Boolean> snapshotAtPerform;
+    /**
+     * Add the edits to perform or undo this element's change to a batch.
+     *
+     * @param edits The batch
+     * @param perform Whether to perform or undo the change
+     * @throws IOException If the document cannot be opened
+     */
+    void addEdits(EditBatch edits, boolean perform) throws IOException {
+        if (!performed.compareAndSet(!perform, perform)) {
+            throw new IllegalStateException((perform ? "performChange()" : "undoChange()")
+                    + " called twice without intervening " + (perform ? "undo" : "perform"));
+        }
+        if (perform) {
+            snapshotAtPerform = new IdentityHashMap<>(disabled);
+        }
+        StyledDocument doc = document;
+        if (doc == null) {
+            doc = fileLookup.lookup(CloneableEditorSupport.class).openDocument();
+        }
+        EditBag bag = edits.bagFor(doc);
+        String text = perform ? newText : oldText;
+        for (PositionBounds pb : bounds) {
+            if (!snapshotAtPerform.containsKey(pb)) {
+                bag.modify(pb.getBegin().getPosition(), pb.getEnd().getPosition(), new SetText(pb, text));
+            }
+        }
+    }
 
     @Override
     public void performChange() {
-        if (!performed.compareAndSet(false, true)) {
-            throw new IllegalStateException("performChange() called twice without "
-                    + "intervening undo");
-        }
         try {
-            snapshotAtPerform = new IdentityHashMap<>(disabled);
-            if (document != null) {
-                DocumentOperation<Void, IOException> op = DocumentOperator.NON_JUMP_REENTRANT_UPDATE_DOCUMENT.operateOn(document);
-                op.operate(op(newText, snapshotAtPerform));
+            if (batch != null) {
+                batch.perform(this);
             } else {
-                op(newText, snapshotAtPerform).get(null);
+                ReplaceRangesBatch.apply(Collections.singletonList(this), true);
             }
-        } catch (IOException | BadLocationException ioe) {
-            throw new IllegalStateException("Failed refactoring " + file.getNameExt(), ioe);
+        } catch (Exception ex) {
+            throw new IllegalStateException("Failed refactoring " + file.getNameExt(), ex);
         }
     }
 
     @Override
     public void undoChange() {
-        if (!performed.compareAndSet(true, false)) {
-            throw new IllegalStateException("undoChange() called twice without "
-                    + "intervening undo");
-        }
         try {
-            if (document != null) {
-                DocumentOperation<Void, IOException> op = DocumentOperator.NON_JUMP_REENTRANT_UPDATE_DOCUMENT.operateOn(document);
-                op.operate(op(oldText, snapshotAtPerform));
+            if (batch != null) {
+                batch.undo(this);
             } else {
-                op(oldText, snapshotAtPerform).get(null);
+                ReplaceRangesBatch.apply(Collections.singletonList(this), false);
+            }
+        } catch (Exception ex) {
+            throw new IllegalStateException("Failed refactoring " + file.getNameExt(), ex);
+        }
+    }
+
+    /**
+     * Replaces the text of a PositionBounds with its own setText(), which
+     * leaves the bounds around the new text, so the change can be undone.
+     */
+    private static final class SetText implements DocumentModifier {
+
+        private final PositionBounds bounds;
+        private final String text;
+
+        SetText(PositionBounds bounds, String text) {
+            this.bounds = bounds;
+            this.text = text;
+        }
+
+        @Override
+        public void applyToDocument(int start, int optionalEnd, Document doc) throws BadLocationException {
+            try {
+                bounds.setText(text);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
             }
-        } catch (IOException | BadLocationException ioe) {
-            throw new IllegalStateException("Failed refactoring " + file.getNameExt(), ioe);
+        }
+
+        @Override
+        public String toString() {
+            return "SetText(" + bounds + " -> '" + text + "')";
         }
     }
 
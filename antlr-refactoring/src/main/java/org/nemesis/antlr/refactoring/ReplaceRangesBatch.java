@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.refactoring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.nemesis.editor.edit.EditBatch;
+import org.nemesis.editor.ops.DocumentOperator;
+
+/**
+ * Shared by the ReplaceRanges elements one refactoring creates for the files
+ * it touches, so that they are applied together: the refactoring API calls
+ * <code>performChange()</code> on each element in turn, and the first call
+ * applies the edits of every enabled element, in all files, as a single
+ * EditBatch - one atomic lock and one undoable edit per document, with
+ * documents modified one at a time; the remaining calls find their work
+ * already done. Undo works the same way in reverse.
+ *
+ * @author Tim Boudreau
+ */
+final class ReplaceRangesBatch {
+
+    private final List<ReplaceRanges> members = new ArrayList<>();
+    private final Set<ReplaceRanges> applied
+            = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    synchronized void add(ReplaceRanges member) {
+        members.add(member);
+    }
+
+    synchronized void perform(ReplaceRanges caller) throws Exception {
+        if (applied.contains(caller)) {
+            return;
+        }
+        List<ReplaceRanges> targets = new ArrayList<>(members.size());
+        if (applied.isEmpty()) {
+            for (ReplaceRanges rr : members) {
+                if (rr != caller && rr.isEnabled() && !rr.isPerformed()) {
+                    targets.add(rr);
+                }
+            }
+        }
+        targets.add(caller);
+        apply(targets, true);
+        applied.addAll(targets);
+    }
+
+    synchronized void undo(ReplaceRanges caller) throws Exception {
+        if (!applied.contains(caller)) {
+            return;
+        }
+        List<ReplaceRanges> targets = new ArrayList<>(applied);
+        applied.clear();
+        apply(targets, false);
+    }
+
+    /**
+     * Apply the edits of some elements as one batch.
+     *
+     * @param targets The elements
+     * @param perform If true, perform the change, if false, undo it
+     * @throws Exception If something goes wrong
+     */
+    static void apply(List<ReplaceRanges> targets, boolean perform) throws Exception {
+        // A rename within a single file is usually invoked from its editor,
+        // so keep the caret and scroll position steady there
+        EditBatch batch = targets.size() == 1
+                ? new EditBatch(DocumentOperator.NON_JUMP_REENTRANT_UPDATE_DOCUMENT)
+                : new EditBatch();
+        for (ReplaceRanges rr : targets) {
+            rr.addEdits(batch, perform);
+        }
+        batch.apply();
+    }
+}
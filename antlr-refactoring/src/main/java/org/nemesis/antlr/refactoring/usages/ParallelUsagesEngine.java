@@ -0,0 +1,300 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.refactoring.usages;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.nemesis.antlr.refactoring.AbstractRefactoringContext.chainProblems;
+import org.netbeans.modules.refactoring.api.Problem;
+import org.openide.filesystems.FileObject;
+import org.openide.loaders.DataObject;
+import org.openide.loaders.DataObjectNotFoundException;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Runs the per-file work of a usages search - parsing a candidate file and
+ * matching its imports - on a bounded pool of threads, while results are
+ * handed back, in the order they complete, to the thread which started the
+ * search, so consumers which were written to be called from one thread (such
+ * as a refactoring elements bag) continue to be, and see usages as soon as
+ * each file is done rather than when the whole project has been scanned.
+ * <p>
+ * Before anything is parsed, candidates whose bytes do not contain the name
+ * the target file would be imported by are discarded - a file cannot import a
+ * file it does not mention, and reading bytes is far cheaper than lexing and
+ * parsing. Files whose open document has been modified are always parsed,
+ * since the file on disk may not reflect their content.
+ * </p><p>
+ * Parses which miss the extraction caches go through ParserManager, and so
+ * take turns on the parser lock; what runs concurrently is everything else -
+ * loading data objects, cache hits for open and prefetched files, and
+ * matching and attributing imports. A caller which holds the parser lock, or
+ * is the event thread, would wait forever or freeze the UI on those parses,
+ * so there the files are scanned one by one on the calling thread instead.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class ParallelUsagesEngine {
+
+    private static final Logger LOG = Logger.getLogger(ParallelUsagesEngine.class.getName());
+    private static final int THREADS = Math.max(1, Math.min(4,
+            Runtime.getRuntime().availableProcessors()));
+    private static final RequestProcessor USAGES_RP
+            = new RequestProcessor("antlr-usages", THREADS, true);
+    private static final int POLL_MILLIS = 100;
+    private static final int BUFFER_SIZE = 8192;
+    static boolean prefilter = !Boolean.getBoolean("antlr.usages.prefilter.disabled");
+    static BooleanSupplier mayRunConcurrently = ParserLockProbe::currentThreadMayWaitForParse;
+
+    private ParallelUsagesEngine() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Performs the expensive part of examining one file, on a pool thread.
+     *
+     * @param <R> The result type
+     */
+    interface FileScan<R> {
+
+        R scan(FileObject fo) throws Exception;
+    }
+
+    /**
+     * Consumes the result of scanning one file, on the thread which called
+     * <code>scan()</code>.
+     *
+     * @param <R> The result type
+     */
+    interface ScanConsumer<R> {
+
+        Problem accept(FileObject fo, R result);
+    }
+
+    /**
+     * Scan a set of candidate files in parallel.
+     *
+     * @param <R> The type of result of scanning one file
+     * @param cancelled Checked before each file is scanned and while waiting
+     * for results; when it returns true, files not yet started are abandoned
+     * @param candidates The files to scan
+     * @param mentioning A name which must appear in a file for it to be
+     * scanned, or null to scan all candidates
+     * @param scanner Does the work of scanning one file, concurrently
+     * @param consumer Receives each file's result on the calling thread
+     * @return A problem, if any
+     */
+    static <R> Problem scan(BooleanSupplier cancelled, Iterable<FileObject> candidates,
+            String mentioning, FileScan<R> scanner, ScanConsumer<R> consumer) {
+        byte[] needle = needleFor(mentioning);
+        if (!mayRunConcurrently.getAsBoolean()) {
+            return scanSequentially(cancelled, candidates, needle, mentioning, scanner, consumer);
+        }
+        LinkedBlockingQueue<Done<R>> done = new LinkedBlockingQueue<>();
+        List<RequestProcessor.Task> tasks = new ArrayList<>();
+        int filtered = 0;
+        for (FileObject fo : candidates) {
+            if (cancelled.getAsBoolean()) {
+                break;
+            }
+            if (needle != null && !mayMention(fo, needle)) {
+                filtered++;
+                continue;
+            }
+            tasks.add(USAGES_RP.post(() -> {
+                if (cancelled.getAsBoolean()) {
+                    done.add(new Done<>(fo, null, null, true));
+                    return;
+                }
+                done.add(scanOne(fo, scanner));
+            }));
+        }
+        LOG.log(Level.FINE, "Scanning {0} files for usages, skipped {1} not mentioning {2}",
+                new Object[]{tasks.size(), filtered, mentioning});
+        Problem result = null;
+        int remaining = tasks.size();
+        try {
+            while (remaining > 0) {
+                if (cancelled.getAsBoolean()) {
+                    return result;
+                }
+                Done<R> d = done.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (d == null) {
+                    continue;
+                }
+                remaining--;
+                result = chainProblems(result, deliver(d, consumer));
+                if (result != null && result.isFatal()) {
+                    return result;
+                }
+            }
+        } catch (InterruptedException ex) {
+            LOG.log(Level.FINE, "Interrupted scanning for usages", ex);
+            Thread.currentThread().interrupt();
+        } finally {
+            if (remaining > 0) {
+                for (RequestProcessor.Task task : tasks) {
+                    task.cancel();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Scans candidates one at a time on the calling thread, when it holds the
+     * parser lock - a pool thread's parse would block on it until the search
+     * finished, which is never - or is the event thread.
+     */
+    private static <R> Problem scanSequentially(BooleanSupplier cancelled,
+            Iterable<FileObject> candidates, byte[] needle, String mentioning,
+            FileScan<R> scanner, ScanConsumer<R> consumer) {
+        LOG.log(Level.FINE, "Parser lock held or on event thread; scanning for {0} "
+                + "on the calling thread", mentioning);
+        Problem result = null;
+        for (FileObject fo : candidates) {
+            if (cancelled.getAsBoolean()) {
+                break;
+            }
+            if (needle != null && !mayMention(fo, needle)) {
+                continue;
+            }
+            result = chainProblems(result, deliver(scanOne(fo, scanner), consumer));
+            if (result != null && result.isFatal()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static <R> Done<R> scanOne(FileObject fo, FileScan<R> scanner) {
+        try {
+            return new Done<>(fo, scanner.scan(fo), null, false);
+        } catch (Exception | Error ex) {
+            return new Done<>(fo, null, ex, false);
+        }
+    }
+
+    private static <R> Problem deliver(Done<R> d, ScanConsumer<R> consumer) {
+        if (d.skipped) {
+            return null;
+        }
+        if (d.thrown != null) {
+            LOG.log(Level.INFO, "Exception scanning " + d.file + " for usages", d.thrown);
+            String msg = d.thrown.getMessage();
+            // A file that could not be searched may hold usages the
+            // refactoring would miss, so this cannot be a warning
+            return new Problem(true,
+                    d.file.getNameExt() + ": " + (msg == null ? d.thrown.toString() : msg));
+        }
+        return consumer.accept(d.file, d.result);
+    }
+
+    private static byte[] needleFor(String name) {
+        if (!prefilter || name == null || name.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            // A file in some other encoding could spell a non-ascii name
+            // with different bytes, so only filter on names which cannot
+            // vary
+            if (name.charAt(i) > 127) {
+                return null;
+            }
+        }
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static boolean isModifiedInEditor(FileObject fo) {
+        try {
+            return DataObject.find(fo).isModified();
+        } catch (DataObjectNotFoundException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Determine if a file's bytes on disk may contain the passed bytes; if the
+     * file cannot be read, or has unsaved modifications, returns true.
+     *
+     * @param fo A file
+     * @param needle Some bytes
+     * @return Whether or not the file needs to be parsed
+     */
+    static boolean mayMention(FileObject fo, byte[] needle) {
+        if (isModifiedInEditor(fo)) {
+            return true;
+        }
+        try (InputStream in = fo.getInputStream()) {
+            return contains(in, needle);
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Could not read " + fo, ex);
+            return true;
+        }
+    }
+
+    static boolean contains(InputStream in, byte[] needle) throws IOException {
+        // Keep needle.length - 1 bytes from the end of each read at the head
+        // of the buffer, so a match that straddles two reads is found
+        byte[] buffer = new byte[Math.max(BUFFER_SIZE, needle.length * 2)];
+        int carry = 0;
+        int read;
+        byte first = needle[0];
+        while ((read = in.read(buffer, carry, buffer.length - carry)) > 0) {
+            int limit = carry + read;
+            int last = limit - needle.length;
+            outer:
+            for (int i = 0; i <= last; i++) {
+                if (buffer[i] != first) {
+                    continue;
+                }
+                for (int j = 1; j < needle.length; j++) {
+                    if (buffer[i + j] != needle[j]) {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            carry = Math.min(needle.length - 1, limit);
+            System.arraycopy(buffer, limit - carry, buffer, 0, carry);
+        }
+        return false;
+    }
+
+    private static final class Done<R> {
+
+        final FileObject file;
+        final R result;
+        final Throwable thrown;
+        final boolean skipped;
+
+        Done(FileObject file, R result, Throwable thrown, boolean skipped) {
+            this.file = file;
+            this.result = result;
+            this.thrown = thrown;
+            this.skipped = skipped;
+        }
+    }
+}
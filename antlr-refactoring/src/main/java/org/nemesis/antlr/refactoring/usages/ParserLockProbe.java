@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.refactoring.usages;
+
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.util.Lookup;
+
+/**
+ * Determines whether the current thread holds the parsing API's parser lock -
+ * true inside any parser task or ParserManager.parse() call, such as a
+ * refactoring plugin invoked from a parser result. The API does not expose
+ * that, so this reaches into its implementation reflectively, through the
+ * system class loader since this module does not depend on the parsing API;
+ * if that fails, every thread is assumed to hold the lock.
+ *
+ * @author Tim Boudreau
+ */
+final class ParserLockProbe {
+
+    private static final Logger LOG = Logger.getLogger(ParserLockProbe.class.getName());
+    private static volatile Method holdsParserLock = findMethod();
+
+    private ParserLockProbe() {
+        throw new AssertionError();
+    }
+
+    private static Method findMethod() {
+        ClassLoader ldr = Lookup.getDefault().lookup(ClassLoader.class);
+        if (ldr == null) {
+            ldr = ParserLockProbe.class.getClassLoader();
+        }
+        for (String type : new String[]{"org.netbeans.modules.parsing.impl.Utilities",
+            "org.netbeans.modules.parsing.impl.TaskProcessor"}) {
+            try {
+                Method result = ldr.loadClass(type).getMethod("holdsParserLock");
+                result.setAccessible(true);
+                return result;
+            } catch (ClassNotFoundException | NoSuchMethodException | SecurityException ex) {
+                LOG.log(Level.FINEST, "No holdsParserLock() on " + type, ex);
+            }
+        }
+        LOG.log(Level.INFO, "Cannot find a way to test whether the parser lock is held; "
+                + "usages searches will not be parallelized");
+        return null;
+    }
+
+    private static boolean currentThreadHoldsParserLock() {
+        Method m = holdsParserLock;
+        if (m == null) {
+            return true;
+        }
+        try {
+            return Boolean.TRUE.equals(m.invoke(null));
+        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+            LOG.log(Level.WARNING, "Testing for parser lock failed", ex);
+            holdsParserLock = null;
+            return true;
+        }
+    }
+
+    /**
+     * Determine if the current thread can safely block waiting for parses
+     * running on other threads, which need the parser lock: it must not hold
+     * it, and must not be the event thread.
+     *
+     * @return true if the current thread may wait
+     */
+    static boolean currentThreadMayWaitForParse() {
+        return !EventQueue.isDispatchThread() && !currentThreadHoldsParserLock();
+    }
+}
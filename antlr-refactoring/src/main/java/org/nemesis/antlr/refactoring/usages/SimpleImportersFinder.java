@@ -22,8 +22,11 @@ import static com.mastfrog.util.collections.CollectionUtils.mutableSetOf;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -207,122 +210,128 @@ public abstract class SimpleImportersFinder extends ImportersFinder {
         return Collections.emptySet();
     }
 
+    /**
+     * Get the name a file is referred to by in the source of files which
+     * import it, which is used to skip parsing files that do not mention it.
+     * The default implementation returns the file name without extension;
+     * return null if imports may refer to files by some other name.
+     *
+     * @param file A file that might be imported
+     * @return A name, or null
+     */
+    protected String importNameHint(FileObject file) {
+        return file.getName();
+    }
+
     @Override
     public final Problem usagesOf(BooleanSupplier cancelled, FileObject file,
             NamedRegionKey<?> optionalImportKey,
             PetaFunction<IntRange<? extends IntRange<?>>, String, FileObject, ExtractionKey<?>, Extraction> usageConsumer) {
         Contextish ctxi = new Contextish();
         return ctxi.ctx(() -> {
-            Problem result = null;
             ImportFinder imports = ImportFinder.forMimeType(file.getMIMEType());
             if (imports.isAlwaysEmpty()) {
-                return result;
+                return null;
             }
+            Set<NamedRegionKey<?>> keys;
             if (!(imports instanceof ImportKeySupplier)) {
                 if (optionalImportKey == null) {
                     Logger.getLogger(AntlrRefactoringPluginFactory.class.getName()).log(Level.WARNING, "Import finder for {0} does not " + "implement {1}, so import names cannot be " + "tied to specific keys", new Object[]{file.getMIMEType(), ImportKeySupplier.class.getName()});
-                } else {
-                    Iterable<FileObject> all = importersOfUsingCache(cancelled, file);
-                    if (cancelled.getAsBoolean()) {
-                        return result;
-                    }
-                    Set<FileObject> seen = new HashSet<>();
-                    seen.add(file);
-                    for (FileObject fo : all) {
-                        if (seen.contains(fo)) {
-                            continue;
-                        }
-                        if (cancelled.getAsBoolean()) {
-                            return result;
-                        }
-                        if (fo.getMIMEType().equals(file.getMIMEType())) {
-                            try {
-                                Extraction ext = parse(fo);
-                                if (ext == null) {
-                                    result = chainProblems(result, new Problem(false, "Null extraction for " + fo));
-                                    continue;
-                                }
-                                NamedSemanticRegions<?> imported = ext.namedRegions(optionalImportKey);
-                                if (!imported.isEmpty()) {
-                                    for (GrammarSource<?> src : imports.allImports(ext, CollectionUtils.blackHoleSet())) {
-                                        if (cancelled.getAsBoolean()) {
-                                            return result;
-                                        }
-                                        Optional<FileObject> importedFile = src.lookup(FileObject.class);
-                                        if (importedFile.isPresent() && file.equals(importedFile.get())) {
-                                            String importName = src.name();
-                                            NamedSemanticRegion<?> region = imported.regionFor(importName);
-                                            if (region != null) {
-                                                Problem p = usageConsumer.accept(region, region.name(), fo, optionalImportKey, ext);
-                                                result = chainProblems(result, p);
-                                                if (cancelled.getAsBoolean() || (p != null && p.isFatal())) {
-                                                    break;
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            } catch (Exception ex) {
-                                Exceptions.printStackTrace(ex);
-                                return chainProblems(result, new Problem(true, ex.getMessage()));
-                            }
-                        }
-                    }
+                    return null;
                 }
+                keys = Collections.singleton(optionalImportKey);
             } else {
-                ImportKeySupplier kimports = (ImportKeySupplier) imports;
-                Set<NamedRegionKey<?>> keys = mutableSetOf(kimports.get());
+                keys = mutableSetOf(((ImportKeySupplier) imports).get());
                 if (optionalImportKey != null) {
                     keys.add(optionalImportKey);
                 }
-                Iterable<FileObject> all = importersOfUsingCache(cancelled, file);
-                Set<FileObject> seen = new HashSet<>();
-                seen.add(file);
-                for (FileObject fo : all) {
-                    if (seen.contains(fo)) {
-                        continue;
-                    }
-                    if (cancelled.getAsBoolean()) {
-                        return result;
-                    }
-                    for (NamedRegionKey<?> key : keys) {
-                        if (fo.getMIMEType().equals(file.getMIMEType())) {
-                            try {
-                                Extraction ext = parse(fo);
-                                if (ext == null) {
-                                    ext = parse(fo);
-                                    if (ext == null) {
-                                        result = chainProblems(result, new Problem(false, "Null extraction for " + fo));
-                                        continue;
-                                    }
-                                }
-                                NamedSemanticRegions<?> imported = ext.namedRegions(key);
-                                if (!imported.isEmpty()) {
-                                    for (GrammarSource<?> src : imports.allImports(ext, CollectionUtils.blackHoleSet())) {
-                                        Optional<FileObject> importedFile = src.lookup(FileObject.class);
-                                        if (importedFile.isPresent() && file.equals(importedFile.get())) {
-                                            String importName = src.name();
-                                            NamedSemanticRegion<?> region = imported.regionFor(importName);
-                                            if (region != null) {
-                                                usageConsumer.accept(region, region.name(), fo, key, ext);
-                                            }
-                                        }
-                                    }
-                                }
-                            } catch (Exception ex) {
-                                Exceptions.printStackTrace(ex);
-                                String msg = ex.getMessage();
-                                if (msg == null) {
-                                    msg = ex.toString();
-                                }
-                                result = chainProblems(result, new Problem(true, msg));
+            }
+            Iterable<FileObject> all = importersOfUsingCache(cancelled, file);
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            String mimeType = file.getMIMEType();
+            Set<FileObject> candidates = new LinkedHashSet<>();
+            for (FileObject fo : all) {
+                if (!file.equals(fo) && mimeType.equals(fo.getMIMEType())) {
+                    candidates.add(fo);
+                }
+            }
+            // Each candidate is parsed once, on a pool thread, which finds
+            // its imports of the file for all keys; the consumer is called
+            // back on this thread as each one completes
+            return ParallelUsagesEngine.scan(cancelled, candidates, importNameHint(file),
+                    fo -> importsIn(cancelled, fo, file, imports, keys),
+                    (fo, found) -> {
+                        if (found.extraction == null) {
+                            return new Problem(false, "Null extraction for " + fo);
+                        }
+                        Problem result = null;
+                        for (int i = 0; i < found.regions.size(); i++) {
+                            if (cancelled.getAsBoolean()) {
+                                break;
+                            }
+                            NamedSemanticRegion<?> region = found.regions.get(i);
+                            Problem p = usageConsumer.accept(region, region.name(), fo,
+                                    found.keys.get(i), found.extraction);
+                            result = chainProblems(result, p);
+                            if (p != null && p.isFatal()) {
+                                break;
                             }
                         }
+                        return result;
+                    });
+        });
+    }
+
+    private static FoundImports importsIn(BooleanSupplier cancelled, FileObject fo,
+            FileObject file, ImportFinder imports, Set<NamedRegionKey<?>> keys) throws Exception {
+        // Runs on a pool thread, so parse() enters a new parsing context
+        // there, with post-processing disabled as it is on this thread
+        Extraction ext = parse(fo);
+        FoundImports result = new FoundImports(ext);
+        if (ext == null) {
+            return result;
+        }
+        Set<GrammarSource<?>> sources = null;
+        for (NamedRegionKey<?> key : keys) {
+            if (cancelled.getAsBoolean()) {
+                break;
+            }
+            NamedSemanticRegions<?> imported = ext.namedRegions(key);
+            if (imported.isEmpty()) {
+                continue;
+            }
+            if (sources == null) {
+                sources = imports.allImports(ext, CollectionUtils.blackHoleSet());
+            }
+            for (GrammarSource<?> src : sources) {
+                Optional<FileObject> importedFile = src.lookup(FileObject.class);
+                if (importedFile.isPresent() && file.equals(importedFile.get())) {
+                    NamedSemanticRegion<?> region = imported.regionFor(src.name());
+                    if (region != null) {
+                        result.add(key, region);
                     }
                 }
             }
-            return result;
-        });
+        }
+        return result;
+    }
+
+    private static final class FoundImports {
+
+        final Extraction extraction;
+        final List<NamedRegionKey<?>> keys = new ArrayList<>(2);
+        final List<NamedSemanticRegion<?>> regions = new ArrayList<>(2);
+
+        FoundImports(Extraction extraction) {
+            this.extraction = extraction;
+        }
+
+        void add(NamedRegionKey<?> key, NamedSemanticRegion<?> region) {
+            keys.add(key);
+            regions.add(region);
+        }
     }
 
     static class Contextish extends AbstractRefactoringContext {
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.antlr.refactoring.usages;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class ParallelUsagesEngineTest {
+
+    private static final byte[] NEEDLE = "OtherGrammar".getBytes(US_ASCII);
+    private static final BooleanSupplier DEFAULT_MAY_RUN_CONCURRENTLY
+            = ParallelUsagesEngine.mayRunConcurrently;
+
+    @Test
+    public void testMatch() throws IOException {
+        byte[] bytes = "grammar Foo;\nimport OtherGrammar;\nfoo : 'x';\n".getBytes(US_ASCII);
+        assertTrue(ParallelUsagesEngine.contains(new ByteArrayInputStream(bytes), NEEDLE));
+        assertTrue(ParallelUsagesEngine.contains(new ByteArrayInputStream(NEEDLE), NEEDLE),
+                "Needle is the whole stream");
+    }
+
+    @Test
+    public void testMiss() throws IOException {
+        // Includes a prefix of the needle, and the needle cut short at the end
+        byte[] bytes = "grammar Foo;\nimport OtherGram;\nfoo : 'x';\nOtherGramma".getBytes(US_ASCII);
+        assertFalse(ParallelUsagesEngine.contains(new ByteArrayInputStream(bytes), NEEDLE));
+        assertFalse(ParallelUsagesEngine.contains(new ByteArrayInputStream(new byte[0]), NEEDLE));
+    }
+
+    @Test
+    public void testMatchSplitAcrossBufferBoundary() throws IOException {
+        for (int split = 1; split < NEEDLE.length; split++) {
+            // Fill the first read exactly, so the needle straddles two reads
+            byte[] bytes = new byte[8192 + NEEDLE.length];
+            Arrays.fill(bytes, (byte) 'x');
+            System.arraycopy(NEEDLE, 0, bytes, 8192 - split, NEEDLE.length);
+            assertTrue(ParallelUsagesEngine.contains(new ByteArrayInputStream(bytes), NEEDLE),
+                    "Split after " + split + " bytes");
+            // And with a stream that returns short reads
+            assertTrue(ParallelUsagesEngine.contains(new TrickleInputStream(bytes, 7), NEEDLE),
+                    "Split after " + split + " bytes in short reads");
+        }
+        byte[] miss = new byte[8192 * 3];
+        Arrays.fill(miss, (byte) 'x');
+        System.arraycopy(NEEDLE, 0, miss, 8192 - 4, NEEDLE.length - 1);
+        assertFalse(ParallelUsagesEngine.contains(new TrickleInputStream(miss, 7), NEEDLE));
+    }
+
+    @Test
+    public void testHeldParserLockScansOnCallingThread() throws IOException {
+        ParallelUsagesEngine.mayRunConcurrently = () -> false;
+        FileObject root = FileUtil.createMemoryFileSystem().getRoot();
+        List<FileObject> files = Arrays.asList(root.createData("A.g4"), root.createData("B.g4"));
+        Thread caller = Thread.currentThread();
+        List<String> scanned = new ArrayList<>();
+        List<String> consumed = new ArrayList<>();
+        assertNull(ParallelUsagesEngine.scan(() -> false, files, null, fo -> {
+            assertSame(caller, Thread.currentThread());
+            scanned.add(fo.getNameExt());
+            return fo.getName();
+        }, (fo, name) -> {
+            assertSame(caller, Thread.currentThread());
+            consumed.add(name);
+            return null;
+        }));
+        assertEquals(Arrays.asList("A.g4", "B.g4"), scanned);
+        assertEquals(Arrays.asList("A", "B"), consumed);
+    }
+
+    @AfterEach
+    public void after() {
+        ParallelUsagesEngine.mayRunConcurrently = DEFAULT_MAY_RUN_CONCURRENTLY;
+    }
+
+    static final class TrickleInputStream extends InputStream {
+
+        private final ByteArrayInputStream in;
+        private final int max;
+
+        TrickleInputStream(byte[] bytes, int max) {
+            this.in = new ByteArrayInputStream(bytes);
+            this.max = max;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, Math.min(max, len));
+        }
+    }
+}
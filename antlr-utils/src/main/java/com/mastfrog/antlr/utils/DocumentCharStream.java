@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mastfrog.antlr.utils;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * Implementation of Antlr's CharStream which reads directly from a Swing
+ * document's storage, using partial-return segments, so neither the document
+ * as a whole nor any large part of it is ever copied. A gap-buffer document
+ * is read as at most two segments, so in the usual forward scan of a lexer
+ * this is nearly as cheap as reading an array; <code>getText()</code>
+ * creates a string directly from the segment where it can.
+ * <p>
+ * The length of the stream is fixed when it is created; the caller is
+ * responsible for holding the document's read lock, or otherwise ensuring it
+ * is not modified, while the stream is in use. If the document shrinks
+ * underneath it, reads throw an IllegalStateException.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class DocumentCharStream implements CharStream {
+
+    private final Document doc;
+    private final String name;
+    private final int n;
+    private final Segment segment = new Segment();
+    private int segmentStart;
+    private int segmentEnd;
+    private int p;
+
+    public DocumentCharStream(String name, Document doc) {
+        this.doc = doc;
+        this.name = name;
+        this.n = doc.getLength();
+        segment.setPartialReturn(true);
+    }
+
+    private char data(int ix) {
+        if (ix < segmentStart || ix >= segmentEnd) {
+            fill(ix);
+        }
+        return segment.array[segment.offset + ix - segmentStart];
+    }
+
+    private void fill(int ix) {
+        try {
+            doc.getText(ix, n - ix, segment);
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException("Document modified while reading "
+                    + getSourceName() + " at " + ix, ex);
+        }
+        segmentStart = ix;
+        segmentEnd = ix + segment.count;
+    }
+
+    public void reset() {
+        p = 0;
+    }
+
+    @Override
+    public void consume() {
+        if (p >= n) {
+            assert LA(1) == IntStream.EOF;
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        p++;
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i == 0) {
+            return 0;
+        }
+        if (i < 0) {
+            i++;
+            if ((p + i - 1) < 0) {
+                return IntStream.EOF;
+            }
+        }
+        if ((p + i - 1) >= n) {
+            return IntStream.EOF;
+        }
+        return data(p + i - 1);
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public void seek(int index) {
+        p = Math.max(0, Math.min(index, n));
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = interval.a;
+        int stop = interval.b;
+        if (stop >= n) {
+            stop = n - 1;
+        }
+        if (start >= n || stop < start) {
+            return "";
+        }
+        int count = stop - start + 1;
+        if (start >= segmentStart && start + count <= segmentEnd) {
+            return new String(segment.array, segment.offset + start - segmentStart, count);
+        }
+        try {
+            return doc.getText(start, count);
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException("Document modified while reading "
+                    + getSourceName() + " at " + start, ex);
+        }
+    }
+
+    @Override
+    public String getSourceName() {
+        return name == null ? UNKNOWN_SOURCE_NAME : name;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + getSourceName() + ", " + n + " chars)";
+    }
+}
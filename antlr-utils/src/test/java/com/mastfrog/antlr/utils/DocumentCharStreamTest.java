@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mastfrog.antlr.utils;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class DocumentCharStreamTest {
+
+    private static final String TEXT = "grammar Foo;\n\nfoo : bar+ EOF;\n\nbar : 'x' | 'y';\n";
+
+    @Test
+    public void testMatchesAntlrStreamAcrossGap() throws BadLocationException {
+        PlainDocument doc = new PlainDocument();
+        // Inserting in the middle leaves the gap of the underlying
+        // GapContent there, so reads must span two partial segments
+        int half = TEXT.length() / 2;
+        doc.insertString(0, TEXT.substring(half), null);
+        doc.insertString(0, TEXT.substring(0, half), null);
+        assertEquals(TEXT, doc.getText(0, doc.getLength()));
+
+        DocumentCharStream ours = new DocumentCharStream("x", doc);
+        CharStream theirs = CharStreams.fromString(TEXT);
+        assertEquals(theirs.size(), ours.size());
+        while (theirs.LA(1) != IntStream.EOF) {
+            assertEquals(theirs.index(), ours.index());
+            assertEquals(theirs.LA(1), ours.LA(1), "LA(1) at " + ours.index());
+            assertEquals(theirs.LA(-1), ours.LA(-1), "LA(-1) at " + ours.index());
+            assertEquals(theirs.LA(3), ours.LA(3), "LA(3) at " + ours.index());
+            theirs.consume();
+            ours.consume();
+        }
+        assertEquals(IntStream.EOF, ours.LA(1));
+
+        for (int start = 0; start < TEXT.length(); start += 3) {
+            for (int stop = start; stop < TEXT.length() + 2; stop += 5) {
+                Interval ival = new Interval(start, stop);
+                assertEquals(theirs.getText(ival), ours.getText(ival), ival.toString());
+            }
+        }
+
+        ours.seek(half - 2);
+        assertEquals(TEXT.charAt(half - 2), ours.LA(1));
+        ours.seek(0);
+        assertEquals('g', ours.LA(1));
+    }
+
+    @Test
+    public void testEmptyDocument() {
+        DocumentCharStream str = new DocumentCharStream(null, new PlainDocument());
+        assertEquals(0, str.size());
+        assertEquals(IntStream.EOF, str.LA(1));
+        assertEquals("", str.getText(new Interval(0, 10)));
+        assertEquals(IntStream.UNKNOWN_SOURCE_NAME, str.getSourceName());
+    }
+}
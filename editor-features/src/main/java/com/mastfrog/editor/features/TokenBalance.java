@@ -19,6 +19,7 @@
 package com.mastfrog.editor.features;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,15 @@ import org.netbeans.api.lexer.TokenSequence;
 
 /**
  * Token balance computes balance of certain tokens - mainly braces.
+ * <p>
+ * Rather than tracking individual pairs, each tracked language keeps a count
+ * of every token id in the document, in an array indexed by token ordinal;
+ * the balance of a pair is the difference between two counts. So the
+ * initial scan is a single pass over the token hierarchy regardless of how
+ * many pairs or languages are tracked, adding a pair never requires a
+ * rescan, and subsequent edits only adjust counts from the token changes in
+ * each TokenHierarchyEvent.
+ * </p>
  */
 final class TokenBalance implements TokenHierarchyListener {
 
@@ -62,7 +72,9 @@ final class TokenBalance implements TokenHierarchyListener {
     }
 
     public boolean isTracked(Language<?> language) {
-        return (handler(language, false) != null);
+        synchronized (lang2handler) {
+            return (handler(language, false) != null);
+        }
     }
 
     public boolean isTracked(String mimeType) {
@@ -72,21 +84,14 @@ final class TokenBalance implements TokenHierarchyListener {
 
     public boolean ensureTracked(String mimeType, int leftId, int rightId) {
         Language<? extends TokenId> lang = Language.find(mimeType);
-//        boolean result = isTracked(lang);
-//        if (result) {
-        boolean result = ensureTokensTracked(lang, leftId, rightId);
-//        }
-        return result;
+        return ensureTokensTracked(lang, leftId, rightId);
     }
 
-    @SuppressWarnings("unchecked")
     private <T extends TokenId> boolean ensureTokensTracked(Language<T> l, int left, int right) {
-        T ltok = l.tokenId(left);
-        T rtok = left == right ? ltok : l.tokenId(right);
         synchronized (lang2handler) {
             LanguageHandler<T> handler = handler(l, true);
-            if (!handler.id2Pair.containsKey(ltok) || !handler.id2Pair.containsKey(rtok)) {
-                handler.addTokenPair(ltok, rtok);
+            if (!handler.isPair(left, right)) {
+                handler.addTokenPair(left, right);
                 return true;
             }
         }
@@ -95,22 +100,18 @@ final class TokenBalance implements TokenHierarchyListener {
 
     public void addTokenPair(String mime, int left, int right) {
         Language<? extends TokenId> lang = Language.find(mime);
-        _addTokenPair(lang, left, right);
-    }
-
-    private <T extends TokenId> void _addTokenPair(Language<T> l, int left, int right) {
-        T ltok = l.tokenId(left);
-        T rtok = l.tokenId(right);
-        addTokenPair(l, ltok, rtok);
+        synchronized (lang2handler) {
+            handler(lang, true).addTokenPair(left, right);
+        }
     }
 
     public <T extends TokenId> void addTokenPair(Language<T> language, T left, T right) {
         synchronized (lang2handler) {
-            handler(language, true).addTokenPair(left, right);
-            scanDone = false;
+            handler(language, true).addTokenPair(left.ordinal(), right.ordinal());
         }
     }
 
+    @Override
     public void tokenHierarchyChanged(TokenHierarchyEvent evt) {
         synchronized (lang2handler) {
             if (evt.type() == TokenHierarchyEventType.ACTIVITY
@@ -136,27 +137,102 @@ final class TokenBalance implements TokenHierarchyListener {
      * return Integer.MAX_VALUE).
      */
     public <T extends TokenId> int balance(Language<T> language, T left) {
-        LanguageHandler<T> handler;
         synchronized (lang2handler) {
             checkScanDone();
-            handler = handler(language, false);
+            LanguageHandler<T> handler = handler(language, false);
+            return (handler != null) ? handler.balance(left.ordinal()) : Integer.MAX_VALUE;
         }
-        return (handler != null) ? handler.balance(left) : Integer.MAX_VALUE;
     }
 
     public int balance(String mimeType, int left) {
         Language<?> lang = Language.find(mimeType);
-        return _balance(lang, left);
+        synchronized (lang2handler) {
+            checkScanDone();
+            LanguageHandler<?> handler = handler(lang, false);
+            return (handler != null) ? handler.balance(left) : Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Get the balance for the given left id counting only tokens which start
+     * within the passed range of the document, e.g. to determine whether
+     * braces are balanced within the current block rather than the whole
+     * file. Unlike the whole-document balance, this is computed on demand
+     * from the tokens in the range, so its cost is proportional to the size
+     * of the range. Must be called under the document's read lock.
+     *
+     * @param mimeType The mime type
+     * @param left The left token id
+     * @param startOffset The start offset, inclusive
+     * @param endOffset The end offset, exclusive
+     * @return The balance, or Integer.MAX_VALUE if the id is not tracked as
+     * a left id
+     */
+    public int balance(String mimeType, int left, int startOffset, int endOffset) {
+        return balance(Language.find(mimeType), left, startOffset, endOffset);
+    }
+
+    public <T extends TokenId> int balance(Language<T> language, T left, int startOffset, int endOffset) {
+        return balance(language, left.ordinal(), startOffset, endOffset);
     }
 
-    private <T extends TokenId> int _balance(Language<T> lang, int left) {
-        T id = lang.tokenId(left);
-        LanguageHandler<T> handler;
+    private int balance(Language<?> lang, int left, int startOffset, int endOffset) {
+        LanguageHandler<?> handler;
         synchronized (lang2handler) {
-            checkScanDone();
             handler = handler(lang, false);
         }
-        return (handler != null) ? handler.balance(id) : Integer.MAX_VALUE;
+        if (handler == null) {
+            return Integer.MAX_VALUE;
+        }
+        int right = handler.rightFor(left);
+        if (right < 0) {
+            return Integer.MAX_VALUE;
+        }
+        TokenSequence<?> ts = TokenHierarchy.get(doc).tokenSequence();
+        if (ts == null || startOffset >= endOffset) {
+            return 0;
+        }
+        int[] leftAndRight = new int[2];
+        countInRange(ts, lang, left, right, startOffset, endOffset, leftAndRight);
+        return left == right ? leftAndRight[0] : leftAndRight[0] - leftAndRight[1];
+    }
+
+    private static void countInRange(TokenSequence<?> ts, Language<?> lang, int left, int right,
+            int startOffset, int endOffset, int[] into) {
+        ts.move(startOffset);
+        if (!ts.moveNext()) {
+            return;
+        }
+        if (ts.offset() < startOffset) {
+            // Token straddles the start; only embedded tokens within
+            // the range can count
+            countEmbeddedInRange(ts, lang, left, right, startOffset, endOffset, into);
+            if (!ts.moveNext()) {
+                return;
+            }
+        }
+        do {
+            if (ts.offset() >= endOffset) {
+                break;
+            }
+            if (ts.language() == lang) {
+                int ord = ts.token().id().ordinal();
+                if (ord == left) {
+                    into[0]++;
+                } else if (ord == right) {
+                    into[1]++;
+                }
+            }
+            countEmbeddedInRange(ts, lang, left, right, startOffset, endOffset, into);
+        } while (ts.moveNext());
+    }
+
+    private static void countEmbeddedInRange(TokenSequence<?> ts, Language<?> lang, int left, int right,
+            int startOffset, int endOffset, int[] into) {
+        TokenSequence<?> embedded = ts.embedded();
+        if (embedded != null) {
+            countInRange(embedded, lang, left, right, startOffset, endOffset, into);
+        }
     }
 
     private <T extends TokenId> LanguageHandler<T> handler(Language<T> language, boolean forceCreation) {
@@ -166,6 +242,8 @@ final class TokenBalance implements TokenHierarchyListener {
         if (handler == null && forceCreation) {
             handler = new LanguageHandler<T>(language);
             lang2handler.put(language, handler);
+            // Counts for a newly tracked language are unknown
+            scanDone = false;
         }
         return handler;
     }
@@ -173,86 +251,98 @@ final class TokenBalance implements TokenHierarchyListener {
     private void checkScanDone() {
         synchronized (lang2handler) {
             if (!scanDone) {
-                TokenHierarchy hi = TokenHierarchy.get(doc);
                 for (LanguageHandler<?> handler : lang2handler.values()) {
-                    handler.scan(hi);
+                    handler.clear();
+                }
+                TokenSequence<?> ts = TokenHierarchy.get(doc).tokenSequence();
+                if (ts != null && !lang2handler.isEmpty()) {
+                    scan(ts);
                 }
                 scanDone = true;
             }
         }
     }
 
+    private void scan(TokenSequence<?> ts) {
+        // One pass over the whole hierarchy updates counts for all
+        // tracked languages; the handler lookup is per-sequence, not
+        // per-token
+        LanguageHandler<?> handler = lang2handler.get(ts.language());
+        int[] counts = handler == null ? null : handler.counts;
+        while (ts.moveNext()) {
+            if (counts != null) {
+                counts[ts.token().id().ordinal()]++;
+            }
+            TokenSequence<?> embedded = ts.embedded();
+            if (embedded != null) {
+                scan(embedded);
+            }
+        }
+    }
+
     private static final class LanguageHandler<T extends TokenId> {
 
         private final Language<T> language;
-
-        private final Map<T, TokenIdPair<T>> id2Pair;
+        // Count of each token id in the document, by ordinal
+        final int[] counts;
+        // For each left token ordinal, the ordinal of its right token, or -1
+        private final int[] rightForLeft;
 
         LanguageHandler(Language<T> language) {
             this.language = language;
-            id2Pair = new HashMap<T, TokenIdPair<T>>();
+            counts = new int[language.maxOrdinal() + 1];
+            rightForLeft = new int[counts.length];
+            Arrays.fill(rightForLeft, -1);
         }
 
         public final Language<T> language() {
             return language;
         }
 
-        public void addTokenPair(T left, T right) {
-            TokenIdPair<T> pair = new TokenIdPair<T>(left, right);
-            synchronized (id2Pair) {
-                id2Pair.put(left, pair);
-                id2Pair.put(right, pair);
-            }
+        boolean isPair(int left, int right) {
+            return rightForLeft[left] == right;
         }
 
-        public void scan(TokenHierarchy hi) {
-            for (TokenIdPair pair : id2Pair.values()) {
-                pair.balance = 0;
-            }
-            // Clear balances first
-            TokenSequence<?> ts = hi.tokenSequence();
-            if (ts != null) {
-                processTokenSequence(ts, ts.tokenCount(), true, +1);
-            }
+        int rightFor(int left) {
+            return left < 0 || left >= rightForLeft.length ? -1 : rightForLeft[left];
         }
 
-        @SuppressWarnings("unchecked")
-        public void processTokenSequence(TokenSequence<?> ts, int tokenCount,
-                boolean checkEmbedded, int diff) {
+        void addTokenPair(int left, int right) {
+            // Counts cover every token id, so nothing needs rescanning
+            rightForLeft[left] = right;
+        }
+
+        void clear() {
+            Arrays.fill(counts, 0);
+        }
+
+        private void processTokenSequence(TokenSequence<?> ts, int tokenCount, int diff) {
             while (--tokenCount >= 0) {
                 boolean moved = ts.moveNext();
                 assert (moved);
                 if (ts.language() == language) {
-                    T id = (T) ts.token().id();
-                    TokenIdPair pair = id2Pair.get(id);
-                    if (pair != null) {
-                        pair.updateBalance(id, diff);
-                    }
-                }
-                if (checkEmbedded) {
-                    TokenSequence<?> embeddedTS = ts.embedded();
-                    if (embeddedTS != null) {
-                        processTokenSequence(embeddedTS, embeddedTS.tokenCount(),
-                                true, diff);
-                    }
+                    counts[ts.token().id().ordinal()] += diff;
                 }
             }
         }
 
-        public void handleEvent(TokenHierarchyEvent evt) {
+        void handleEvent(TokenHierarchyEvent evt) {
             for (TokenChange<T> tokenChange : collectTokenChanges(evt.tokenChange(), new ArrayList<TokenChange<T>>())) {
                 if (tokenChange.removedTokenCount() > 0) {
-                    processTokenSequence(tokenChange.removedTokenSequence(), tokenChange.removedTokenCount(), false, -1);
+                    processTokenSequence(tokenChange.removedTokenSequence(), tokenChange.removedTokenCount(), -1);
                 }
                 if (tokenChange.addedTokenCount() > 0) {
-                    processTokenSequence(tokenChange.currentTokenSequence(), tokenChange.addedTokenCount(), false, +1);
+                    processTokenSequence(tokenChange.currentTokenSequence(), tokenChange.addedTokenCount(), +1);
                 }
             }
         }
 
-        public int balance(T left) {
-            TokenIdPair pair = id2Pair.get(left);
-            return (pair.left == left) ? pair.balance : Integer.MAX_VALUE;
+        int balance(int left) {
+            int right = rightFor(left);
+            if (right < 0) {
+                return Integer.MAX_VALUE;
+            }
+            return left == right ? counts[left] : counts[left] - counts[right];
         }
 
         @SuppressWarnings("unchecked")
@@ -266,27 +356,4 @@ final class TokenBalance implements TokenHierarchyListener {
             return changes;
         }
     }
-
-    private static final class TokenIdPair<T extends TokenId> {
-
-        T left;
-
-        T right;
-
-        int balance;
-
-        public TokenIdPair(T left, T right) {
-            this.left = left;
-            this.right = right;
-        }
-
-        public void updateBalance(T id, int diff) {
-            if (id == left) {
-                balance += diff;
-            } else {
-                assert (id == right);
-                balance -= diff;
-            }
-        }
-    }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mastfrog.editor.features;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.netbeans.api.lexer.Language;
+import org.netbeans.api.lexer.Token;
+import org.netbeans.api.lexer.TokenHierarchy;
+import org.netbeans.api.lexer.TokenId;
+import org.netbeans.spi.lexer.LanguageHierarchy;
+import org.netbeans.spi.lexer.Lexer;
+import org.netbeans.spi.lexer.LexerInput;
+import org.netbeans.spi.lexer.LexerRestartInfo;
+
+/**
+ * TokenBalance keeps per-token-id counts, updated from token hierarchy events
+ * after the initial scan.
+ *
+ * @author Tim Boudreau
+ */
+public class TokenBalanceTest {
+
+    private static final Language<BraceTokenId> LANGUAGE = new BraceHierarchy().language();
+
+    @Test
+    public void testBalanceOfDocument() throws Exception {
+        Document doc = document("a { b ( c ) } {");
+        TokenBalance tb = TokenBalance.get(doc);
+        tb.addTokenPair(LANGUAGE, BraceTokenId.LBRACE, BraceTokenId.RBRACE);
+        assertEquals(1, tb.balance(LANGUAGE, BraceTokenId.LBRACE));
+        assertEquals(Integer.MAX_VALUE, tb.balance(LANGUAGE, BraceTokenId.RBRACE),
+                "Right ids have no balance of their own");
+        assertEquals(Integer.MAX_VALUE, tb.balance(LANGUAGE, BraceTokenId.LPAREN),
+                "Untracked pair");
+    }
+
+    @Test
+    public void testEditsUpdateBalance() throws Exception {
+        Document doc = document("a { b { c } }");
+        TokenBalance tb = TokenBalance.get(doc);
+        tb.addTokenPair(LANGUAGE, BraceTokenId.LBRACE, BraceTokenId.RBRACE);
+        assertEquals(0, tb.balance(LANGUAGE, BraceTokenId.LBRACE));
+        doc.insertString(doc.getLength(), " {{", null);
+        assertEquals(2, tb.balance(LANGUAGE, BraceTokenId.LBRACE));
+        doc.insertString(2, "}", null);
+        assertEquals(1, tb.balance(LANGUAGE, BraceTokenId.LBRACE));
+        doc.remove(0, doc.getLength());
+        assertEquals(0, tb.balance(LANGUAGE, BraceTokenId.LBRACE));
+        doc.insertString(0, "}}} {", null);
+        assertEquals(-2, tb.balance(LANGUAGE, BraceTokenId.LBRACE));
+    }
+
+    @Test
+    public void testPairAddedAfterScanIsCounted() throws Exception {
+        Document doc = document("f(a, (b)) { g(( }");
+        TokenBalance tb = TokenBalance.get(doc);
+        tb.addTokenPair(LANGUAGE, BraceTokenId.LBRACE, BraceTokenId.RBRACE);
+        assertEquals(0, tb.balance(LANGUAGE, BraceTokenId.LBRACE));
+        tb.addTokenPair(LANGUAGE, BraceTokenId.LPAREN, BraceTokenId.RPAREN);
+        assertEquals(2, tb.balance(LANGUAGE, BraceTokenId.LPAREN));
+        doc.insertString(doc.getLength(), "))", null);
+        assertEquals(0, tb.balance(LANGUAGE, BraceTokenId.LPAREN));
+        assertEquals(0, tb.balance(LANGUAGE, BraceTokenId.LBRACE));
+    }
+
+    @Test
+    public void testRangeBalances() throws Exception {
+        // Braces at 2, 6, 10 and 14
+        Document doc = document("a { b { c } d } e");
+        TokenBalance tb = TokenBalance.get(doc);
+        tb.addTokenPair(LANGUAGE, BraceTokenId.LBRACE, BraceTokenId.RBRACE);
+        assertEquals(0, tb.balance(LANGUAGE, BraceTokenId.LBRACE, 0, doc.getLength()));
+        assertEquals(2, tb.balance(LANGUAGE, BraceTokenId.LBRACE, 0, 10),
+                "Ends inside the nested pair, before its close");
+        assertEquals(1, tb.balance(LANGUAGE, BraceTokenId.LBRACE, 0, 11),
+                "Ends between the inner and outer close");
+        assertEquals(-1, tb.balance(LANGUAGE, BraceTokenId.LBRACE, 5, doc.getLength()),
+                "Starts inside the outer pair");
+        assertEquals(0, tb.balance(LANGUAGE, BraceTokenId.LBRACE, 6, 11),
+                "Exactly the nested pair");
+        assertEquals(-1, tb.balance(LANGUAGE, BraceTokenId.LBRACE, 7, 11),
+                "Starts inside the nested pair");
+        assertEquals(0, tb.balance(LANGUAGE, BraceTokenId.LBRACE, 4, 11),
+                "Tokens starting before the range are not counted");
+    }
+
+    @Test
+    public void testEmptyAndInvertedRanges() throws Exception {
+        Document doc = document("a { b { c } d } e");
+        TokenBalance tb = TokenBalance.get(doc);
+        tb.addTokenPair(LANGUAGE, BraceTokenId.LBRACE, BraceTokenId.RBRACE);
+        assertEquals(0, tb.balance(LANGUAGE, BraceTokenId.LBRACE, 6, 6));
+        assertEquals(0, tb.balance(LANGUAGE, BraceTokenId.LBRACE, 11, 2));
+        assertEquals(Integer.MAX_VALUE, tb.balance(LANGUAGE, BraceTokenId.LPAREN, 0, doc.getLength()),
+                "Untracked pair");
+    }
+
+    private static Document document(String text) throws BadLocationException {
+        Document doc = new PlainDocument();
+        doc.putProperty(Language.class, LANGUAGE);
+        doc.insertString(0, text, null);
+        // Activate the hierarchy so edits produce token change events
+        TokenHierarchy.get(doc).tokenSequence();
+        return doc;
+    }
+
+    enum BraceTokenId implements TokenId {
+        LBRACE, RBRACE, LPAREN, RPAREN, OTHER;
+
+        @Override
+        public String primaryCategory() {
+            return name().toLowerCase();
+        }
+    }
+
+    static final class BraceHierarchy extends LanguageHierarchy<BraceTokenId> {
+
+        @Override
+        protected Collection<BraceTokenId> createTokenIds() {
+            return EnumSet.allOf(BraceTokenId.class);
+        }
+
+        @Override
+        protected Lexer<BraceTokenId> createLexer(LexerRestartInfo<BraceTokenId> info) {
+            return new BraceLexer(info);
+        }
+
+        @Override
+        protected String mimeType() {
+            return "text/x-token-balance-test";
+        }
+    }
+
+    static final class BraceLexer implements Lexer<BraceTokenId> {
+
+        private final LexerRestartInfo<BraceTokenId> info;
+
+        BraceLexer(LexerRestartInfo<BraceTokenId> info) {
+            this.info = info;
+        }
+
+        @Override
+        public Token<BraceTokenId> nextToken() {
+            LexerInput in = info.input();
+            int ch = in.read();
+            if (ch == LexerInput.EOF) {
+                return null;
+            }
+            BraceTokenId id = idFor(ch);
+            if (id == BraceTokenId.OTHER) {
+                while ((ch = in.read()) != LexerInput.EOF && idFor(ch) == BraceTokenId.OTHER) {
+                    // consume
+                }
+                if (ch != LexerInput.EOF) {
+                    in.backup(1);
+                }
+            }
+            return info.tokenFactory().createToken(id);
+        }
+
+        private static BraceTokenId idFor(int ch) {
+            switch (ch) {
+                case '{':
+                    return BraceTokenId.LBRACE;
+                case '}':
+                    return BraceTokenId.RBRACE;
+                case '(':
+                    return BraceTokenId.LPAREN;
+                case ')':
+                    return BraceTokenId.RPAREN;
+                default:
+                    return BraceTokenId.OTHER;
+            }
+        }
+
+        @Override
+        public Object state() {
+            return null;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -28,7 +28,9 @@ import com.mastfrog.util.strings.Strings;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Supplier;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Position;
@@ -136,6 +138,77 @@ public final class EditBag {
         }
     }
 
+    /**
+     * Remove replacements and deletions which duplicate, or lie entirely
+     * inside, another replacement or deletion - applying those after the
+     * edit that contains them would modify text that edit has already
+     * replaced. Insertions and ad-hoc modifications are left alone.
+     *
+     * @return The number of entries removed
+     */
+    int coalesce() {
+        if (entries.size() < 2) {
+            return 0;
+        }
+        // Sort by ascending start, longest first, so a containing edit is
+        // always visited before the edits it contains
+        entries.sort((a, b) -> {
+            int result = Integer.compare(a.start(), b.start());
+            if (result == 0) {
+                result = -Integer.compare(a.size(), b.size());
+            }
+            if (result == 0) {
+                result = Integer.compare(a.sequence(), b.sequence());
+            }
+            return result;
+        });
+        int removed = 0;
+        EditBagEntry container = null;
+        for (Iterator<EditBagEntry> it = entries.iterator(); it.hasNext();) {
+            EditBagEntry e = it.next();
+            if (!isReplacing(e)) {
+                continue;
+            }
+            if (container != null && isRedundant(container, e)) {
+                it.remove();
+                removed++;
+                continue;
+            }
+            if (container == null || e.end() > container.end()) {
+                container = e;
+            }
+        }
+        return removed;
+    }
+
+    private static boolean isRedundant(EditBagEntry container, EditBagEntry e) {
+        if (e.end() > container.end()) {
+            return false;
+        } else if (e.start() == container.start() && e.end() == container.end()) {
+            return sameEdit(container, e);
+        } else if (e.size() == 0) {
+            // An empty replacement at either edge is an insertion next to
+            // the container, not inside it
+            return e.start() > container.start() && e.end() < container.end();
+        }
+        return true;
+    }
+
+    private static boolean isReplacing(EditBagEntry e) {
+        return e.kind() == ChangeKind.REPLACEMENT || e.kind() == ChangeKind.DELETION;
+    }
+
+    private static boolean sameEdit(EditBagEntry a, EditBagEntry b) {
+        if (a.kind() != b.kind()) {
+            return false;
+        }
+        if (a instanceof ReplacementEntry) {
+            return Objects.equals(((ReplacementEntry) a).replacementText.get(),
+                    ((ReplacementEntry) b).replacementText.get());
+        }
+        return true;
+    }
+
     void apply(DocumentOperator op) throws Exception {
         if (isEmpty()) {
             return;
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.editor.edit;
+
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.text.StyledDocument;
+import org.nemesis.editor.ops.DocumentOperator;
+import org.netbeans.api.annotations.common.NonNull;
+import org.netbeans.api.editor.EditorRegistry;
+
+/**
+ * A set of EditBags for multiple documents, which are applied together, as
+ * when renaming something used in many files. Each document's edits are
+ * sorted, with redundant replacements and deletions removed, and applied
+ * inside a single operation of the DocumentOperator - so, with the default
+ * operator, inside <code>NbDocument.runAtomic()</code> holding the AWT tree
+ * lock, with token hierarchy updates suspended and the caret position
+ * preserved, as one undoable edit.
+ * <p>
+ * Documents are modified one at a time; those open in an editor are modified
+ * on the event thread, since their carets and views are updated there.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class EditBatch {
+
+    private static final Logger LOG = Logger.getLogger(EditBatch.class.getName());
+    /**
+     * The default operator used to apply each document's edits.
+     */
+    public static final DocumentOperator BATCH_UPDATE_DOCUMENT
+            = DocumentOperator.builder()
+                    .lockAtomic()
+                    .acquireAWTTreeLock()
+                    .preserveCaretPosition()
+                    .disableTokenHierarchyUpdates()
+                    .writeLock()
+                    .singleUndoTransaction()
+                    .build();
+    private final Map<StyledDocument, EditBag> bags = new IdentityHashMap<>();
+    private final List<StyledDocument> order = new ArrayList<>();
+    private final DocumentOperator op;
+
+    public EditBatch() {
+        this(BATCH_UPDATE_DOCUMENT);
+    }
+
+    public EditBatch(@NonNull DocumentOperator op) {
+        this.op = notNull("op", op);
+    }
+
+    /**
+     * Get the edit bag for a document, creating it if necessary.
+     *
+     * @param doc A document
+     * @return An edit bag
+     */
+    public synchronized EditBag bagFor(@NonNull StyledDocument doc) {
+        EditBag result = bags.get(notNull("doc", doc));
+        if (result == null) {
+            result = new EditBag(doc, new Applier(op));
+            bags.put(doc, result);
+            order.add(doc);
+        }
+        return result;
+    }
+
+    public synchronized int documentCount() {
+        return order.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        for (EditBag bag : bags.values()) {
+            if (!bag.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply all edits, waiting until every document has been modified. If
+     * modifying any document fails, the others are still modified, and the
+     * first failure is thrown, with any others attached as suppressed
+     * exceptions.
+     *
+     * @throws Exception If something goes wrong
+     */
+    public void apply() throws Exception {
+        List<EditBag> toApply = new ArrayList<>();
+        synchronized (this) {
+            for (StyledDocument doc : order) {
+                EditBag bag = bags.get(doc);
+                if (!bag.isEmpty()) {
+                    int removed = bag.coalesce();
+                    if (removed > 0) {
+                        LOG.log(Level.FINE, "Coalesced {0} redundant edits in {1}",
+                                new Object[]{removed, doc});
+                    }
+                    toApply.add(bag);
+                }
+            }
+        }
+        Exception failure = null;
+        for (EditBag bag : toApply) {
+            failure = applyOne(bag, failure);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Exception applyOne(EditBag bag, Exception prev) {
+        StyledDocument doc = bag.document();
+        // If this thread already holds the document's lock, the event
+        // thread could not acquire it, so apply in place
+        if (EventQueue.isDispatchThread() || DocumentOperator.isAtomicLocked(doc)
+                || EditorRegistry.findComponent(doc) == null) {
+            return applyInPlace(bag, prev);
+        }
+        Exception[] result = new Exception[]{prev};
+        try {
+            EventQueue.invokeAndWait(() -> {
+                result[0] = applyInPlace(bag, prev);
+            });
+        } catch (InterruptedException | InvocationTargetException ex) {
+            LOG.log(Level.INFO, "Failed applying edits to " + doc, ex);
+            return chain(prev, ex);
+        }
+        return result[0];
+    }
+
+    private Exception applyInPlace(EditBag bag, Exception prev) {
+        try {
+            bag.apply(op);
+            return prev;
+        } catch (Exception | Error ex) {
+            LOG.log(Level.INFO, "Failed applying edits to " + bag.document(), ex);
+            return chain(prev, ex instanceof Exception ? (Exception) ex : new IllegalStateException(ex));
+        }
+    }
+
+    private static Exception chain(Exception prev, Exception ex) {
+        if (prev == null) {
+            return ex;
+        } else if (ex != null) {
+            prev.addSuppressed(ex);
+        }
+        return prev;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(getClass().getSimpleName()).append('(');
+        for (StyledDocument doc : order) {
+            sb.append("\n  ").append(bags.get(doc));
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.editor.edit;
+
+import java.awt.EventQueue;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.nemesis.editor.ops.DocumentOperator;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class EditBatchTest {
+
+    private static final String TEXT = "foo : bar baz;\nbar : 'x';\nbaz : bar+;\n";
+
+    @Test
+    public void testCoalesceRemovesDuplicateAndNestedEdits() throws Exception {
+        StyledDocument doc = document(TEXT);
+        EditBag bag = new EditBag(doc, new Applier());
+        bag.replace(6, 3, "quux");
+        bag.replace(6, 3, "quux");
+        // Nested in the replacement of 6-9
+        bag.replace(7, 1, "zzz");
+        bag.replace(32, 3, "quux");
+        bag.replace(32, 3, "quux");
+        bag.insert(0, "<");
+        bag.delete(10, 3);
+        // Nested in the deletion of 10-13
+        bag.delete(11, 1);
+        assertEquals(4, bag.coalesce(), bag::toString);
+        bag.apply(DocumentOperator.builder().build());
+        assertEquals("<foo : quux ;\nbar : 'x';\nbaz : quux+;\n", doc.getText(0, doc.getLength()));
+    }
+
+    @Test
+    public void testBatchAppliesToAllDocuments() throws Exception {
+        StyledDocument a = document(TEXT);
+        StyledDocument b = document("x : bar;\n");
+        StyledDocument c = document("y : bar bar;\n");
+        EditBatch batch = new EditBatch(DocumentOperator.builder().build());
+        assertTrue(batch.isEmpty());
+        batch.bagFor(a).replace(6, 3, "quux").replace(32, 3, "quux");
+        batch.bagFor(b).replace(4, 3, "quux");
+        batch.bagFor(c).replace(4, 3, "quux").replace(8, 3, "quux");
+        assertSame(batch.bagFor(a), batch.bagFor(a));
+        assertEquals(3, batch.documentCount());
+        batch.apply();
+        assertEquals("foo : quux baz;\nbar : 'x';\nbaz : quux+;\n", a.getText(0, a.getLength()));
+        assertEquals("x : quux;\n", b.getText(0, b.getLength()));
+        assertEquals("y : quux quux;\n", c.getText(0, c.getLength()));
+    }
+
+    @Test
+    public void testBatchAppliedFromEventThread() throws Exception {
+        StyledDocument a = document("x : bar;\n");
+        StyledDocument b = document("y : bar bar;\n");
+        EditBatch batch = new EditBatch();
+        batch.bagFor(a).replace(4, 3, "quux");
+        batch.bagFor(b).replace(4, 3, "quux").replace(8, 3, "quux");
+        Exception[] thrown = new Exception[1];
+        EventQueue.invokeAndWait(() -> {
+            try {
+                batch.apply();
+            } catch (Exception ex) {
+                thrown[0] = ex;
+            }
+        });
+        if (thrown[0] != null) {
+            throw thrown[0];
+        }
+        assertEquals("x : quux;\n", a.getText(0, a.getLength()));
+        assertEquals("y : quux quux;\n", b.getText(0, b.getLength()));
+    }
+
+    private static StyledDocument document(String text) throws BadLocationException {
+        StyledDocument doc = new DefaultStyledDocument();
+        doc.insertString(0, text, null);
+        return doc;
+    }
+}
@@ -19,6 +19,7 @@ import com.mastfrog.util.collections.CollectionUtils;
 import com.mastfrog.util.collections.IntSet;
 import java.io.Serializable;
 import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -33,10 +34,10 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.function.Predicate;
 import org.nemesis.data.SemanticRegions.SemanticRegionImpl;
 import org.nemesis.data.impl.ArrayUtil;
-import org.nemesis.data.impl.SizedArrayValueSupplier;
 
 /**
  * A collection of nestable semantic regions, which have some (optional) data
@@ -96,6 +97,9 @@ public final class SemanticRegions<T> implements Iterable<SemanticRegion<T>>, Se
     private int size;
     private boolean hasNesting = false;
     private int firstUnsortedEndsEntry = -1;
+    // The index of the region immediately containing each region, or -1,
+    // computed on demand and discarded when a region is added
+    private transient volatile int[] parents;
 
     public SemanticRegions<T> flatten(Function<List<? extends T>, T> coalescer) {
         if (!hasNesting) {
@@ -133,10 +137,10 @@ public final class SemanticRegions<T> implements Iterable<SemanticRegion<T>>, Se
     }
 
     public SemanticRegions<T> withDeletion(int chars, int atPosition) {
-        if (chars == 0 || size == 0 || atPosition > ends[size - 1]) {
+        if (chars == 0 || size == 0 || atPosition > maxEnd()) {
             return this;
         }
-        if (atPosition <= starts[0] && atPosition + chars >= ends[size - 1]) {
+        if (atPosition <= starts[0] && atPosition + chars >= maxEnd()) {
             return empty();
         }
         int deletionEnd = atPosition + chars;
@@ -145,9 +149,12 @@ public final class SemanticRegions<T> implements Iterable<SemanticRegion<T>>, Se
         int[] newEnds = new int[size];
         T[] newKeys = (T[]) CollectionUtils.genericArray(keys.getClass().getComponentType(), newSize);
         int fiu = firstUnsortedEndsEntry;
+        boolean boundaryDeleted = false;
         for (int i = 0, cursor = 0; i < size; i++, cursor++) {
             int start = starts[i];
             int end = ends[i];
+            boundaryDeleted |= (start > atPosition && start < deletionEnd)
+                    || (end > atPosition && end < deletionEnd);
             if (atPosition <= start && deletionEnd >= end) {
                 cursor--;
                 newSize--;
@@ -221,58 +228,59 @@ public final class SemanticRegions<T> implements Iterable<SemanticRegion<T>>, Se
         }
         SemanticRegions<T> result = new SemanticRegions<>(newStarts, newEnds, newKeys, newSize, fiu, hasNesting);
         assert result.keyType() == keys.getClass().getComponentType() : "Key type wrong: " + result.keyType();
+        if (newSize == size && !boundaryDeleted) {
+            // Every region either contains the deleted span or lies wholly
+            // outside it, so offsets moved but nesting did not change
+            result.parents = parents;
+        }
         return result;
     }
 
     public SemanticRegions<T> withInsertion(int chars, int atPosition) {
-        if (chars == 0 || size == 0 || atPosition > ends[size - 1]) {
+        if (chars == 0 || size == 0 || atPosition > maxEnd()) {
             return this;
         }
         assert chars > 0;
         assert atPosition >= 0;
+        int[] newStarts = new int[size];
+        int[] newEnds = new int[size];
         if (atPosition <= starts[0]) { // just shift everything by chars
-            int[] newStarts = new int[size];
-            int[] newEnds = new int[size];
             for (int i = 0; i < size; i++) {
                 newStarts[i] = starts[i] + chars;
                 newEnds[i] = ends[i] + chars;
             }
-            return new SemanticRegions<>(newStarts, newEnds, keys, size, firstUnsortedEndsEntry, hasNesting);
-        } else if (atPosition >= starts[size - 1] && atPosition <= ends[size - 1]) {
-            int[] newStarts = Arrays.copyOf(starts, size);
-            int[] newEnds = Arrays.copyOf(ends, size);
-            newEnds[size - 1] += chars;
-            return new SemanticRegions<>(newStarts, newEnds, keys, size, firstUnsortedEndsEntry, hasNesting);
-        } else if (atPosition > starts[0] && atPosition < ends[0]) {
-            int[] newStarts = new int[size];
-            int[] newEnds = new int[size];
-            newStarts[0] = starts[0];
-            newEnds[0] = ends[0] + chars;
-            for (int i = 1; i < size; i++) {
-                newStarts[i] = starts[i] + chars;
-                newEnds[i] = ends[i] + chars;
-            }
-            return new SemanticRegions<>(newStarts, newEnds, keys, size, firstUnsortedEndsEntry, hasNesting);
-        }
-        SemanticRegion<T> target = at(atPosition);
-        int[] newStarts = Arrays.copyOf(starts, size);
-        int[] newEnds = Arrays.copyOf(ends, size);
-        if (target == null) {
-            for (int i = 0; i < size; i++) {
-                if (newStarts[i] >= atPosition) {
-                    newStarts[i] += chars;
-                    newEnds[i] += chars;
-                }
-            }
         } else {
-            int ix = target.index();
-            newEnds[ix] += chars;
-            for (int i = ix + 1; i < size; i++) {
+            System.arraycopy(starts, 0, newStarts, 0, size);
+            System.arraycopy(ends, 0, newEnds, 0, size);
+            int target = atPosition >= starts[size - 1] && atPosition <= ends[size - 1]
+                    ? size - 1
+                    : innermostIndexAt(atPosition);
+            for (int i = lastIndexStartingAtOrBefore(atPosition - 1) + 1; i < size; i++) {
                 newStarts[i] += chars;
                 newEnds[i] += chars;
             }
+            // The region the insertion is in, and those containing it, grow
+            // rather than move
+            for (int p = target; p >= 0; p = parentIndex(p)) {
+                newStarts[p] = starts[p];
+                newEnds[p] = ends[p] + chars;
+            }
+        }
+        SemanticRegions<T> result = new SemanticRegions<>(newStarts, newEnds, keys, size, firstUnsortedEndsEntry, hasNesting);
+        // Offsets moved, but no region's parent changed
+        result.parents = parents;
+        return result;
+    }
+
+    private int maxEnd() {
+        // The last outermost region ends last
+        int ix = size - 1;
+        if (hasNesting) {
+            for (int p = parentIndex(ix); p >= 0; p = parentIndex(p)) {
+                ix = p;
+            }
         }
-        return new SemanticRegions<>(newStarts, newEnds, keys, size, firstUnsortedEndsEntry, hasNesting);
+        return ends[ix];
     }
 
     public SemanticRegion<T> nearestTo(int position) {
@@ -584,34 +592,365 @@ public final class SemanticRegions<T> implements Iterable<SemanticRegion<T>>, Se
     }
 
     public List<T> keysAtPoint(int pos) {
-        LinkedList<T> result = new LinkedList<>();
+        List<T> result = new ArrayList<>(4);
         keysAtPoint(pos, result);
         return result;
     }
 
+    /**
+     * Add the keys of all regions containing a position to a collection,
+     * outermost first.
+     *
+     * @param pos A position
+     * @param into A collection
+     */
     public void keysAtPoint(int pos, Collection<? super T> into) {
-        SemanticRegion<T> reg = at(pos);
-        if (reg != null) {
-            SemanticRegion<T> outer = reg.outermost();
-            if (outer != null) {
-                reg = outer;
-            }
-            reg.keysAtPoint(pos, into);
+        int ix = innermostIndexAt(pos);
+        if (ix >= 0) {
+            addKeysOutermostFirst(ix, into);
+        }
+    }
+
+    private void addKeysOutermostFirst(int index, Collection<? super T> into) {
+        int parent = parentIndex(index);
+        if (parent >= 0) {
+            addKeysOutermostFirst(parent, into);
         }
+        into.add(keys == null ? null : keys[index]);
     }
 
     int indexAtPoint(int pos) {
+        return innermostIndexAt(pos);
+    }
+
+    /**
+     * Get the index of the innermost region containing a position, or -1 if
+     * there is none, without allocating anything. This is the cheapest way to
+     * query a region set from code which runs on every caret movement or
+     * repaint; use <code>startOf()</code>, <code>endOf()</code>,
+     * <code>keyOf()</code> and <code>parentIndex()</code> to examine the
+     * result.
+     *
+     * @param pos A position
+     * @return An index or -1
+     */
+    public int innermostIndexAt(int pos) {
+        if (size == 0 || pos < starts[0]) {
+            return -1;
+        }
+        int ix = lastIndexStartingAtOrBefore(pos);
         if (!hasNesting) {
-            return ArrayUtil.rangeBinarySearch(pos, starts, new MES(), size);
+            return ix >= 0 && ends[ix] > pos ? ix : -1;
+        }
+        // Regions cannot straddle each other, so any region containing pos
+        // which starts before the last one starting at or before it must be
+        // one of that region's ancestors; the first one we hit is the
+        // innermost
+        int[] par = parents();
+        while (ix >= 0 && ends[ix] <= pos) {
+            ix = par[ix];
+        }
+        return ix;
+    }
+
+    /**
+     * Collect the indices of all regions containing a position, innermost
+     * first, into an array, without allocating anything.
+     *
+     * @param pos A position
+     * @param into An array to write into
+     * @return The number of regions containing the position, which may be
+     * greater than the length of the array, in which case only the innermost
+     * <code>into.length</code> regions are written
+     */
+    public int indicesAt(int pos, int[] into) {
+        int ix = innermostIndexAt(pos);
+        int count = 0;
+        while (ix >= 0) {
+            if (count < into.length) {
+                into[count] = ix;
+            }
+            count++;
+            ix = parentIndex(ix);
+        }
+        return count;
+    }
+
+    /**
+     * Visit all regions containing a position, innermost first, passing the
+     * index, bounds, nesting depth and key of each to the visitor, without
+     * allocating anything.
+     *
+     * @param pos A position
+     * @param visitor A visitor, which may return false to stop
+     * @return The number of regions visited
+     */
+    public int visitRegionsAt(int pos, RegionVisitor<? super T> visitor) {
+        int ix = innermostIndexAt(pos);
+        if (ix < 0) {
+            return 0;
+        }
+        int depth = depthOf(ix);
+        int count = 0;
+        while (ix >= 0) {
+            count++;
+            if (!visitor.visit(ix, starts[ix], ends[ix], depth--, keys == null ? null : keys[ix])) {
+                break;
+            }
+            ix = parentIndex(ix);
+        }
+        return count;
+    }
+
+    /**
+     * Callback for visiting regions by index.
+     *
+     * @param <T> The key type
+     */
+    @FunctionalInterface
+    public interface RegionVisitor<T> {
+
+        /**
+         * Visit one region.
+         *
+         * @param index The index of the region
+         * @param start The start offset
+         * @param end The end offset, exclusive
+         * @param depth The nesting depth, 0 being outermost
+         * @param key The key, if any
+         * @return true to continue visiting
+         */
+        boolean visit(int index, int start, int end, int depth, T key);
+    }
+
+    /**
+     * Get the index of the region immediately containing the region at an
+     * index.
+     *
+     * @param index An index
+     * @return The parent's index, or -1 if it is outermost
+     */
+    public int parentIndex(int index) {
+        checkIndex(index);
+        return hasNesting ? parents()[index] : -1;
+    }
+
+    /**
+     * Get the nesting depth of the region at an index, 0 being outermost.
+     *
+     * @param index An index
+     * @return The depth
+     */
+    public int depthOf(int index) {
+        checkIndex(index);
+        if (!hasNesting) {
+            return 0;
+        }
+        int[] par = parents();
+        int result = 0;
+        for (int p = par[index]; p >= 0; p = par[p]) {
+            result++;
+        }
+        return result;
+    }
+
+    public int startOf(int index) {
+        checkIndex(index);
+        return starts[index];
+    }
+
+    public int endOf(int index) {
+        checkIndex(index);
+        return ends[index];
+    }
+
+    public T keyOf(int index) {
+        checkIndex(index);
+        return keys == null ? null : keys[index];
+    }
+
+    /**
+     * Visit the indices of all regions which overlap the range
+     * <code>start:end</code> (end exclusive), in order of their start
+     * positions, outermost first where starts are equal, without allocating
+     * anything. This is the query to use for painting highlights in a
+     * viewport or updating folds in a changed range - it costs a binary search
+     * plus the number of regions found, rather than a scan of the whole
+     * collection.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @param c A consumer of indices
+     * @return The number of regions visited
+     * @throws IllegalArgumentException if end &lt; start
+     */
+    public int visitOverlapping(int start, int end, IntConsumer c) {
+        checkRange(start, end);
+        if (size == 0 || start == end || end <= starts[0]) {
+            return 0;
+        }
+        int count = 0;
+        // A region starting before the range can only overlap it by
+        // containing its start, so those are the ancestors of (or are)
+        // the innermost region at the start
+        int ix = innermostIndexAt(start);
+        if (ix >= 0) {
+            count = visitChainOutermostFirst(ix, start, c);
+        }
+        for (int i = lastIndexStartingAtOrBefore(start - 1) + 1; i < size && starts[i] < end; i++) {
+            c.accept(i);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Visit the indices of all regions which lie entirely within the range
+     * <code>start:end</code> (end exclusive), in order of their start
+     * positions, without allocating anything.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @param c A consumer of indices
+     * @return The number of regions visited
+     * @throws IllegalArgumentException if end &lt; start
+     */
+    public int visitContainedIn(int start, int end, IntConsumer c) {
+        checkRange(start, end);
+        if (size == 0 || start == end) {
+            return 0;
+        }
+        int count = 0;
+        // Regions starting in the range which are not contained in it all
+        // contain its end, so there are at most as many as the nesting depth
+        for (int i = lastIndexStartingAtOrBefore(start - 1) + 1; i < size && starts[i] < end; i++) {
+            if (ends[i] <= end) {
+                c.accept(i);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Visit the indices of all regions which entirely contain the range
+     * <code>start:end</code> (end exclusive), outermost first, without
+     * allocating anything. An empty range is treated as the position
+     * <code>start</code>, with the same result as <code>indicesAt()</code>.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @param c A consumer of indices
+     * @return The number of regions visited
+     * @throws IllegalArgumentException if end &lt; start
+     */
+    public int visitContaining(int start, int end, IntConsumer c) {
+        checkRange(start, end);
+        int ix = innermostIndexAt(start);
+        while (ix >= 0 && ends[ix] < end) {
+            ix = parentIndex(ix);
         }
-        if (firstUnsortedEndsEntry > 0) {
-            int lastSortedEnd = ends[firstUnsortedEndsEntry - 1];
-            if (lastSortedEnd > pos) {
-                return ArrayUtil.rangeBinarySearch(pos, 0, lastSortedEnd - 1, starts, new MES(), size);
+        return ix < 0 ? 0 : visitChainOutermostFirst(ix, Integer.MAX_VALUE, c);
+    }
+
+    /**
+     * Get all regions which overlap the range <code>start:end</code> (end
+     * exclusive), in order of their start positions.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @return A list of regions
+     */
+    public List<SemanticRegion<T>> overlapping(int start, int end) {
+        List<SemanticRegion<T>> result = new ArrayList<>();
+        visitOverlapping(start, end, ix -> result.add(new SemanticRegionImpl(ix, -1)));
+        return result;
+    }
+
+    /**
+     * Get all regions which lie entirely within the range
+     * <code>start:end</code> (end exclusive), in order of their start
+     * positions.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @return A list of regions
+     */
+    public List<SemanticRegion<T>> containedIn(int start, int end) {
+        List<SemanticRegion<T>> result = new ArrayList<>();
+        visitContainedIn(start, end, ix -> result.add(new SemanticRegionImpl(ix, -1)));
+        return result;
+    }
+
+    /**
+     * Get all regions which entirely contain the range <code>start:end</code>
+     * (end exclusive), outermost first.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @return A list of regions
+     */
+    public List<SemanticRegion<T>> containing(int start, int end) {
+        List<SemanticRegion<T>> result = new ArrayList<>(4);
+        visitContaining(start, end, ix -> result.add(new SemanticRegionImpl(ix, -1)));
+        return result;
+    }
+
+    private int visitChainOutermostFirst(int index, int startingBefore, IntConsumer c) {
+        int parent = parentIndex(index);
+        int count = parent < 0 ? 0 : visitChainOutermostFirst(parent, startingBefore, c);
+        if (starts[index] < startingBefore) {
+            c.accept(index);
+            count++;
+        }
+        return count;
+    }
+
+    private static void checkRange(int start, int end) {
+        if (end < start) {
+            throw new IllegalArgumentException("End before start: " + start + ":" + end);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+        }
+    }
+
+    private int lastIndexStartingAtOrBefore(int pos) {
+        int lo = 0;
+        int hi = size - 1;
+        int result = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= pos) {
+                result = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
             }
         }
-        int[] id = indexAndDepthAt(pos);
-        return id[0];
+        return result;
+    }
+
+    private int[] parents() {
+        int[] result = parents;
+        if (result == null) {
+            result = new int[size];
+            for (int i = 0; i < size; i++) {
+                // The parent is the previous region or one of its ancestors;
+                // since regions do not straddle, it is the first of those
+                // which ends at or after this one does
+                int p = i - 1;
+                while (p >= 0 && ends[p] < ends[i]) {
+                    p = result[p];
+                }
+                result[i] = p;
+            }
+            parents = result;
+        }
+        return result;
     }
 
     boolean checkInvariants() {
@@ -682,6 +1021,7 @@ public final class SemanticRegions<T> implements Iterable<SemanticRegion<T>>, Se
             }
         }
         maybeGrow(size + 1);
+        parents = null;
         starts[size] = start;
         ends[size] = end;
         if (keys != null) {
@@ -705,19 +1045,13 @@ public final class SemanticRegions<T> implements Iterable<SemanticRegion<T>>, Se
      */
     @Override
     public SemanticRegion<T> at(int pos) {
-        int[] id = indexAndDepthAt(pos);
-        if (id[0] == -1) {
-            return null;
-        }
-        return new SemanticRegionImpl(id[0], id[1]);
+        int ix = innermostIndexAt(pos);
+        return ix < 0 ? null : new SemanticRegionImpl(ix, depthOf(ix));
     }
 
     int[] indexAndDepthAt(int pos) {
-        if (!hasNesting) {
-            int ix = ArrayUtil.rangeBinarySearch(pos, starts, new MES(), size);
-            return new int[]{ix, ix == 0 ? 0 : -1};
-        }
-        return ArrayUtil.nestingBinarySearch(pos, starts, ends, size, hasNesting, firstUnsortedEndsEntry);
+        int ix = innermostIndexAt(pos);
+        return new int[]{ix, ix < 0 ? -1 : depthOf(ix)};
     }
 
     private void grow(int targetArrayLength) {
@@ -1120,14 +1454,8 @@ public final class SemanticRegions<T> implements Iterable<SemanticRegion<T>>, Se
             if (depth == 0) {
                 return null;
             }
-            int targetIndex = -1;
-            for (int i = index - 1; i >= 0; i--) {
-                if (starts[i] <= start() && ends[i] >= end()) {
-                    targetIndex = i;
-                    break;
-                }
-            }
-            return targetIndex == -1 ? null : new SemanticRegionImpl(targetIndex, -1);
+            int targetIndex = parentIndex(index);
+            return targetIndex == -1 ? null : new SemanticRegionImpl(targetIndex, depth > 0 ? depth - 1 : -1);
         }
 
         @Override
@@ -1136,29 +1464,16 @@ public final class SemanticRegions<T> implements Iterable<SemanticRegion<T>>, Se
                 return null;
             }
             int targetIndex = -1;
-            for (int i = index - 1; i >= 0; i--) {
-                if (starts[i] <= start() && ends[i] >= end()) {
-                    targetIndex = i;
-                }
+            for (int p = parentIndex(index); p >= 0; p = parentIndex(p)) {
+                targetIndex = p;
             }
-            return targetIndex == -1 ? null : new SemanticRegionImpl(targetIndex, -1);
+            return targetIndex == -1 ? null : new SemanticRegionImpl(targetIndex, 0);
         }
 
         @Override
         public int nestingDepth() {
             if (depth == -1) {
-                if (index == 0) {
-                    return 0;
-                }
-                int start = index - 1;
-                int computedDepth = 0;
-                while (start >= 0) {
-                    if (ends[start] >= end()) {
-                        computedDepth++;
-                    }
-                    start--;
-                }
-                return depth = computedDepth;
+                return depth = depthOf(index);
             }
             return depth;
         }
@@ -1235,17 +1550,4 @@ public final class SemanticRegions<T> implements Iterable<SemanticRegion<T>>, Se
             return sb.toString();
         }
     }
-
-    private final class MES implements SizedArrayValueSupplier {
-
-        @Override
-        public int get(int index) {
-            return ends[index];
-        }
-
-        @Override
-        public int size() {
-            return size;
-        }
-    }
 }
@@ -0,0 +1,494 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.data.named;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A graph of references between the items in a NamedSemanticRegions, such as
+ * which rules in a grammar reference which others, whose nodes are the
+ * <i>indices</i> of those items, stored as rows of bits. Closure,
+ * reachability and cycle queries are answered by operations on whole 64-bit
+ * words: the transitive closure in both directions is computed once, on
+ * first use, in a single pass over the strongly connected components of the
+ * graph, after which reachability between two items is a single bit test and
+ * the closure of an item a copy of one row. Use this in preference to a
+ * string-keyed graph when analyzing whole grammars, such as finding unused or
+ * recursive rules.
+ * <p>
+ * Instances are immutable; the closures are computed lazily and are safe to
+ * compute concurrently (at worst, twice).
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class IndexedReferenceGraph<K extends Enum<K>> {
+
+    private final NamedSemanticRegions<K> regions;
+    private final int size;
+    private final int words;
+    private final long[] outbound;
+    private final long[] inbound;
+    private volatile long[] closure;
+    private volatile long[] reverseClosure;
+
+    private IndexedReferenceGraph(NamedSemanticRegions<K> regions, long[] outbound, long[] inbound) {
+        this.regions = regions;
+        this.size = regions.size();
+        this.words = wordsFor(size);
+        this.outbound = outbound;
+        this.inbound = inbound;
+    }
+
+    /**
+     * Create a graph over the items in a NamedSemanticRegions.
+     *
+     * @param <K> The kind type
+     * @param regions The items which are the nodes of the graph
+     * @param children Provides the names each name references; names which
+     * are not present in the regions are ignored
+     * @return A graph
+     */
+    public static <K extends Enum<K>> IndexedReferenceGraph<K> create(NamedSemanticRegions<K> regions,
+            Function<? super String, ? extends Iterable<String>> children) {
+        int size = regions.size();
+        int words = wordsFor(size);
+        long[] outbound = new long[size * words];
+        long[] inbound = new long[size * words];
+        for (int i = 0; i < size; i++) {
+            Iterable<String> kids = children.apply(regions.forIndex(i).name());
+            if (kids == null) {
+                continue;
+            }
+            for (String kid : kids) {
+                int k = regions.indexOf(kid);
+                if (k >= 0) {
+                    outbound[i * words + (k >>> 6)] |= 1L << k;
+                    inbound[k * words + (i >>> 6)] |= 1L << i;
+                }
+            }
+        }
+        return new IndexedReferenceGraph<>(regions, outbound, inbound);
+    }
+
+    private static int wordsFor(int size) {
+        return (size + 63) >>> 6;
+    }
+
+    /**
+     * Get the items which are the nodes of this graph.
+     *
+     * @return The regions
+     */
+    public NamedSemanticRegions<K> regions() {
+        return regions;
+    }
+
+    /**
+     * Get the number of nodes in this graph.
+     *
+     * @return The size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the index of a name, or -1 if it is not a node of this graph.
+     *
+     * @param name A name
+     * @return An index
+     */
+    public int indexOf(String name) {
+        return regions.indexOf(name);
+    }
+
+    /**
+     * Get the name of the node at an index.
+     *
+     * @param index An index
+     * @return A name
+     */
+    public String nameOf(int index) {
+        return regions.forIndex(index).name();
+    }
+
+    /**
+     * Get the names of the nodes set in a bit set returned by this graph, in
+     * index (sorted) order.
+     *
+     * @param indices A bit set
+     * @return A set of names
+     */
+    public Set<String> names(BitSet indices) {
+        Set<String> result = new LinkedHashSet<>(indices.cardinality());
+        for (int i = indices.nextSetBit(0); i >= 0 && i < size; i = indices.nextSetBit(i + 1)) {
+            result.add(nameOf(i));
+        }
+        return result;
+    }
+
+    public boolean hasEdge(int from, int to) {
+        checkIndex(from);
+        checkIndex(to);
+        return test(outbound, from, to);
+    }
+
+    /**
+     * Get the nodes a node references directly.
+     *
+     * @param index A node
+     * @return A new bit set
+     */
+    public BitSet children(int index) {
+        return row(outbound, index);
+    }
+
+    /**
+     * Get the nodes which reference a node directly.
+     *
+     * @param index A node
+     * @return A new bit set
+     */
+    public BitSet parents(int index) {
+        return row(inbound, index);
+    }
+
+    public int outboundCount(int index) {
+        return count(outbound, index);
+    }
+
+    public int inboundCount(int index) {
+        return count(inbound, index);
+    }
+
+    /**
+     * Get all nodes reachable from a node by following one or more edges -
+     * which includes the node itself only if it is recursive.
+     *
+     * @param index A node
+     * @return A new bit set
+     */
+    public BitSet closureOf(int index) {
+        return row(closure(), index);
+    }
+
+    /**
+     * Get all nodes from which a node is reachable by following one or more
+     * edges - which includes the node itself only if it is recursive.
+     *
+     * @param index A node
+     * @return A new bit set
+     */
+    public BitSet reverseClosureOf(int index) {
+        return row(reverseClosure(), index);
+    }
+
+    public int closureSize(int index) {
+        return count(closure(), index);
+    }
+
+    public int reverseClosureSize(int index) {
+        return count(reverseClosure(), index);
+    }
+
+    /**
+     * Determine if one node is reachable from another by following one or
+     * more edges.
+     *
+     * @param from The starting node
+     * @param to The target node
+     * @return true if it is reachable
+     */
+    public boolean isReachable(int from, int to) {
+        checkIndex(from);
+        checkIndex(to);
+        return test(closure(), from, to);
+    }
+
+    /**
+     * Determine if a node can reach itself - directly or indirectly
+     * references itself.
+     *
+     * @param index A node
+     * @return true if it is part of a cycle
+     */
+    public boolean isRecursive(int index) {
+        return isReachable(index, index);
+    }
+
+    /**
+     * Get all nodes which are part of some cycle.
+     *
+     * @return A new bit set
+     */
+    public BitSet recursive() {
+        long[] cl = closure();
+        BitSet result = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            if (test(cl, i, i)) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the nodes which are mutually reachable with a node - the members of
+     * the cycles it participates in, including itself - or the empty set if
+     * it is not recursive.
+     *
+     * @param index A node
+     * @return A new bit set
+     */
+    public BitSet cycleContaining(int index) {
+        checkIndex(index);
+        long[] cl = closure();
+        long[] rev = reverseClosure();
+        long[] result = new long[words];
+        int base = index * words;
+        for (int w = 0; w < words; w++) {
+            result[w] = cl[base + w] & rev[base + w];
+        }
+        return BitSet.valueOf(result);
+    }
+
+    /**
+     * Get the nodes which nothing references.
+     *
+     * @return A new bit set
+     */
+    public BitSet topLevelOrOrphans() {
+        BitSet result = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            if (isEmpty(inbound, i)) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the nodes which cannot be reached from a node, other than the node
+     * itself.
+     *
+     * @param index A node
+     * @return A new bit set
+     */
+    public BitSet unreachableFrom(int index) {
+        BitSet result = closureOf(index);
+        result.set(index);
+        result.flip(0, size);
+        return result;
+    }
+
+    /**
+     * Determine if every node in the reverse closure of a node is present in a
+     * set of nodes - that is, if the node would become unused were those nodes
+     * removed.
+     *
+     * @param index A node
+     * @param others A set of nodes
+     * @return true if only nodes in the passed set can reach the node
+     */
+    public boolean isReachableOnlyFrom(int index, BitSet others) {
+        checkIndex(index);
+        long[] rev = reverseClosure();
+        long[] o = others.toLongArray();
+        int base = index * words;
+        for (int w = 0; w < words; w++) {
+            long mask = w < o.length ? o[w] : 0;
+            if ((rev[base + w] & ~mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+        }
+    }
+
+    private boolean test(long[] rows, int row, int bit) {
+        return (rows[row * words + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    private boolean isEmpty(long[] rows, int row) {
+        int base = row * words;
+        for (int w = 0; w < words; w++) {
+            if (rows[base + w] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int count(long[] rows, int row) {
+        checkIndex(row);
+        int base = row * words;
+        int result = 0;
+        for (int w = 0; w < words; w++) {
+            result += Long.bitCount(rows[base + w]);
+        }
+        return result;
+    }
+
+    private BitSet row(long[] rows, int row) {
+        checkIndex(row);
+        int base = row * words;
+        return BitSet.valueOf(Arrays.copyOfRange(rows, base, base + words));
+    }
+
+    private long[] closure() {
+        long[] result = closure;
+        if (result == null) {
+            closure = result = transitiveClosure(outbound, size, words);
+        }
+        return result;
+    }
+
+    private long[] reverseClosure() {
+        long[] result = reverseClosure;
+        if (result == null) {
+            reverseClosure = result = transitiveClosure(inbound, size, words);
+        }
+        return result;
+    }
+
+    private static int nextSetBit(long[] rows, int row, int words, int from) {
+        int w = from >>> 6;
+        if (w >= words) {
+            return -1;
+        }
+        int base = row * words;
+        long bits = rows[base + w] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++w == words) {
+                return -1;
+            }
+            bits = rows[base + w];
+        }
+    }
+
+    /**
+     * Computes the transitive closure of an adjacency matrix using Tarjan's
+     * strongly connected components algorithm (iteratively, so deep grammars
+     * cannot overflow the stack): components are completed in reverse
+     * topological order, so when one is popped the closure of every other
+     * component it references is already known, and its own closure is the
+     * union of those rows, plus its members if it is a cycle - one OR of a
+     * row per edge leaving the component.
+     */
+    static long[] transitiveClosure(long[] adjacency, int size, int words) {
+        long[] result = new long[size * words];
+        int[] index = new int[size];
+        int[] low = new int[size];
+        int[] cursor = new int[size];
+        int[] stack = new int[size];
+        int[] calls = new int[size];
+        boolean[] onStack = new boolean[size];
+        long[] scratch = new long[words];
+        Arrays.fill(index, -1);
+        int counter = 0;
+        int sp = 0;
+        for (int root = 0; root < size; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            int csp = 0;
+            index[root] = low[root] = counter++;
+            stack[sp++] = root;
+            onStack[root] = true;
+            calls[csp++] = root;
+            while (csp > 0) {
+                int v = calls[csp - 1];
+                int w = nextSetBit(adjacency, v, words, cursor[v]);
+                if (w >= 0) {
+                    cursor[v] = w + 1;
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        calls[csp++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+                csp--;
+                if (csp > 0) {
+                    int caller = calls[csp - 1];
+                    low[caller] = Math.min(low[caller], low[v]);
+                }
+                if (low[v] != index[v]) {
+                    continue;
+                }
+                int bottom = sp - 1;
+                while (stack[bottom] != v) {
+                    bottom--;
+                }
+                Arrays.fill(scratch, 0);
+                for (int i = bottom; i < sp; i++) {
+                    int m = stack[i];
+                    for (int c = nextSetBit(adjacency, m, words, 0); c >= 0; c = nextSetBit(adjacency, m, words, c + 1)) {
+                        scratch[c >>> 6] |= 1L << c;
+                        // A referenced node still on the stack is in this
+                        // component; any other is in a finished one
+                        if (!onStack[c]) {
+                            int base = c * words;
+                            for (int x = 0; x < words; x++) {
+                                scratch[x] |= result[base + x];
+                            }
+                        }
+                    }
+                }
+                if (sp - bottom > 1) {
+                    for (int i = bottom; i < sp; i++) {
+                        scratch[stack[i] >>> 6] |= 1L << stack[i];
+                    }
+                }
+                for (int i = bottom; i < sp; i++) {
+                    int m = stack[i];
+                    onStack[m] = false;
+                    System.arraycopy(scratch, 0, result, m * words, words);
+                }
+                sp = bottom;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(getClass().getSimpleName()).append('(');
+        for (int i = 0; i < size; i++) {
+            BitSet kids = children(i);
+            if (!kids.isEmpty()) {
+                sb.append("\n  ").append(nameOf(i)).append(" -> ").append(names(kids));
+            }
+        }
+        return sb.append(')').toString();
+    }
+}
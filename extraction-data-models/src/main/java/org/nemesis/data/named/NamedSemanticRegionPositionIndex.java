@@ -15,6 +15,9 @@
  */
 package org.nemesis.data.named;
 
+import java.util.List;
+import java.util.function.IntConsumer;
+
 /**
  * Position-based index into a NamedSemanticRegions, allowing lookup based on
  * start position, end position or containment of a position.
@@ -64,4 +67,59 @@ public interface NamedSemanticRegionPositionIndex<K extends Enum<K>> extends Ite
      * @return A region, if any such exists
      */
     public NamedSemanticRegion<K> nearestPreceding(int position);
+
+    /**
+     * Visit the regions which overlap the range <code>start:end</code> (end
+     * exclusive), in order of position, passing the index of each in the
+     * owning NamedSemanticRegions to the consumer.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @param c A consumer of indices
+     * @return The number of regions visited
+     */
+    public int visitOverlapping(int start, int end, IntConsumer c);
+
+    /**
+     * Visit the regions which lie entirely within the range
+     * <code>start:end</code> (end exclusive), in order of position, passing
+     * the index of each in the owning NamedSemanticRegions to the consumer.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @param c A consumer of indices
+     * @return The number of regions visited
+     */
+    public int visitContainedIn(int start, int end, IntConsumer c);
+
+    /**
+     * Get the regions which overlap the range <code>start:end</code> (end
+     * exclusive), in order of position.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @return A list of regions
+     */
+    public List<NamedSemanticRegion<K>> overlapping(int start, int end);
+
+    /**
+     * Get the regions which lie entirely within the range
+     * <code>start:end</code> (end exclusive), in order of position.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @return A list of regions
+     */
+    public List<NamedSemanticRegion<K>> containedIn(int start, int end);
+
+    /**
+     * Get the region which entirely contains the range <code>start:end</code>
+     * (end exclusive), if any - since regions do not overlap, there can be
+     * only one.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @return A region or null
+     */
+    public NamedSemanticRegion<K> containing(int start, int end);
 }
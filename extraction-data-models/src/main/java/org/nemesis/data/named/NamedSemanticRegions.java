@@ -17,7 +17,6 @@ package org.nemesis.data.named;
 
 import com.mastfrog.abstractions.list.IndexedResolvable;
 import com.mastfrog.bits.collections.BitSetSet;
-import com.mastfrog.util.collections.CollectionUtils;
 import static com.mastfrog.util.collections.CollectionUtils.setOf;
 import static com.mastfrog.util.strings.LevenshteinDistance.sortByDistance;
 import java.io.Externalizable;
@@ -40,6 +39,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.function.Predicate;
 import org.nemesis.data.IndexAddressable;
 import org.nemesis.data.IndexAddressable.NamedIndexAddressable;
@@ -223,51 +223,55 @@ public class NamedSemanticRegions<K extends Enum<K>> implements Iterable<NamedSe
      * the end of the last item
      */
     public NamedSemanticRegions<K> shiftedBy(int amount, int at) {
-        if (amount == 0 || size == 0 || at > ends.applyAsInt(size-1)) {
+        if (amount == 0 || size == 0 || at > lastEnd()) {
             return this;
         }
-        int[] newStarts = new int[size];
+        int[] newStarts = new int[names.length];
         int[] newEnds = null;
         if (!areRegionSizesNameLengths()) {
-            newEnds = new int[size];
+            newEnds = new int[names.length];
         }
-        K[] newKinds = CollectionUtils.genericArray(kindType(), size);
+        K[] newKinds = Arrays.copyOf(kinds, kinds.length);
         // XXX we could be creating a collision here - should
         // test if each new region overlaps the old one, and
         // skip it if so.  Only needed if amount < 0
-        int lastEnd = -1;
-        int skippedItems = 0;
         for (int i = 0; i < size; i++) {
+            int start = starts[i];
             int end = ends.applyAsInt(i);
-            if (lastEnd != -1 && amount < 0 && starts[i] + amount < lastEnd) {
-                skippedItems++;
-                continue;
-            }
             if (end < at) {
-                newStarts[i-skippedItems] = starts[i];
-                newKinds[i-skippedItems] = kinds[i];
+                newStarts[i] = start;
                 if (newEnds != null) {
-                    newEnds[i-skippedItems] = end;
+                    newEnds[i] = end;
                 }
-            } else if (starts[i] < at && end >= at) {
-                newStarts[i-skippedItems] = starts[i] + at;
-                newKinds[i-skippedItems] = kinds[i];
+            } else if (start < at) {
+                newStarts[i] = start;
                 if (newEnds != null) {
-                    newEnds[i-skippedItems] = end + at;
+                    newEnds[i] = end + amount;
                 }
-            } else if (starts[i] >= at) {
-                newStarts[i-skippedItems] = starts[i] + at;
-                newKinds[i-skippedItems] = kinds[i];
+            } else {
+                newStarts[i] = start + amount;
                 if (newEnds != null) {
-                    newEnds[i-skippedItems] = newEnds[i] + at;
+                    newEnds[i] = end + amount;
                 }
             }
         }
-        if (newEnds != null) {
-            return new NamedSemanticRegions<>(names, newStarts, newEnds, newKinds, size-skippedItems);
-        } else {
-            return new NamedSemanticRegions<>(names, newStarts, newKinds, size-skippedItems);
+        NamedSemanticRegions<K> result = newEnds != null
+                ? new NamedSemanticRegions<>(names, newStarts, newEnds, newKinds, size)
+                : new NamedSemanticRegions<>(names, newStarts, newKinds, size);
+        IndexImpl oldIndex = index;
+        if (oldIndex != null) {
+            result.index = oldIndex.shifted(result);
         }
+        return result;
+    }
+
+    private int lastEnd() {
+        // Names, not positions, are sorted
+        int result = -1;
+        for (int i = 0; i < size; i++) {
+            result = Math.max(result, ends.applyAsInt(i));
+        }
+        return result;
     }
 
     /**
@@ -1549,6 +1553,42 @@ public class NamedSemanticRegions<K extends Enum<K>> implements Iterable<NamedSe
         return index().regionAt(position);
     }
 
+    /**
+     * Get the regions which overlap the range <code>start:end</code> (end
+     * exclusive), in order of position.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @return A list of regions
+     */
+    public List<NamedSemanticRegion<K>> overlapping(int start, int end) {
+        return index().overlapping(start, end);
+    }
+
+    /**
+     * Get the regions which lie entirely within the range
+     * <code>start:end</code> (end exclusive), in order of position.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @return A list of regions
+     */
+    public List<NamedSemanticRegion<K>> containedIn(int start, int end) {
+        return index().containedIn(start, end);
+    }
+
+    /**
+     * Get the region which entirely contains the range
+     * <code>start:end</code> (end exclusive), if any.
+     *
+     * @param start The start of the range
+     * @param end The end of the range, exclusive
+     * @return A region or null
+     */
+    public NamedSemanticRegion<K> containing(int start, int end) {
+        return index().containing(start, end);
+    }
+
     private final class IndexImpl implements NamedSemanticRegionPositionIndex<K> {
 
         private final int[] starts;
@@ -1614,6 +1654,86 @@ public class NamedSemanticRegions<K extends Enum<K>> implements Iterable<NamedSe
             return ix < 0 ? null : new IndexNamedSemanticRegionImpl(indices[ix]);
         }
 
+        // Regions do not overlap, so the ends are in the same order as the
+        // starts, and the regions overlapping or within a range are a
+        // contiguous run of the sorted arrays
+        private int countLessThanOrEqualTo(int[] sorted, int value) {
+            int lo = 0;
+            int hi = sorted.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] <= value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        @Override
+        public int visitOverlapping(int start, int end, IntConsumer c) {
+            if (end <= start) {
+                return 0;
+            }
+            int first = countLessThanOrEqualTo(ends, start);
+            int count = 0;
+            for (int i = first; i < starts.length && starts[i] < end; i++) {
+                c.accept(indices[i]);
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public int visitContainedIn(int start, int end, IntConsumer c) {
+            if (end <= start) {
+                return 0;
+            }
+            int first = countLessThanOrEqualTo(starts, start - 1);
+            int count = 0;
+            for (int i = first; i < starts.length && ends[i] <= end; i++) {
+                c.accept(indices[i]);
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public List<NamedSemanticRegion<K>> overlapping(int start, int end) {
+            List<NamedSemanticRegion<K>> result = new ArrayList<>();
+            visitOverlapping(start, end, ix -> result.add(new IndexNamedSemanticRegionImpl(ix)));
+            return result;
+        }
+
+        @Override
+        public List<NamedSemanticRegion<K>> containedIn(int start, int end) {
+            List<NamedSemanticRegion<K>> result = new ArrayList<>();
+            visitContainedIn(start, end, ix -> result.add(new IndexNamedSemanticRegionImpl(ix)));
+            return result;
+        }
+
+        @Override
+        public NamedSemanticRegion<K> containing(int start, int end) {
+            int ix = countLessThanOrEqualTo(starts, start) - 1;
+            return ix >= 0 && ends[ix] >= Math.max(start + 1, end)
+                    ? new IndexNamedSemanticRegionImpl(indices[ix])
+                    : null;
+        }
+
+        IndexImpl shifted(NamedSemanticRegions<K> into) {
+            // Shifting preserves the order of regions, so the new instance's
+            // index is this one's, with offsets read from the new instance,
+            // rather than a new sort
+            int[] newStarts = new int[indices.length];
+            int[] newEnds = new int[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                newStarts[i] = into.starts[indices[i]];
+                newEnds[i] = into.ends.get(indices[i]);
+            }
+            return into.new IndexImpl(newStarts, newEnds, indices);
+        }
+
         @Override
         public Iterator<NamedSemanticRegion<K>> iterator() {
             return new IndexIter();
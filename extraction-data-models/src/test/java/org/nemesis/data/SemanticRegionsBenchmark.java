@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares point queries on a synthetic model of 100,000 nested regions, as
+ * highlighters and breadcrumbs perform them on every caret move. Not run as
+ * part of the build; run <code>main()</code> from the test classpath.
+ *
+ * @author Tim Boudreau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SemanticRegionsBenchmark {
+
+    private static final int REGIONS = 100_000;
+    private static final int QUERIES = 1024;
+    private SemanticRegions<String> regions;
+    private int[] positions;
+    private int[] indices;
+    private List<String> keys;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(61_003);
+        SemanticRegions.SemanticRegionsBuilder<String> bldr = SemanticRegions.builder(String.class);
+        // Top level blocks containing nested blocks of up to eight levels,
+        // roughly the shape of rule bodies with nested alternatives
+        int pos = 0;
+        int count = 0;
+        while (count < REGIONS) {
+            int length = 200 + rnd.nextInt(800);
+            count += addNested(bldr, rnd, pos, pos + length, 0, REGIONS - count);
+            pos += length + 1 + rnd.nextInt(10);
+        }
+        regions = bldr.build();
+        positions = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            positions[i] = rnd.nextInt(pos);
+        }
+        indices = new int[16];
+        keys = new ArrayList<>(16);
+    }
+
+    private static int addNested(SemanticRegions.SemanticRegionsBuilder<String> bldr, Random rnd,
+            int start, int end, int depth, int remaining) {
+        if (remaining <= 0 || end - start < 2) {
+            return 0;
+        }
+        bldr.add("r" + start + "-" + depth, start, end);
+        int added = 1;
+        if (depth < 8) {
+            int childStart = start + 1;
+            while (childStart < end - 2 && added < remaining && rnd.nextInt(3) != 0) {
+                int childEnd = childStart + 2 + rnd.nextInt(Math.max(1, (end - childStart) / 2));
+                if (childEnd > end) {
+                    break;
+                }
+                added += addNested(bldr, rnd, childStart, childEnd, depth + 1, remaining - added);
+                childStart = childEnd + rnd.nextInt(4);
+            }
+        }
+        return added;
+    }
+
+    @Benchmark
+    public void regionAt(Blackhole bh) {
+        for (int pos : positions) {
+            SemanticRegion<String> reg = regions.at(pos);
+            if (reg != null) {
+                bh.consume(reg.key());
+                bh.consume(reg.nestingDepth());
+            }
+        }
+    }
+
+    @Benchmark
+    public void innermostIndexAt(Blackhole bh) {
+        for (int pos : positions) {
+            int ix = regions.innermostIndexAt(pos);
+            if (ix >= 0) {
+                bh.consume(regions.keyOf(ix));
+                bh.consume(regions.depthOf(ix));
+            }
+        }
+    }
+
+    @Benchmark
+    public void ancestryAsRegions(Blackhole bh) {
+        for (int pos : positions) {
+            SemanticRegion<String> reg = regions.at(pos);
+            while (reg != null) {
+                bh.consume(reg.key());
+                reg = reg.parent();
+            }
+        }
+    }
+
+    @Benchmark
+    public void ancestryAsIndices(Blackhole bh) {
+        for (int pos : positions) {
+            int count = Math.min(indices.length, regions.indicesAt(pos, indices));
+            for (int i = 0; i < count; i++) {
+                bh.consume(regions.keyOf(indices[i]));
+            }
+        }
+    }
+
+    @Benchmark
+    public void keysAtPoint(Blackhole bh) {
+        for (int pos : positions) {
+            keys.clear();
+            regions.keysAtPoint(pos, keys);
+            bh.consume(keys.size());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SemanticRegionsBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
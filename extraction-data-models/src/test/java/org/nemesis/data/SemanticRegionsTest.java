@@ -711,6 +711,111 @@ public class SemanticRegionsTest {
         sanityCheckRegions(reg);
     }
 
+    @Test
+    public void testIndexQueries() {
+        SemanticRegions<String> reg = new SemanticRegions<>(String.class);
+        reg.add("a", 10, 20);
+        reg.add("h", 30, 100);
+        reg.add("h1", 30, 99);
+        reg.add("h2", 35, 60);
+        reg.add("h3", 35, 40);
+        reg.add("h4", 38, 40);
+        reg.add("h5", 45, 50);
+        reg.add("z", 110, 120);
+        assertEquals(-1, reg.innermostIndexAt(5));
+        assertEquals(-1, reg.innermostIndexAt(25));
+        assertEquals(-1, reg.innermostIndexAt(105));
+        assertEquals(5, reg.innermostIndexAt(39));
+        assertEquals(3, reg.innermostIndexAt(42));
+        assertEquals(2, reg.innermostIndexAt(60));
+        assertEquals(1, reg.innermostIndexAt(99));
+
+        int[] ixs = new int[3];
+        assertEquals(5, reg.indicesAt(39, ixs));
+        Assert.assertArrayEquals(new int[]{5, 4, 3}, ixs);
+        assertEquals(0, reg.indicesAt(105, ixs));
+        assertEquals(3, reg.parentIndex(6));
+        assertEquals(-1, reg.parentIndex(7));
+        assertEquals(3, reg.depthOf(6));
+        assertEquals("h5", reg.keyOf(6));
+        assertEquals(45, reg.startOf(6));
+        assertEquals(50, reg.endOf(6));
+
+        List<String> visited = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        int count = reg.visitRegionsAt(46, (index, start, end, depth, key) -> {
+            assertEquals(reg.startOf(index), start);
+            assertEquals(reg.endOf(index), end);
+            visited.add(key);
+            depths.add(depth);
+            return true;
+        });
+        assertEquals(4, count);
+        assertEquals(Arrays.asList("h5", "h2", "h1", "h"), visited);
+        assertEquals(Arrays.asList(3, 2, 1, 0), depths);
+        assertEquals(Arrays.asList("h", "h1", "h2", "h5"), reg.keysAtPoint(46));
+
+        for (int i = 0; i < 125; i++) {
+            SemanticRegion<String> r = reg.at(i);
+            int ix = reg.innermostIndexAt(i);
+            if (r == null) {
+                assertEquals(-1, ix);
+            } else {
+                assertEquals(r.index(), ix);
+                assertEquals(r.nestingDepth(), reg.depthOf(ix));
+            }
+        }
+        sanityCheckRegions(reg);
+    }
+
+    @Test
+    public void testRangeQueries() {
+        SemanticRegions<String> reg = new SemanticRegions<>(String.class);
+        reg.add("a", 10, 20);
+        reg.add("h", 30, 100);
+        reg.add("h1", 30, 99);
+        reg.add("h2", 35, 60);
+        reg.add("h3", 35, 40);
+        reg.add("h4", 38, 40);
+        reg.add("h5", 45, 50);
+        reg.add("z", 110, 120);
+        assertEquals(Arrays.asList("h", "h1", "h2", "h3", "h4", "h5"), keys(reg.overlapping(39, 46)));
+        assertEquals(Arrays.asList("a", "h", "h1"), keys(reg.overlapping(15, 32)));
+        assertEquals(Arrays.asList(), keys(reg.overlapping(20, 30)));
+        assertEquals(Arrays.asList(), keys(reg.overlapping(40, 40)));
+        assertEquals(Arrays.asList("h2", "h3", "h4", "h5"), keys(reg.containedIn(35, 60)));
+        assertEquals(Arrays.asList("h4", "h5"), keys(reg.containedIn(36, 105)));
+        assertEquals(Arrays.asList("h", "h1", "h2", "h5"), keys(reg.containing(46, 48)));
+        assertEquals(Arrays.asList("h", "h1"), keys(reg.containing(46, 70)));
+        assertEquals(Arrays.asList(), keys(reg.containing(20, 21)));
+        List<Integer> indices = new ArrayList<>();
+        assertEquals(2, reg.visitOverlapping(105, 130, indices::add));
+        assertEquals(Arrays.asList(1, 7), indices);
+
+        // Insertion in h5 grows it and its ancestors, and moves z
+        SemanticRegions<String> inserted = reg.withInsertion(5, 47);
+        assertEquals(Arrays.asList("h", "h1", "h2", "h5"), inserted.keysAtPoint(52));
+        assertEquals(105, inserted.endOf(1));
+        assertEquals(115, inserted.startOf(7));
+        assertEquals(3, inserted.parentIndex(6));
+        assertEquals(Arrays.asList("h", "z"), keys(inserted.overlapping(104, 116)));
+        sanityCheckRegions(inserted);
+
+        SemanticRegions<String> deleted = reg.withDeletion(2, 46);
+        assertEquals(Arrays.asList("h", "h1", "h2", "h5"), deleted.keysAtPoint(47));
+        assertEquals(48, deleted.endOf(6));
+        assertEquals(Arrays.asList("z"), keys(deleted.overlapping(100, 110)));
+        sanityCheckRegions(deleted);
+    }
+
+    private static List<String> keys(List<SemanticRegion<String>> regions) {
+        List<String> result = new ArrayList<>(regions.size());
+        for (SemanticRegion<String> r : regions) {
+            result.add(r.key());
+        }
+        return result;
+    }
+
     @Test
     public void testSingleLayerNesting() {
         SemanticRegions<String> reg = new SemanticRegions<>(String.class);
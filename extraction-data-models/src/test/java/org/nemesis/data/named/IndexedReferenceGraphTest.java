@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016-2019 Tim Boudreau, Frédéric Yvon Vinet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.nemesis.data.named;
+
+import static com.mastfrog.util.collections.CollectionUtils.setOf;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class IndexedReferenceGraphTest {
+
+    @Test
+    public void testGrammarLikeGraph() {
+        // compilationUnit -> expr, stmt; expr -> term, expr (self);
+        // term -> atom; atom -> expr (indirect cycle); stmt -> expr;
+        // unused -> helper; helper -> atom; alone references nothing
+        Map<String, List<String>> refs = new HashMap<>();
+        refs.put("compilationUnit", Arrays.asList("expr", "stmt"));
+        refs.put("expr", Arrays.asList("term", "expr"));
+        refs.put("term", Arrays.asList("atom"));
+        refs.put("atom", Arrays.asList("expr", "NotARule"));
+        refs.put("stmt", Arrays.asList("expr"));
+        refs.put("unused", Arrays.asList("helper"));
+        refs.put("helper", Arrays.asList("atom"));
+        IndexedReferenceGraph<TestRuleTypes> graph = graph(refs, "alone");
+
+        int cu = graph.indexOf("compilationUnit");
+        int expr = graph.indexOf("expr");
+        int atom = graph.indexOf("atom");
+        int stmt = graph.indexOf("stmt");
+        int unused = graph.indexOf("unused");
+        int helper = graph.indexOf("helper");
+
+        assertTrue(graph.hasEdge(cu, stmt));
+        assertFalse(graph.hasEdge(stmt, cu));
+        // The reference to a name which is not a rule is dropped
+        assertEquals(1, graph.outboundCount(atom));
+        assertEquals(0, graph.outboundCount(graph.indexOf("alone")));
+        assertEquals(2, graph.inboundCount(atom));
+        assertEquals(0, graph.inboundCount(cu));
+
+        assertEquals(setOf("expr", "stmt", "term", "atom"), graph.names(graph.closureOf(cu)));
+        assertEquals(setOf("expr", "term", "atom"), graph.names(graph.closureOf(expr)));
+        assertEquals(setOf("compilationUnit", "expr", "stmt", "term", "atom", "helper", "unused"),
+                graph.names(graph.reverseClosureOf(atom)));
+        assertEquals(setOf("alone", "compilationUnit", "unused"), graph.names(graph.topLevelOrOrphans()));
+        assertEquals(setOf("expr", "term", "atom"), graph.names(graph.recursive()));
+        assertEquals(setOf("expr", "term", "atom"), graph.names(graph.cycleContaining(atom)));
+        assertTrue(graph.cycleContaining(stmt).isEmpty());
+        assertFalse(graph.isRecursive(stmt));
+        assertTrue(graph.isReachable(unused, expr));
+        assertFalse(graph.isReachable(cu, helper));
+        assertEquals(setOf("alone", "helper", "unused"), graph.names(graph.unreachableFrom(cu)));
+
+        BitSet deleting = graph.closureOf(unused);
+        deleting.set(unused);
+        assertTrue(graph.isReachableOnlyFrom(helper, deleting));
+        assertFalse(graph.isReachableOnlyFrom(atom, deleting));
+    }
+
+    @Test
+    public void testClosureMatchesNaiveComputation() {
+        Random rnd = new Random(10_453);
+        for (int round = 0; round < 40; round++) {
+            int count = 1 + rnd.nextInt(140);
+            String[] names = new String[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = String.format("r%03d", i);
+            }
+            Map<String, List<String>> refs = new HashMap<>();
+            for (String name : names) {
+                int edges = rnd.nextInt(4);
+                String[] targets = new String[edges];
+                for (int i = 0; i < edges; i++) {
+                    targets[i] = names[rnd.nextInt(count)];
+                }
+                refs.put(name, Arrays.asList(targets));
+            }
+            IndexedReferenceGraph<TestRuleTypes> graph = graph(refs);
+            for (String name : names) {
+                assertEquals(name, naiveClosure(name, refs), graph.names(graph.closureOf(graph.indexOf(name))));
+            }
+        }
+    }
+
+    private static Set<String> naiveClosure(String name, Map<String, List<String>> refs) {
+        Set<String> result = new HashSet<>();
+        List<String> queue = new ArrayList<>(refs.getOrDefault(name, Collections.emptyList()));
+        while (!queue.isEmpty()) {
+            String next = queue.remove(queue.size() - 1);
+            if (result.add(next)) {
+                queue.addAll(refs.getOrDefault(next, Collections.emptyList()));
+            }
+        }
+        return result;
+    }
+
+    private static IndexedReferenceGraph<TestRuleTypes> graph(Map<String, List<String>> refs, String... others) {
+        Set<String> all = new TreeSet<>(refs.keySet());
+        all.addAll(Arrays.asList(others));
+        NamedSemanticRegionsBuilder<TestRuleTypes> bldr = NamedSemanticRegions.builder(TestRuleTypes.class);
+        int pos = 0;
+        for (String name : all) {
+            bldr.add(name, TestRuleTypes.PARSER, pos, pos + name.length() + 10);
+            pos += name.length() + 11;
+        }
+        return IndexedReferenceGraph.create(bldr.build(), refs::get);
+    }
+}
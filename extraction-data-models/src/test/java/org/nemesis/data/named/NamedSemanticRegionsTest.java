@@ -16,9 +16,11 @@
 package org.nemesis.data.named;
 
 import static com.mastfrog.util.collections.CollectionUtils.setOf;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -95,6 +97,40 @@ public class NamedSemanticRegionsTest {
         assertEquals(setOf("STRING", "STRING2"), filteredNames);
     }
 
+    @Test
+    public void testRangeQueries() {
+        NamedSemanticRegionsBuilder<Foo> bldr = NamedSemanticRegions.builder(Foo.class);
+        bldr.add("a", Foo.FOO, 0, 10);
+        bldr.add("b", Foo.BAR, 12, 20);
+        bldr.add("c", Foo.BAZ, 20, 30);
+        bldr.add("d", Foo.FOO, 40, 50);
+        NamedSemanticRegions<Foo> n = bldr.build();
+        assertEquals(Arrays.asList("a", "b", "c"), names(n.overlapping(5, 21)));
+        assertEquals(Arrays.asList(), names(n.overlapping(10, 12)));
+        assertEquals(Arrays.asList("d"), names(n.overlapping(45, 100)));
+        assertEquals(Arrays.asList("b", "c"), names(n.containedIn(11, 30)));
+        assertEquals(Arrays.asList("c"), names(n.containedIn(13, 45)));
+        assertEquals("b", n.containing(13, 15).name());
+        assertNull(n.containing(13, 25));
+        assertEquals("d", n.containing(45, 45).name());
+
+        // The shifted copy reuses the index, with shifted offsets
+        NamedSemanticRegions<Foo> shifted = n.shiftedBy(5, 25);
+        assertEquals(35, shifted.regionFor("c").end());
+        assertEquals(45, shifted.regionFor("d").start());
+        assertEquals(Arrays.asList("d"), names(shifted.overlapping(50, 60)));
+        assertEquals("c", shifted.containing(33, 34).name());
+        assertEquals("b", shifted.at(15).name());
+    }
+
+    private static List<String> names(List<NamedSemanticRegion<Foo>> regions) {
+        List<String> result = new ArrayList<>(regions.size());
+        for (NamedSemanticRegion<Foo> r : regions) {
+            result.add(r.name());
+        }
+        return result;
+    }
+
     @Test
     public void testOddAndEvenLengths() {
         // Test both odd and even lengths, since off-by-one errors in things
@@ -38,6 +38,7 @@ import org.nemesis.data.IndexAddressable;
 import org.nemesis.data.IndexAddressable.NamedIndexAddressable;
 import org.nemesis.data.SemanticRegion;
 import org.nemesis.data.SemanticRegions;
+import org.nemesis.data.named.IndexedReferenceGraph;
 import org.nemesis.data.named.NamedRegionReferenceSet;
 import org.nemesis.data.named.NamedRegionReferenceSets;
 import org.nemesis.data.named.NamedSemanticRegion;
@@ -91,6 +92,7 @@ public final class Extraction implements Externalizable {
     private final Map<SingletonKey<?>, SingletonEncounters<?>> singles = new HashMap<>(4);
     private volatile transient Map<NameReferenceSetKey<?>, Map<UnknownNameReferenceResolver<?, ?, ?, ?>, Attributions<?, ?, ?, ?>>> resolutionCache;
     private volatile transient Map<Set<ExtractionKey<?>>, Set<String>> keysCache;
+    private volatile transient Map<NameReferenceSetKey<?>, IndexedReferenceGraph<?>> indexedGraphs;
     private transient Map<Extractor<?>, Map<GrammarSource<?>, TSR<Extraction>>> cachedExtractions;
     private final Set<NameAndBoundsPair<?>> nameAndBoundsKeyRelationships = new HashSet<>();
     private final Map<ExtractionKey<?>, String> scopingDelimiters = new HashMap<>(3);
@@ -316,6 +318,7 @@ public final class Extraction implements Externalizable {
             cachedExtractions.clear();
             cachedExtractions = null;
         }
+        indexedGraphs = null;
         source = GrammarSource.none();
     }
 
@@ -802,6 +805,38 @@ public final class Extraction implements Externalizable {
         return g;
     }
 
+    /**
+     * Get the reference graph for a key in a form whose nodes are the indices
+     * of the named regions the key references, and whose closures and cycles
+     * are computed with bitwise operations over whole rows - much faster than
+     * the string-keyed graph for analyses that touch every rule, such as
+     * finding unused or mutually recursive rules. Created on first request and
+     * cached for the lifetime of this extraction.
+     *
+     * @param <T> The key type
+     * @param key A reference set key
+     * @return A graph, empty if there are no references for the key
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Enum<T>> IndexedReferenceGraph<T> indexedReferenceGraph(NameReferenceSetKey<T> key) {
+        Map<NameReferenceSetKey<?>, IndexedReferenceGraph<?>> cache = indexedGraphs;
+        if (cache == null) {
+            indexedGraphs = cache = new ConcurrentHashMap<>(3);
+        }
+        IndexedReferenceGraph<?> result = cache.get(key);
+        if (result == null) {
+            StringGraph g = graphs.get(key);
+            NamedSemanticRegions<T> nodes = namedRegions(key.referencing());
+            result = g == null
+                    ? IndexedReferenceGraph.create(nodes, name -> null)
+                    : IndexedReferenceGraph.create(nodes, g::children);
+            if (!isDisposed()) {
+                cache.put(key, result);
+            }
+        }
+        return (IndexedReferenceGraph<T>) result;
+    }
+
     @SuppressWarnings("unchecked")
     public <T extends Enum<T>> NamedSemanticRegions<T> namedRegions(NamedRegionKey<T> key) {
         NamedSemanticRegions<?> result = nameds.get(key);
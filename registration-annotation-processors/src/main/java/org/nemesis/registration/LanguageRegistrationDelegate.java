@@ -194,6 +194,7 @@ import static org.nemesis.registration.typenames.KnownTypes.TOKEN_CATEGORY;
 import static org.nemesis.registration.typenames.KnownTypes.TOKEN_ID;
 import static org.nemesis.registration.typenames.KnownTypes.TOKEN_STREAM;
 import static org.nemesis.registration.typenames.KnownTypes.TOP_COMPONENT;
+import static org.nemesis.registration.typenames.KnownTypes.TWO_STAGE_PARSING;
 import static org.nemesis.registration.typenames.KnownTypes.UTIL_EXCEPTIONS;
 import static org.nemesis.registration.typenames.KnownTypes.VOCABULARY;
 import static org.nemesis.registration.typenames.KnownTypes.WEAK_SET;
@@ -1604,6 +1605,7 @@ public class LanguageRegistrationDelegate extends LayerGeneratingDelegate {
 
         boolean changeSupport = utils().annotationValue(parserInfo, "changeSupport", Boolean.class, false);
         int streamChannel = utils().annotationValue(parserInfo, "streamChannel", Integer.class, 0);
+        boolean twoStageParsing = utils().annotationValue(parserInfo, "twoStageParsing", Boolean.class, false);
 
         TypeMirror helperClass = utils().typeForSingleClassAnnotationMember(parserInfo, "helper");
         boolean hasExplicitHelperClass = helperClass != null
@@ -1882,8 +1884,11 @@ public class LanguageRegistrationDelegate extends LayerGeneratingDelegate {
                                         .withArgumentFromInvoking("stream")
                                         .on("src")
                                         .on(prefix + "Hierarchy").as(lexer.lexerClassSimple());
+                                bb.lineComment("Replays the tokens of the document's token hierarchy if it is up-to-date,");
+                                bb.lineComment("rather than lexing the same text again");
                                 bb.declare("tokenSource").initializedByInvoking("createWrappedTokenSource")
                                         .withArgument("lexer")
+                                        .withArgument("src.lookup(Snapshot.class).orElse(null)")
                                         .on(prefix + "Hierarchy").as(ITERABLE_TOKEN_SOURCE.simpleName());
                                 bb.declare("stream")
                                         .initializedWithNew(nb -> {
@@ -1915,8 +1920,20 @@ public class LanguageRegistrationDelegate extends LayerGeneratingDelegate {
 
                                 bb.blankLine();
                                 bb.lineComment("Here we actually trigger the Antlr parse");
-                                bb.declare("tree").initializedByInvoking(parser.parserEntryPoint().getSimpleName().toString())
-                                        .on("parser").as(entryPointSimple);
+                                if (twoStageParsing) {
+                                    cl.importing(TWO_STAGE_PARSING.qname());
+                                    bb.lineComment("Parse using SLL prediction, which suffices for most correct files, and");
+                                    bb.lineComment("reparse with full LL prediction only if that fails");
+                                    bb.declare("tree").initializedByInvoking("parse")
+                                            .withArgument(prefix + "Token.MIME_TYPE")
+                                            .withArgument("parser")
+                                            .withArgument(parser.parserClassSimple() + "::"
+                                                    + parser.parserEntryPoint().getSimpleName())
+                                            .on(TWO_STAGE_PARSING.simpleName()).as(entryPointSimple);
+                                } else {
+                                    bb.declare("tree").initializedByInvoking(parser.parserEntryPoint().getSimpleName().toString())
+                                            .on("parser").as(entryPointSimple);
+                                }
                                 bb.blankLine();
                                 bb.lineComment("Look up the extrator(s) for this mime type");
                                 String extType = EXTRACTOR.parametrizedName("? super " + entryPointSimple);
@@ -2715,6 +2732,20 @@ public class LanguageRegistrationDelegate extends LayerGeneratingDelegate {
                                 body.returningInvocationOf("createWrappedTokenSource")
                                         .withArgument("lexer").on("LEXER_ADAPTER").endBlock();
                             });
+                })
+                .method("createWrappedTokenSource", mb -> {
+                    mb.docComment("Creates a token source for parsing a snapshot, which replays the tokens "
+                            + "already in the token hierarchy of the snapshot's document if that is up-to-date "
+                            + "with the snapshot, and otherwise wraps the lexer as the single-argument overload does.");
+                    mb.addArgument(proxy.lexerClassSimple(), "lexer")
+                            .addArgument(SNAPSHOT.simpleName(), "snapshot")
+                            .withModifier(STATIC)
+                            .returning(ITERABLE_TOKEN_SOURCE.simpleName())
+                            .body(body -> {
+                                body.returningInvocationOf("createWrappedTokenSource")
+                                        .withArgument("lexer").withArgument("snapshot")
+                                        .on("LEXER_ADAPTER").endBlock();
+                            });
                 });
 
         String adapterExtends = NB_LEXER_ADAPTER.parameterizedOn(TypeName.fromQualifiedName(tokenTypeName), TypeName.fromQualifiedName(proxy.lexerClassFqn())).simpleName();
@@ -2742,6 +2773,15 @@ public class LanguageRegistrationDelegate extends LayerGeneratingDelegate {
                             .body().returningInvocationOf("wrapLexer")
                             .withArgument("lexer").on("super").endBlock();
                 })
+                .method("createWrappedTokenSource", mb -> {
+                    mb.docComment("Creates a token source over the token hierarchy of the snapshot's document "
+                            + "if it is up-to-date, or over the lexer if not.");
+                    mb.addArgument(proxy.lexerClassSimple(), "lexer")
+                            .addArgument(SNAPSHOT.simpleName(), "snapshot")
+                            .returning("IterableTokenSource")
+                            .body().returningInvocationOf("wrapLexer")
+                            .withArgument("lexer").withArgument("snapshot").on("super").endBlock();
+                })
                 .override("vocabulary").withModifier(PROTECTED).returning(VOCABULARY.simpleName())
                 .body().returning(proxy.lexerClassSimple() + ".VOCABULARY").endBlock()
                 .method("tokenId").withModifier(PUBLIC).override().addArgument("int", "ordinal").returning(tokenTypeName)
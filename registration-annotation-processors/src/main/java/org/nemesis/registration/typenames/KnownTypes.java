@@ -1146,6 +1146,8 @@ public enum KnownTypes implements TypeName {
     TREE_UTILS("com.mastfrog.antlr.utils.TreeUtils", Libraries.UTILS),
     TRI_CONSUMER("com.mastfrog.function.TriConsumer", Libraries.WRAPPER),
     TRI_FUNCTION("com.mastfrog.function.TriFunction", Libraries.WRAPPER),
+    TWO_STAGE_PARSING("org.nemesis.antlr.spi.language.TwoStageParsing",
+        Libraries.ANTLR_LANGUAGE),
     TYPED_BREAK_INTERCEPTOR(
         "org.netbeans.spi.editor.typinghooks.TypedBreakInterceptor",
         Libraries.LIB2),